@@ -0,0 +1,116 @@
+/**
+ * Copyright 2012 Nimble Servers Limited. http://nimbleservers.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.nimbleservers.dnsimple;
+
+/**
+ * Works out how many bulk requests may be in flight, according to an
+ * {@link AdaptiveLimitPolicy}, from each response's latency and status, and
+ * applies it to the scheduler's bulk lane.
+ * <p>
+ * Latency is smoothed as a moving average over about the last twenty
+ * responses, and compared to a baseline: the lowest that average has been,
+ * creeping up towards it over several hundred responses. Queueing caused by
+ * too many requests shows up as the average pulling away from the baseline;
+ * a lasting rise in DNSimple's own latency is eventually taken as the new
+ * baseline.
+ * <p>
+ * After a cut the limit is held for a window of responses, long enough for
+ * those sent before the cut to come back and the recent average to catch
+ * up, so one bout of trouble is only answered once.
+ * <p>
+ * Thread Safe.
+ * <p>
+ * @author Chris Strand
+ */
+class AdaptiveLimit {
+
+  private static final double RECENT_WEIGHT = 0.05;
+  private static final double BASELINE_WEIGHT = 0.002;
+
+  /**
+   * Responses needed before latency is trusted to cut the limit
+   */
+  private static final int WARM_UP = (int) (1 / RECENT_WEIGHT);
+
+  private final AdaptiveLimitPolicy policy;
+  private final FairScheduler scheduler;
+  private final int minLimit;
+  private final int maxLimit;
+
+  private double limit;
+  private int applied;
+  private double recentNanos = 0;
+  private double baselineNanos = 0;
+  private long samples = 0;
+  // Responses to see before the limit may be cut again
+  private int hold = 0;
+
+  /**
+   * @param maxLimit the most bulk requests the scheduler allows
+   */
+  AdaptiveLimit(AdaptiveLimitPolicy policy, FairScheduler scheduler, int maxLimit) {
+    this.policy = policy;
+    this.scheduler = scheduler;
+    this.minLimit = Math.min(policy.getMinLimit(), maxLimit);
+    this.maxLimit = maxLimit;
+    this.limit = Math.max(minLimit, Math.min(policy.getInitialLimit(), maxLimit));
+    this.applied = (int) limit;
+    scheduler.setMax(Priority.BULK, applied);
+  }
+
+  /**
+   * @param latencyNanos from being given a connection to the response
+   * @param statusCode of the response
+   */
+  void onResponse(long latencyNanos, int statusCode) {
+    boolean overloaded = statusCode == 429 || statusCode >= 500;
+    int inFlight = scheduler.getHeld(Priority.BULK);
+
+    synchronized(this) {
+      samples++;
+      if(samples == 1) {
+        recentNanos = latencyNanos;
+      } else {
+        recentNanos += (latencyNanos - recentNanos) * RECENT_WEIGHT;
+      }
+      if(samples == WARM_UP || recentNanos < baselineNanos) {
+        baselineNanos = recentNanos;
+      } else {
+        baselineNanos += (recentNanos - baselineNanos) * BASELINE_WEIGHT;
+      }
+
+      boolean slow = samples > WARM_UP && recentNanos > baselineNanos * policy.getLatencyTolerance();
+      if(hold > 0) {
+        hold--;
+      } else if(overloaded || slow) {
+        limit = Math.max(minLimit, limit * policy.getBackoff());
+        hold = Math.max(WARM_UP, (int) limit);
+      }
+      if(!overloaded && !slow && inFlight * 2 >= limit) {
+        // Only grow while the limit is being used, so it means something
+        limit = Math.min(maxLimit, limit + 1 / limit);
+      }
+
+      int next = (int) limit;
+      if(next != applied) {
+        // Still holding the lock, so limits are applied in order
+        applied = next;
+        scheduler.setMax(Priority.BULK, next);
+      }
+    }
+  }
+
+}
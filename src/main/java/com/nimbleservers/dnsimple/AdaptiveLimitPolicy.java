@@ -0,0 +1,160 @@
+/**
+ * Copyright 2012 Nimble Servers Limited. http://nimbleservers.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.nimbleservers.dnsimple;
+
+/**
+ * How a {@link DnsimpleTransport} adapts the number of
+ * {@link Priority#BULK} requests it lets into flight to how DNSimple is
+ * coping. The limit starts low, so the latency of an unloaded API is seen
+ * first, and grows by one request per round trip while all is well, up to
+ * the most bulk requests the pool allows. It is cut by the backoff factor
+ * when responses slow down (recent latency passes the tolerance times its
+ * longer term baseline) or DNSimple answers 429 or 5xx (additive increase,
+ * multiplicative decrease).
+ * <p>
+ * Interactive requests are not limited, but their responses count towards
+ * the latency and errors seen, so bulk work backs off when the API is
+ * struggling for everyone.
+ * <p>
+ * For example, to back off harder and sooner than the default:
+ * <pre>
+ * DnsimpleTransport transport = DnsimpleTransport.getBuilder()
+ *    .setAdaptiveLimitPolicy(AdaptiveLimitPolicy.getBuilder()
+ *        .setLatencyTolerance(1.2)
+ *        .setBackoff(0.5)
+ *        .build())
+ *    .build();
+ * </pre>
+ * @author Chris Strand
+ * @see TransportMetrics#getConcurrencyLimit()
+ */
+public class AdaptiveLimitPolicy {
+
+  public static final AdaptiveLimitPolicy DEFAULT = getBuilder().build();
+
+  private final int initialLimit;
+  private final int minLimit;
+  private final double latencyTolerance;
+  private final double backoff;
+
+  private AdaptiveLimitPolicy(Builder builder) {
+    this.initialLimit = builder.initialLimit;
+    this.minLimit = builder.minLimit;
+    this.latencyTolerance = builder.latencyTolerance;
+    this.backoff = builder.backoff;
+  }
+
+  public static Builder getBuilder() {
+    return new Builder();
+  }
+
+  /**
+   * @return how many bulk requests are let into flight to begin with
+   */
+  public int getInitialLimit() {
+    return initialLimit;
+  }
+
+  /**
+   * @return the fewest bulk requests that are always let into flight
+   */
+  public int getMinLimit() {
+    return minLimit;
+  }
+
+  /**
+   * @return how many times its baseline recent latency may be before the
+   *    limit is cut
+   */
+  public double getLatencyTolerance() {
+    return latencyTolerance;
+  }
+
+  /**
+   * @return what the limit is multiplied by when it is cut
+   */
+  public double getBackoff() {
+    return backoff;
+  }
+
+  @Override
+  public String toString() {
+    return "AdaptiveLimitPolicy [initialLimit=" + initialLimit + ", minLimit=" + minLimit + ", latencyTolerance="
+        + latencyTolerance + ", backoff=" + backoff + "]";
+  }
+
+  public static class Builder {
+
+    private int initialLimit = 4;
+    private int minLimit = 1;
+    private double latencyTolerance = 1.5;
+    private double backoff = 0.8;
+
+    /**
+     * @param initialLimit how many bulk requests are let into flight to
+     *    begin with. Defaults to 4.
+     */
+    public Builder setInitialLimit(int initialLimit) {
+      if(initialLimit < 1) {
+        throw new IllegalArgumentException("Must allow at least one request: " + initialLimit);
+      }
+      this.initialLimit = initialLimit;
+      return this;
+    }
+
+    /**
+     * @param minLimit the fewest bulk requests that are always let into
+     *    flight. Defaults to 1.
+     */
+    public Builder setMinLimit(int minLimit) {
+      if(minLimit < 1) {
+        throw new IllegalArgumentException("Must allow at least one request: " + minLimit);
+      }
+      this.minLimit = minLimit;
+      return this;
+    }
+
+    /**
+     * @param latencyTolerance how many times its baseline recent latency
+     *    may be before the limit is cut. Defaults to 1.5.
+     */
+    public Builder setLatencyTolerance(double latencyTolerance) {
+      if(latencyTolerance <= 1) {
+        throw new IllegalArgumentException("Latency tolerance must be more than 1: " + latencyTolerance);
+      }
+      this.latencyTolerance = latencyTolerance;
+      return this;
+    }
+
+    /**
+     * @param backoff what the limit is multiplied by when it is cut,
+     *    between 0 and 1. Defaults to 0.8.
+     */
+    public Builder setBackoff(double backoff) {
+      if(backoff <= 0 || backoff >= 1) {
+        throw new IllegalArgumentException("Backoff must be between 0 and 1: " + backoff);
+      }
+      this.backoff = backoff;
+      return this;
+    }
+
+    public AdaptiveLimitPolicy build() {
+      return new AdaptiveLimitPolicy(this);
+    }
+
+  }
+
+}
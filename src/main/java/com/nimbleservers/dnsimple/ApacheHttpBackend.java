@@ -0,0 +1,220 @@
+/**
+ * Copyright 2012 Nimble Servers Limited. http://nimbleservers.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.nimbleservers.dnsimple;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import javax.net.ssl.SSLContext;
+
+import org.apache.http.HttpException;
+import org.apache.http.HttpHost;
+import org.apache.http.HttpResponse;
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.client.methods.HttpUriRequest;
+import org.apache.http.client.utils.URIUtils;
+import org.apache.http.conn.ConnectionPoolTimeoutException;
+import org.apache.http.conn.ManagedClientConnection;
+import org.apache.http.conn.routing.HttpRoute;
+import org.apache.http.conn.scheme.PlainSocketFactory;
+import org.apache.http.conn.scheme.Scheme;
+import org.apache.http.conn.scheme.SchemeRegistry;
+import org.apache.http.conn.ssl.SSLSocketFactory;
+import org.apache.http.impl.client.DefaultHttpClient;
+import org.apache.http.impl.conn.tsccm.ThreadSafeClientConnManager;
+import org.apache.http.params.HttpConnectionParams;
+import org.apache.http.params.HttpParams;
+import org.apache.http.protocol.BasicHttpContext;
+
+/**
+ * Sends requests with Apache HttpClient, over HTTP/1.1 connections from a
+ * pool as big as the transport's connection limit. The default backend.
+ * <p>
+ * Thread Safe.
+ * <p>
+ * @author Chris Strand
+ */
+public class ApacheHttpBackend implements HttpBackend {
+
+  public static final HttpBackend.Factory FACTORY = new HttpBackend.Factory() {
+    @Override
+    public HttpBackend create(int maxConnections, SSLContext sslContext, ScheduledExecutorService executor) {
+      return new ApacheHttpBackend(maxConnections, sslContext, executor);
+    }
+  };
+
+  /**
+   * How long {@link #warmUp(String, int)} waits for a connection from the
+   * pool when they are all in use
+   */
+  private static final long WARM_UP_TIMEOUT_MILLIS = 10000;
+
+  private final ThreadSafeClientConnManager connectionManager;
+  private final DefaultHttpClient httpClient;
+  private final ScheduledExecutorService executor;
+
+  ApacheHttpBackend(int maxConnections, SSLContext sslContext, ScheduledExecutorService executor) {
+    // Every connection shares the one context, and so its client session
+    // cache, which lets new connections resume an earlier TLS session
+    SchemeRegistry schemes = new SchemeRegistry();
+    schemes.register(new Scheme("http", 80, PlainSocketFactory.getSocketFactory()));
+    schemes.register(new Scheme("https", 443, new SSLSocketFactory(sslContext)));
+
+    this.connectionManager = new ThreadSafeClientConnManager(schemes);
+    // Everything goes to the same host, so the per route limit is the limit
+    this.connectionManager.setMaxTotal(maxConnections);
+    this.connectionManager.setDefaultMaxPerRoute(maxConnections);
+    this.httpClient = new DefaultHttpClient(connectionManager);
+    this.executor = executor;
+  }
+
+  @Override
+  public HttpResponse execute(HttpUriRequest request, long timeoutMillis) throws IOException {
+    if(timeoutMillis > 0) {
+      int millis = (int) Math.min(Integer.MAX_VALUE, timeoutMillis);
+      HttpParams params = request.getParams();
+      // Also used as the timeout for getting a connection from the pool
+      HttpConnectionParams.setConnectionTimeout(params, millis);
+      HttpConnectionParams.setSoTimeout(params, millis);
+    }
+    try {
+      return httpClient.execute(request);
+    } catch(IllegalStateException e) {
+      // What the client throws when aborted just as it starts sending
+      if(request.isAborted()) {
+        throw new InterruptedIOException("Request aborted");
+      }
+      throw e;
+    }
+  }
+
+  /**
+   * Opens connections and puts them in the pool. The first is opened on
+   * its own, so the rest (opened in parallel) can resume its TLS session.
+   */
+  @Override
+  public int warmUp(String uri, int connections) throws IOException {
+    HttpGet probe = new HttpGet(uri);
+    HttpHost target = URIUtils.extractHost(probe.getURI());
+    final HttpRoute route;
+    try {
+      // Plan the route just as a request would, so the pool matches it
+      route = httpClient.getRoutePlanner().determineRoute(target, probe, new BasicHttpContext());
+    } catch(HttpException e) {
+      throw new IOException("No route to " + uri, e);
+    }
+
+    int count = Math.min(connections, connectionManager.getMaxForRoute(route));
+    if(count <= 0) {
+      return 0;
+    }
+
+    // All are held until the end, otherwise the pool would hand back the
+    // same connection each time
+    List<ManagedClientConnection> opened = new ArrayList<ManagedClientConnection>();
+    IOException failure = null;
+    try {
+      opened.add(openConnection(route));
+
+      List<Future<ManagedClientConnection>> futures = new ArrayList<Future<ManagedClientConnection>>();
+      for(int i = 1; i < count; i++) {
+        futures.add(executor.submit(new Callable<ManagedClientConnection>() {
+          @Override
+          public ManagedClientConnection call() throws IOException {
+            return openConnection(route);
+          }
+        }));
+      }
+
+      boolean interrupted = false;
+      for(Future<ManagedClientConnection> future : futures) {
+        while(true) {
+          try {
+            opened.add(future.get());
+            break;
+          } catch(InterruptedException e) {
+            // Carry on, so no opened connection is lost from the pool
+            interrupted = true;
+          } catch(ExecutionException e) {
+            if(failure == null) {
+              failure = e.getCause() instanceof IOException
+                  ? (IOException) e.getCause()
+                  : new IOException(e.getCause());
+            }
+            break;
+          }
+        }
+      }
+      if(interrupted) {
+        Thread.currentThread().interrupt();
+      }
+
+    } finally {
+      for(ManagedClientConnection connection : opened) {
+        connectionManager.releaseConnection(connection, -1, TimeUnit.MILLISECONDS);
+      }
+    }
+
+    if(failure != null) {
+      throw failure;
+    }
+    return opened.size();
+  }
+
+  private ManagedClientConnection openConnection(HttpRoute route) throws IOException {
+    ManagedClientConnection connection;
+    try {
+      connection = connectionManager.requestConnection(route, null)
+          .getConnection(WARM_UP_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS);
+    } catch(ConnectionPoolTimeoutException e) {
+      throw new IOException("No free connection to warm up", e);
+    } catch(InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new InterruptedIOException("Interrupted while waiting for a connection");
+    }
+
+    try {
+      if(!connection.isOpen()) {
+        // Connects and completes the TLS handshake, checking the host name
+        connection.open(route, new BasicHttpContext(), httpClient.getParams());
+      }
+      if(connection.isStale()) {
+        throw new IOException("Connection to " + route.getTargetHost() + " closed straight away");
+      }
+      connection.markReusable();
+      return connection;
+    } catch(IOException e) {
+      connection.abortConnection();
+      throw e;
+    } catch(RuntimeException e) {
+      connection.abortConnection();
+      throw e;
+    }
+  }
+
+  @Override
+  public void close() {
+    connectionManager.shutdown();
+  }
+
+}
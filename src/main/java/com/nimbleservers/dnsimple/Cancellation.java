@@ -0,0 +1,118 @@
+/**
+ * Copyright 2012 Nimble Servers Limited. http://nimbleservers.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.nimbleservers.dnsimple;
+
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.apache.http.client.methods.HttpUriRequest;
+
+/**
+ * Lets calls be cancelled from another thread. Pass it in
+ * {@link RequestOptions} and call {@link #cancel()} to abort every request
+ * in flight for it, and wake every call waiting for its turn to send one.
+ * Calls made after cancelling fail straight away.
+ * <p>
+ * A cancelled call throws an {@link java.io.InterruptedIOException}.
+ * <p>
+ * For example:
+ * <pre>
+ * Cancellation cancellation = new Cancellation();
+ * DnsimpleContext cancellable = context.withOptions(RequestOptions.getBuilder()
+ *    .setCancellation(cancellation)
+ *    .build());
+ * // From another thread
+ * cancellation.cancel();
+ * </pre>
+ * Thread Safe.
+ * <p>
+ * @author Chris Strand
+ */
+public class Cancellation {
+
+  private final Set<HttpUriRequest> requests = new LinkedHashSet<HttpUriRequest>();
+  private final Set<Runnable> waiters = new LinkedHashSet<Runnable>();
+  private boolean cancelled = false;
+
+  /**
+   * Aborts every request in flight, wakes the calls waiting to send one,
+   * and stops any more being sent. Calling this more than once has no
+   * further effect.
+   */
+  public void cancel() {
+    List<HttpUriRequest> inFlight;
+    List<Runnable> waiting;
+    synchronized(this) {
+      if(cancelled) {
+        return;
+      }
+      cancelled = true;
+      inFlight = new ArrayList<HttpUriRequest>(requests);
+      requests.clear();
+      waiting = new ArrayList<Runnable>(waiters);
+      waiters.clear();
+    }
+
+    for(HttpUriRequest request : inFlight) {
+      request.abort();
+    }
+    for(Runnable waiter : waiting) {
+      waiter.run();
+    }
+  }
+
+  public synchronized boolean isCancelled() {
+    return cancelled;
+  }
+
+  /**
+   * @return {@code false} if already cancelled, in which case
+   *    {@code request} should not be sent
+   */
+  synchronized boolean register(HttpUriRequest request) {
+    if(cancelled) {
+      return false;
+    }
+    requests.add(request);
+    return true;
+  }
+
+  synchronized void unregister(HttpUriRequest request) {
+    requests.remove(request);
+  }
+
+  /**
+   * Asks to have {@code wakeUp} run when cancelled, by a call about to
+   * block. It is run after {@link #isCancelled()} has become {@code true},
+   * on the thread that cancelled.
+   * @return {@code false} if already cancelled, in which case the call
+   *    should not wait
+   */
+  synchronized boolean registerWaiter(Runnable wakeUp) {
+    if(cancelled) {
+      return false;
+    }
+    waiters.add(wakeUp);
+    return true;
+  }
+
+  synchronized void unregisterWaiter(Runnable wakeUp) {
+    waiters.remove(wakeUp);
+  }
+
+}
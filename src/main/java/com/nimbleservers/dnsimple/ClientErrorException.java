@@ -0,0 +1,39 @@
+/**
+ * Copyright 2012 Nimble Servers Limited. http://nimbleservers.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.nimbleservers.dnsimple;
+
+import java.util.List;
+
+/**
+ * Used to show that DNSimple rejected a request (a 4xx status code), e.g.
+ * because a record was invalid. Sending the same request again will fail
+ * the same way, except after a 408 (request timeout).
+ * @author Chris Strand
+ */
+public class ClientErrorException extends UnexpectedResponseException {
+
+  private static final long serialVersionUID = 2847561209384756123L;
+
+  public ClientErrorException(String message, int expected, int received, String method, String uri, String body, List<String> errors, RateLimit rateLimit, boolean writableStackTrace) {
+    super(message, expected, received, method, uri, body, errors, rateLimit, writableStackTrace);
+  }
+
+  @Override
+  public boolean isRetryable() {
+    return getReceived() == 408;
+  }
+
+}
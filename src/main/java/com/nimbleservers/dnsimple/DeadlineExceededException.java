@@ -0,0 +1,36 @@
+/**
+ * Copyright 2012 Nimble Servers Limited. http://nimbleservers.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.nimbleservers.dnsimple;
+
+import java.io.InterruptedIOException;
+
+/**
+ * Thrown when a request could not be finished before its deadline, whether
+ * it was still waiting for a connection, connecting, sending or reading the
+ * response.
+ * <p>
+ * @author Chris Strand
+ * @see RequestOptions.Builder#setTimeout(long, java.util.concurrent.TimeUnit)
+ */
+public class DeadlineExceededException extends InterruptedIOException {
+
+  private static final long serialVersionUID = 6309281715522940148L;
+
+  public DeadlineExceededException(String message) {
+    super(message);
+  }
+
+}
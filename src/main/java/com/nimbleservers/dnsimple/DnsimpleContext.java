@@ -20,13 +20,15 @@ import java.io.InputStreamReader;
 import java.io.Reader;
 import java.io.UnsupportedEncodingException;
 import java.lang.reflect.Type;
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Date;
 import java.util.HashMap;
 import java.util.Iterator;
-import java.util.LinkedHashMap;
 import java.util.LinkedList;
 import java.util.List;
-import java.util.Map;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Flow;
 
 import org.apache.http.Header;
 import org.apache.http.HttpEntity;
@@ -36,23 +38,38 @@ import org.apache.http.client.methods.HttpDelete;
 import org.apache.http.client.methods.HttpGet;
 import org.apache.http.client.methods.HttpPost;
 import org.apache.http.client.methods.HttpPut;
-import org.apache.http.entity.StringEntity;
-import org.apache.http.impl.client.DefaultHttpClient;
-import org.apache.http.impl.conn.tsccm.ThreadSafeClientConnManager;
+import org.apache.http.client.methods.HttpUriRequest;
+import org.apache.http.client.utils.URLEncodedUtils;
+import org.apache.http.NameValuePair;
 import org.apache.http.message.BasicHeader;
+import org.apache.http.message.BasicNameValuePair;
 import org.apache.http.util.EntityUtils;
 
 import com.google.gson.FieldNamingPolicy;
 import com.google.gson.Gson;
 import com.google.gson.GsonBuilder;
+import com.google.gson.JsonSyntaxException;
 import com.google.gson.reflect.TypeToken;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonWriter;
 import com.nimbleservers.dnsimple.domain.Domain;
+import com.nimbleservers.dnsimple.domain.DomainTypeAdapter;
+import com.nimbleservers.dnsimple.record.InvalidRecordException;
 import com.nimbleservers.dnsimple.record.Record;
+import com.nimbleservers.dnsimple.record.RecordFilter;
+import com.nimbleservers.dnsimple.record.RecordValidator;
+import com.nimbleservers.dnsimple.record.RecordTypeAdapter;
 
 /**
  * Thread Safe. Does not perform any caching of data received from querying
  * DNSimple.
  * <p>
+ * Contexts for different accounts can share a {@link DnsimpleTransport}
+ * (connection pool, executor etc.) rather than each having their own.
+ * <p>
+ * Calls can be given a deadline, or made cancellable, through a context
+ * derived with {@link #withOptions(RequestOptions)}.
+ * <p>
  * @author Chris Strand
  */
 public class DnsimpleContext {
@@ -60,18 +77,109 @@ public class DnsimpleContext {
   public static final String END_POINT = "https://api.dnsimple.com/v1";
   public static final String CHARSET = "utf-8";
   
+  private final String endPoint;
   private final Header headers[];
-  private final Gson gson = new GsonBuilder()
-      .setFieldNamingPolicy(FieldNamingPolicy.LOWER_CASE_WITH_UNDERSCORES)
-      .create();
+  private final Gson gson;
+  private final RecordTypeAdapter recordAdapter;
   
-  private DefaultHttpClient httpClient = new DefaultHttpClient(new ThreadSafeClientConnManager());
+  private final DnsimpleTransport transport;
+  private final boolean ownsTransport;
+  private final String tenant;
+  private final boolean stacklessExceptions;
+  private final boolean pooledBuffers;
+  private final Hedger hedger;
+  private final boolean ownsHedger;
+  private final RecordValidator recordValidator;
+  private final RequestOptions options;
   
+  /**
+   * Creates a context with its own transport, which is closed along with
+   * the context. Each has its own connection pool and background threads,
+   * so share a {@link DnsimpleTransport} when using many accounts at once.
+   */
   public DnsimpleContext(String email, String apiKey) {
+    this(getBuilder().setEmail(email).setApiKey(apiKey));
+  }
+  
+  /**
+   * Creates a context that sends its requests through a shared transport.
+   * Closing the context leaves the transport open.
+   */
+  public DnsimpleContext(String email, String apiKey, DnsimpleTransport transport) {
+    this(getBuilder().setEmail(email).setApiKey(apiKey).setTransport(transport));
+  }
+  
+  private DnsimpleContext(Builder builder) {
+    if(builder.transport == null) {
+      this.transport = DnsimpleTransport.getBuilder().build();
+      this.ownsTransport = true;
+    } else {
+      this.transport = builder.transport;
+      this.ownsTransport = false;
+    }
+    this.endPoint = builder.endPoint;
+    this.tenant = builder.email;
+    this.stacklessExceptions = builder.stacklessExceptions;
+    this.pooledBuffers = builder.pooledBuffers;
+    this.hedger = builder.hedgePolicy == null ? null
+        : new Hedger(builder.hedgePolicy, transport.getExecutor(), transport.getMetrics());
+    this.ownsHedger = hedger != null;
+    this.recordValidator = builder.recordValidator;
+    this.options = RequestOptions.NONE;
     this.headers = new Header[3];
     this.headers[0] = new BasicHeader("Accept", "application/json");
-    this.headers[1] = new BasicHeader("X-DNSimple-Token", email + ":" + apiKey);
+    this.headers[1] = new BasicHeader("X-DNSimple-Token", builder.email + ":" + builder.apiKey);
     this.headers[2] = new BasicHeader("Content-Type", "application/json; charset=" + CHARSET);
+    
+    this.recordAdapter = new RecordTypeAdapter();
+    this.gson = new GsonBuilder()
+        .setFieldNamingPolicy(FieldNamingPolicy.LOWER_CASE_WITH_UNDERSCORES)
+        .registerTypeAdapter(Date.class, new Iso8601DateAdapter())
+        .registerTypeHierarchyAdapter(Record.class, recordAdapter)
+        .registerTypeHierarchyAdapter(Domain.class, new DomainTypeAdapter())
+        .create();
+  }
+  
+  private DnsimpleContext(DnsimpleContext parent, RequestOptions options) {
+    this.transport = parent.transport;
+    this.ownsTransport = false;
+    this.endPoint = parent.endPoint;
+    this.tenant = parent.tenant;
+    this.stacklessExceptions = parent.stacklessExceptions;
+    this.pooledBuffers = parent.pooledBuffers;
+    this.headers = parent.headers;
+    this.gson = parent.gson;
+    this.recordAdapter = parent.recordAdapter;
+    this.hedger = parent.hedger;
+    this.ownsHedger = false;
+    this.recordValidator = parent.recordValidator;
+    this.options = options;
+  }
+  
+  public static Builder getBuilder() {
+    return new Builder();
+  }
+  
+  /**
+   * Derives a context for the same account whose calls are bounded by
+   * {@code options}. Every request made through it, including those made by
+   * the publishers and any hedges, shares the one deadline, so pass the
+   * derived context to whatever makes the requests for one operation.
+   * <p>
+   * Options already applied to this context still apply: the earlier
+   * deadline is used, and either cancellation cancels. Closing the derived
+   * context has no effect.
+   * @return the derived context
+   */
+  public DnsimpleContext withOptions(RequestOptions options) {
+    return new DnsimpleContext(this, this.options.merge(options));
+  }
+  
+  /**
+   * @return the deadline and cancellation applied to this context's calls
+   */
+  public RequestOptions getOptions() {
+    return options;
   }
   
   /**
@@ -81,45 +189,87 @@ public class DnsimpleContext {
    * @throws IOException If the connection was aborted
    */
   public List<Domain> getDomains() throws UnexpectedResponseException, IOException {
-    String uri = END_POINT + "/domains";
-    List<Domain> result = new LinkedList<Domain>();
+    String uri = endPoint + "/domains";
     
-    int expectedCode = HttpStatus.SC_OK;
-    int statusCode;
-    
-    HttpGet httpGet = null;
-    HttpResponse response = null;
-    HttpEntity entity = null;
-    
-    try {
-      httpGet = new HttpGet(uri);
-      httpGet.setHeaders(headers);
-      
-      response = httpClient.execute(httpGet);
-      entity = response.getEntity();
-      statusCode = response.getStatusLine().getStatusCode();
-      
-      if(statusCode != expectedCode) {
-        throw new UnexpectedResponseException(expectedCode, statusCode);
-      }
-      
-      if(entity != null) {
-        // The response is a list of maps with one entry each.
-        Type collectionType = new TypeToken<LinkedList<HashMap<String, Domain>>>(){}.getType();
-        Reader reader = new InputStreamReader(entity.getContent(), CHARSET);
-        LinkedList<HashMap<String, Domain>> list = gson.fromJson(reader, collectionType);
-        for(HashMap<String, Domain> map : list) {
-          // There should only be one entry in the map, but this is neater...
-          for(Domain domain : map.values())
-            result.add(domain);
+    return get("getDomains", uri, new Hedger.Attempt<List<Domain>>() {
+      @Override
+      public List<Domain> run(HttpGet httpGet, RequestOptions attemptOptions) throws UnexpectedResponseException, IOException {
+        List<Domain> result = new LinkedList<Domain>();
+        
+        int expectedCode = HttpStatus.SC_OK;
+        int statusCode;
+        
+        HttpResponse response = null;
+        HttpEntity entity = null;
+        
+        try {
+          response = execute("getDomains", httpGet, attemptOptions);
+          entity = response.getEntity();
+          statusCode = response.getStatusLine().getStatusCode();
+          
+          if(statusCode != expectedCode) {
+            throw unexpected(httpGet, response, expectedCode);
+          }
+          
+          if(entity != null) {
+            // The response is a list of maps with one entry each.
+            Type collectionType = new TypeToken<LinkedList<HashMap<String, Domain>>>(){}.getType();
+            Reader reader = reader(entity);
+            try {
+              LinkedList<HashMap<String, Domain>> list = gson.fromJson(reader, collectionType);
+              for(HashMap<String, Domain> map : list) {
+                // There should only be one entry in the map, but this is neater...
+                for(Domain domain : map.values())
+                  result.add(domain);
+              }
+            } finally {
+              reader.close();
+            }
+          }
+          
+        } finally {
+          try { EntityUtils.consume(entity); } catch(Exception e) {}
         }
+        
+        return result;
       }
-      
-    } finally {
-      try { EntityUtils.consume(entity); } catch(Exception e) {}
-    }
-    
-    return result;
+    });
+  }
+  
+  /**
+   * Streams all domains rather than collecting them into a list. Each
+   * subscription sends its own request once it first requests an element,
+   * and each domain is only decoded once the subscriber has asked for it.
+   * Cancelling the subscription aborts the request.
+   * <p>
+   * The request is sent, and each domain read and delivered, on the thread
+   * calling {@link Flow.Subscription#request(long)}, which blocks while
+   * they are. Use {@link #getDomainsPublisher(Executor)} to keep them off
+   * it. A subscription holds a connection from the pool until it has read
+   * the listing to its end or is cancelled, so a subscriber should keep
+   * requesting or cancel.
+   * <p>
+   * Errors, including an {@link UnexpectedResponseException} for an
+   * unexpected HTTP response code, are signalled through
+   * {@link Flow.Subscriber#onError(Throwable)}.
+   * @return a publisher of all domains
+   * @see #getDomains()
+   */
+  public Flow.Publisher<Domain> getDomainsPublisher() {
+    return getDomainsPublisher(null);
+  }
+  
+  /**
+   * As {@link #getDomainsPublisher()}, but sending the request and reading
+   * and delivering the domains on {@code executor}, so
+   * {@link Flow.Subscription#request(long)} does not block.
+   * @param executor where to do the I/O, or {@code null} for the thread
+   *    requesting domains
+   * @return a publisher of all domains
+   */
+  public Flow.Publisher<Domain> getDomainsPublisher(Executor executor) {
+    String uri = endPoint + "/domains";
+    return new JsonListingPublisher<Domain>(this, "getDomainsPublisher", headers, uri, gson, Domain.class, executor);
   }
   
   /**
@@ -138,31 +288,33 @@ public class DnsimpleContext {
    * @throws IOException If the connection was aborted
    */
   public Domain getDomain(String domain) throws UnexpectedResponseException, IOException {
-    String uri = END_POINT + "/domains/" + domain;
-    HttpGet httpGet = new HttpGet(uri);
-    
-    int expectedCode = HttpStatus.SC_OK;
-    int statusCode;
-    
-    HttpResponse response = null;
-    HttpEntity entity = null;
-    
-    httpGet.setHeaders(headers);
+    String uri = endPoint + "/domains/" + domain;
     
-    try {
-      response = httpClient.execute(httpGet);
-      entity = response.getEntity();
-      statusCode = response.getStatusLine().getStatusCode();
-      
-      if(statusCode != expectedCode) {
-        throw new UnexpectedResponseException(expectedCode, statusCode);
+    return get("getDomain", uri, new Hedger.Attempt<Domain>() {
+      @Override
+      public Domain run(HttpGet httpGet, RequestOptions attemptOptions) throws UnexpectedResponseException, IOException {
+        int expectedCode = HttpStatus.SC_OK;
+        int statusCode;
+        
+        HttpResponse response = null;
+        HttpEntity entity = null;
+        
+        try {
+          response = execute("getDomain", httpGet, attemptOptions);
+          entity = response.getEntity();
+          statusCode = response.getStatusLine().getStatusCode();
+          
+          if(statusCode != expectedCode) {
+            throw unexpected(httpGet, response, expectedCode);
+          }
+          
+          return parseDomain(entity);
+          
+        } finally {
+          try { EntityUtils.consume(entity); } catch(Exception e) {}
+        }
       }
-      
-      return parseDomain(entity);
-      
-    } finally {
-      try { EntityUtils.consume(entity); } catch(Exception e) {}
-    }
+    });
   }
   
   /**
@@ -179,8 +331,7 @@ public class DnsimpleContext {
    * @throws IOException If the connection was aborted
    */
   public Domain addDomain(String domain) throws UnexpectedResponseException, IOException {
-    String uri = END_POINT + "/domains";
-    HashMap<String, Domain> map = new HashMap<String, Domain>();
+    String uri = endPoint + "/domains";
     HttpPost httpPost = new HttpPost(uri);
     
     int expectedCode = HttpStatus.SC_CREATED;
@@ -189,17 +340,16 @@ public class DnsimpleContext {
     HttpResponse response = null;
     HttpEntity entity = null;
     
-    map.put("domain", new Domain(domain));
     httpPost.setHeaders(headers);
-    httpPost.setEntity(new StringEntity(gson.toJson(map), CHARSET));
+    httpPost.setEntity(new JsonEntity(gson, "domain", new Domain(domain)));
     
     try {
-      response = httpClient.execute(httpPost);
+      response = execute("addDomain", httpPost);
       entity = response.getEntity();
       statusCode = response.getStatusLine().getStatusCode();
       
       if(statusCode != expectedCode) {
-        throw new UnexpectedResponseException(expectedCode, statusCode);
+        throw unexpected(httpPost, response, expectedCode);
       }
       
       return parseDomain(entity);
@@ -219,7 +369,7 @@ public class DnsimpleContext {
    */
   public boolean isDomainAvailable(String domain) throws UnexpectedResponseException, IOException {
     
-    String uri = END_POINT + "/domains/" + domain + "/check";
+    String uri = endPoint + "/domains/" + domain + "/check";
     
     HttpGet httpGet = null;
     HttpResponse response = null;
@@ -230,7 +380,7 @@ public class DnsimpleContext {
     httpGet.setHeaders(headers);
     
     try {
-      response = httpClient.execute(httpGet);
+      response = execute("isDomainAvailable", httpGet);
       statusCode = response.getStatusLine().getStatusCode();
       
       if(statusCode == HttpStatus.SC_NOT_FOUND) {
@@ -240,7 +390,7 @@ public class DnsimpleContext {
       } else {
         // Note could also have accepted SC_NOT_FOUND
         // May need to make a more flexible exception for cases such as this
-        throw new UnexpectedResponseException(HttpStatus.SC_OK, statusCode);
+        throw unexpected(httpGet, response, HttpStatus.SC_OK);
       }
       
     } finally {
@@ -274,8 +424,7 @@ public class DnsimpleContext {
    * @throws IOException If the connection was aborted
    */
   public Domain enableAutoRenewal(String domain) throws UnexpectedResponseException, IOException {
-    String uri = END_POINT + "/domains/" + domain + "/auto_renewal";
-    HashMap<String, Object> map = new HashMap<String, Object>();
+    String uri = endPoint + "/domains/" + domain + "/auto_renewal";
     HttpPost httpPost = new HttpPost(uri);
     
     int expectedCode = HttpStatus.SC_OK;
@@ -284,17 +433,16 @@ public class DnsimpleContext {
     HttpResponse response = null;
     HttpEntity entity = null;
     
-    map.put("auto_renewal", new Object());
     httpPost.setHeaders(headers);
-    httpPost.setEntity(new StringEntity(gson.toJson(map), CHARSET));
+    httpPost.setEntity(new JsonEntity(gson, "auto_renewal", new Object()));
     
     try {
-      response = httpClient.execute(httpPost);
+      response = execute("enableAutoRenewal", httpPost);
       entity = response.getEntity();
       statusCode = response.getStatusLine().getStatusCode();
       
       if(statusCode != expectedCode) {
-        throw new UnexpectedResponseException(expectedCode, statusCode);
+        throw unexpected(httpPost, response, expectedCode);
       }
       
       return parseDomain(entity);
@@ -320,7 +468,7 @@ public class DnsimpleContext {
    * @throws IOException If the connection was aborted
    */
   public Domain disableAutoRenewal(String domain) throws UnexpectedResponseException, IOException {
-    String uri = END_POINT + "/domains/" + domain + "/auto_renewal";
+    String uri = endPoint + "/domains/" + domain + "/auto_renewal";
     HttpDelete httpDelete = new HttpDelete(uri);
     
     int expectedCode = HttpStatus.SC_OK;
@@ -332,12 +480,12 @@ public class DnsimpleContext {
     httpDelete.setHeaders(headers);
     
     try {
-      response = httpClient.execute(httpDelete);
+      response = execute("disableAutoRenewal", httpDelete);
       entity = response.getEntity();
       statusCode = response.getStatusLine().getStatusCode();
       
       if(statusCode != expectedCode) {
-        throw new UnexpectedResponseException(expectedCode, statusCode);
+        throw unexpected(httpDelete, response, expectedCode);
       }
       
       return parseDomain(entity);
@@ -358,16 +506,13 @@ public class DnsimpleContext {
    *    DNSimple's API was not what was expected
    * @throws IOException If the connection was aborted
    */
-  public boolean setNameServers(String domain, Collection<String> nameServers) throws IllegalStateException, UnexpectedResponseException, IOException {
+  public boolean setNameServers(String domain, final Collection<String> nameServers) throws IllegalStateException, UnexpectedResponseException, IOException {
     
     if(nameServers.size() > 6) {
       throw new IllegalStateException("Maximum of 6 name servers supported. Number given: " + nameServers.size());
     }
     
-    String uri = END_POINT + "/domains/" + domain + "/name_servers";
-    Map<String, Map<String, String>> map = new HashMap<String, Map<String, String>>();
-    Map<String, String> inner = new LinkedHashMap<String, String>();
-    Iterator<String> it = nameServers.iterator();
+    String uri = endPoint + "/domains/" + domain + "/name_servers";
     HttpPost httpPost = new HttpPost(uri);
     
     int expectedCode = HttpStatus.SC_OK;
@@ -375,24 +520,26 @@ public class DnsimpleContext {
     
     HttpResponse response = null;
     
-    map.put("name_servers", inner);
-    int i = 1;
-    while(it.hasNext()) {
-      String nameServer = it.next();
-      String key = "ns" + i;
-      inner.put(key, nameServer);
-      i++;
-    }
-    
     httpPost.setHeaders(headers);
-    httpPost.setEntity(new StringEntity(gson.toJson(map), CHARSET));
+    httpPost.setEntity(new JsonEntity(gson, "name_servers", nameServers) {
+      @Override
+      protected void writeValue(JsonWriter writer) throws IOException {
+        writer.beginObject();
+        int i = 1;
+        for(String nameServer : nameServers) {
+          writer.name("ns" + i).value(nameServer);
+          i++;
+        }
+        writer.endObject();
+      }
+    });
     
     try {
-      response = httpClient.execute(httpPost);
+      response = execute("setNameServers", httpPost);
       statusCode = response.getStatusLine().getStatusCode();
       
       if(statusCode != expectedCode) {
-        throw new UnexpectedResponseException(expectedCode, statusCode);
+        throw unexpected(httpPost, response, expectedCode);
       }
     
     } finally {
@@ -418,45 +565,116 @@ public class DnsimpleContext {
    * @throws IOException If the connection was aborted
    */
   public List<Record> getRecords(String domain) throws UnexpectedResponseException, IOException {
-    String uri = END_POINT + "/domains/" + domain + "/records";
-    List<Record> result = new LinkedList<Record>();
-    
-    int expectedCode = HttpStatus.SC_OK;
-    int statusCode;
+    return getRecords(domain, RecordFilter.ALL);
+  }
+  
+  /**
+   * @see #getRecords(String, RecordFilter)
+   */
+  public List<Record> getRecords(Domain domain, RecordFilter filter) throws UnexpectedResponseException, IOException {
+    return getRecords(domain.getName(), filter);
+  }
+  
+  /**
+   * Gets the DNS records for a domain that match a filter. The filter is
+   * passed on to DNSimple, and records that still do not match are skipped
+   * while the response is read rather than built and thrown away.
+   * @param domain the name or the ID of the domain to get records for
+   * @return A list of the matching records
+   * @throws UnexpectedResponseException If the HTTP response code from
+   *    DNSimple's API was not what was expected
+   * @throws IOException If the connection was aborted
+   */
+  public List<Record> getRecords(String domain, final RecordFilter filter) throws UnexpectedResponseException, IOException {
+    String uri = endPoint + "/domains/" + domain + "/records";
     
-    HttpGet httpGet = null;
-    HttpResponse response = null;
-    HttpEntity entity = null;
+    List<NameValuePair> query = new ArrayList<NameValuePair>(2);
+    if(filter.getName() != null) {
+      query.add(new BasicNameValuePair("name", filter.getName()));
+    }
+    // Only one type can be asked for; any others are left to the filter
+    if(filter.getRecordTypes().size() == 1) {
+      query.add(new BasicNameValuePair("type", filter.getRecordTypes().get(0)));
+    }
+    if(!query.isEmpty()) {
+      uri += "?" + URLEncodedUtils.format(query, CHARSET);
+    }
     
-    try {
-      httpGet = new HttpGet(uri);
-      httpGet.setHeaders(headers);
-      
-      response = httpClient.execute(httpGet);
-      entity = response.getEntity();
-      statusCode = response.getStatusLine().getStatusCode();
-      
-      if(statusCode != expectedCode) {
-        throw new UnexpectedResponseException(expectedCode, statusCode);
-      }
-      
-      if(entity != null) {
-        // The response is a list of maps with one entry each.
-        Type collectionType = new TypeToken<LinkedList<HashMap<String, Record>>>(){}.getType();
-        Reader reader = new InputStreamReader(entity.getContent(), CHARSET);
-        LinkedList<HashMap<String, Record>> list = gson.fromJson(reader, collectionType);
-        for(HashMap<String, Record> map : list) {
-          // There should only be one entry in each map...
-          for(Record record : map.values())
-            result.add(record);
+    return get("getRecords", uri, new Hedger.Attempt<List<Record>>() {
+      @Override
+      public List<Record> run(HttpGet httpGet, RequestOptions attemptOptions) throws UnexpectedResponseException, IOException {
+        List<Record> result = new ArrayList<Record>();
+        
+        int expectedCode = HttpStatus.SC_OK;
+        int statusCode;
+        
+        HttpResponse response = null;
+        HttpEntity entity = null;
+        
+        try {
+          response = execute("getRecords", httpGet, attemptOptions);
+          entity = response.getEntity();
+          statusCode = response.getStatusLine().getStatusCode();
+          
+          if(statusCode != expectedCode) {
+            throw unexpected(httpGet, response, expectedCode);
+          }
+          
+          if(entity != null) {
+            // The response is a list of maps with one entry each.
+            JsonReader reader = new JsonReader(reader(entity));
+            try {
+              recordAdapter.readListing(reader, filter, result);
+            } catch(IllegalStateException e) {
+              // Not the expected structure, as GSON would report it
+              throw new JsonSyntaxException(e);
+            } finally {
+              reader.close();
+            }
+          }
+          
+        } finally {
+          try { EntityUtils.consume(entity); } catch(Exception e) {}
         }
+        
+        return result;
       }
-      
-    } finally {
-      try { EntityUtils.consume(entity); } catch(Exception e) {}
-    }
-    
-    return result;
+    });
+  }
+  
+  /**
+   * @see #getRecordsPublisher(String)
+   */
+  public Flow.Publisher<Record> getRecordsPublisher(Domain domain) {
+    return getRecordsPublisher(domain.getName());
+  }
+  
+  /**
+   * Streams the DNS records for a domain rather than collecting them into a
+   * list, so large zones need not be held in memory. Behaves as
+   * {@link #getDomainsPublisher()} does: the I/O happens on the thread
+   * calling {@link Flow.Subscription#request(long)}, and a subscription
+   * holds a connection until it has read every record or is cancelled.
+   * @param domain the name or the ID of the domain to get records for
+   * @return a publisher of the domain's records
+   * @see #getRecords(String)
+   */
+  public Flow.Publisher<Record> getRecordsPublisher(String domain) {
+    return getRecordsPublisher(domain, null);
+  }
+  
+  /**
+   * As {@link #getRecordsPublisher(String)}, but sending the request and
+   * reading and delivering the records on {@code executor}, so
+   * {@link Flow.Subscription#request(long)} does not block.
+   * @param domain the name or the ID of the domain to get records for
+   * @param executor where to do the I/O, or {@code null} for the thread
+   *    requesting records
+   * @return a publisher of the domain's records
+   */
+  public Flow.Publisher<Record> getRecordsPublisher(String domain, Executor executor) {
+    String uri = endPoint + "/domains/" + domain + "/records";
+    return new JsonListingPublisher<Record>(this, "getRecordsPublisher", headers, uri, gson, Record.class, executor);
   }
   
   /**
@@ -494,13 +712,18 @@ public class DnsimpleContext {
    * @param record the record to set
    * @return the newly created record with all fields populated
    *    (domain ID, record ID, created at, updated at etc.)
+   * @throws InvalidRecordException If the context's validator found
+   *    something wrong with the record, in which case it was not sent
    * @throws UnexpectedResponseException If the HTTP response code from
    *    DNSimple's API was not what was expected
    * @throws IOException If the connection was aborted
    */
-  public Record addRecord(String domain, Record record) throws UnexpectedResponseException, IOException {
-    String uri = END_POINT + "/domains/" + domain + "/records";
-    HashMap<String, Record> map = new HashMap<String, Record>();
+  public Record addRecord(String domain, Record record) throws InvalidRecordException, UnexpectedResponseException, IOException {
+    if(recordValidator != null) {
+      recordValidator.check(record);
+    }
+    
+    String uri = endPoint + "/domains/" + domain + "/records";
     HttpPost httpPost = new HttpPost(uri);
     
     int expectedCode = HttpStatus.SC_CREATED;
@@ -509,17 +732,16 @@ public class DnsimpleContext {
     HttpResponse response = null;
     HttpEntity entity = null;
     
-    map.put("record", record);
     httpPost.setHeaders(headers);
-    httpPost.setEntity(new StringEntity(gson.toJson(map), CHARSET));
+    httpPost.setEntity(new JsonEntity(gson, "record", record));
     
     try {
-      response = httpClient.execute(httpPost);
+      response = execute("addRecord", httpPost);
       entity = response.getEntity();
       statusCode = response.getStatusLine().getStatusCode();
       
       if(statusCode != expectedCode) {
-        throw new UnexpectedResponseException(expectedCode, statusCode);
+        throw unexpected(httpPost, response, expectedCode);
       }
       
       return parseRecord(entity);
@@ -543,13 +765,20 @@ public class DnsimpleContext {
    * @param recordId the ID of the record to be updated
    * @param record what the record should be updated to
    * @return the updated record
+   * @throws InvalidRecordException If the context's validator found
+   *    something wrong with the record, in which case it was not sent.
+   *    Records without a type are taken to be partial updates and are not
+   *    checked.
    * @throws UnexpectedResponseException If the HTTP response code from
    *    DNSimple's API was not what was expected
    * @throws IOException If the connection was aborted
    */
-  public Record updateRecord(String domain, String recordId, Record record) throws UnexpectedResponseException, IOException {
-    String uri = END_POINT + "/domains/" + domain + "/records/" + recordId;
-    HashMap<String, Record> map = new HashMap<String, Record>();
+  public Record updateRecord(String domain, String recordId, Record record) throws InvalidRecordException, UnexpectedResponseException, IOException {
+    if(recordValidator != null) {
+      recordValidator.checkUpdate(record);
+    }
+    
+    String uri = endPoint + "/domains/" + domain + "/records/" + recordId;
     HttpPut httpPut = new HttpPut(uri);
     
     int expectedCode = HttpStatus.SC_OK;
@@ -558,17 +787,16 @@ public class DnsimpleContext {
     HttpResponse response = null;
     HttpEntity entity = null;
     
-    map.put("record", record);
     httpPut.setHeaders(headers);
-    httpPut.setEntity(new StringEntity(gson.toJson(map), CHARSET));
+    httpPut.setEntity(new JsonEntity(gson, "record", record));
     
     try {
-      response = httpClient.execute(httpPut);
+      response = execute("updateRecord", httpPut);
       entity = response.getEntity();
       statusCode = response.getStatusLine().getStatusCode();
       
       if(statusCode != expectedCode) {
-        throw new UnexpectedResponseException(expectedCode, statusCode);
+        throw unexpected(httpPut, response, expectedCode);
       }
       
       return parseRecord(entity);
@@ -592,7 +820,7 @@ public class DnsimpleContext {
    * @throws IOException If the connection was aborted
    */
   public void deleteRecord(String domain, String recordId) throws UnexpectedResponseException, IOException {
-    String uri = END_POINT + "/domains/" + domain + "/records/" + recordId;
+    String uri = endPoint + "/domains/" + domain + "/records/" + recordId;
     HttpDelete httpDelete = new HttpDelete(uri);
 
     int expectedCode = HttpStatus.SC_OK;
@@ -602,23 +830,127 @@ public class DnsimpleContext {
 
     HttpResponse response = null;
     try {
-      response = httpClient.execute(httpDelete);
+      response = execute("deleteRecord", httpDelete);
       statusCode = response.getStatusLine().getStatusCode();
 
       if (statusCode != expectedCode) {
-        throw new UnexpectedResponseException(expectedCode, statusCode);
+        throw unexpected(httpDelete, response, expectedCode);
       }
     } finally {
-      EntityUtils.consume(response.getEntity());
+      try { EntityUtils.consume(response.getEntity()); } catch(Exception e) {}
     }
 
   }
   
   /**
-   * Closes all connections.
+   * Opens connections to DNSimple ahead of time, so the first calls do not
+   * each pay for DNS resolution, TCP and a TLS handshake. The first
+   * connection is opened on its own and the rest in parallel, so that they
+   * can resume its TLS session rather than each doing a full handshake.
+   * Each connection is checked (including the server's certificate and
+   * host name) before going into the pool.
+   * <p>
+   * With the default {@link ApacheHttpBackend}, no API requests are sent
+   * and connections already open in the pool count towards
+   * {@code connections}; other backends may differ (see
+   * {@link JdkHttpBackend}). Idle connections may still be closed by the
+   * server after a while, so warm up shortly before they will be needed.
+   * @param connections how many connections to have open, at most the
+   *    transport's maximum
+   * @return how many connections were opened or found already open
+   * @throws IOException If a connection could not be opened
+   */
+  public int warmUp(int connections) throws IOException {
+    return transport.warmUp(endPoint, connections);
+  }
+  
+  /**
+   * @return what checks records before they are sent, or {@code null} if
+   *    nothing does
+   */
+  public RecordValidator getRecordValidator() {
+    return recordValidator;
+  }
+  
+  /**
+   * @return the transport this context sends its requests through
+   */
+  public DnsimpleTransport getTransport() {
+    return transport;
+  }
+  
+  /**
+   * @return this account's rate limit as last reported by DNSimple, or
+   *    {@code null} if it has not been reported yet
+   */
+  public RateLimit getRateLimit() {
+    return transport.getRateLimit(tenant);
+  }
+  
+  /**
+   * Closes all connections if this context has its own transport, and stops
+   * its hedging threads. A shared transport is left open, to be closed by
+   * whoever created it.
    */
   public void close() {
-    httpClient.getConnectionManager().shutdown();
+    if(ownsHedger) {
+      hedger.close();
+    }
+    if(ownsTransport) {
+      transport.close();
+    }
+  }
+  
+  /**
+   * Sends a request through the transport, with this account's turn at the
+   * connection pool and within this context's options. The response's
+   * entity must be consumed.
+   * @param operation the name of the method making the request, for
+   *    listeners and profiling
+   */
+  HttpResponse execute(String operation, HttpUriRequest request) throws IOException {
+    return transport.execute(tenant, operation, request, options);
+  }
+  
+  /**
+   * As {@link #execute(String, HttpUriRequest)}, within {@code extra} as
+   * well as this context's options.
+   */
+  private HttpResponse execute(String operation, HttpUriRequest request, RequestOptions extra) throws IOException {
+    return transport.execute(tenant, operation, request, extra == RequestOptions.NONE ? options : options.merge(extra));
+  }
+  
+  /**
+   * Makes an attempt with a GET of {@code uri}, hedged if this context has
+   * a {@link HedgePolicy}.
+   */
+  private <T> T get(String operation, String uri, Hedger.Attempt<T> attempt) throws UnexpectedResponseException, IOException {
+    if(hedger != null) {
+      return hedger.get(operation, uri, headers, attempt);
+    }
+    HttpGet httpGet = new HttpGet(uri);
+    httpGet.setHeaders(headers);
+    return attempt.run(httpGet, RequestOptions.NONE);
+  }
+  
+  /**
+   * Creates the exception for a response with an unexpected status code.
+   * The response's entity must still be consumed.
+   */
+  UnexpectedResponseException unexpected(HttpUriRequest request, HttpResponse response, int expectedCode) {
+    return UnexpectedResponseException.fromResponse(request, response, expectedCode, !stacklessExceptions);
+  }
+  
+  /**
+   * Opens the entity's content for parsing, with this thread's pooled
+   * buffers if they are turned on. The reader must be closed, which also
+   * consumes the entity.
+   */
+  private Reader reader(HttpEntity entity) throws IOException {
+    if(pooledBuffers) {
+      return ResponseReader.open(entity.getContent());
+    }
+    return new InputStreamReader(entity.getContent(), CHARSET);
   }
   
   /**
@@ -635,8 +967,13 @@ public class DnsimpleContext {
       // Get the type so GSON knows how to parse and what to return
       // It should be a map with one element (the domain) in.
       Type collectionType = new TypeToken<HashMap<String, Domain>>(){}.getType();
-      Reader reader = new InputStreamReader(entity.getContent(), CHARSET);
-      HashMap<String, Domain> map = gson.fromJson(reader, collectionType);
+      HashMap<String, Domain> map;
+      Reader reader = reader(entity);
+      try {
+        map = gson.fromJson(reader, collectionType);
+      } finally {
+        reader.close();
+      }
       Iterator<Domain> it = map.values().iterator();
       
       if(!it.hasNext()) {
@@ -664,8 +1001,13 @@ public class DnsimpleContext {
     
     try {
       Type collectionType = new TypeToken<HashMap<String, Record>>(){}.getType();
-      Reader reader = new InputStreamReader(entity.getContent(), CHARSET);
-      HashMap<String, Record> map = gson.fromJson(reader, collectionType);
+      HashMap<String, Record> map;
+      Reader reader = reader(entity);
+      try {
+        map = gson.fromJson(reader, collectionType);
+      } finally {
+        reader.close();
+      }
       Iterator<Record> it = map.values().iterator();
       
       if(!it.hasNext()) {
@@ -681,4 +1023,103 @@ public class DnsimpleContext {
     return result;
   }
 
+  public static class Builder {
+    
+    private String endPoint = END_POINT;
+    private String email = null;
+    private String apiKey = null;
+    private DnsimpleTransport transport = null;
+    private boolean stacklessExceptions = false;
+    private boolean pooledBuffers = true;
+    private HedgePolicy hedgePolicy = null;
+    private RecordValidator recordValidator = null;
+    
+    /**
+     * @param endPoint the base URI of the API. Defaults to
+     *    {@link DnsimpleContext#END_POINT}; useful for pointing at a stand-in
+     *    server when testing.
+     */
+    public Builder setEndPoint(String endPoint) {
+      this.endPoint = endPoint;
+      return this;
+    }
+    
+    public Builder setEmail(String email) {
+      this.email = email;
+      return this;
+    }
+    
+    public Builder setApiKey(String apiKey) {
+      this.apiKey = apiKey;
+      return this;
+    }
+    
+    /**
+     * @param transport shared transport to send requests through. If not
+     *    set the context gets its own, which is closed along with it.
+     */
+    public Builder setTransport(DnsimpleTransport transport) {
+      this.transport = transport;
+      return this;
+    }
+    
+    /**
+     * @param stacklessExceptions if {@code true}, the
+     *    {@link UnexpectedResponseException}s thrown do not fill in their
+     *    stack trace, which is most of the cost of creating them. Useful
+     *    where error responses are routine, e.g. probing for records that
+     *    may not exist. Defaults to {@code false}.
+     */
+    public Builder setStacklessExceptions(boolean stacklessExceptions) {
+      this.stacklessExceptions = stacklessExceptions;
+      return this;
+    }
+    
+    /**
+     * @param pooledBuffers if {@code true}, response bodies are decoded
+     *    with buffers and a decoder kept for each thread making calls,
+     *    rather than new ones for every response, which cuts the garbage
+     *    made under a high request rate. Defaults to {@code true}.
+     */
+    public Builder setPooledBuffers(boolean pooledBuffers) {
+      this.pooledBuffers = pooledBuffers;
+      return this;
+    }
+    
+    /**
+     * @param hedgePolicy when to send a second, identical request for a
+     *    read that is slow to be answered. Applies to
+     *    {@link DnsimpleContext#getDomains()},
+     *    {@link DnsimpleContext#getDomain(String)} and
+     *    {@link DnsimpleContext#getRecords(String)}. Defaults to
+     *    {@code null}, for no hedging.
+     */
+    public Builder setHedgePolicy(HedgePolicy hedgePolicy) {
+      this.hedgePolicy = hedgePolicy;
+      return this;
+    }
+    
+    /**
+     * @param recordValidator checks records before they are added or
+     *    updated, so invalid ones are not sent, e.g.
+     *    {@link RecordValidator#DEFAULT}. Defaults to {@code null}, which
+     *    sends every record as it is and leaves DNSimple to check it.
+     */
+    public Builder setRecordValidator(RecordValidator recordValidator) {
+      this.recordValidator = recordValidator;
+      return this;
+    }
+    
+    /**
+     * @throws IllegalStateException If the email or API key has not been set
+     */
+    public DnsimpleContext build() throws IllegalStateException {
+      if(email == null || apiKey == null) {
+        throw new IllegalStateException("Email and API key are required");
+      }
+      return new DnsimpleContext(this);
+    }
+    
+  }
+
 }
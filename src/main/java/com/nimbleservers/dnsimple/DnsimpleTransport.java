@@ -0,0 +1,848 @@
+/**
+ * Copyright 2012 Nimble Servers Limited. http://nimbleservers.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.nimbleservers.dnsimple;
+
+import java.io.FilterInputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.security.GeneralSecurityException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.net.ssl.SSLContext;
+
+import org.apache.http.HttpEntity;
+import org.apache.http.HttpEntityEnclosingRequest;
+import org.apache.http.HttpResponse;
+import org.apache.http.client.methods.HttpUriRequest;
+import org.apache.http.entity.HttpEntityWrapper;
+
+/**
+ * Everything needed to talk to DNSimple that is not tied to one account: the
+ * connection pool, an executor for background work, rate limit bookkeeping
+ * and metrics.
+ * <p>
+ * One transport can be shared by many {@link DnsimpleContext}s, each with
+ * their own credentials, so that managing hundreds of accounts does not mean
+ * hundreds of connection pools. Each account (tenant) gets its turn at the
+ * pool in round robin order, so one busy account cannot starve the others.
+ * <p>
+ * Requests made with {@link Priority#BULK} give way to interactive ones:
+ * they wait behind them for a connection, may not use the connections
+ * reserved for them, and hold off while an account's remaining rate limit
+ * is within the share reserved for them. How many bulk requests may be in
+ * flight also adapts to DNSimple's latency and errors, according to an
+ * {@link AdaptiveLimitPolicy}.
+ * <p>
+ * For example:
+ * <pre>
+ * DnsimpleTransport transport = DnsimpleTransport.getBuilder()
+ *    .setMaxConnections(50)
+ *    .setMaxConnectionsPerTenant(10)
+ *    .build();
+ * DnsimpleContext first = new DnsimpleContext("first@domain.com", "apikey", transport);
+ * DnsimpleContext second = new DnsimpleContext("second@domain.com", "apikey", transport);
+ * ...
+ * transport.close();
+ * </pre>
+ * Thread Safe.
+ * <p>
+ * @author Chris Strand
+ */
+public class DnsimpleTransport {
+
+  private static final long IDLE_THREAD_SECONDS = 60;
+
+  private final HttpBackend backend;
+  private final ScheduledExecutorService executor;
+  private final boolean ownsExecutor;
+  private final FairScheduler scheduler;
+  private final AdaptiveLimit adaptiveLimit;
+  private final TransportMetrics metrics;
+  private final ConcurrentMap<String, RateLimit> rateLimits = new ConcurrentHashMap<String, RateLimit>();
+  private final double reservedRateLimit;
+  private final long maxRateLimitWaitMillis;
+  private final List<RequestListener> listeners;
+
+  private DnsimpleTransport(Builder builder) {
+    SSLContext sslContext = builder.sslContext;
+    if(sslContext == null) {
+      try {
+        sslContext = SSLContext.getInstance("TLS");
+        sslContext.init(null, null, null);
+      } catch(GeneralSecurityException e) {
+        throw new IllegalStateException("TLS is not available", e);
+      }
+    }
+    if(builder.executor == null) {
+      // Many contexts may each have a transport of their own, so let the
+      // threads go while there is nothing for them to do
+      ScheduledThreadPoolExecutor pool = new ScheduledThreadPoolExecutor(builder.maxConnections, new DaemonThreadFactory());
+      pool.setKeepAliveTime(IDLE_THREAD_SECONDS, TimeUnit.SECONDS);
+      pool.allowCoreThreadTimeOut(true);
+      this.executor = pool;
+      this.ownsExecutor = true;
+    } else {
+      this.executor = builder.executor;
+      this.ownsExecutor = false;
+    }
+    this.backend = builder.httpBackend.create(builder.maxConnections, sslContext, executor);
+
+    int maxPerTenant = builder.maxConnectionsPerTenant;
+    if(maxPerTenant <= 0 || maxPerTenant > builder.maxConnections) {
+      maxPerTenant = builder.maxConnections;
+    }
+    int reserved = builder.reservedConnections;
+    if(reserved < 0) {
+      reserved = builder.maxConnections / 4;
+    }
+    reserved = Math.min(reserved, builder.maxConnections - 1);
+    this.scheduler = new FairScheduler(builder.maxConnections, maxPerTenant, reserved);
+    this.adaptiveLimit = builder.adaptiveLimitPolicy == null ? null
+        : new AdaptiveLimit(builder.adaptiveLimitPolicy, scheduler, builder.maxConnections - reserved);
+    this.reservedRateLimit = builder.reservedRateLimit;
+    this.maxRateLimitWaitMillis = builder.maxRateLimitWaitMillis;
+    this.listeners = Collections.unmodifiableList(new ArrayList<RequestListener>(builder.listeners));
+    this.metrics = new TransportMetrics(scheduler);
+  }
+
+  public static Builder getBuilder() {
+    return new Builder();
+  }
+
+  /**
+   * @return executor for background work on behalf of the contexts using
+   *    this transport. It also runs the timers that enforce deadlines, so
+   *    nothing run on it should block.
+   */
+  public ScheduledExecutorService getExecutor() {
+    return executor;
+  }
+
+  public TransportMetrics getMetrics() {
+    return metrics;
+  }
+
+  /**
+   * @param email the account's email address
+   * @return the account's rate limit as last reported by DNSimple, or
+   *    {@code null} if it has not been reported yet
+   */
+  public RateLimit getRateLimit(String email) {
+    return rateLimits.get(email);
+  }
+
+  /**
+   * Sends {@code request} once {@code tenant} has been given its turn at the
+   * connection pool. The turn lasts until the response's entity has been
+   * consumed (or the request aborted), just like the pooled connection.
+   * @param tenant whose credentials {@code request} carries
+   * @param operation what the request is for, for listeners and profiling
+   * @throws IOException If the connection was aborted, or the thread was
+   *    interrupted while waiting for its turn
+   */
+  HttpResponse execute(String tenant, String operation, HttpUriRequest request) throws IOException {
+    return execute(tenant, operation, request, RequestOptions.NONE);
+  }
+
+  /**
+   * As {@link #execute(String, String, HttpUriRequest)}, but giving up at
+   * the options' deadline, and aborting {@code request} if they are
+   * cancelled.
+   * @throws DeadlineExceededException If the deadline passed before the
+   *    response was received
+   * @throws InterruptedIOException If the options were cancelled
+   */
+  HttpResponse execute(String tenant, String operation, HttpUriRequest request, RequestOptions options) throws IOException {
+    Call call = new Call(tenant, operation, request, options);
+    for(Cancellation cancellation : options.getCancellations()) {
+      if(!cancellation.register(request)) {
+        throw call.fail(cancelled(null));
+      }
+    }
+
+    if((!listeners.isEmpty() || call.event != null) && request instanceof HttpEntityEnclosingRequest) {
+      HttpEntityEnclosingRequest enclosing = (HttpEntityEnclosingRequest) request;
+      if(enclosing.getEntity() != null) {
+        enclosing.setEntity(new CountingEntity(enclosing.getEntity(), call));
+      }
+    }
+
+    long start = System.nanoTime();
+    long timeout = -1;
+    try {
+      if(options.getPriority() == Priority.BULK) {
+        awaitRateLimit(tenant, options);
+      }
+
+      if(options.hasDeadline()) {
+        timeout = options.getRemaining(TimeUnit.NANOSECONDS);
+        if(timeout <= 0) {
+          throw deadlineExceeded("before it was sent", null);
+        }
+      }
+
+      call.permit = scheduler.acquire(tenant, options.getPriority(), timeout, options.getCancellations());
+    } catch(InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw call.fail(new InterruptedIOException("Interrupted while waiting for a connection"));
+    } catch(IOException e) {
+      throw call.fail(e);
+    }
+    if(call.permit == null) {
+      if(options.isCancelled()) {
+        throw call.fail(cancelled(null));
+      }
+      throw call.fail(deadlineExceeded("waiting for a connection", null));
+    }
+    call.acquiredNanos = System.nanoTime();
+    metrics.onAcquired(call.acquiredNanos - start);
+
+    if(options.hasDeadline()) {
+      call.watch(options.getRemaining(TimeUnit.NANOSECONDS));
+    }
+
+    HttpResponse response;
+    try {
+      response = backend.execute(request, call.timeoutMillis);
+    } catch(IOException e) {
+      metrics.onFailure();
+      throw call.fail(call.translate(e));
+    } catch(RuntimeException e) {
+      metrics.onFailure();
+      call.finish();
+      throw e;
+    }
+
+    call.respondedNanos = System.nanoTime();
+
+    RateLimit rateLimit = RateLimit.fromResponse(response);
+    if(rateLimit != null) {
+      rateLimits.put(tenant, rateLimit);
+    }
+    call.statusCode = response.getStatusLine().getStatusCode();
+    if(call.statusCode == 429) {
+      metrics.onRateLimited();
+    }
+    if(adaptiveLimit != null) {
+      adaptiveLimit.onResponse(call.respondedNanos - call.acquiredNanos, call.statusCode);
+    }
+
+    HttpEntity entity = response.getEntity();
+    if(entity == null) {
+      call.finish();
+    } else {
+      response.setEntity(new ReleasingEntity(entity, call));
+    }
+
+    return response;
+  }
+
+  /**
+   * Opens connections to the host of {@code uri} ahead of the first
+   * requests, as {@link HttpBackend#warmUp(String, int)}.
+   * @return how many connections were opened or found already open
+   * @throws IOException If a connection could not be opened
+   */
+  int warmUp(String uri, int connections) throws IOException {
+    return backend.warmUp(uri, connections);
+  }
+
+  /**
+   * Closes all connections, and stops the executor unless it was supplied
+   * through {@link Builder#setExecutor(ScheduledExecutorService)}. Every
+   * context using this transport stops working.
+   */
+  public void close() {
+    backend.close();
+    if(ownsExecutor) {
+      executor.shutdownNow();
+    }
+  }
+
+  /**
+   * Holds off a bulk request while the account's remaining rate limit is
+   * within the share reserved for interactive requests, until it resets.
+   * Fails rather than waiting past the deadline or the longest wait
+   * allowed, or at all on the transport's own executor, and stops waiting
+   * if the options are cancelled.
+   */
+  private void awaitRateLimit(String tenant, RequestOptions options) throws InterruptedException, IOException {
+    RateLimit rateLimit = rateLimits.get(tenant);
+    if(rateLimit == null || rateLimit.getRemaining() > rateLimit.getLimit() * reservedRateLimit) {
+      return;
+    }
+
+    final long resetAt = rateLimit.getResetAt().getTime();
+    long wait = resetAt - System.currentTimeMillis();
+    if(wait <= 0) {
+      return;
+    }
+    if(wait > maxRateLimitWaitMillis || Thread.currentThread() instanceof ExecutorThread) {
+      throw new RateLimitReservedException("Rate limit is reserved for interactive requests until "
+          + rateLimit.getResetAt(), rateLimit);
+    }
+    if(options.getRemaining(TimeUnit.MILLISECONDS) < wait) {
+      throw deadlineExceeded("waiting for the rate limit to reset", null);
+    }
+
+    final Object signal = new Object();
+    Runnable wakeUp = new Runnable() {
+      @Override
+      public void run() {
+        synchronized(signal) {
+          signal.notifyAll();
+        }
+      }
+    };
+    List<Cancellation> cancellations = options.getCancellations();
+    try {
+      for(Cancellation cancellation : cancellations) {
+        if(!cancellation.registerWaiter(wakeUp)) {
+          throw cancelled(null);
+        }
+      }
+      synchronized(signal) {
+        long remaining;
+        while(!options.isCancelled() && (remaining = resetAt - System.currentTimeMillis()) > 0) {
+          signal.wait(remaining);
+        }
+      }
+      if(options.isCancelled()) {
+        throw cancelled(null);
+      }
+    } finally {
+      for(Cancellation cancellation : cancellations) {
+        cancellation.unregisterWaiter(wakeUp);
+      }
+    }
+  }
+
+  private static InterruptedIOException cancelled(IOException cause) {
+    InterruptedIOException e = new InterruptedIOException("Request cancelled");
+    e.initCause(cause);
+    return e;
+  }
+
+  private static DeadlineExceededException deadlineExceeded(String when, IOException cause) {
+    DeadlineExceededException e = new DeadlineExceededException("Deadline passed " + when);
+    e.initCause(cause);
+    return e;
+  }
+
+  /**
+   * One request's turn at the pool, and the watch on its deadline.
+   */
+  private class Call {
+
+    private final String tenant;
+    private final String operation;
+    private final HttpUriRequest request;
+    private final RequestOptions options;
+    private final AtomicBoolean finished = new AtomicBoolean(false);
+    private final long startNanos = System.nanoTime();
+    private final long startMillis = System.currentTimeMillis();
+    // Only while Flight Recorder is recording requests
+    private final JfrRequestEvent event;
+    private FairScheduler.Permit permit = null;
+    private ScheduledFuture<?> timer = null;
+    // Bounds each stage of sending the request, 0 for the backend's defaults
+    private long timeoutMillis = 0;
+
+    // Only kept for the listeners and the event
+    private long acquiredNanos = 0;
+    private long respondedNanos = 0;
+    // Time spent blocked reading the response's content, only measured
+    // for the event
+    private long readNanos = 0;
+    private int statusCode = 0;
+    private volatile IOException failure = null;
+    private volatile long requestBytes = 0;
+    private volatile long responseBytes = 0;
+
+    Call(String tenant, String operation, HttpUriRequest request, RequestOptions options) {
+      this.tenant = tenant;
+      this.operation = operation;
+      this.request = request;
+      this.options = options;
+      this.event = JfrRequestEvent.begin(request.getURI());
+    }
+
+    /**
+     * Bounds each stage of the request by the time left, and aborts it if
+     * it is still running when that is up.
+     */
+    void watch(long remainingNanos) {
+      // Round up so the timeouts never fire before the deadline
+      timeoutMillis = Math.max(1, Math.min(Integer.MAX_VALUE, (remainingNanos + 999999L) / 1000000L));
+
+      try {
+        timer = executor.schedule(new Runnable() {
+          @Override
+          public void run() {
+            request.abort();
+          }
+        }, remainingNanos, TimeUnit.NANOSECONDS);
+      } catch(RejectedExecutionException e) {
+        // Shutting down; the timeouts above still apply
+      }
+    }
+
+    /**
+     * Gives back the turn at the pool and stops watching the deadline. Only
+     * the first call has any effect.
+     */
+    void finish() {
+      if(!finished.compareAndSet(false, true)) {
+        return;
+      }
+      if(timer != null) {
+        timer.cancel(false);
+      }
+      for(Cancellation cancellation : options.getCancellations()) {
+        cancellation.unregister(request);
+      }
+      if(permit != null) {
+        // Counted first so the next waiter's turn never shows as one too many
+        metrics.onReleased();
+        permit.release();
+      }
+
+      if(event != null) {
+        commitEvent();
+      }
+
+      if(!listeners.isEmpty()) {
+        RequestEvent requestEvent = new RequestEvent(tenant, operation, request.getMethod(),
+            request.getURI().toString(), options.getPriority(),
+            request.getParams().getIntParameter(Hedger.ATTEMPT, 1), statusCode, failure, requestBytes,
+            responseBytes, startMillis, System.nanoTime() - startNanos);
+        for(RequestListener listener : listeners) {
+          listener.onRequest(requestEvent);
+        }
+      }
+    }
+
+    /**
+     * Splits the time since the turn at the pool was given between the
+     * network (up to the response, then each read of its content) and
+     * parsing (everything between those reads).
+     */
+    private void commitEvent() {
+      long now = System.nanoTime();
+      event.end();
+      event.operation = operation;
+      event.method = request.getMethod();
+      event.statusCode = statusCode;
+      event.priority = options.getPriority().name();
+      event.attempt = request.getParams().getIntParameter(Hedger.ATTEMPT, 1);
+      event.requestBytes = requestBytes;
+      event.responseBytes = responseBytes;
+      if(acquiredNanos == 0) {
+        event.poolWait = now - startNanos;
+      } else {
+        event.poolWait = acquiredNanos - startNanos;
+        if(respondedNanos == 0) {
+          event.networkTime = now - acquiredNanos;
+        } else {
+          event.networkTime = respondedNanos - acquiredNanos + readNanos;
+          event.parseTime = Math.max(0, now - respondedNanos - readNanos);
+        }
+      }
+      if(failure != null) {
+        event.failure = failure.toString();
+      }
+      event.commit();
+    }
+
+    /**
+     * Finishes the call as having failed with {@code e}.
+     * @return {@code e}, to throw
+     */
+    IOException fail(IOException e) {
+      failure = e;
+      finish();
+      return e;
+    }
+
+    /**
+     * @return the exception to throw for {@code e}, which may have been
+     *    caused by the call being cancelled or its deadline passing
+     */
+    IOException translate(IOException e) {
+      if(options.isCancelled()) {
+        return cancelled(e);
+      } else if(options.hasDeadline() && options.getRemaining(TimeUnit.NANOSECONDS) <= 0) {
+        return deadlineExceeded("waiting for the response", e);
+      }
+      return e;
+    }
+
+  }
+
+  /**
+   * Gives back the tenant's turn once the content has been read to the end,
+   * closed or consumed.
+   */
+  private class ReleasingEntity extends HttpEntityWrapper {
+
+    private final Call call;
+
+    ReleasingEntity(HttpEntity entity, Call call) {
+      super(entity);
+      this.call = call;
+    }
+
+    @Override
+    public InputStream getContent() throws IOException {
+      InputStream content;
+      try {
+        content = wrappedEntity.getContent();
+      } catch(IOException e) {
+        call.finish();
+        throw e;
+      } catch(RuntimeException e) {
+        call.finish();
+        throw e;
+      }
+
+      if(content == null) {
+        call.finish();
+        return null;
+      }
+
+      return new FilterInputStream(content) {
+
+        @Override
+        public int read() throws IOException {
+          long start = call.event == null ? 0 : System.nanoTime();
+          int b;
+          try {
+            b = super.read();
+          } catch(IOException e) {
+            call.failure = call.translate(e);
+            throw call.failure;
+          }
+          if(call.event != null) {
+            call.readNanos += System.nanoTime() - start;
+          }
+          if(b == -1) {
+            call.finish();
+          } else {
+            call.responseBytes++;
+          }
+          return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+          long start = call.event == null ? 0 : System.nanoTime();
+          int n;
+          try {
+            n = super.read(b, off, len);
+          } catch(IOException e) {
+            call.failure = call.translate(e);
+            throw call.failure;
+          }
+          if(call.event != null) {
+            call.readNanos += System.nanoTime() - start;
+          }
+          if(n == -1) {
+            call.finish();
+          } else {
+            call.responseBytes += n;
+          }
+          return n;
+        }
+
+        @Override
+        public void close() throws IOException {
+          try {
+            super.close();
+          } finally {
+            call.finish();
+          }
+        }
+
+      };
+    }
+
+    @Override
+    public void writeTo(OutputStream out) throws IOException {
+      try {
+        wrappedEntity.writeTo(new CountingOutputStream(out) {
+          @Override
+          void count(int n) {
+            call.responseBytes += n;
+          }
+        });
+      } finally {
+        call.finish();
+      }
+    }
+
+    @Override
+    @SuppressWarnings("deprecation")
+    public void consumeContent() throws IOException {
+      try {
+        wrappedEntity.consumeContent();
+      } finally {
+        call.finish();
+      }
+    }
+
+  }
+
+  /**
+   * Counts the bytes of a request body as it is sent.
+   */
+  static class CountingEntity extends HttpEntityWrapper {
+
+    private final Call call;
+
+    private CountingEntity(HttpEntity entity, Call call) {
+      super(entity);
+      this.call = call;
+    }
+
+    /**
+     * Counts a {@link JsonEntity}'s body as sent all at once.
+     * @return its encoded body, or {@code null} if it is some other entity
+     * @see JsonEntity#getBytes()
+     */
+    byte[] getJsonBytes() throws IOException {
+      if(!(wrappedEntity instanceof JsonEntity)) {
+        return null;
+      }
+      byte bytes[] = ((JsonEntity) wrappedEntity).getBytes();
+      call.requestBytes += bytes.length;
+      return bytes;
+    }
+
+    @Override
+    public void writeTo(OutputStream out) throws IOException {
+      wrappedEntity.writeTo(new CountingOutputStream(out) {
+        @Override
+        void count(int n) {
+          call.requestBytes += n;
+        }
+      });
+    }
+
+  }
+
+  private abstract static class CountingOutputStream extends FilterOutputStream {
+
+    CountingOutputStream(OutputStream out) {
+      super(out);
+    }
+
+    abstract void count(int n);
+
+    @Override
+    public void write(int b) throws IOException {
+      out.write(b);
+      count(1);
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+      out.write(b, off, len);
+      count(len);
+    }
+
+  }
+
+  private static class DaemonThreadFactory implements ThreadFactory {
+
+    private final AtomicInteger count = new AtomicInteger();
+
+    @Override
+    public Thread newThread(Runnable runnable) {
+      Thread thread = new ExecutorThread(runnable, "dnsimple-" + count.incrementAndGet());
+      thread.setDaemon(true);
+      return thread;
+    }
+
+  }
+
+  /**
+   * A thread of the transport's own executor, which must not block waiting
+   * for the rate limit.
+   */
+  private static class ExecutorThread extends Thread {
+
+    ExecutorThread(Runnable runnable, String name) {
+      super(runnable, name);
+    }
+
+  }
+
+  public static class Builder {
+
+    private int maxConnections = 20;
+    private int maxConnectionsPerTenant = 0;
+    private ScheduledExecutorService executor = null;
+    private int reservedConnections = -1;
+    private double reservedRateLimit = 0.1;
+    private long maxRateLimitWaitMillis = TimeUnit.SECONDS.toMillis(30);
+    private SSLContext sslContext = null;
+    private HttpBackend.Factory httpBackend = ApacheHttpBackend.FACTORY;
+    private AdaptiveLimitPolicy adaptiveLimitPolicy = AdaptiveLimitPolicy.DEFAULT;
+    private final List<RequestListener> listeners = new ArrayList<RequestListener>();
+
+    /**
+     * @param maxConnections how many requests may be in flight at once,
+     *    across all contexts. Defaults to 20. Every request goes to the same
+     *    host, so this is also how many connections are pooled for it, where
+     *    a context used to keep at most 2.
+     */
+    public Builder setMaxConnections(int maxConnections) {
+      if(maxConnections < 1) {
+        throw new IllegalArgumentException("Must allow at least one connection");
+      }
+      this.maxConnections = maxConnections;
+      return this;
+    }
+
+    /**
+     * @param maxConnectionsPerTenant how many requests one account may have
+     *    in flight at once. Defaults to no limit beyond
+     *    {@link #setMaxConnections(int)}.
+     */
+    public Builder setMaxConnectionsPerTenant(int maxConnectionsPerTenant) {
+      this.maxConnectionsPerTenant = maxConnectionsPerTenant;
+      return this;
+    }
+
+    /**
+     * @param executor used for background work instead of a pool owned by
+     *    the transport. It is not shut down when the transport is closed.
+     */
+    public Builder setExecutor(ScheduledExecutorService executor) {
+      this.executor = executor;
+      return this;
+    }
+
+    /**
+     * @param reservedConnections how many connections only
+     *    {@link Priority#INTERACTIVE} requests may use. Defaults to a quarter
+     *    of {@link #setMaxConnections(int)}. At least one connection is
+     *    always left for bulk requests.
+     */
+    public Builder setReservedConnections(int reservedConnections) {
+      if(reservedConnections < 0) {
+        throw new IllegalArgumentException("Reserved connections may not be negative");
+      }
+      this.reservedConnections = reservedConnections;
+      return this;
+    }
+
+    /**
+     * @param reservedRateLimit the share of each account's rate limit only
+     *    {@link Priority#INTERACTIVE} requests may use; bulk requests wait
+     *    for the limit to reset once no more than this is left (see
+     *    {@link #setMaxRateLimitWait(long, TimeUnit)}). Defaults to 0.1.
+     */
+    public Builder setReservedRateLimit(double reservedRateLimit) {
+      if(reservedRateLimit < 0 || reservedRateLimit > 1) {
+        throw new IllegalArgumentException("Reserved rate limit must be between 0 and 1: " + reservedRateLimit);
+      }
+      this.reservedRateLimit = reservedRateLimit;
+      return this;
+    }
+
+    /**
+     * @param maxRateLimitWait the longest a bulk request is held back for
+     *    the rate limit to reset (see {@link #setReservedRateLimit(double)}).
+     *    If it resets later the request fails straight away with a
+     *    {@link RateLimitReservedException}; 0 always fails straight away.
+     *    Requests made on the transport's own executor never wait.
+     *    Defaults to 30 seconds.
+     */
+    public Builder setMaxRateLimitWait(long maxRateLimitWait, TimeUnit unit) {
+      if(maxRateLimitWait < 0) {
+        throw new IllegalArgumentException("Longest wait may not be negative: " + maxRateLimitWait);
+      }
+      this.maxRateLimitWaitMillis = unit.toMillis(maxRateLimitWait);
+      return this;
+    }
+
+    /**
+     * @param adaptiveLimitPolicy how the number of bulk requests in flight
+     *    adapts to DNSimple's latency and errors, or {@code null} to always
+     *    allow as many as {@link #setReservedConnections(int)} leaves.
+     *    Defaults to {@link AdaptiveLimitPolicy#DEFAULT}.
+     */
+    public Builder setAdaptiveLimitPolicy(AdaptiveLimitPolicy adaptiveLimitPolicy) {
+      this.adaptiveLimitPolicy = adaptiveLimitPolicy;
+      return this;
+    }
+
+    /**
+     * @param sslContext used for every HTTPS connection, e.g. to trust a
+     *    stand-in server when testing. Its client session cache lets new
+     *    connections resume earlier TLS sessions instead of doing a full
+     *    handshake. Defaults to a TLS context with the JVM's default trust
+     *    store.
+     */
+    public Builder setSslContext(SSLContext sslContext) {
+      this.sslContext = sslContext;
+      return this;
+    }
+
+    /**
+     * @param httpBackend creates the HTTP client requests are sent with.
+     *    Defaults to {@link ApacheHttpBackend#FACTORY}; see also
+     *    {@link JdkHttpBackend}.
+     */
+    public Builder setHttpBackend(HttpBackend.Factory httpBackend) {
+      if(httpBackend == null) {
+        throw new IllegalArgumentException("HTTP backend may not be null");
+      }
+      this.httpBackend = httpBackend;
+      return this;
+    }
+
+    /**
+     * @param listener told about every request once it has finished
+     */
+    public Builder addRequestListener(RequestListener listener) {
+      this.listeners.add(listener);
+      return this;
+    }
+
+    public DnsimpleTransport build() {
+      return new DnsimpleTransport(this);
+    }
+
+  }
+
+}
@@ -0,0 +1,435 @@
+/**
+ * Copyright 2012 Nimble Servers Limited. http://nimbleservers.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.nimbleservers.dnsimple;
+
+import java.util.ArrayDeque;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Hands out a fixed number of permits to send requests, shared by many
+ * tenants (one per set of credentials).
+ * <p>
+ * Waiting tenants are served round robin, one permit at a time, so a tenant
+ * with thousands of queued requests only gets its turn alongside everyone
+ * else rather than ahead of them. A tenant may also be capped to hold fewer
+ * than all of the permits at once.
+ * <p>
+ * Each {@link Priority} has its own lane. Interactive requests are served
+ * before any bulk ones, and some permits are reserved for them: bulk
+ * requests may only hold the rest, or fewer if their lane's cap has been
+ * lowered (see {@link AdaptiveLimit}).
+ * <p>
+ * @author Chris Strand
+ */
+class FairScheduler {
+
+  private static final Priority PRIORITIES[] = Priority.values();
+
+  private final int maxPerTenant;
+  private final ReentrantLock lock = new ReentrantLock();
+  private final Map<String, Tenant> tenants = new HashMap<String, Tenant>();
+  // Indexed by priority, highest first
+  private final Lane lanes[] = new Lane[PRIORITIES.length];
+
+  private int available;
+  private int waiting = 0;
+
+  /**
+   * @param permits how many requests may be in flight at once
+   * @param maxPerTenant how many of those one tenant may hold
+   */
+  FairScheduler(int permits, int maxPerTenant) {
+    this(permits, maxPerTenant, 0);
+  }
+
+  /**
+   * @param permits how many requests may be in flight at once
+   * @param maxPerTenant how many of those one tenant may hold
+   * @param reserved how many of those only interactive requests may hold
+   */
+  FairScheduler(int permits, int maxPerTenant, int reserved) {
+    if(permits < 1 || maxPerTenant < 1) {
+      throw new IllegalArgumentException("Permits must be positive");
+    }
+    if(reserved < 0 || reserved >= permits) {
+      throw new IllegalArgumentException("Must leave at least one permit for bulk requests");
+    }
+    this.available = permits;
+    this.maxPerTenant = maxPerTenant;
+    for(Priority priority : PRIORITIES) {
+      lanes[priority.ordinal()] = new Lane(priority == Priority.INTERACTIVE ? permits : permits - reserved);
+    }
+  }
+
+  /**
+   * Blocks until {@code tenantId} may send an interactive request.
+   * @return the permit, which must be released once the request is finished
+   * @throws InterruptedException If interrupted while waiting
+   */
+  Permit acquire(String tenantId) throws InterruptedException {
+    return acquire(tenantId, Priority.INTERACTIVE, -1);
+  }
+
+  /**
+   * Blocks until {@code tenantId} may send a request, or the timeout passes.
+   * @param timeoutNanos how long to wait, or a negative number to wait for
+   *    as long as it takes
+   * @return the permit, which must be released once the request is
+   *    finished, or {@code null} if the timeout passed first
+   * @throws InterruptedException If interrupted while waiting
+   */
+  Permit acquire(String tenantId, Priority priority, long timeoutNanos) throws InterruptedException {
+    return acquire(tenantId, priority, timeoutNanos, Collections.<Cancellation>emptyList());
+  }
+
+  /**
+   * Blocks until {@code tenantId} may send a request, the timeout passes or
+   * one of {@code cancellations} is cancelled.
+   * @param timeoutNanos how long to wait, or a negative number to wait for
+   *    as long as it takes
+   * @return the permit, which must be released once the request is
+   *    finished, or {@code null} if the timeout passed or the call was
+   *    cancelled first
+   * @throws InterruptedException If interrupted while waiting
+   */
+  Permit acquire(String tenantId, Priority priority, long timeoutNanos, List<Cancellation> cancellations) throws InterruptedException {
+    lock.lock();
+    try {
+      Tenant tenant = tenants.get(tenantId);
+      if(tenant == null) {
+        tenant = new Tenant(tenantId);
+        tenants.put(tenantId, tenant);
+      }
+      Lane lane = lanes[priority.ordinal()];
+      Queue queue = tenant.queues[priority.ordinal()];
+
+      // Anyone already waiting was passed over because there was nothing
+      // free (or they were at their cap), so only queue behind our own and
+      // those of higher priority that dispatch() would serve first
+      if(canGrant(tenant, lane) && queue.waiters.isEmpty() && !higherGrantable(priority)) {
+        return grant(tenant, lane);
+      }
+
+      final Waiter waiter = new Waiter(lock.newCondition());
+      queue.waiters.add(waiter);
+      waiting++;
+      if(!queue.ready) {
+        queue.ready = true;
+        lane.ready.add(queue);
+      }
+
+      Runnable wakeUp = new Runnable() {
+        @Override
+        public void run() {
+          lock.lock();
+          try {
+            waiter.cancelled = true;
+            waiter.condition.signal();
+          } finally {
+            lock.unlock();
+          }
+        }
+      };
+      try {
+        for(Cancellation cancellation : cancellations) {
+          if(!cancellation.registerWaiter(wakeUp)) {
+            waiter.cancelled = true;
+          }
+        }
+
+        if(timeoutNanos < 0) {
+          while(!waiter.granted && !waiter.cancelled) {
+            waiter.condition.await();
+          }
+        } else {
+          long remaining = timeoutNanos;
+          while(!waiter.granted && !waiter.cancelled && remaining > 0) {
+            remaining = waiter.condition.awaitNanos(remaining);
+          }
+        }
+        if(!waiter.granted) {
+          abandon(queue, lane, waiter);
+          return null;
+        }
+      } catch(InterruptedException e) {
+        if(waiter.granted) {
+          // Too late to back out, so hand the permit on to someone else
+          release(tenant, lane);
+        } else {
+          abandon(queue, lane, waiter);
+        }
+        throw e;
+      } finally {
+        for(Cancellation cancellation : cancellations) {
+          cancellation.unregisterWaiter(wakeUp);
+        }
+      }
+
+      return new Permit(tenant, lane);
+
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  /**
+   * @return how many requests are waiting for a permit
+   */
+  int getWaiting() {
+    lock.lock();
+    try {
+      return waiting;
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  /**
+   * @return how many permits requests of {@code priority} hold
+   */
+  int getHeld(Priority priority) {
+    lock.lock();
+    try {
+      return lanes[priority.ordinal()].held;
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  /**
+   * @return the most permits requests of {@code priority} may hold
+   */
+  int getMax(Priority priority) {
+    lock.lock();
+    try {
+      return lanes[priority.ordinal()].max;
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  /**
+   * Changes how many permits requests of {@code priority} may hold. Any
+   * already holding more keep them until they are released.
+   */
+  void setMax(Priority priority, int max) {
+    if(max < 1) {
+      throw new IllegalArgumentException("Must allow at least one permit");
+    }
+    lock.lock();
+    try {
+      lanes[priority.ordinal()].max = max;
+      dispatch();
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  private boolean canGrant(Tenant tenant, Lane lane) {
+    return available > 0 && tenant.held < maxPerTenant && lane.held < lane.max;
+  }
+
+  /**
+   * @return {@code true} if a higher priority than {@code priority} has a
+   *    waiter that could be granted a permit now. Those held back by their
+   *    tenant's or lane's cap do not hold up anyone else.
+   */
+  private boolean higherGrantable(Priority priority) {
+    for(int i = 0; i < priority.ordinal(); i++) {
+      Lane lane = lanes[i];
+      if(lane.held >= lane.max) {
+        continue;
+      }
+      for(Queue queue : lane.ready) {
+        if(queue.tenant.held < maxPerTenant) {
+          return true;
+        }
+      }
+    }
+    return false;
+  }
+
+  private Permit grant(Tenant tenant, Lane lane) {
+    available--;
+    tenant.held++;
+    lane.held++;
+    return new Permit(tenant, lane);
+  }
+
+  private void release(Tenant tenant, Lane lane) {
+    lock.lock();
+    try {
+      tenant.held--;
+      lane.held--;
+      available++;
+      dispatch();
+      forget(tenant);
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  /**
+   * Gives free permits to waiting tenants, highest priority first and one
+   * each in turn within a priority.
+   */
+  private void dispatch() {
+    for(Lane lane : lanes) {
+      boolean granted = true;
+      while(available > 0 && lane.held < lane.max && granted && !lane.ready.isEmpty()) {
+        granted = false;
+        int turns = lane.ready.size();
+        while(available > 0 && lane.held < lane.max && turns-- > 0) {
+          Queue queue = lane.ready.poll();
+          Tenant tenant = queue.tenant;
+          if(tenant.held < maxPerTenant) {
+            Waiter waiter = queue.waiters.poll();
+            waiting--;
+            available--;
+            tenant.held++;
+            lane.held++;
+            waiter.granted = true;
+            waiter.condition.signal();
+            granted = true;
+          }
+
+          if(queue.waiters.isEmpty()) {
+            queue.ready = false;
+          } else {
+            lane.ready.add(queue);
+          }
+        }
+      }
+    }
+  }
+
+  /**
+   * Takes back a waiter that gave up before being granted a permit.
+   */
+  private void abandon(Queue queue, Lane lane, Waiter waiter) {
+    queue.waiters.remove(waiter);
+    waiting--;
+    if(queue.waiters.isEmpty() && queue.ready) {
+      queue.ready = false;
+      lane.ready.remove(queue);
+    }
+    // Lower priorities may have been held back by this waiter
+    dispatch();
+    forget(queue.tenant);
+  }
+
+  private void forget(Tenant tenant) {
+    if(tenant.held > 0) {
+      return;
+    }
+    for(Queue queue : tenant.queues) {
+      if(!queue.waiters.isEmpty()) {
+        return;
+      }
+    }
+    tenants.remove(tenant.id);
+  }
+
+  /**
+   * The right to have one request in flight. Releasing more than once has no
+   * further effect.
+   */
+  class Permit {
+
+    private final Tenant tenant;
+    private final Lane lane;
+    private final AtomicBoolean released = new AtomicBoolean(false);
+
+    private Permit(Tenant tenant, Lane lane) {
+      this.tenant = tenant;
+      this.lane = lane;
+    }
+
+    /**
+     * @return {@code true} if this call released the permit
+     */
+    boolean release() {
+      if(released.compareAndSet(false, true)) {
+        FairScheduler.this.release(tenant, lane);
+        return true;
+      }
+      return false;
+    }
+
+  }
+
+  private static class Lane {
+
+    // Tenants with someone waiting, in the order they will next be served
+    private final ArrayDeque<Queue> ready = new ArrayDeque<Queue>();
+    private int max;
+    private int held = 0;
+
+    private Lane(int max) {
+      this.max = max;
+    }
+
+  }
+
+  private static class Tenant {
+
+    private final String id;
+    private final Queue queues[] = new Queue[PRIORITIES.length];
+    private int held = 0;
+
+    private Tenant(String id) {
+      this.id = id;
+      for(int i = 0; i < queues.length; i++) {
+        queues[i] = new Queue(this);
+      }
+    }
+
+  }
+
+  /**
+   * One tenant's waiters at one priority
+   */
+  private static class Queue {
+
+    private final Tenant tenant;
+    private final ArrayDeque<Waiter> waiters = new ArrayDeque<Waiter>();
+    private boolean ready = false;
+
+    private Queue(Tenant tenant) {
+      this.tenant = tenant;
+    }
+
+  }
+
+  private static class Waiter {
+
+    private final Condition condition;
+    private boolean granted = false;
+    private boolean cancelled = false;
+
+    private Waiter(Condition condition) {
+      this.condition = condition;
+    }
+
+  }
+
+}
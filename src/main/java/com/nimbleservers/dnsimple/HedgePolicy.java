@@ -0,0 +1,153 @@
+/**
+ * Copyright 2012 Nimble Servers Limited. http://nimbleservers.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.nimbleservers.dnsimple;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * When to hedge read requests: if a GET has not been answered within the
+ * given percentile of recent response times, an identical request is sent
+ * on another connection and whichever answers first is used. The other is
+ * aborted.
+ * <p>
+ * Hedges are limited by a budget, as a fraction of all reads, so a slow
+ * API is not made slower by doubling its load.
+ * <p>
+ * For example, to hedge reads slower than 95% of recent ones, sending at
+ * most 5% extra requests:
+ * <pre>
+ * HedgePolicy policy = HedgePolicy.getBuilder()
+ *    .setPercentile(0.95)
+ *    .setBudget(0.05)
+ *    .build();
+ * DnsimpleContext context = DnsimpleContext.getBuilder()
+ *    ...
+ *    .setHedgePolicy(policy)
+ *    .build();
+ * </pre>
+ * @author Chris Strand
+ * @see TransportMetrics#getHedges()
+ */
+public class HedgePolicy {
+
+  private final double percentile;
+  private final double budget;
+  private final long minDelayMillis;
+  private final long initialDelayMillis;
+
+  private HedgePolicy(Builder builder) {
+    this.percentile = builder.percentile;
+    this.budget = builder.budget;
+    this.minDelayMillis = builder.minDelayMillis;
+    this.initialDelayMillis = builder.initialDelayMillis;
+  }
+
+  public static Builder getBuilder() {
+    return new Builder();
+  }
+
+  /**
+   * @return the fraction of recent reads that should be answered before a
+   *    hedge is sent
+   */
+  public double getPercentile() {
+    return percentile;
+  }
+
+  /**
+   * @return the most hedges that may be sent, as a fraction of reads
+   */
+  public double getBudget() {
+    return budget;
+  }
+
+  /**
+   * @return the shortest time to wait before hedging, in milliseconds
+   */
+  public long getMinDelayMillis() {
+    return minDelayMillis;
+  }
+
+  /**
+   * @return how long to wait before hedging until enough response times
+   *    have been seen to work out the percentile, in milliseconds
+   */
+  public long getInitialDelayMillis() {
+    return initialDelayMillis;
+  }
+
+  @Override
+  public String toString() {
+    return "HedgePolicy [percentile=" + percentile + ", budget=" + budget
+        + ", minDelayMillis=" + minDelayMillis + ", initialDelayMillis="
+        + initialDelayMillis + "]";
+  }
+
+  public static class Builder {
+
+    private double percentile = 0.95;
+    private double budget = 0.05;
+    private long minDelayMillis = 10;
+    private long initialDelayMillis = 500;
+
+    /**
+     * @param percentile between 0 and 1. Defaults to 0.95.
+     */
+    public Builder setPercentile(double percentile) {
+      if(percentile <= 0 || percentile >= 1) {
+        throw new IllegalArgumentException("Percentile must be between 0 and 1: " + percentile);
+      }
+      this.percentile = percentile;
+      return this;
+    }
+
+    /**
+     * @param budget the most hedges that may be sent, as a fraction of
+     *    reads. Defaults to 0.05.
+     */
+    public Builder setBudget(double budget) {
+      if(budget < 0) {
+        throw new IllegalArgumentException("Budget may not be negative: " + budget);
+      }
+      this.budget = budget;
+      return this;
+    }
+
+    /**
+     * @param minDelay the shortest time to wait before hedging. Defaults to
+     *    10 milliseconds.
+     */
+    public Builder setMinDelay(long minDelay, TimeUnit unit) {
+      this.minDelayMillis = unit.toMillis(minDelay);
+      return this;
+    }
+
+    /**
+     * @param initialDelay how long to wait before hedging until enough
+     *    response times have been seen. Defaults to 500 milliseconds.
+     */
+    public Builder setInitialDelay(long initialDelay, TimeUnit unit) {
+      this.initialDelayMillis = unit.toMillis(initialDelay);
+      return this;
+    }
+
+    public HedgePolicy build() {
+      return new HedgePolicy(this);
+    }
+
+  }
+
+}
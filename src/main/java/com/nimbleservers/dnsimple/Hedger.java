@@ -0,0 +1,398 @@
+/**
+ * Copyright 2012 Nimble Servers Limited. http://nimbleservers.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.nimbleservers.dnsimple;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.http.Header;
+import org.apache.http.client.methods.HttpGet;
+
+/**
+ * Sends GETs according to a {@link HedgePolicy}. The first attempt is made
+ * on the calling thread. If it has not finished after the policy's
+ * percentile of recent response times for the same operation, a second
+ * attempt is made on one of the hedger's own threads, with its own
+ * connection from the pool. The transport's executor only times the delay.
+ * Whichever finishes first is used and the other is cancelled, which wakes
+ * it even if it is still waiting for a connection.
+ * <p>
+ * Each read adds the policy's budget to an allowance, and each hedge takes
+ * one from it, so hedges stay within that fraction of reads (with a small
+ * burst allowed after a quiet spell).
+ * <p>
+ * Thread Safe.
+ * <p>
+ * @author Chris Strand
+ */
+class Hedger {
+
+  /**
+   * Response times kept for working out the percentile
+   */
+  private static final int SAMPLES = 1024;
+
+  /**
+   * Response times needed before the percentile is used rather than the
+   * policy's initial delay
+   */
+  private static final int MIN_SAMPLES = 20;
+
+  /**
+   * How often, in samples, the delay is worked out again
+   */
+  private static final int RECALCULATE_EVERY = 64;
+
+  /**
+   * Most hedges that can be saved up
+   */
+  private static final double MAX_ALLOWANCE = 10;
+
+  /**
+   * Most hedges in flight at once, beyond which reads are not hedged
+   */
+  private static final int MAX_HEDGES = 16;
+
+  /**
+   * Request parameter holding which attempt a request is: 1 (or unset) for
+   * the first, 2 for the hedge
+   */
+  static final String ATTEMPT = "com.nimbleservers.dnsimple.attempt";
+
+  /**
+   * One request (plus reading its response), which may be made more than
+   * once.
+   */
+  interface Attempt<T> {
+    /**
+     * @param options to apply on top of the context's, so the attempt can
+     *    be cancelled when the other one wins
+     */
+    T run(HttpGet httpGet, RequestOptions options) throws UnexpectedResponseException, IOException;
+  }
+
+  private final HedgePolicy policy;
+  private final ScheduledExecutorService timers;
+  private final ThreadPoolExecutor hedgers;
+  private final TransportMetrics metrics;
+
+  // Guarded by this
+  private final Map<String, Window> windows = new HashMap<String, Window>();
+  private double allowance = 1;
+
+  /**
+   * @param timers only used to time the delay before hedging
+   */
+  Hedger(HedgePolicy policy, ScheduledExecutorService timers, TransportMetrics metrics) {
+    this.policy = policy;
+    this.timers = timers;
+    this.metrics = metrics;
+    this.hedgers = new ThreadPoolExecutor(0, MAX_HEDGES, 60, TimeUnit.SECONDS,
+        new SynchronousQueue<Runnable>(), new ThreadFactory() {
+          private final AtomicInteger count = new AtomicInteger();
+          @Override
+          public Thread newThread(Runnable runnable) {
+            Thread thread = new Thread(runnable, "dnsimple-hedge-" + count.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+          }
+        });
+  }
+
+  /**
+   * Makes the attempt with a GET of {@code uri}, hedging it if it is slow.
+   * @param operation the name of the method making the request. Each has
+   *    its own window of response times.
+   */
+  <T> T get(String operation, String uri, Header headers[], Attempt<T> attempt) throws UnexpectedResponseException, IOException {
+    metrics.onHedgeable();
+    final Window window = window(operation);
+
+    final Race<T> race = new Race<T>(uri, headers, attempt, window);
+    ScheduledFuture<?> timer;
+    try {
+      timer = timers.schedule(new Runnable() {
+        @Override
+        public void run() {
+          try {
+            hedgers.execute(new Runnable() {
+              @Override
+              public void run() {
+                race.hedge();
+              }
+            });
+          } catch(RejectedExecutionException e) {
+            // As many hedges in flight as allowed, or closed
+          }
+        }
+      }, getDelayNanos(window), TimeUnit.NANOSECONDS);
+    } catch(RejectedExecutionException e) {
+      // Shutting down, so just send the one request
+      timer = null;
+    }
+
+    long start = System.nanoTime();
+    T value;
+    try {
+      value = attempt.run(race.primary, race.primaryOptions);
+    } catch(UnexpectedResponseException | IOException | RuntimeException e) {
+      cancel(timer);
+      if(!race.primaryFailed()) {
+        throw e;
+      }
+      return race.awaitHedge(e);
+    }
+
+    cancel(timer);
+    if(race.primaryWon()) {
+      addSample(window, System.nanoTime() - start);
+      return value;
+    }
+    return race.awaitHedge(null);
+  }
+
+  /**
+   * Stops the hedger's threads once their hedges are done.
+   */
+  void close() {
+    hedgers.shutdown();
+  }
+
+  private void cancel(ScheduledFuture<?> timer) {
+    if(timer != null) {
+      timer.cancel(false);
+    }
+  }
+
+  /**
+   * @return the window for {@code operation}, having added a read to the
+   *    allowance
+   */
+  private synchronized Window window(String operation) {
+    allowance = Math.min(MAX_ALLOWANCE, allowance + policy.getBudget());
+    Window window = windows.get(operation);
+    if(window == null) {
+      window = new Window(TimeUnit.MILLISECONDS.toNanos(policy.getInitialDelayMillis()));
+      windows.put(operation, window);
+    }
+    return window;
+  }
+
+  private synchronized boolean withdraw() {
+    if(allowance < 1) {
+      return false;
+    }
+    allowance -= 1;
+    return true;
+  }
+
+  private synchronized long getDelayNanos(Window window) {
+    return window.delayNanos;
+  }
+
+  private synchronized void addSample(Window window, long nanos) {
+    window.samples[window.nextSample] = nanos;
+    window.nextSample = (window.nextSample + 1) % SAMPLES;
+    if(window.sampleCount < SAMPLES) {
+      window.sampleCount++;
+    }
+
+    window.sinceRecalculated++;
+    int sampleCount = window.sampleCount;
+    if(sampleCount >= MIN_SAMPLES && (sampleCount == MIN_SAMPLES || window.sinceRecalculated >= RECALCULATE_EVERY)) {
+      window.sinceRecalculated = 0;
+      long sorted[] = Arrays.copyOf(window.samples, sampleCount);
+      Arrays.sort(sorted);
+      int index = (int) Math.ceil(policy.getPercentile() * sampleCount) - 1;
+      long percentile = sorted[Math.max(0, Math.min(sampleCount - 1, index))];
+      window.delayNanos = Math.max(TimeUnit.MILLISECONDS.toNanos(policy.getMinDelayMillis()), percentile);
+    }
+  }
+
+  private static void rethrow(Exception e) throws UnexpectedResponseException, IOException {
+    if(e instanceof UnexpectedResponseException) {
+      throw (UnexpectedResponseException) e;
+    } else if(e instanceof IOException) {
+      throw (IOException) e;
+    }
+    throw (RuntimeException) e;
+  }
+
+  /**
+   * Recent response times of one operation. Guarded by the hedger.
+   */
+  private static class Window {
+
+    private final long samples[] = new long[SAMPLES];
+    private int sampleCount = 0;
+    private int nextSample = 0;
+    private int sinceRecalculated = 0;
+    private long delayNanos;
+
+    private Window(long delayNanos) {
+      this.delayNanos = delayNanos;
+    }
+
+  }
+
+  /**
+   * The attempts made for one read. The first is made by the caller, the
+   * hedge (if any) on one of the hedger's threads.
+   */
+  private class Race<T> {
+
+    final HttpGet primary;
+    final RequestOptions primaryOptions;
+
+    private final String uri;
+    private final Header headers[];
+    private final Attempt<T> attempt;
+    private final Window window;
+    private final Cancellation primaryCancellation = new Cancellation();
+    private final Cancellation hedgeCancellation = new Cancellation();
+
+    private HttpGet hedge = null;
+    private boolean finished = false;
+    private boolean hedgeDone = false;
+    private T hedgeResult = null;
+    private Exception hedgeFailure = null;
+
+    Race(String uri, Header headers[], Attempt<T> attempt, Window window) {
+      this.uri = uri;
+      this.headers = headers;
+      this.attempt = attempt;
+      this.window = window;
+      this.primary = newRequest();
+      this.primaryOptions = RequestOptions.getBuilder()
+          .setCancellation(primaryCancellation)
+          .build();
+    }
+
+    private HttpGet newRequest() {
+      HttpGet httpGet = new HttpGet(uri);
+      httpGet.setHeaders(headers);
+      return httpGet;
+    }
+
+    /**
+     * Called on one of the hedger's threads once the delay has passed
+     */
+    void hedge() {
+      HttpGet httpGet;
+      synchronized(this) {
+        if(finished || !withdraw()) {
+          return;
+        }
+        httpGet = newRequest();
+        httpGet.getParams().setIntParameter(ATTEMPT, 2);
+        hedge = httpGet;
+      }
+      metrics.onHedge();
+
+      long start = System.nanoTime();
+      T value = null;
+      Exception failure = null;
+      try {
+        value = attempt.run(httpGet, RequestOptions.getBuilder()
+            .setCancellation(hedgeCancellation)
+            .build());
+      } catch(Exception e) {
+        failure = e;
+      }
+
+      boolean won;
+      synchronized(this) {
+        won = failure == null && !finished;
+        if(won) {
+          finished = true;
+          metrics.onHedgeWin();
+        }
+        hedgeDone = true;
+        hedgeResult = value;
+        hedgeFailure = failure;
+        notifyAll();
+      }
+
+      if(won) {
+        // Aborts the first attempt, or wakes it if still waiting for a
+        // connection
+        primaryCancellation.cancel();
+        addSample(window, System.nanoTime() - start);
+      }
+    }
+
+    /**
+     * @return {@code true} if the first attempt finished first, in which
+     *    case any hedge is aborted
+     */
+    synchronized boolean primaryWon() {
+      if(finished) {
+        return false;
+      }
+      finished = true;
+      if(hedge != null) {
+        hedgeCancellation.cancel();
+      }
+      return true;
+    }
+
+    /**
+     * @return {@code true} if a hedge has been sent, so its outcome should
+     *    be waited for
+     */
+    synchronized boolean primaryFailed() {
+      if(hedge == null) {
+        finished = true;
+        return false;
+      }
+      return true;
+    }
+
+    /**
+     * @param primaryFailure thrown if the hedge fails too
+     */
+    synchronized T awaitHedge(Exception primaryFailure) throws UnexpectedResponseException, IOException {
+      while(!hedgeDone) {
+        try {
+          wait();
+        } catch(InterruptedException e) {
+          hedgeCancellation.cancel();
+          Thread.currentThread().interrupt();
+          throw new InterruptedIOException("Interrupted waiting for hedged request");
+        }
+      }
+
+      if(hedgeFailure == null) {
+        return hedgeResult;
+      }
+      rethrow(primaryFailure != null ? primaryFailure : hedgeFailure);
+      return null;
+    }
+
+  }
+
+}
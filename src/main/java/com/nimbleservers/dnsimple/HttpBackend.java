@@ -0,0 +1,85 @@
+/**
+ * Copyright 2012 Nimble Servers Limited. http://nimbleservers.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.nimbleservers.dnsimple;
+
+import java.io.IOException;
+import java.util.concurrent.ScheduledExecutorService;
+
+import javax.net.ssl.SSLContext;
+
+import org.apache.http.HttpResponse;
+import org.apache.http.client.methods.AbortableHttpRequest;
+import org.apache.http.client.methods.HttpUriRequest;
+
+/**
+ * The HTTP client a {@link DnsimpleTransport} sends requests with. The
+ * transport does everything else: turns at the pool, deadlines,
+ * cancellation, rate limits and metrics.
+ * <p>
+ * Requests and responses are HttpCore's, whichever client is used.
+ * {@link ApacheHttpBackend} is the default, and {@link JdkHttpBackend} uses
+ * the JDK's HTTP/2 capable client. To use another, implement this and pass
+ * a {@link Factory} to {@link DnsimpleTransport.Builder#setHttpBackend}.
+ * <p>
+ * Implementations must be thread safe, and must stop a request when it is
+ * aborted, whether it is still waiting for the response or its content is
+ * being read. Requests are {@link AbortableHttpRequest}s, so a client
+ * without its own connection manager can register to be told through
+ * {@link AbortableHttpRequest#setReleaseTrigger}.
+ * <p>
+ * @author Chris Strand
+ */
+public interface HttpBackend {
+
+  /**
+   * Creates a backend for a transport.
+   */
+  interface Factory {
+
+    /**
+     * @param maxConnections the most requests the transport will have in
+     *    flight at once
+     * @param sslContext for HTTPS connections
+     * @param executor the transport's executor, for background work
+     */
+    HttpBackend create(int maxConnections, SSLContext sslContext, ScheduledExecutorService executor);
+
+  }
+
+  /**
+   * Sends {@code request}. The response's content, if any, is read by the
+   * caller, who consumes or closes it when done.
+   * @param timeoutMillis the longest to wait to connect and for each part
+   *    of the response, or 0 for the client's defaults
+   * @throws IOException If the request failed or was aborted
+   */
+  HttpResponse execute(HttpUriRequest request, long timeoutMillis) throws IOException;
+
+  /**
+   * Opens connections to the host of {@code uri} ahead of the first
+   * requests. How is up to the backend, which documents whether it sends
+   * any requests to do so and whether connections already open count.
+   * @return how many connections were opened or found already open
+   * @throws IOException If a connection could not be opened
+   */
+  int warmUp(String uri, int connections) throws IOException;
+
+  /**
+   * Closes all connections. Requests in flight fail.
+   */
+  void close();
+
+}
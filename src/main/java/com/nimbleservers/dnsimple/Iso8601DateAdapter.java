@@ -0,0 +1,262 @@
+/**
+ * Copyright 2012 Nimble Servers Limited. http://nimbleservers.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.nimbleservers.dnsimple;
+
+import java.io.IOException;
+import java.time.Instant;
+import java.util.Date;
+
+import com.google.gson.JsonSyntaxException;
+import com.google.gson.TypeAdapter;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.google.gson.stream.JsonWriter;
+
+/**
+ * Reads and writes dates as ISO 8601 timestamps, which is what DNSimple
+ * uses.
+ * <p>
+ * GSON's default date handling goes through a {@code DateFormat}, which is
+ * slow, depends on the default locale and is synchronised. This parses the
+ * characters directly instead, without allocating anything but the result.
+ * The forms accepted are:
+ * <ul>
+ * <li>{@code 2012-03-14} (midnight UTC)</li>
+ * <li>{@code 2012-03-14T10:49:39Z}, optionally with fractional seconds
+ *    (only milliseconds are kept)</li>
+ * <li>the same with an offset instead of {@code Z}, as {@code +01:00},
+ *    {@code +0100} or {@code +01}; no zone at all means UTC</li>
+ * <li>a space instead of the {@code T}, and {@code UTC} or a space before
+ *    the zone, e.g. {@code 2012-03-14 10:49:39 UTC}</li>
+ * </ul>
+ * Dates are written as UTC, e.g. {@code 2012-03-14T10:49:39Z}.
+ * <p>
+ * Thread Safe.
+ * <p>
+ * @author Chris Strand
+ */
+public class Iso8601DateAdapter extends TypeAdapter<Date> {
+
+  private static final int DAYS_IN_MONTH[] = { 31, 28, 31, 30, 31, 30, 31, 31, 30, 31, 30, 31 };
+
+  @Override
+  public Date read(JsonReader reader) throws IOException {
+    if(reader.peek() == JsonToken.NULL) {
+      reader.nextNull();
+      return null;
+    }
+    return toDate(reader.nextString());
+  }
+
+  @Override
+  public void write(JsonWriter writer, Date date) throws IOException {
+    if(date == null) {
+      writer.nullValue();
+    } else {
+      writer.value(Instant.ofEpochMilli(date.getTime()).toString());
+    }
+  }
+
+  /**
+   * @return {@code timestamp} as a date, or {@code null} if it is
+   *    {@code null}
+   * @throws JsonSyntaxException If {@code timestamp} is not in one of the
+   *    accepted forms
+   */
+  public static Date toDate(String timestamp) throws JsonSyntaxException {
+    if(timestamp == null) {
+      return null;
+    }
+    try {
+      return new Date(parse(timestamp));
+    } catch(IllegalArgumentException e) {
+      throw new JsonSyntaxException(e.getMessage(), e);
+    }
+  }
+
+  /**
+   * @return {@code timestamp} as an instant, or {@code null} if it is
+   *    {@code null}
+   * @throws JsonSyntaxException If {@code timestamp} is not in one of the
+   *    accepted forms
+   */
+  public static Instant toInstant(String timestamp) throws JsonSyntaxException {
+    if(timestamp == null) {
+      return null;
+    }
+    try {
+      return Instant.ofEpochMilli(parse(timestamp));
+    } catch(IllegalArgumentException e) {
+      throw new JsonSyntaxException(e.getMessage(), e);
+    }
+  }
+
+  /**
+   * @return the number of milliseconds since the epoch that
+   *    {@code timestamp} represents
+   * @throws IllegalArgumentException If {@code timestamp} is not in one of
+   *    the accepted forms
+   */
+  public static long parse(String timestamp) throws IllegalArgumentException {
+    int length = timestamp.length();
+
+    int year = digits(timestamp, 0, 4);
+    expect(timestamp, 4, '-');
+    int month = digits(timestamp, 5, 2);
+    expect(timestamp, 7, '-');
+    int day = digits(timestamp, 8, 2);
+    int pos = 10;
+
+    int hour = 0;
+    int minute = 0;
+    int second = 0;
+    int millis = 0;
+    int offsetMinutes = 0;
+
+    if(pos < length) {
+      char separator = timestamp.charAt(pos);
+      if(separator != 'T' && separator != 't' && separator != ' ') {
+        throw invalid(timestamp);
+      }
+
+      hour = digits(timestamp, pos + 1, 2);
+      expect(timestamp, pos + 3, ':');
+      minute = digits(timestamp, pos + 4, 2);
+      pos += 6;
+
+      if(pos < length && timestamp.charAt(pos) == ':') {
+        second = digits(timestamp, pos + 1, 2);
+        pos += 3;
+      }
+
+      if(pos < length && (timestamp.charAt(pos) == '.' || timestamp.charAt(pos) == ',')) {
+        pos++;
+        int count = 0;
+        while(pos < length && isDigit(timestamp.charAt(pos))) {
+          if(count < 3) {
+            millis = millis * 10 + (timestamp.charAt(pos) - '0');
+          }
+          count++;
+          pos++;
+        }
+        if(count == 0) {
+          throw invalid(timestamp);
+        }
+        for(; count < 3; count++) {
+          millis *= 10;
+        }
+      }
+
+      if(pos < length && timestamp.charAt(pos) == ' ') {
+        pos++;
+      }
+
+      if(pos < length) {
+        char zone = timestamp.charAt(pos);
+        if(zone == 'Z' || zone == 'z') {
+          pos++;
+        } else if(timestamp.startsWith("UTC", pos)) {
+          pos += 3;
+        } else if(zone == '+' || zone == '-') {
+          int offsetHours = digits(timestamp, pos + 1, 2);
+          int offsetMins = 0;
+          pos += 3;
+          if(pos < length && timestamp.charAt(pos) == ':') {
+            pos++;
+          }
+          if(pos < length) {
+            offsetMins = digits(timestamp, pos, 2);
+            pos += 2;
+          }
+          if(offsetHours > 18 || offsetMins > 59) {
+            throw invalid(timestamp);
+          }
+          offsetMinutes = offsetHours * 60 + offsetMins;
+          if(zone == '-') {
+            offsetMinutes = -offsetMinutes;
+          }
+        } else {
+          throw invalid(timestamp);
+        }
+      }
+
+      if(pos != length) {
+        throw invalid(timestamp);
+      }
+    }
+
+    if(month < 1 || month > 12 || day < 1 || day > daysInMonth(year, month)
+        || hour > 23 || minute > 59 || second > 59) {
+      throw invalid(timestamp);
+    }
+
+    long days = daysSinceEpoch(year, month, day);
+    long seconds = ((days * 24 + hour) * 60 + minute - offsetMinutes) * 60 + second;
+    return seconds * 1000 + millis;
+  }
+
+  private static int daysInMonth(int year, int month) {
+    if(month == 2 && (year % 4 == 0 && (year % 100 != 0 || year % 400 == 0))) {
+      return 29;
+    }
+    return DAYS_IN_MONTH[month - 1];
+  }
+
+  /**
+   * Days from 1970-01-01 to the given date in the proleptic Gregorian
+   * calendar.
+   * @see <a href="http://howardhinnant.github.io/date_algorithms.html#days_from_civil">days_from_civil</a>
+   */
+  private static long daysSinceEpoch(int year, int month, int day) {
+    // Count years from March so the leap day comes last
+    long y = month <= 2 ? year - 1 : year;
+    long era = (y >= 0 ? y : y - 399) / 400;
+    long yearOfEra = y - era * 400;
+    long dayOfYear = (153 * (month > 2 ? month - 3 : month + 9) + 2) / 5 + day - 1;
+    long dayOfEra = yearOfEra * 365 + yearOfEra / 4 - yearOfEra / 100 + dayOfYear;
+    return era * 146097 + dayOfEra - 719468;
+  }
+
+  private static int digits(String timestamp, int pos, int count) {
+    if(pos + count > timestamp.length()) {
+      throw invalid(timestamp);
+    }
+    int result = 0;
+    for(int i = pos; i < pos + count; i++) {
+      char c = timestamp.charAt(i);
+      if(!isDigit(c)) {
+        throw invalid(timestamp);
+      }
+      result = result * 10 + (c - '0');
+    }
+    return result;
+  }
+
+  private static void expect(String timestamp, int pos, char expected) {
+    if(pos >= timestamp.length() || timestamp.charAt(pos) != expected) {
+      throw invalid(timestamp);
+    }
+  }
+
+  private static boolean isDigit(char c) {
+    return c >= '0' && c <= '9';
+  }
+
+  private static IllegalArgumentException invalid(String timestamp) {
+    return new IllegalArgumentException("Not an ISO 8601 timestamp: " + timestamp);
+  }
+
+}
@@ -0,0 +1,403 @@
+/**
+ * Copyright 2012 Nimble Servers Limited. http://nimbleservers.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.nimbleservers.dnsimple;
+
+import java.io.ByteArrayOutputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse.BodyHandlers;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+
+import javax.net.ssl.SSLContext;
+
+import org.apache.http.Header;
+import org.apache.http.HttpEntity;
+import org.apache.http.HttpEntityEnclosingRequest;
+import org.apache.http.HttpResponse;
+import org.apache.http.HttpVersion;
+import org.apache.http.ProtocolVersion;
+import org.apache.http.client.methods.AbortableHttpRequest;
+import org.apache.http.client.methods.HttpUriRequest;
+import org.apache.http.conn.ConnectionReleaseTrigger;
+import org.apache.http.entity.BasicHttpEntity;
+import org.apache.http.impl.EnglishReasonPhraseCatalog;
+import org.apache.http.message.BasicHttpResponse;
+import org.apache.http.message.BasicStatusLine;
+
+/**
+ * Sends requests with the JDK's {@link HttpClient}, which multiplexes them
+ * over one HTTP/2 connection where the server supports it, and otherwise
+ * keeps its own pool of HTTP/1.1 connections. For example:
+ * <pre>
+ * DnsimpleTransport transport = DnsimpleTransport.getBuilder()
+ *    .setHttpBackend(JdkHttpBackend.FACTORY)
+ *    .build();
+ * </pre>
+ * The JDK's client cannot cap its own pool, so the transport's connection
+ * limit only bounds how many requests are in flight, and so how many
+ * HTTP/1.1 connections are in use at once; {@link #warmUp(String, int)}
+ * opens no more than that. Request bodies are buffered before sending;
+ * they are small.
+ * <p>
+ * Before Java 16 the client cannot abort a request that is waiting for its
+ * response. An aborted request (at its deadline, or when cancelled) fails
+ * straight away and gives up its turn, but the exchange runs on until the
+ * response arrives and is then closed, so for a while more requests may be
+ * in flight than the transport allows. Use Java 16 or later where that
+ * matters.
+ * <p>
+ * Warming up sends a {@code HEAD} request, without credentials, for each
+ * connection, since the client cannot open one otherwise, and does not
+ * count connections already open.
+ * <p>
+ * Thread Safe.
+ * <p>
+ * @author Chris Strand
+ */
+public class JdkHttpBackend implements HttpBackend {
+
+  /**
+   * Prefers HTTP/2, falling back to HTTP/1.1
+   */
+  public static final HttpBackend.Factory FACTORY = factory(HttpClient.Version.HTTP_2);
+
+  private static final ProtocolVersion HTTP_2 = new ProtocolVersion("HTTP", 2, 0);
+
+  /**
+   * Headers the client sets itself and will not accept
+   */
+  private static final Set<String> RESTRICTED_HEADERS = new HashSet<String>(Arrays.asList(
+      "connection", "content-length", "expect", "host", "upgrade"));
+
+  private static final Duration WARM_UP_TIMEOUT = Duration.ofSeconds(10);
+  // Whether cancelling a request's future stops the exchange
+  private static final boolean CANCEL_ABORTS = Runtime.version().feature() >= 16;
+  private static final long TIMEOUT_SLACK_MILLIS = 5;
+
+  private final HttpClient client;
+  private final ExecutorService clientExecutor;
+  private final int maxConnections;
+
+  JdkHttpBackend(HttpClient.Version version, int maxConnections, SSLContext sslContext) {
+    this.maxConnections = maxConnections;
+    // Owned, so that closing stops the client's threads. The client itself
+    // cannot be closed before Java 21.
+    this.clientExecutor = Executors.newCachedThreadPool(new ThreadFactory() {
+      private final AtomicInteger count = new AtomicInteger();
+      @Override
+      public Thread newThread(Runnable runnable) {
+        Thread thread = new Thread(runnable, "dnsimple-http-" + count.incrementAndGet());
+        thread.setDaemon(true);
+        return thread;
+      }
+    });
+    this.client = HttpClient.newBuilder()
+        .version(version)
+        .sslContext(sslContext)
+        .followRedirects(HttpClient.Redirect.NEVER)
+        .executor(clientExecutor)
+        .build();
+  }
+
+  /**
+   * @param version the HTTP version to ask for
+   */
+  public static HttpBackend.Factory factory(final HttpClient.Version version) {
+    return new HttpBackend.Factory() {
+      @Override
+      public HttpBackend create(int maxConnections, SSLContext sslContext, ScheduledExecutorService executor) {
+        return new JdkHttpBackend(version, maxConnections, sslContext);
+      }
+    };
+  }
+
+  @Override
+  public HttpResponse execute(HttpUriRequest request, long timeoutMillis) throws IOException {
+    HttpRequest.Builder builder = HttpRequest.newBuilder(request.getURI());
+    for(Header header : request.getAllHeaders()) {
+      if(!RESTRICTED_HEADERS.contains(header.getName().toLowerCase(Locale.ENGLISH))) {
+        builder.header(header.getName(), header.getValue());
+      }
+    }
+    builder.method(request.getMethod(), body(request, builder));
+    if(timeoutMillis > 0) {
+      // The transport aborts the request at its deadline, so this is only a
+      // backstop; a little slack keeps it from winning the race
+      builder.timeout(Duration.ofMillis(timeoutMillis + TIMEOUT_SLACK_MILLIS));
+    }
+
+    Exchange exchange = new Exchange();
+    if(request instanceof AbortableHttpRequest) {
+      // Throws if the request has already been aborted
+      ((AbortableHttpRequest) request).setReleaseTrigger(exchange);
+    }
+    exchange.start(client.sendAsync(builder.build(), BodyHandlers.ofInputStream()));
+
+    java.net.http.HttpResponse<InputStream> response = exchange.await();
+    InputStream body = exchange.setBody(response.body());
+
+    int statusCode = response.statusCode();
+    BasicHttpResponse result = new BasicHttpResponse(new BasicStatusLine(
+        response.version() == HttpClient.Version.HTTP_2 ? HTTP_2 : HttpVersion.HTTP_1_1,
+        statusCode, EnglishReasonPhraseCatalog.INSTANCE.getReason(statusCode, Locale.ENGLISH)));
+    for(Map.Entry<String, List<String>> header : response.headers().map().entrySet()) {
+      // Leaves out HTTP/2 pseudo headers such as :status
+      if(header.getKey().startsWith(":")) {
+        continue;
+      }
+      for(String value : header.getValue()) {
+        result.addHeader(header.getKey(), value);
+      }
+    }
+
+    BasicHttpEntity entity = new BasicHttpEntity();
+    entity.setContent(body);
+    entity.setContentLength(response.headers().firstValueAsLong("Content-Length").orElse(-1));
+    entity.setContentType(result.getFirstHeader("Content-Type"));
+    entity.setContentEncoding(result.getFirstHeader("Content-Encoding"));
+    result.setEntity(entity);
+    return result;
+  }
+
+  private static HttpRequest.BodyPublisher body(HttpUriRequest request, HttpRequest.Builder builder) throws IOException {
+    if(!(request instanceof HttpEntityEnclosingRequest)) {
+      return HttpRequest.BodyPublishers.noBody();
+    }
+    HttpEntity entity = ((HttpEntityEnclosingRequest) request).getEntity();
+    if(entity == null) {
+      return HttpRequest.BodyPublishers.noBody();
+    }
+
+    if(entity.getContentType() != null && !request.containsHeader("Content-Type")) {
+      builder.header("Content-Type", entity.getContentType().getValue());
+    }
+    // Already encoded, so sent as it is
+    if(entity instanceof JsonEntity) {
+      return HttpRequest.BodyPublishers.ofByteArray(((JsonEntity) entity).getBytes());
+    } else if(entity instanceof DnsimpleTransport.CountingEntity) {
+      byte bytes[] = ((DnsimpleTransport.CountingEntity) entity).getJsonBytes();
+      if(bytes != null) {
+        return HttpRequest.BodyPublishers.ofByteArray(bytes);
+      }
+    }
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    entity.writeTo(out);
+    return HttpRequest.BodyPublishers.ofByteArray(out.toByteArray());
+  }
+
+  /**
+   * Opens connections with HEAD requests: one on its own, then, unless it
+   * negotiated HTTP/2, the rest in parallel, up to the transport's
+   * connection limit.
+   */
+  @Override
+  public int warmUp(String uri, int connections) throws IOException {
+    connections = Math.min(connections, maxConnections);
+    if(connections <= 0) {
+      return 0;
+    }
+    HttpRequest head = HttpRequest.newBuilder(URI.create(uri))
+        .method("HEAD", HttpRequest.BodyPublishers.noBody())
+        .timeout(WARM_UP_TIMEOUT)
+        .build();
+
+    java.net.http.HttpResponse<Void> first;
+    try {
+      first = client.send(head, BodyHandlers.discarding());
+    } catch(InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new InterruptedIOException("Interrupted while warming up");
+    }
+    if(first.version() == HttpClient.Version.HTTP_2) {
+      // Every request shares the one connection
+      return 1;
+    }
+
+    List<CompletableFuture<java.net.http.HttpResponse<Void>>> rest =
+        new ArrayList<CompletableFuture<java.net.http.HttpResponse<Void>>>(connections - 1);
+    for(int i = 1; i < connections; i++) {
+      rest.add(client.sendAsync(head, BodyHandlers.discarding()));
+    }
+
+    int opened = 1;
+    IOException failure = null;
+    for(CompletableFuture<java.net.http.HttpResponse<Void>> future : rest) {
+      try {
+        future.get();
+        opened++;
+      } catch(InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new InterruptedIOException("Interrupted while warming up");
+      } catch(ExecutionException e) {
+        if(failure == null) {
+          failure = e.getCause() instanceof IOException
+              ? (IOException) e.getCause()
+              : new IOException(e.getCause());
+        }
+      }
+    }
+
+    if(failure != null) {
+      throw failure;
+    }
+    return opened;
+  }
+
+  @Override
+  public void close() {
+    clientExecutor.shutdownNow();
+  }
+
+  /**
+   * One request, which can be aborted while waiting for the response or
+   * while its body is being read.
+   */
+  private static class Exchange implements ConnectionReleaseTrigger {
+
+    private boolean aborted = false;
+    // The client's, and the one waited on, which can be cancelled whether
+    // or not cancelling the client's stops the exchange
+    private CompletableFuture<java.net.http.HttpResponse<InputStream>> sent = null;
+    private CompletableFuture<java.net.http.HttpResponse<InputStream>> future = null;
+    private InputStream body = null;
+
+    void start(CompletableFuture<java.net.http.HttpResponse<InputStream>> sent) {
+      synchronized(this) {
+        this.sent = sent;
+        this.future = sent.copy();
+        if(!aborted) {
+          return;
+        }
+      }
+      abortConnection();
+    }
+
+    java.net.http.HttpResponse<InputStream> await() throws IOException {
+      try {
+        return future.get();
+      } catch(InterruptedException e) {
+        abortConnection();
+        Thread.currentThread().interrupt();
+        throw new InterruptedIOException("Interrupted while waiting for the response");
+      } catch(CancellationException e) {
+        throw new InterruptedIOException("Request aborted");
+      } catch(ExecutionException e) {
+        if(e.getCause() instanceof IOException) {
+          throw (IOException) e.getCause();
+        } else if(e.getCause() instanceof CancellationException) {
+          throw new InterruptedIOException("Request aborted");
+        }
+        throw new IOException(e.getCause());
+      }
+    }
+
+    /**
+     * @return {@code body}, failing reads once aborted rather than letting
+     *    them look like the end of the content
+     */
+    InputStream setBody(InputStream body) throws IOException {
+      synchronized(this) {
+        this.body = body;
+        if(!aborted) {
+          return new FilterInputStream(body) {
+
+            @Override
+            public int read() throws IOException {
+              return checked(super.read());
+            }
+
+            @Override
+            public int read(byte[] b, int off, int len) throws IOException {
+              return checked(super.read(b, off, len));
+            }
+
+          };
+        }
+      }
+      body.close();
+      throw new InterruptedIOException("Request aborted");
+    }
+
+    private int checked(int n) throws IOException {
+      if(n == -1 && isAborted()) {
+        throw new InterruptedIOException("Request aborted");
+      }
+      return n;
+    }
+
+    private synchronized boolean isAborted() {
+      return aborted;
+    }
+
+    @Override
+    public void abortConnection() {
+      CompletableFuture<java.net.http.HttpResponse<InputStream>> sent;
+      CompletableFuture<java.net.http.HttpResponse<InputStream>> future;
+      InputStream body;
+      synchronized(this) {
+        aborted = true;
+        sent = this.sent;
+        future = this.future;
+        body = this.body;
+      }
+      if(sent != null) {
+        // Should the response arrive anyway, as it does before Java 16,
+        // nothing else will read it
+        sent.thenAccept(new Consumer<java.net.http.HttpResponse<InputStream>>() {
+          @Override
+          public void accept(java.net.http.HttpResponse<InputStream> response) {
+            try { response.body().close(); } catch(IOException e) {}
+          }
+        });
+        if(CANCEL_ABORTS) {
+          sent.cancel(true);
+        }
+        future.cancel(true);
+      }
+      if(body != null) {
+        try { body.close(); } catch(IOException e) {}
+      }
+    }
+
+    @Override
+    public void releaseConnection() {
+      // Closing the body, once read, is all the client needs
+    }
+
+  }
+
+}
@@ -0,0 +1,134 @@
+/**
+ * Copyright 2012 Nimble Servers Limited. http://nimbleservers.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.nimbleservers.dnsimple;
+
+import java.net.URI;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Enabled;
+import jdk.jfr.Event;
+import jdk.jfr.EventType;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Timespan;
+
+/**
+ * A Flight Recorder event for each request made through a
+ * {@link DnsimpleTransport}, from waiting for a connection to the end of
+ * the response. It is committed on the thread that finished reading the
+ * response (usually the caller), so socket reads and allocations recorded
+ * on the same thread in the same span belong to it.
+ * <p>
+ * Disabled unless turned on, for example (on Java 17 or later) with
+ * {@code -XX:StartFlightRecording:+com.nimbleservers.dnsimple.Request#enabled=true},
+ * in a recording's settings, or by enabling it on a
+ * {@code jdk.jfr.Recording}. While it is off, a
+ * request costs one check of the event type, made before any event is
+ * created.
+ * <p>
+ * @author Chris Strand
+ */
+@Name("com.nimbleservers.dnsimple.Request")
+@Label("DNSimple Request")
+@Category("DNSimple")
+@Description("A request to DNSimple's API, from waiting for a connection to reading the end of the response")
+@Enabled(false)
+@StackTrace(false)
+class JfrRequestEvent extends Event {
+
+  private static final EventType TYPE = EventType.getEventType(JfrRequestEvent.class);
+
+  @Label("Operation")
+  @Description("The DnsimpleContext method that made the request")
+  String operation;
+
+  @Label("Domain")
+  String domain;
+
+  @Label("Method")
+  String method;
+
+  @Label("Status Code")
+  @Description("0 if no response was received")
+  int statusCode;
+
+  @Label("Priority")
+  String priority;
+
+  @Label("Attempt")
+  @Description("1 for the first request of a call, 2 for a hedge")
+  int attempt;
+
+  @Label("Request Bytes")
+  @DataAmount
+  long requestBytes;
+
+  @Label("Response Bytes")
+  @DataAmount
+  long responseBytes;
+
+  @Label("Pool Wait")
+  @Description("Waiting for a turn at the connection pool, and for the rate limit")
+  @Timespan
+  long poolWait;
+
+  @Label("Network Time")
+  @Description("Sending the request, waiting for the response and reading its content")
+  @Timespan
+  long networkTime;
+
+  @Label("Parse Time")
+  @Description("Between reads of the response's content, decoding what was read")
+  @Timespan
+  long parseTime;
+
+  @Label("Failure")
+  String failure;
+
+  /**
+   * @return a begun event, or {@code null} if the event is not enabled
+   */
+  static JfrRequestEvent begin(URI uri) {
+    // Also false while no recording is running
+    if(!TYPE.isEnabled()) {
+      return null;
+    }
+    JfrRequestEvent event = new JfrRequestEvent();
+    event.domain = domain(uri.getRawPath());
+    event.begin();
+    return event;
+  }
+
+  /**
+   * @return the path segment after {@code domains}, or {@code null}
+   */
+  private static String domain(String path) {
+    if(path == null) {
+      return null;
+    }
+    int start = path.indexOf("/domains/");
+    if(start < 0) {
+      return null;
+    }
+    start += "/domains/".length();
+    int end = path.indexOf('/', start);
+    return end < 0 ? path.substring(start) : path.substring(start, end);
+  }
+
+}
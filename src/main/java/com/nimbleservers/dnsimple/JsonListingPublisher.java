@@ -0,0 +1,269 @@
+/**
+ * Copyright 2012 Nimble Servers Limited. http://nimbleservers.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.nimbleservers.dnsimple;
+
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Flow;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.http.Header;
+import org.apache.http.HttpEntity;
+import org.apache.http.HttpResponse;
+import org.apache.http.HttpStatus;
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.util.EntityUtils;
+
+import com.google.gson.Gson;
+import com.google.gson.stream.JsonReader;
+
+/**
+ * Publishes the entries of a DNSimple listing one at a time. Listings are a
+ * JSON array of maps with one entry each, e.g.
+ * <code>[{"record": {...}}, {"record": {...}}]</code>.
+ * <p>
+ * Each subscription sends its own GET request when the first element is
+ * requested, and decodes an element only once the subscriber has demand for
+ * it. Without an executor the request is sent, and elements read and
+ * delivered, on the thread calling {@link Flow.Subscription#request(long)},
+ * which blocks meanwhile. With one, that work is handed to the executor and
+ * {@code request} returns straight away. Either way the subscription holds
+ * a connection until the listing has been read to its end or the
+ * subscription is cancelled. Cancelling aborts the underlying HTTP
+ * request.
+ * <p>
+ * @author Chris Strand
+ */
+class JsonListingPublisher<T> implements Flow.Publisher<T> {
+
+  private final DnsimpleContext context;
+  private final String operation;
+  private final Header headers[];
+  private final String uri;
+  private final Gson gson;
+  private final Class<T> elementType;
+  private final Executor executor;
+
+  /**
+   * @param executor where to send the request and read the elements, or
+   *    {@code null} for the thread requesting them
+   */
+  JsonListingPublisher(DnsimpleContext context, String operation, Header headers[], String uri, Gson gson, Class<T> elementType, Executor executor) {
+    this.context = context;
+    this.operation = operation;
+    this.headers = headers;
+    this.uri = uri;
+    this.gson = gson;
+    this.elementType = elementType;
+    this.executor = executor;
+  }
+
+  @Override
+  public void subscribe(Flow.Subscriber<? super T> subscriber) {
+    if(subscriber == null) {
+      throw new NullPointerException("subscriber");
+    }
+    subscriber.onSubscribe(new ListingSubscription(subscriber));
+  }
+
+  private class ListingSubscription implements Flow.Subscription {
+
+    private final Flow.Subscriber<? super T> subscriber;
+    private final HttpGet httpGet;
+    private final AtomicLong demand = new AtomicLong();
+    // Number of request/cancel signals not yet seen by the drain loop. Only
+    // the thread that moves it from zero runs the loop, which serialises the
+    // calls to the subscriber and stops recursion through onNext.
+    private final AtomicInteger pending = new AtomicInteger();
+
+    private volatile boolean cancelled = false;
+    private volatile Throwable error = null;
+
+    // Only touched by the thread running the drain loop
+    private boolean done = false;
+    private HttpEntity entity = null;
+    private JsonReader reader = null;
+
+    ListingSubscription(Flow.Subscriber<? super T> subscriber) {
+      this.subscriber = subscriber;
+      this.httpGet = new HttpGet(uri);
+      this.httpGet.setHeaders(headers);
+    }
+
+    @Override
+    public void request(long n) {
+      if(n <= 0) {
+        error = new IllegalArgumentException("Requested " + n + " elements, must be positive");
+      } else {
+        long current, next;
+        do {
+          current = demand.get();
+          next = current + n;
+          if(next < 0) {
+            next = Long.MAX_VALUE;
+          }
+        } while(!demand.compareAndSet(current, next));
+      }
+      drain();
+    }
+
+    @Override
+    public void cancel() {
+      if(!cancelled) {
+        cancelled = true;
+        // Closes the connection rather than reading the rest of the listing
+        httpGet.abort();
+        drain();
+      }
+    }
+
+    private final Runnable drainLoop = new Runnable() {
+      @Override
+      public void run() {
+        int missed = 1;
+        do {
+          emit();
+          missed = pending.addAndGet(-missed);
+        } while(missed != 0);
+      }
+    };
+
+    private void drain() {
+      if(pending.getAndIncrement() != 0) {
+        return;
+      }
+
+      if(executor == null) {
+        drainLoop.run();
+        return;
+      }
+      try {
+        executor.execute(drainLoop);
+      } catch(RejectedExecutionException e) {
+        // Nothing else can be running the loop, so report it here
+        error = e;
+        drainLoop.run();
+      }
+    }
+
+    private void emit() {
+      while(!done) {
+
+        if(cancelled) {
+          done = true;
+          release();
+          return;
+        }
+
+        Throwable failure = error;
+        if(failure != null) {
+          fail(failure);
+          return;
+        }
+
+        if(demand.get() == 0) {
+          return;
+        }
+
+        T next;
+        try {
+          if(reader == null) {
+            open();
+          }
+          next = readNext();
+        } catch(Exception e) {
+          if(cancelled) {
+            done = true;
+            release();
+          } else {
+            fail(e);
+          }
+          return;
+        }
+
+        if(next == null) {
+          done = true;
+          release();
+          subscriber.onComplete();
+          return;
+        }
+
+        if(demand.get() != Long.MAX_VALUE) {
+          demand.decrementAndGet();
+        }
+        subscriber.onNext(next);
+      }
+    }
+
+    private void fail(Throwable error) {
+      done = true;
+      httpGet.abort();
+      release();
+      subscriber.onError(error);
+    }
+
+    private void open() throws UnexpectedResponseException, IOException {
+      int expectedCode = HttpStatus.SC_OK;
+
+      HttpResponse response = context.execute(operation, httpGet);
+      entity = response.getEntity();
+      int statusCode = response.getStatusLine().getStatusCode();
+
+      if(statusCode != expectedCode) {
+        throw context.unexpected(httpGet, response, expectedCode);
+      }
+
+      if(entity == null) {
+        throw new IOException("No content in response from " + uri);
+      }
+
+      reader = new JsonReader(new InputStreamReader(entity.getContent(), DnsimpleContext.CHARSET));
+      reader.beginArray();
+    }
+
+    /**
+     * @return the next element of the listing, or {@code null} at its end
+     */
+    private T readNext() throws IOException {
+      while(reader.hasNext()) {
+        T result = null;
+        reader.beginObject();
+        while(reader.hasNext()) {
+          reader.nextName();
+          // There should only be one entry in each map...
+          result = gson.fromJson(reader, elementType);
+        }
+        reader.endObject();
+
+        if(result != null) {
+          return result;
+        }
+      }
+
+      reader.endArray();
+      return null;
+    }
+
+    private void release() {
+      try { EntityUtils.consume(entity); } catch(Exception e) {}
+    }
+
+  }
+
+}
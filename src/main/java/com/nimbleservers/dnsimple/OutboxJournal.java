@@ -0,0 +1,502 @@
+/**
+ * Copyright 2012 Nimble Servers Limited. http://nimbleservers.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.nimbleservers.dnsimple;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+import com.google.gson.JsonParseException;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonWriter;
+import com.nimbleservers.dnsimple.record.Record;
+import com.nimbleservers.dnsimple.record.RecordTypeAdapter;
+
+/**
+ * The file behind a {@link RecordOutbox}: an append-only log of record
+ * changes, one JSON object per line, each later followed by a line marking
+ * it done:
+ * <pre>
+ * {"seq":1,"operation":"add","domain":"example.com","record":{...}}
+ * {"seq":2,"operation":"delete","domain":"example.com","record_id":"123"}
+ * {"done":1}
+ * </pre>
+ * Appends are gathered into batches. Whichever thread finds no sync under
+ * way writes everything appended so far and forces it to disk while the
+ * others wait, so threads appending at once share one fsync.
+ * <p>
+ * When opened, the changes not marked done are read back and the file is
+ * rewritten with only them, dropping a last line left half written by a
+ * crash. The same is done by {@link #compact(long)} while the journal is in
+ * use, so it does not grow for as long as changes keep coming. A lock file
+ * next to the journal stops two outboxes using it at once.
+ * <p>
+ * Thread Safe.
+ * <p>
+ * @author Chris Strand
+ */
+class OutboxJournal {
+
+  static enum Operation {
+    ADD, UPDATE, DELETE
+  }
+
+  private final File file;
+  private final FileChannel lockChannel;
+  private final FileLock fileLock;
+  private final RecordTypeAdapter adapter = new RecordTypeAdapter();
+  private final List<Entry> recovered;
+  private final long nextSeq;
+  // Appended and not marked done, in the order they were appended
+  private final Map<Long, Entry> undone;
+
+  private FileChannel channel;
+
+  // Appended but not yet written
+  private ByteArrayOutputStream batch = new ByteArrayOutputStream();
+  private long appended = 0;
+  private long synced = 0;
+  private boolean syncing = false;
+  private long size;
+  // The size when the file was last rewritten
+  private long compactedSize;
+  private IOException failure = null;
+
+  /**
+   * Opens {@code file}, creating it if need be, and reads back the changes
+   * in it not marked done.
+   * @throws IOException If the journal could not be read or rewritten, is
+   *    corrupt, or is in use by another outbox
+   */
+  OutboxJournal(File file) throws IOException {
+    this.file = file;
+    this.lockChannel = FileChannel.open(new File(file.getPath() + ".lock").toPath(),
+        StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+    try {
+      FileLock lock;
+      try {
+        lock = lockChannel.tryLock();
+      } catch(OverlappingFileLockException e) {
+        // Held by another outbox in this process
+        lock = null;
+      }
+      this.fileLock = lock;
+      if(fileLock == null) {
+        throw new IOException("Journal is in use: " + file);
+      }
+
+      this.undone = read();
+      this.recovered = Collections.unmodifiableList(new ArrayList<Entry>(undone.values()));
+      long last = 0;
+      for(long seq : undone.keySet()) {
+        last = Math.max(last, seq);
+      }
+      this.nextSeq = last + 1;
+      if(file.exists()) {
+        rewrite();
+      }
+
+      this.channel = open();
+      this.size = channel.size();
+      this.compactedSize = size;
+
+    } catch(IOException e) {
+      lockChannel.close();
+      throw e;
+    }
+  }
+
+  /**
+   * @return the changes that were not marked done when the journal was
+   *    opened, in the order they were appended
+   */
+  List<Entry> getRecovered() {
+    return recovered;
+  }
+
+  /**
+   * @return the sequence number to give the first change appended
+   */
+  long getNextSeq() {
+    return nextSeq;
+  }
+
+  /**
+   * @return the bytes written to the file so far
+   */
+  synchronized long size() {
+    return size;
+  }
+
+  /**
+   * Adds a change to the next batch.
+   * @return the ticket to {@link #sync(long)} with
+   * @throws IOException If an earlier write failed
+   */
+  synchronized long append(Entry entry) throws IOException {
+    checkFailure();
+    undone.put(entry.seq, entry);
+    return append(format(entry));
+  }
+
+  private String format(Entry entry) throws IOException {
+    StringWriter line = new StringWriter();
+    JsonWriter writer = new JsonWriter(line);
+    writer.beginObject();
+    writer.name("seq").value(entry.seq);
+    writer.name("operation").value(entry.operation.name().toLowerCase(Locale.ROOT));
+    writer.name("domain").value(entry.domain);
+    if(entry.recordId != null) {
+      writer.name("record_id").value(entry.recordId);
+    }
+    if(entry.record != null) {
+      writer.name("record");
+      adapter.write(writer, entry.record);
+    }
+    writer.endObject();
+    writer.close();
+    return line.toString();
+  }
+
+  /**
+   * Adds a line marking a change done to the next batch.
+   * @return the ticket to {@link #sync(long)} with
+   * @throws IOException If an earlier write failed
+   */
+  synchronized long appendDone(long seq) throws IOException {
+    checkFailure();
+    undone.remove(seq);
+    return append("{\"done\":" + seq + "}");
+  }
+
+  private long append(String line) {
+    byte bytes[] = (line + "\n").getBytes(StandardCharsets.UTF_8);
+    batch.write(bytes, 0, bytes.length);
+    return ++appended;
+  }
+
+  /**
+   * Blocks until what was appended up to {@code ticket} is on disk, writing
+   * it (and whatever else has been appended) if no one else is.
+   * @throws IOException If writing failed, now or earlier
+   */
+  void sync(long ticket) throws IOException {
+    ByteBuffer bytes;
+    long target;
+    synchronized(this) {
+      while(true) {
+        checkFailure();
+        if(synced >= ticket) {
+          return;
+        }
+        if(!syncing) {
+          break;
+        }
+        try {
+          wait();
+        } catch(InterruptedException e) {
+          Thread.currentThread().interrupt();
+          throw new InterruptedIOException("Interrupted waiting for the journal to be written");
+        }
+      }
+      syncing = true;
+      bytes = ByteBuffer.wrap(batch.toByteArray());
+      batch.reset();
+      target = appended;
+    }
+
+    IOException failed = null;
+    try {
+      while(bytes.hasRemaining()) {
+        channel.write(bytes);
+      }
+      channel.force(false);
+    } catch(IOException e) {
+      failed = e;
+    }
+
+    synchronized(this) {
+      syncing = false;
+      if(failed == null) {
+        synced = target;
+        size += bytes.limit();
+      } else {
+        // What made it to disk is unknown, so nothing more can be trusted
+        failure = failed;
+      }
+      notifyAll();
+    }
+    if(failed != null) {
+      throw failed;
+    }
+  }
+
+  /**
+   * Rewrites the file with only the changes not yet marked done, once it
+   * has grown past {@code threshold} bytes and to more than twice the size
+   * it was last rewritten to. Whatever was appended and not yet written
+   * goes into the new file, so waiting {@link #sync(long)} calls return.
+   * If the new file cannot be written the old one is kept, until the
+   * journal has doubled in size again.
+   */
+  synchronized void compact(long threshold) {
+    if(!needsCompacting(threshold)) {
+      return;
+    }
+    while(syncing) {
+      try {
+        wait();
+      } catch(InterruptedException e) {
+        // Leave it for next time
+        Thread.currentThread().interrupt();
+        return;
+      }
+    }
+    if(failure != null || !needsCompacting(threshold)) {
+      return;
+    }
+
+    File temp = new File(file.getPath() + ".tmp");
+    try {
+      writeUndone(temp);
+    } catch(IOException e) {
+      temp.delete();
+      compactedSize = size;
+      return;
+    }
+
+    try {
+      channel.close();
+      replace(temp);
+      channel = open();
+      batch.reset();
+      synced = appended;
+      size = channel.size();
+      compactedSize = size;
+    } catch(IOException e) {
+      // Which file is in place, and whether it is open, is unknown
+      failure = e;
+    }
+    notifyAll();
+  }
+
+  private boolean needsCompacting(long threshold) {
+    return size > threshold && size > 2 * compactedSize;
+  }
+
+  /**
+   * Writes anything still waiting, and closes the file.
+   */
+  synchronized void close() throws IOException {
+    while(syncing) {
+      try {
+        wait();
+      } catch(InterruptedException e) {
+        Thread.currentThread().interrupt();
+        break;
+      }
+    }
+    try {
+      if(failure == null && batch.size() > 0) {
+        ByteBuffer bytes = ByteBuffer.wrap(batch.toByteArray());
+        while(bytes.hasRemaining()) {
+          channel.write(bytes);
+        }
+        channel.force(false);
+      }
+    } finally {
+      failure = new IOException("Journal has been closed");
+      try {
+        channel.close();
+      } finally {
+        lockChannel.close();
+      }
+    }
+  }
+
+  private void checkFailure() throws IOException {
+    if(failure != null) {
+      throw new IOException("Journal could not be written: " + file, failure);
+    }
+  }
+
+  private Map<Long, Entry> read() throws IOException {
+    Map<Long, Entry> undone = new LinkedHashMap<Long, Entry>();
+    if(!file.exists()) {
+      return undone;
+    }
+
+    BufferedReader reader = Files.newBufferedReader(file.toPath(), StandardCharsets.UTF_8);
+    try {
+      int number = 0;
+      String line = reader.readLine();
+      while(line != null) {
+        number++;
+        String next = reader.readLine();
+        if(!line.isEmpty()) {
+          try {
+            parse(line, undone);
+          } catch(RuntimeException e) {
+            corrupt(number, next, e);
+          } catch(IOException e) {
+            corrupt(number, next, e);
+          }
+        }
+        line = next;
+      }
+    } finally {
+      reader.close();
+    }
+    return undone;
+  }
+
+  private void corrupt(int number, String next, Exception e) throws IOException {
+    // A crash part way through a write can only spoil the last line, which
+    // was never reported as written
+    if(next != null) {
+      throw new IOException("Journal is corrupt at line " + number + ": " + file, e);
+    }
+  }
+
+  private void parse(String line, Map<Long, Entry> undone) throws IOException {
+    JsonReader reader = new JsonReader(new StringReader(line));
+    long seq = -1;
+    long done = -1;
+    Operation operation = null;
+    String domain = null;
+    String recordId = null;
+    Record record = null;
+
+    reader.beginObject();
+    while(reader.hasNext()) {
+      String name = reader.nextName();
+      if(name.equals("seq")) {
+        seq = reader.nextLong();
+      } else if(name.equals("done")) {
+        done = reader.nextLong();
+      } else if(name.equals("operation")) {
+        operation = Operation.valueOf(reader.nextString().toUpperCase(Locale.ROOT));
+      } else if(name.equals("domain")) {
+        domain = reader.nextString();
+      } else if(name.equals("record_id")) {
+        recordId = reader.nextString();
+      } else if(name.equals("record")) {
+        record = adapter.read(reader);
+      } else {
+        reader.skipValue();
+      }
+    }
+    reader.endObject();
+
+    if(done >= 0) {
+      undone.remove(done);
+    } else if(seq >= 0 && operation != null && domain != null) {
+      undone.put(seq, new Entry(seq, operation, domain, recordId, record));
+    } else {
+      throw new JsonParseException("Not a change or a done marker");
+    }
+  }
+
+  private FileChannel open() throws IOException {
+    return FileChannel.open(file.toPath(),
+        StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+  }
+
+  /**
+   * Replaces the file with one holding just the changes not yet done.
+   */
+  private void rewrite() throws IOException {
+    File temp = new File(file.getPath() + ".tmp");
+    writeUndone(temp);
+    replace(temp);
+  }
+
+  private void replace(File temp) throws IOException {
+    Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+
+    // Make the rename itself durable, where the platform allows
+    File dir = file.getAbsoluteFile().getParentFile();
+    try {
+      FileChannel dirChannel = FileChannel.open(dir.toPath(), StandardOpenOption.READ);
+      try {
+        dirChannel.force(true);
+      } finally {
+        dirChannel.close();
+      }
+    } catch(IOException e) {
+    }
+  }
+
+  private void writeUndone(File temp) throws IOException {
+    ByteArrayOutputStream lines = new ByteArrayOutputStream();
+    for(Entry entry : undone.values()) {
+      byte bytes[] = (format(entry) + "\n").getBytes(StandardCharsets.UTF_8);
+      lines.write(bytes, 0, bytes.length);
+    }
+
+    FileChannel out = FileChannel.open(temp.toPath(), StandardOpenOption.CREATE,
+        StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+    try {
+      ByteBuffer bytes = ByteBuffer.wrap(lines.toByteArray());
+      while(bytes.hasRemaining()) {
+        out.write(bytes);
+      }
+      out.force(false);
+    } finally {
+      out.close();
+    }
+  }
+
+  /**
+   * One change to a record
+   */
+  static class Entry {
+
+    final long seq;
+    final Operation operation;
+    final String domain;
+    final String recordId;
+    final Record record;
+
+    Entry(long seq, Operation operation, String domain, String recordId, Record record) {
+      this.seq = seq;
+      this.operation = operation;
+      this.domain = domain;
+      this.recordId = recordId;
+      this.record = record;
+    }
+
+  }
+
+}
@@ -0,0 +1,41 @@
+/**
+ * Copyright 2012 Nimble Servers Limited. http://nimbleservers.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.nimbleservers.dnsimple;
+
+/**
+ * How urgently a request should be sent. Interactive requests always go
+ * ahead of bulk ones waiting for a connection, and part of the connection
+ * pool and of each account's rate limit is kept back for them, so
+ * someone waiting on a call is not stuck behind a long running job.
+ * <p>
+ * @author Chris Strand
+ * @see RequestOptions.Builder#setPriority(Priority)
+ * @see DnsimpleTransport.Builder#setReservedConnections(int)
+ */
+public enum Priority {
+
+  /**
+   * Someone is waiting on the result. The default.
+   */
+  INTERACTIVE,
+
+  /**
+   * Background work, e.g. an import or export, that can use whatever
+   * capacity interactive requests leave over.
+   */
+  BULK
+
+}
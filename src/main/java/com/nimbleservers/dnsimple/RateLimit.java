@@ -0,0 +1,99 @@
+/**
+ * Copyright 2012 Nimble Servers Limited. http://nimbleservers.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.nimbleservers.dnsimple;
+
+import java.io.Serializable;
+import java.util.Date;
+
+import org.apache.http.Header;
+import org.apache.http.HttpResponse;
+
+/**
+ * The API rate limit for an account, as last reported by DNSimple in the
+ * {@code X-RateLimit-*} response headers.
+ * <p>
+ * @author Chris Strand
+ */
+public class RateLimit implements Serializable {
+
+  private static final long serialVersionUID = 5018273645091827364L;
+
+  public static final String LIMIT_HEADER = "X-RateLimit-Limit";
+  public static final String REMAINING_HEADER = "X-RateLimit-Remaining";
+  public static final String RESET_HEADER = "X-RateLimit-Reset";
+
+  private final int limit;
+  private final int remaining;
+  private final Date resetAt;
+
+  public RateLimit(int limit, int remaining, Date resetAt) {
+    this.limit = limit;
+    this.remaining = remaining;
+    this.resetAt = resetAt;
+  }
+
+  /**
+   * @return the rate limit reported by {@code response}, or {@code null} if
+   *    it did not report one
+   */
+  static RateLimit fromResponse(HttpResponse response) {
+    Header limit = response.getFirstHeader(LIMIT_HEADER);
+    Header remaining = response.getFirstHeader(REMAINING_HEADER);
+    Header reset = response.getFirstHeader(RESET_HEADER);
+
+    if(limit == null || remaining == null || reset == null) {
+      return null;
+    }
+
+    try {
+      // The reset time is given in seconds since the epoch
+      return new RateLimit(
+          Integer.parseInt(limit.getValue().trim()),
+          Integer.parseInt(remaining.getValue().trim()),
+          new Date(Long.parseLong(reset.getValue().trim()) * 1000L));
+    } catch(NumberFormatException e) {
+      return null;
+    }
+  }
+
+  /**
+   * @return the number of requests allowed each period
+   */
+  public int getLimit() {
+    return limit;
+  }
+
+  /**
+   * @return the number of requests left in the current period
+   */
+  public int getRemaining() {
+    return remaining;
+  }
+
+  /**
+   * @return when the current period ends
+   */
+  public Date getResetAt() {
+    return resetAt;
+  }
+
+  @Override
+  public String toString() {
+    return "RateLimit [limit=" + limit + ", remaining=" + remaining
+        + ", resetAt=" + resetAt + "]";
+  }
+
+}
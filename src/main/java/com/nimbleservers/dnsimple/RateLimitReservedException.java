@@ -0,0 +1,48 @@
+/**
+ * Copyright 2012 Nimble Servers Limited. http://nimbleservers.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.nimbleservers.dnsimple;
+
+import java.io.IOException;
+
+/**
+ * Thrown instead of sending a bulk request when what is left of the
+ * account's rate limit is reserved for interactive requests, and it resets
+ * later than the transport will hold a bulk request back for (see
+ * {@link DnsimpleTransport.Builder#setMaxRateLimitWait(long, java.util.concurrent.TimeUnit)}).
+ * The request was not sent, so it is safe to try again once the rate
+ * limit has reset.
+ * <p>
+ * @author Chris Strand
+ */
+public class RateLimitReservedException extends IOException {
+
+  private static final long serialVersionUID = 2837465019283746501L;
+
+  private final RateLimit rateLimit;
+
+  public RateLimitReservedException(String message, RateLimit rateLimit) {
+    super(message);
+    this.rateLimit = rateLimit;
+  }
+
+  /**
+   * @return the rate limit as last reported, giving when it resets
+   */
+  public RateLimit getRateLimit() {
+    return rateLimit;
+  }
+
+}
@@ -0,0 +1,658 @@
+/**
+ * Copyright 2012 Nimble Servers Limited. http://nimbleservers.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.nimbleservers.dnsimple;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.nimbleservers.dnsimple.OutboxJournal.Entry;
+import com.nimbleservers.dnsimple.OutboxJournal.Operation;
+import com.nimbleservers.dnsimple.domain.Domain;
+import com.nimbleservers.dnsimple.record.InvalidRecordException;
+import com.nimbleservers.dnsimple.record.Record;
+import com.nimbleservers.dnsimple.record.RecordFilter;
+import com.nimbleservers.dnsimple.record.RecordValidator;
+
+/**
+ * Writes record changes to a journal on local disk before making them, so
+ * that none are lost if the process dies part way through a bulk job or
+ * DNSimple is unavailable for a while.
+ * <p>
+ * A change is accepted once it is on disk; changes from many threads are
+ * forced to disk together. Worker threads then make them through the API,
+ * trying again after failures that might not happen next time (see
+ * {@link UnexpectedResponseException#isRetryable()}) with the delay
+ * doubling each time, and mark each one done in the journal once it has
+ * been made or has failed for good. Changes to the same record are made in
+ * the order they were accepted; others in parallel.
+ * <p>
+ * Changes that were not marked done when the journal was last closed, or
+ * when the process died, are made when the next outbox is opened on it.
+ * Each is made so that doing it twice is harmless: an update sets the same
+ * content again, deleting a record that is already gone counts as done,
+ * and before a record is added again the domain's records are checked for
+ * one equal to it (see {@link Record#equals(Object)}). That check is also
+ * made when an add failed in a way that leaves it unknown whether DNSimple
+ * created the record. Give added records a TTL, as one DNSimple filled in
+ * will not be equal.
+ * <p>
+ * For example:
+ * <pre>
+ * RecordOutbox outbox = RecordOutbox.getBuilder()
+ *    .setContext(context)
+ *    .setJournal(new File("dnsimple.journal"))
+ *    .build();
+ * outbox.addRecord("example.com", record);
+ * ...
+ * outbox.flush();
+ * outbox.close();
+ * </pre>
+ * Writes are made as {@link Priority#BULK} requests. Once the journal has
+ * grown past a megabyte, and to twice the size it was last compacted to, it
+ * is rewritten with only the changes not yet done.
+ * Thread Safe.
+ * <p>
+ * @author Chris Strand
+ */
+public class RecordOutbox {
+
+  private static final long COMPACT_BYTES = 1 << 20;
+  private static final int MAX_BACKOFF_SHIFT = 6;
+
+  private final DnsimpleContext context;
+  private final OutboxJournal journal;
+  private final ExecutorService workers;
+  private final long retryDelayMillis;
+
+  // Waiting to be made, by sequence number. Also the lock for the fields
+  // after it.
+  private final TreeMap<Long, Task> queue = new TreeMap<Long, Task>();
+  // Records with a change being made
+  private final Set<Key> busy = new HashSet<Key>();
+  private long nextSeq;
+  private int pending = 0;
+  private boolean closed = false;
+
+  private final long recovered;
+  private final AtomicLong applied = new AtomicLong();
+  private final AtomicLong failed = new AtomicLong();
+  private final AtomicLong retries = new AtomicLong();
+
+  private RecordOutbox(Builder builder) throws IOException {
+    this.context = builder.context.withOptions(RequestOptions.getBuilder()
+        .setPriority(Priority.BULK)
+        .build());
+    this.journal = new OutboxJournal(builder.journal);
+    this.retryDelayMillis = builder.retryDelayMillis;
+    this.nextSeq = journal.getNextSeq();
+
+    for(Entry entry : journal.getRecovered()) {
+      // It may have been added before the process died
+      Task task = new Task(entry);
+      task.check = entry.operation == Operation.ADD;
+      queue.put(entry.seq, task);
+      pending++;
+    }
+    this.recovered = pending;
+
+    this.workers = new ThreadPoolExecutor(builder.workers, builder.workers,
+        60, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>());
+    for(int i = 0; i < builder.workers; i++) {
+      workers.execute(new Runnable() {
+        @Override
+        public void run() {
+          drain();
+        }
+      });
+    }
+  }
+
+  public static Builder getBuilder() {
+    return new Builder();
+  }
+
+  /**
+   * @see #addRecord(String, Record)
+   */
+  public CompletableFuture<Record> addRecord(Domain domain, Record record) throws IOException {
+    return addRecord(domain.getName(), record);
+  }
+
+  /**
+   * Journals a record to be added, returning once it is on disk.
+   * @return completes with the newly created record (or the equal one
+   *    DNSimple already had)
+   * @throws InvalidRecordException If the context's validator found
+   *    something wrong with the record, in which case it was not journalled
+   * @throws IOException If the journal could not be written
+   * @see DnsimpleContext#addRecord(String, Record)
+   */
+  public CompletableFuture<Record> addRecord(String domain, Record record) throws InvalidRecordException, IOException {
+    validate(record);
+    return submit(Operation.ADD, domain, null, record);
+  }
+
+  /**
+   * @see #updateRecord(String, String, Record)
+   */
+  public CompletableFuture<Record> updateRecord(Domain domain, String recordId, Record record) throws IOException {
+    return updateRecord(domain.getName(), recordId, record);
+  }
+
+  /**
+   * Journals an update to a record, returning once it is on disk.
+   * @return completes with the updated record
+   * @throws InvalidRecordException If the context's validator found
+   *    something wrong with the record, in which case it was not journalled
+   * @throws IOException If the journal could not be written
+   * @see DnsimpleContext#updateRecord(String, String, Record)
+   */
+  public CompletableFuture<Record> updateRecord(String domain, String recordId, Record record) throws InvalidRecordException, IOException {
+    validateUpdate(record);
+    return submit(Operation.UPDATE, domain, recordId, record);
+  }
+
+  /**
+   * @see #deleteRecord(String, String)
+   */
+  public CompletableFuture<Record> deleteRecord(Domain domain, String recordId) throws IOException {
+    return deleteRecord(domain.getName(), recordId);
+  }
+
+  /**
+   * Journals a record to be deleted, returning once it is on disk.
+   * @return completes with {@code null} once the record has been deleted,
+   *    or was found to be gone already
+   * @throws IOException If the journal could not be written
+   * @see DnsimpleContext#deleteRecord(String, String)
+   */
+  public CompletableFuture<Record> deleteRecord(String domain, String recordId) throws IOException {
+    return submit(Operation.DELETE, domain, recordId, null);
+  }
+
+  /**
+   * Waits until every change accepted so far, and every one recovered from
+   * the journal, has been made or has failed for good. While DNSimple is
+   * unavailable this waits for as long as it is.
+   * @throws InterruptedException If interrupted while waiting
+   */
+  public void flush() throws InterruptedException {
+    synchronized(queue) {
+      while(pending > 0 && !closed) {
+        queue.wait();
+      }
+    }
+  }
+
+  /**
+   * @return the number of changes accepted but not yet made or failed
+   */
+  public int getPending() {
+    synchronized(queue) {
+      return pending;
+    }
+  }
+
+  /**
+   * @return the number of changes read back from the journal when it was
+   *    opened
+   */
+  public long getRecovered() {
+    return recovered;
+  }
+
+  /**
+   * @return the number of changes made, including ones found to have been
+   *    made already
+   */
+  public long getApplied() {
+    return applied.get();
+  }
+
+  /**
+   * @return the number of changes that failed for good, such as ones
+   *    DNSimple rejected as invalid. They are marked done, and not tried
+   *    again.
+   */
+  public long getFailed() {
+    return failed.get();
+  }
+
+  /**
+   * @return the number of times a change was tried again after a failure
+   */
+  public long getRetries() {
+    return retries.get();
+  }
+
+  /**
+   * Stops accepting changes and waits for the requests being made to
+   * finish. Changes not made yet stay in the journal, to be made by the
+   * next outbox opened on it, and their futures fail with an
+   * {@link IllegalStateException}. Call {@link #flush()} first to make
+   * them now. The context is left open.
+   */
+  public void close() {
+    List<Task> abandoned;
+    synchronized(queue) {
+      if(closed) {
+        return;
+      }
+      closed = true;
+      abandoned = new ArrayList<Task>(queue.values());
+      queue.clear();
+      queue.notifyAll();
+    }
+
+    workers.shutdown();
+    try {
+      workers.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+    } catch(InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+
+    try {
+      journal.close();
+    } catch(IOException e) {
+      // Only done markers could have been lost, and the changes they mark
+      // are safe to make again
+    }
+
+    for(Task task : abandoned) {
+      abandon(task);
+    }
+  }
+
+  private CompletableFuture<Record> submit(Operation operation, String domain, String recordId, Record record) throws IOException {
+    Task task;
+    long ticket;
+    synchronized(queue) {
+      checkOpen();
+      task = new Task(new Entry(nextSeq++, operation, domain, recordId, record));
+      ticket = journal.append(task.entry);
+      pending++;
+    }
+
+    try {
+      journal.sync(ticket);
+    } catch(IOException e) {
+      synchronized(queue) {
+        pending--;
+        queue.notifyAll();
+      }
+      throw e;
+    }
+
+    synchronized(queue) {
+      if(!closed) {
+        // Kept in journal order, whichever thread got here first
+        queue.put(task.entry.seq, task);
+        queue.notifyAll();
+        return task.future;
+      }
+    }
+    abandon(task);
+    return task.future;
+  }
+
+  private void drain() {
+    while(true) {
+      Task task = null;
+      synchronized(queue) {
+        while(!closed && (task = next()) == null) {
+          try {
+            queue.wait();
+          } catch(InterruptedException e) {
+            return;
+          }
+        }
+        if(closed) {
+          return;
+        }
+        busy.add(task.key);
+      }
+      apply(task);
+    }
+  }
+
+  /**
+   * Takes the oldest change to a record that does not already have one
+   * being made.
+   */
+  private Task next() {
+    Iterator<Task> it = queue.values().iterator();
+    while(it.hasNext()) {
+      Task task = it.next();
+      if(!busy.contains(task.key)) {
+        it.remove();
+        return task;
+      }
+    }
+    return null;
+  }
+
+  private void apply(Task task) {
+    Entry entry = task.entry;
+    for(int attempt = 0; ; attempt++) {
+      try {
+        Record result = null;
+        switch(entry.operation) {
+          case ADD:
+            result = task.check ? findAdded(entry) : null;
+            if(result == null) {
+              result = context.addRecord(entry.domain, entry.record);
+            }
+            break;
+          case UPDATE:
+            result = context.updateRecord(entry.domain, entry.recordId, entry.record);
+            break;
+          case DELETE:
+            try {
+              context.deleteRecord(entry.domain, entry.recordId);
+            } catch(NotFoundException e) {
+              // Deleted already, perhaps before the process died
+            }
+            break;
+        }
+        applied.incrementAndGet();
+        finish(task);
+        task.future.complete(result);
+        return;
+
+      } catch(UnexpectedResponseException e) {
+        if(!e.isRetryable()) {
+          fail(task, e);
+          return;
+        }
+        // A rate limited request was turned away before being looked at
+        task.check |= !(e instanceof RateLimitedException);
+        if(!backOff(task, attempt, e)) {
+          return;
+        }
+
+      } catch(RateLimitReservedException e) {
+        // Not sent
+        if(!backOff(task, attempt, e)) {
+          return;
+        }
+
+      } catch(IOException e) {
+        task.check = true;
+        if(!backOff(task, attempt, e)) {
+          return;
+        }
+
+      } catch(RuntimeException e) {
+        fail(task, e);
+        return;
+      }
+    }
+  }
+
+  /**
+   * @return a record equal to the one {@code entry} adds, if the domain
+   *    has one already
+   */
+  private Record findAdded(Entry entry) throws UnexpectedResponseException, IOException {
+    Record record = entry.record;
+    RecordFilter.Builder filter = RecordFilter.getBuilder()
+        .setName(record.getName() == null ? "" : record.getName());
+    if(record.getRecordType() != null) {
+      filter.addRecordType(record.getRecordType());
+    }
+    for(Record existing : context.getRecords(entry.domain, filter.build())) {
+      if(record.equals(existing)) {
+        return existing;
+      }
+    }
+    return null;
+  }
+
+  /**
+   * Waits before trying a change again.
+   * @return {@code false} if the outbox was closed first, in which case the
+   *    change has been left in the journal
+   */
+  private boolean backOff(Task task, int attempt, Exception e) {
+    long delay = retryDelayMillis << Math.min(attempt, MAX_BACKOFF_SHIFT);
+    RateLimit rateLimit = null;
+    if(e instanceof RateLimitedException) {
+      rateLimit = ((RateLimitedException) e).getRateLimit();
+    } else if(e instanceof RateLimitReservedException) {
+      rateLimit = ((RateLimitReservedException) e).getRateLimit();
+    }
+    if(rateLimit != null && rateLimit.getResetAt() != null) {
+      delay = Math.max(delay, rateLimit.getResetAt().getTime() - System.currentTimeMillis());
+    }
+
+    long until = System.currentTimeMillis() + delay;
+    synchronized(queue) {
+      long remaining = delay;
+      while(!closed && remaining > 0) {
+        try {
+          queue.wait(remaining);
+        } catch(InterruptedException ie) {
+          break;
+        }
+        remaining = until - System.currentTimeMillis();
+      }
+      if(closed) {
+        busy.remove(task.key);
+      }
+    }
+    if(closed()) {
+      abandon(task);
+      return false;
+    }
+    retries.incrementAndGet();
+    return true;
+  }
+
+  private void fail(Task task, Exception e) {
+    failed.incrementAndGet();
+    finish(task);
+    task.future.completeExceptionally(e);
+  }
+
+  /**
+   * Marks a change done in the journal, and lets the next change to its
+   * record be made.
+   */
+  private void finish(Task task) {
+    try {
+      journal.sync(journal.appendDone(task.entry.seq));
+    } catch(IOException e) {
+      // The change will be made again next time, which is harmless
+    }
+    journal.compact(COMPACT_BYTES);
+
+    synchronized(queue) {
+      busy.remove(task.key);
+      pending--;
+      queue.notifyAll();
+    }
+  }
+
+  private void abandon(Task task) {
+    task.future.completeExceptionally(new IllegalStateException(
+        "Record outbox was closed before the change was made; it is still in the journal"));
+  }
+
+  private boolean closed() {
+    synchronized(queue) {
+      return closed;
+    }
+  }
+
+  /**
+   * Checks a record when it is journalled, rather than failing its future
+   * once a worker gets to it.
+   */
+  private void validate(Record record) throws InvalidRecordException {
+    RecordValidator validator = context.getRecordValidator();
+    if(validator != null) {
+      validator.check(record);
+    }
+  }
+
+  private void validateUpdate(Record record) throws InvalidRecordException {
+    RecordValidator validator = context.getRecordValidator();
+    if(validator != null) {
+      validator.checkUpdate(record);
+    }
+  }
+
+  private void checkOpen() {
+    if(closed) {
+      throw new IllegalStateException("Record outbox has been closed");
+    }
+  }
+
+  private static class Task {
+
+    private final Entry entry;
+    private final Key key;
+    private final CompletableFuture<Record> future = new CompletableFuture<Record>();
+    // Whether an add may already have been made
+    private boolean check = false;
+
+    private Task(Entry entry) {
+      this.entry = entry;
+      this.key = new Key(entry.domain, entry.recordId, entry.recordId == null ? entry.record : null);
+    }
+
+  }
+
+  /**
+   * Identifies a record by its ID, or by its content if it is being added
+   * (see {@link Record#equals(Object)}).
+   */
+  private static class Key {
+
+    private final String domain;
+    private final String recordId;
+    private final Record record;
+
+    private Key(String domain, String recordId, Record record) {
+      this.domain = domain;
+      this.recordId = recordId;
+      this.record = record;
+    }
+
+    @Override
+    public int hashCode() {
+      final int prime = 31;
+      int result = 1;
+      result = prime * result + ((domain == null) ? 0 : domain.hashCode());
+      result = prime * result + ((recordId == null) ? 0 : recordId.hashCode());
+      result = prime * result + ((record == null) ? 0 : record.hashCode());
+      return result;
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+      if(this == obj)
+        return true;
+      if(!(obj instanceof Key))
+        return false;
+      Key other = (Key) obj;
+      return equal(domain, other.domain) && equal(recordId, other.recordId)
+          && equal(record, other.record);
+    }
+
+    private static boolean equal(Object a, Object b) {
+      return a == null ? b == null : a.equals(b);
+    }
+
+  }
+
+  public static class Builder {
+
+    private DnsimpleContext context = null;
+    private File journal = null;
+    private int workers = 4;
+    private long retryDelayMillis = 1000;
+
+    /**
+     * @param context used to make the changes. Required.
+     */
+    public Builder setContext(DnsimpleContext context) {
+      this.context = context;
+      return this;
+    }
+
+    /**
+     * @param journal the file changes are written to before being made,
+     *    created if it does not exist. A lock file is kept next to it.
+     *    Required.
+     */
+    public Builder setJournal(File journal) {
+      this.journal = journal;
+      return this;
+    }
+
+    /**
+     * @param workers how many changes may be made at once. Defaults to 4.
+     */
+    public Builder setWorkers(int workers) {
+      if(workers < 1) {
+        throw new IllegalArgumentException("Must have at least one worker");
+      }
+      this.workers = workers;
+      return this;
+    }
+
+    /**
+     * @param retryDelay how long to wait before trying a failed change
+     *    again, doubling each further time up to 64 times as long, or until
+     *    the rate limit resets if that is later. Defaults to 1 second.
+     */
+    public Builder setRetryDelay(long retryDelay, TimeUnit unit) {
+      this.retryDelayMillis = unit.toMillis(retryDelay);
+      return this;
+    }
+
+    /**
+     * Opens the journal, and starts making any changes left in it.
+     * @throws IllegalStateException If no context or journal has been set
+     * @throws IOException If the journal could not be read, or is in use by
+     *    another outbox
+     */
+    public RecordOutbox build() throws IllegalStateException, IOException {
+      if(context == null) {
+        throw new IllegalStateException("A context is required");
+      }
+      if(journal == null) {
+        throw new IllegalStateException("A journal is required");
+      }
+      return new RecordOutbox(this);
+    }
+
+  }
+
+}
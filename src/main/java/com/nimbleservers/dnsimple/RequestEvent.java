@@ -0,0 +1,145 @@
+/**
+ * Copyright 2012 Nimble Servers Limited. http://nimbleservers.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.nimbleservers.dnsimple;
+
+import java.io.IOException;
+
+/**
+ * One finished request, as given to a {@link RequestListener}.
+ * <p>
+ * Immutable.
+ * <p>
+ * @author Chris Strand
+ */
+public class RequestEvent {
+
+  private final String tenant;
+  private final String operation;
+  private final String method;
+  private final String uri;
+  private final Priority priority;
+  private final int attempt;
+  private final int statusCode;
+  private final IOException failure;
+  private final long requestBytes;
+  private final long responseBytes;
+  private final long startMillis;
+  private final long durationNanos;
+
+  RequestEvent(String tenant, String operation, String method, String uri, Priority priority, int attempt, int statusCode, IOException failure, long requestBytes, long responseBytes, long startMillis, long durationNanos) {
+    this.tenant = tenant;
+    this.operation = operation;
+    this.method = method;
+    this.uri = uri;
+    this.priority = priority;
+    this.attempt = attempt;
+    this.statusCode = statusCode;
+    this.failure = failure;
+    this.requestBytes = requestBytes;
+    this.responseBytes = responseBytes;
+    this.startMillis = startMillis;
+    this.durationNanos = durationNanos;
+  }
+
+  /**
+   * @return the email of the account the request was sent for
+   */
+  public String getTenant() {
+    return tenant;
+  }
+
+  /**
+   * @return the name of the {@link DnsimpleContext} method that made the
+   *    request, such as {@code getRecords}
+   */
+  public String getOperation() {
+    return operation;
+  }
+
+  public String getMethod() {
+    return method;
+  }
+
+  public String getUri() {
+    return uri;
+  }
+
+  public Priority getPriority() {
+    return priority;
+  }
+
+  /**
+   * @return 1, or 2 for a hedge: a second request made for the same call
+   *    because the first was slow
+   */
+  public int getAttempt() {
+    return attempt;
+  }
+
+  /**
+   * @return the HTTP status code, or 0 if no response was received
+   */
+  public int getStatusCode() {
+    return statusCode;
+  }
+
+  /**
+   * @return why the request failed, or {@code null} if it did not (an
+   *    unexpected status code is not a failure here)
+   */
+  public IOException getFailure() {
+    return failure;
+  }
+
+  /**
+   * @return the number of bytes of request body sent
+   */
+  public long getRequestBytes() {
+    return requestBytes;
+  }
+
+  /**
+   * @return the number of bytes of response body read
+   */
+  public long getResponseBytes() {
+    return responseBytes;
+  }
+
+  /**
+   * @return when the request was made, in milliseconds since the epoch
+   */
+  public long getStartMillis() {
+    return startMillis;
+  }
+
+  /**
+   * @return how long the request took, including waiting for a connection
+   *    and reading the response, in nanoseconds
+   */
+  public long getDurationNanos() {
+    return durationNanos;
+  }
+
+  @Override
+  public String toString() {
+    return "RequestEvent [tenant=" + tenant + ", operation=" + operation + ", method=" + method + ", uri="
+        + uri + ", priority=" + priority + ", attempt=" + attempt + ", statusCode=" + statusCode
+        + ", failure=" + failure + ", requestBytes=" + requestBytes
+        + ", responseBytes=" + responseBytes + ", startMillis=" + startMillis
+        + ", durationNanos=" + durationNanos + "]";
+  }
+
+}
@@ -0,0 +1,31 @@
+/**
+ * Copyright 2012 Nimble Servers Limited. http://nimbleservers.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.nimbleservers.dnsimple;
+
+/**
+ * Told about every request sent through a {@link DnsimpleTransport}, once it
+ * has finished: when the response has been read (or abandoned), or the
+ * request has failed. Called on whichever thread finished the request, so
+ * implementations must be thread safe and quick.
+ * <p>
+ * @author Chris Strand
+ * @see DnsimpleTransport.Builder#addRequestListener(RequestListener)
+ */
+public interface RequestListener {
+
+  void onRequest(RequestEvent event);
+
+}
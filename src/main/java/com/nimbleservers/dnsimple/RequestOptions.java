@@ -0,0 +1,185 @@
+/**
+ * Copyright 2012 Nimble Servers Limited. http://nimbleservers.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.nimbleservers.dnsimple;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Bounds the calls made through a context, see
+ * {@link DnsimpleContext#withOptions(RequestOptions)}.
+ * <p>
+ * The deadline is fixed when the options are built and is shared by every
+ * request made with them, so an operation that sends several requests (a
+ * hedged read, or a caller's own fan-out using the same context) gets the
+ * time that is left rather than a fresh timeout for each. It covers waiting
+ * for a connection, connecting, sending and reading the response; a request
+ * still running at the deadline is aborted and a
+ * {@link DeadlineExceededException} thrown.
+ * <p>
+ * The {@link Priority} says whether the calls are interactive (the default)
+ * or bulk work that should give way to them.
+ * <p>
+ * For example, to give a call five seconds:
+ * <pre>
+ * List&lt;Record&gt; records = context.withOptions(RequestOptions.getBuilder()
+ *    .setTimeout(5, TimeUnit.SECONDS)
+ *    .build()).getRecords("domain.com");
+ * </pre>
+ * Immutable.
+ * <p>
+ * @author Chris Strand
+ * @see Cancellation
+ */
+public class RequestOptions {
+
+  /**
+   * No deadline and no cancellation
+   */
+  public static final RequestOptions NONE = new RequestOptions(false, 0, Collections.<Cancellation>emptyList(), null);
+
+  private final boolean hasDeadline;
+  private final long deadline;
+  private final List<Cancellation> cancellations;
+  private final Priority priority;
+
+  private RequestOptions(boolean hasDeadline, long deadline, List<Cancellation> cancellations, Priority priority) {
+    this.hasDeadline = hasDeadline;
+    this.deadline = deadline;
+    this.cancellations = cancellations;
+    this.priority = priority;
+  }
+
+  public static Builder getBuilder() {
+    return new Builder();
+  }
+
+  public boolean hasDeadline() {
+    return hasDeadline;
+  }
+
+  /**
+   * @return the time left before the deadline (negative once it has passed),
+   *    or {@link Long#MAX_VALUE} if there is none
+   */
+  public long getRemaining(TimeUnit unit) {
+    if(!hasDeadline) {
+      return Long.MAX_VALUE;
+    }
+    return unit.convert(deadline - System.nanoTime(), TimeUnit.NANOSECONDS);
+  }
+
+  /**
+   * @return {@code true} if any of the cancellations has been cancelled
+   */
+  public boolean isCancelled() {
+    for(Cancellation cancellation : cancellations) {
+      if(cancellation.isCancelled()) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * @return the priority of the calls, {@link Priority#INTERACTIVE} unless
+   *    set otherwise
+   */
+  public Priority getPriority() {
+    return priority == null ? Priority.INTERACTIVE : priority;
+  }
+
+  List<Cancellation> getCancellations() {
+    return cancellations;
+  }
+
+  /**
+   * @return options with the earlier of the two deadlines, cancelled by
+   *    either's cancellation, and {@code other}'s priority if it set one
+   */
+  RequestOptions merge(RequestOptions other) {
+    boolean mergedHasDeadline = hasDeadline || other.hasDeadline;
+    long mergedDeadline;
+    if(hasDeadline && other.hasDeadline) {
+      mergedDeadline = deadline - other.deadline < 0 ? deadline : other.deadline;
+    } else {
+      mergedDeadline = hasDeadline ? deadline : other.deadline;
+    }
+
+    List<Cancellation> merged = new ArrayList<Cancellation>(cancellations);
+    for(Cancellation cancellation : other.cancellations) {
+      if(!merged.contains(cancellation)) {
+        merged.add(cancellation);
+      }
+    }
+
+    return new RequestOptions(mergedHasDeadline, mergedDeadline, Collections.unmodifiableList(merged),
+        other.priority != null ? other.priority : priority);
+  }
+
+  @Override
+  public String toString() {
+    return "RequestOptions [remainingMillis="
+        + (hasDeadline ? String.valueOf(getRemaining(TimeUnit.MILLISECONDS)) : "none")
+        + ", cancelled=" + isCancelled() + ", priority=" + getPriority() + "]";
+  }
+
+  public static class Builder {
+
+    private boolean hasDeadline = false;
+    private long timeoutNanos = 0;
+    private Cancellation cancellation = null;
+    private Priority priority = null;
+
+    /**
+     * @param timeout how long from when the options are built until the
+     *    deadline
+     */
+    public Builder setTimeout(long timeout, TimeUnit unit) {
+      this.hasDeadline = true;
+      this.timeoutNanos = unit.toNanos(timeout);
+      return this;
+    }
+
+    /**
+     * @param cancellation to cancel calls from another thread
+     */
+    public Builder setCancellation(Cancellation cancellation) {
+      this.cancellation = cancellation;
+      return this;
+    }
+
+    /**
+     * @param priority whether the calls are interactive or bulk work.
+     *    Defaults to {@link Priority#INTERACTIVE}.
+     */
+    public Builder setPriority(Priority priority) {
+      this.priority = priority;
+      return this;
+    }
+
+    public RequestOptions build() {
+      List<Cancellation> cancellations = cancellation == null
+          ? Collections.<Cancellation>emptyList()
+          : Collections.singletonList(cancellation);
+      return new RequestOptions(hasDeadline, System.nanoTime() + timeoutNanos, cancellations, priority);
+    }
+
+  }
+
+}
@@ -0,0 +1,176 @@
+/**
+ * Copyright 2012 Nimble Servers Limited. http://nimbleservers.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.nimbleservers.dnsimple;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+
+/**
+ * Decodes a response body for the JSON parser with buffers and a decoder
+ * kept per thread, rather than the new ones each
+ * {@link InputStreamReader} allocates.
+ * <p>
+ * {@link #open(InputStream)} hands out the calling thread's reader, which
+ * must be closed on that same thread before the thread reads another
+ * response. A thread that opens a second response while still reading one
+ * gets a plain {@link InputStreamReader} for it. Closing returns the reader
+ * to its thread and closes the stream, which is as good as consuming the
+ * entity. Malformed input is replaced, as {@link InputStreamReader} does.
+ * <p>
+ * Not Thread Safe: each instance belongs to one thread.
+ * <p>
+ * @author Chris Strand
+ */
+final class ResponseReader extends Reader {
+
+  private static final int BUFFER_SIZE = 8192;
+  private static final Charset CHARSET = Charset.forName(DnsimpleContext.CHARSET);
+
+  private static final ThreadLocal<ResponseReader> READERS = new ThreadLocal<ResponseReader>() {
+    @Override
+    protected ResponseReader initialValue() {
+      return new ResponseReader();
+    }
+  };
+
+  private final CharsetDecoder decoder = CHARSET.newDecoder()
+      .onMalformedInput(CodingErrorAction.REPLACE)
+      .onUnmappableCharacter(CodingErrorAction.REPLACE);
+  // Both kept ready to be read from (flipped)
+  private final ByteBuffer bytes = ByteBuffer.allocate(BUFFER_SIZE);
+  private final CharBuffer chars = CharBuffer.allocate(BUFFER_SIZE);
+
+  private InputStream in = null;
+  private boolean endOfInput;
+  private boolean flushed;
+
+  private ResponseReader() {
+  }
+
+  /**
+   * @return a reader of {@code in}, which must be closed once done with
+   */
+  static Reader open(InputStream in) {
+    ResponseReader reader = READERS.get();
+    if(reader.in != null) {
+      // Already reading a response on this thread
+      return new InputStreamReader(in, CHARSET);
+    }
+    reader.reset(in);
+    return reader;
+  }
+
+  private void reset(InputStream in) {
+    this.in = in;
+    decoder.reset();
+    bytes.clear().flip();
+    chars.clear().flip();
+    endOfInput = false;
+    flushed = false;
+  }
+
+  @Override
+  public int read(char buffer[], int offset, int length) throws IOException {
+    if(in == null) {
+      throw new IOException("Reader has been closed");
+    }
+    if(offset < 0 || length < 0 || length > buffer.length - offset) {
+      throw new IndexOutOfBoundsException();
+    }
+    if(length == 0) {
+      return 0;
+    }
+    if(!chars.hasRemaining() && !fill()) {
+      return -1;
+    }
+    int count = Math.min(length, chars.remaining());
+    chars.get(buffer, offset, count);
+    return count;
+  }
+
+  @Override
+  public boolean ready() throws IOException {
+    if(in == null) {
+      throw new IOException("Reader has been closed");
+    }
+    return chars.hasRemaining() || in.available() > 0;
+  }
+
+  /**
+   * Decodes at least one more character, reading from the stream as need
+   * be.
+   * @return {@code false} at the end of the stream
+   */
+  private boolean fill() throws IOException {
+    chars.clear();
+    try {
+      while(chars.position() == 0 && !flushed) {
+        CoderResult result = decoder.decode(bytes, chars, endOfInput);
+        if(result.isOverflow()) {
+          break;
+        }
+        if(result.isError()) {
+          result.throwException();
+        }
+        if(endOfInput) {
+          decoder.flush(chars);
+          flushed = true;
+        } else if(chars.position() == 0) {
+          readBytes();
+        }
+      }
+    } finally {
+      chars.flip();
+    }
+    return chars.hasRemaining();
+  }
+
+  private void readBytes() throws IOException {
+    bytes.compact();
+    try {
+      int count = in.read(bytes.array(), bytes.arrayOffset() + bytes.position(), bytes.remaining());
+      if(count < 0) {
+        endOfInput = true;
+      } else {
+        bytes.position(bytes.position() + count);
+      }
+    } finally {
+      bytes.flip();
+    }
+  }
+
+  /**
+   * Closes the stream, and hands the reader back to its thread.
+   */
+  @Override
+  public void close() throws IOException {
+    InputStream closing = in;
+    if(closing == null) {
+      return;
+    }
+    in = null;
+    closing.close();
+  }
+
+}
@@ -0,0 +1,158 @@
+/**
+ * Copyright 2012 Nimble Servers Limited. http://nimbleservers.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.nimbleservers.dnsimple;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Counters for all requests sent through a {@link DnsimpleTransport},
+ * whichever context sent them. Counts only ever go up; take two readings and
+ * subtract to get a rate.
+ * <p>
+ * @author Chris Strand
+ */
+public class TransportMetrics {
+
+  private final AtomicLong requests = new AtomicLong();
+  private final AtomicLong failures = new AtomicLong();
+  private final AtomicLong rateLimited = new AtomicLong();
+  private final AtomicLong inFlight = new AtomicLong();
+  private final AtomicLong waitNanos = new AtomicLong();
+  private final AtomicLong hedgeable = new AtomicLong();
+  private final AtomicLong hedges = new AtomicLong();
+  private final AtomicLong hedgeWins = new AtomicLong();
+  private final FairScheduler scheduler;
+
+  TransportMetrics(FairScheduler scheduler) {
+    this.scheduler = scheduler;
+  }
+
+  /**
+   * @return the number of requests sent
+   */
+  public long getRequests() {
+    return requests.get();
+  }
+
+  /**
+   * @return the number of requests that failed without a response, e.g.
+   *    because the connection was aborted
+   */
+  public long getFailures() {
+    return failures.get();
+  }
+
+  /**
+   * @return the number of responses with status code 429 (too many requests)
+   */
+  public long getRateLimited() {
+    return rateLimited.get();
+  }
+
+  /**
+   * @return the number of requests currently holding a connection
+   */
+  public long getInFlight() {
+    return inFlight.get();
+  }
+
+  /**
+   * @return the number of requests currently waiting for a connection
+   */
+  public int getWaiting() {
+    return scheduler.getWaiting();
+  }
+
+  /**
+   * @return the most {@link Priority#BULK} requests currently allowed in
+   *    flight, as adapted by the transport's {@link AdaptiveLimitPolicy}
+   */
+  public int getConcurrencyLimit() {
+    return scheduler.getMax(Priority.BULK);
+  }
+
+  /**
+   * @return the total time, in milliseconds, requests have spent waiting
+   *    for a connection
+   */
+  public long getWaitMillis() {
+    return waitNanos.get() / 1000000L;
+  }
+
+  /**
+   * @return the number of reads sent by contexts with a {@link HedgePolicy}
+   */
+  public long getHedgeable() {
+    return hedgeable.get();
+  }
+
+  /**
+   * @return the number of extra requests sent because a read was slow. The
+   *    hedge rate is this divided by {@link #getHedgeable()}.
+   */
+  public long getHedges() {
+    return hedges.get();
+  }
+
+  /**
+   * @return the number of hedges that were answered before the request
+   *    they were sent for
+   */
+  public long getHedgeWins() {
+    return hedgeWins.get();
+  }
+
+  void onAcquired(long waitedNanos) {
+    requests.incrementAndGet();
+    inFlight.incrementAndGet();
+    waitNanos.addAndGet(waitedNanos);
+  }
+
+  void onReleased() {
+    inFlight.decrementAndGet();
+  }
+
+  void onFailure() {
+    failures.incrementAndGet();
+  }
+
+  void onRateLimited() {
+    rateLimited.incrementAndGet();
+  }
+
+  void onHedgeable() {
+    hedgeable.incrementAndGet();
+  }
+
+  void onHedge() {
+    hedges.incrementAndGet();
+  }
+
+  void onHedgeWin() {
+    hedgeWins.incrementAndGet();
+  }
+
+  @Override
+  public String toString() {
+    return "TransportMetrics [requests=" + getRequests() + ", failures="
+        + getFailures() + ", rateLimited=" + getRateLimited() + ", inFlight="
+        + getInFlight() + ", waiting=" + getWaiting() + ", concurrencyLimit="
+        + getConcurrencyLimit() + ", waitMillis="
+        + getWaitMillis() + ", hedgeable=" + getHedgeable() + ", hedges="
+        + getHedges() + ", hedgeWins=" + getHedgeWins() + "]";
+  }
+
+}
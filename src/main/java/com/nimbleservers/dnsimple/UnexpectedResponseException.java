@@ -15,34 +15,129 @@
  */
 package com.nimbleservers.dnsimple;
 
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.http.HttpEntity;
+import org.apache.http.HttpResponse;
+import org.apache.http.HttpStatus;
+import org.apache.http.client.methods.HttpUriRequest;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParseException;
+import com.google.gson.JsonParser;
 
 /**
  * Used to show that an unexpected HTTP status code was received.
+ * <p>
+ * Exceptions created from a response also carry the request's method and
+ * URI, the start of the response body, the error messages DNSimple gave in
+ * it and the account's rate limit. The more specific subclasses say whether
+ * trying again might work (see {@link #isRetryable()}):
+ * <ul>
+ * <li>{@link ClientErrorException} for 4xx codes, of which
+ *    {@link NotFoundException} for 404 and {@link RateLimitedException} for
+ *    429</li>
+ * <li>{@link ServerErrorException} for 5xx codes</li>
+ * </ul>
  * @author Chris Strand
  */
 public class UnexpectedResponseException extends Exception {
-  
+
   private static final long serialVersionUID = 883232997136441178L;
+
+  /**
+   * At most this many bytes of the response body are kept.
+   */
+  public static final int MAX_BODY_LENGTH = 2048;
+
   private int expected = 0;
   private int received = 0;
-  
+  private final String method;
+  private final String uri;
+  private final String body;
+  private final List<String> errors;
+  private final RateLimit rateLimit;
+
   public UnexpectedResponseException(int expected, int received) {
     this("Expected status code: " + expected + " but got: " + received, expected, received);
   }
-  
+
   public UnexpectedResponseException(String message, int expected, int received) {
     super(message);
     this.expected = expected;
     this.received = received;
+    this.method = null;
+    this.uri = null;
+    this.body = null;
+    this.errors = Collections.emptyList();
+    this.rateLimit = null;
+  }
+
+  /**
+   * @param writableStackTrace {@code false} to skip filling in the stack
+   *    trace, which is most of the cost of creating an exception
+   */
+  public UnexpectedResponseException(String message, int expected, int received, String method, String uri, String body, List<String> errors, RateLimit rateLimit, boolean writableStackTrace) {
+    super(message, null, true, writableStackTrace);
+    this.expected = expected;
+    this.received = received;
+    this.method = method;
+    this.uri = uri;
+    this.body = body;
+    this.errors = errors == null ? Collections.<String>emptyList() : Collections.unmodifiableList(new ArrayList<String>(errors));
+    this.rateLimit = rateLimit;
+  }
+
+  /**
+   * Creates the most specific exception for the response's status code. The
+   * start of the response body is read, but the entity is left for the
+   * caller to consume.
+   * @param writableStackTrace {@code false} to skip filling in the stack
+   *    trace
+   */
+  static UnexpectedResponseException fromResponse(HttpUriRequest request, HttpResponse response, int expected, boolean writableStackTrace) {
+    int received = response.getStatusLine().getStatusCode();
+    String method = request.getMethod();
+    String uri = request.getURI().toString();
+    String body = readBody(response.getEntity());
+    List<String> errors = parseErrors(body);
+    RateLimit rateLimit = RateLimit.fromResponse(response);
+
+    StringBuilder message = new StringBuilder()
+        .append("Expected status code: ").append(expected)
+        .append(" but got: ").append(received)
+        .append(" (").append(method).append(' ').append(uri).append(')');
+    if(!errors.isEmpty()) {
+      message.append(": ").append(errors);
+    }
+
+    if(received == HttpStatus.SC_NOT_FOUND) {
+      return new NotFoundException(message.toString(), expected, received, method, uri, body, errors, rateLimit, writableStackTrace);
+    } else if(received == RateLimitedException.SC_TOO_MANY_REQUESTS) {
+      return new RateLimitedException(message.toString(), expected, received, method, uri, body, errors, rateLimit, writableStackTrace);
+    } else if(received >= 400 && received < 500) {
+      return new ClientErrorException(message.toString(), expected, received, method, uri, body, errors, rateLimit, writableStackTrace);
+    } else if(received >= 500 && received < 600) {
+      return new ServerErrorException(message.toString(), expected, received, method, uri, body, errors, rateLimit, writableStackTrace);
+    }
+    return new UnexpectedResponseException(message.toString(), expected, received, method, uri, body, errors, rateLimit, writableStackTrace);
   }
-  
+
   /**
    * @return the HTTP status code that was expected
    */
   public int getExpected() {
     return expected;
   }
-  
+
   /**
    * @return the (unexpected) HTTP Status code that was received.
    */
@@ -50,4 +145,127 @@ public class UnexpectedResponseException extends Exception {
     return received;
   }
 
+  /**
+   * @return the HTTP method of the request, or {@code null} if not known
+   */
+  public String getMethod() {
+    return method;
+  }
+
+  /**
+   * @return the URI of the request, or {@code null} if not known
+   */
+  public String getUri() {
+    return uri;
+  }
+
+  /**
+   * @return up to {@link #MAX_BODY_LENGTH} bytes of the response body, or
+   *    {@code null} if there was none (or it is not known)
+   */
+  public String getBody() {
+    return body;
+  }
+
+  /**
+   * @return the error messages DNSimple gave in the response body, e.g.
+   *    "name has already been taken". Empty if there were none.
+   */
+  public List<String> getErrors() {
+    return errors;
+  }
+
+  /**
+   * @return the account's rate limit as reported in the response, or
+   *    {@code null} if it was not
+   */
+  public RateLimit getRateLimit() {
+    return rateLimit;
+  }
+
+  /**
+   * @return {@code true} if sending the same request again might succeed
+   */
+  public boolean isRetryable() {
+    return false;
+  }
+
+  private static String readBody(HttpEntity entity) {
+    if(entity == null) {
+      return null;
+    }
+
+    byte buffer[] = new byte[MAX_BODY_LENGTH];
+    int length = 0;
+    try {
+      InputStream in = entity.getContent();
+      if(in == null) {
+        return null;
+      }
+      int n;
+      while(length < buffer.length && (n = in.read(buffer, length, buffer.length - length)) != -1) {
+        length += n;
+      }
+    } catch(IOException e) {
+      // Keep whatever was read before the failure
+    }
+
+    return new String(buffer, 0, length, Charset.forName(DnsimpleContext.CHARSET));
+  }
+
+  /**
+   * Pulls the messages out of DNSimple's error bodies, which look like
+   * <code>{"message": "..."}</code>, <code>{"error": "..."}</code> or
+   * <code>{"errors": {"name": ["has already been taken"]}}</code>.
+   */
+  private static List<String> parseErrors(String body) {
+    List<String> result = new ArrayList<String>();
+    if(body == null || body.length() == 0) {
+      return result;
+    }
+
+    JsonElement json;
+    try {
+      json = new JsonParser().parse(body);
+    } catch(JsonParseException e) {
+      // Not JSON, or cut short
+      return result;
+    }
+
+    if(!json.isJsonObject()) {
+      return result;
+    }
+
+    JsonObject object = json.getAsJsonObject();
+    addMessages(result, null, object.get("message"));
+    addMessages(result, null, object.get("error"));
+
+    JsonElement errors = object.get("errors");
+    if(errors != null && errors.isJsonObject()) {
+      for(Map.Entry<String, JsonElement> entry : errors.getAsJsonObject().entrySet()) {
+        addMessages(result, entry.getKey(), entry.getValue());
+      }
+    } else {
+      addMessages(result, null, errors);
+    }
+
+    return result;
+  }
+
+  private static void addMessages(List<String> result, String field, JsonElement messages) {
+    if(messages == null || messages.isJsonNull()) {
+      return;
+    }
+
+    if(messages.isJsonArray()) {
+      JsonArray array = messages.getAsJsonArray();
+      for(JsonElement message : array) {
+        addMessages(result, field, message);
+      }
+    } else if(messages.isJsonPrimitive()) {
+      String message = messages.getAsString();
+      result.add(field == null ? message : field + " " + message);
+    }
+  }
+
 }
@@ -0,0 +1,474 @@
+/**
+ * Copyright 2012 Nimble Servers Limited. http://nimbleservers.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.nimbleservers.dnsimple;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.nimbleservers.dnsimple.domain.Domain;
+import com.nimbleservers.dnsimple.record.InvalidRecordException;
+import com.nimbleservers.dnsimple.record.Record;
+import com.nimbleservers.dnsimple.record.RecordValidator;
+
+/**
+ * Holds back record changes for a short window so that repeated changes to
+ * the same record are sent as a single request.
+ * <p>
+ * Within the window the last change to a record wins: a chain of updates
+ * becomes one PUT with the final content, an update followed by a delete
+ * becomes just the delete, and adding a record then deleting it again
+ * sends nothing at all. Every call returns a future that completes once
+ * the write that replaced it has been made (or failed).
+ * <p>
+ * Only one write to a record is in flight at a time. A change made while
+ * one is being sent waits for it to finish, and is then sent once the rest
+ * of its own window has passed, so the last change made is the last one
+ * DNSimple sees.
+ * <p>
+ * For example:
+ * <pre>
+ * WriteBehindQueue queue = new WriteBehindQueue(context, 1, TimeUnit.SECONDS);
+ * queue.updateRecord("example.com", "123", first);
+ * Future&lt;Record&gt; result = queue.updateRecord("example.com", "123", second);
+ * // Only second is sent
+ * queue.close();
+ * </pre>
+ * Windows are timed on the executor of the context's transport, but the
+ * writes are made on the queue's own threads, at most four at once, as
+ * {@link Priority#BULK} requests. Thread Safe.
+ * <p>
+ * @author Chris Strand
+ */
+public class WriteBehindQueue {
+
+  private static final int MAX_WRITERS = 4;
+
+  private final DnsimpleContext context;
+  private final ScheduledExecutorService executor;
+  // One task at most for each record, so the queue is bounded by them
+  private final ThreadPoolExecutor writers;
+  private final long windowMillis;
+
+  // Changes not yet sent. Also the lock for the fields after it.
+  private final Map<Key, Pending> pending = new HashMap<Key, Pending>();
+  // Records with a write in flight
+  private final Set<Key> sending = new HashSet<Key>();
+  private int flushing = 0;
+  private boolean closed = false;
+
+  /**
+   * @param context used to make the writes
+   * @param window how long to hold back the first change to a record
+   *    waiting for more
+   */
+  public WriteBehindQueue(DnsimpleContext context, long window, TimeUnit unit) {
+    this.context = context.withOptions(RequestOptions.getBuilder()
+        .setPriority(Priority.BULK)
+        .build());
+    this.executor = context.getTransport().getExecutor();
+    this.writers = new ThreadPoolExecutor(MAX_WRITERS, MAX_WRITERS, 60, TimeUnit.SECONDS,
+        new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+          private final AtomicInteger count = new AtomicInteger();
+          @Override
+          public Thread newThread(Runnable runnable) {
+            Thread thread = new Thread(runnable, "dnsimple-write-behind-" + count.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+          }
+        });
+    writers.allowCoreThreadTimeOut(true);
+    this.windowMillis = unit.toMillis(window);
+  }
+
+  /**
+   * @see #addRecord(String, Record)
+   */
+  public CompletableFuture<Record> addRecord(Domain domain, Record record) {
+    return addRecord(domain.getName(), record);
+  }
+
+  /**
+   * Queues a record to be added. Adding an equal record again before it has
+   * been sent only adds it once.
+   * @return completes with the newly created record, or with {@code null}
+   *    if it was deleted again before being sent
+   * @throws InvalidRecordException If the context's validator found
+   *    something wrong with the record, in which case it was not queued
+   * @see DnsimpleContext#addRecord(String, Record)
+   */
+  public CompletableFuture<Record> addRecord(String domain, Record record) throws InvalidRecordException {
+    validate(record);
+    return enqueue(new Key(domain, null, record), Operation.ADD, record);
+  }
+
+  /**
+   * @see #updateRecord(String, String, Record)
+   */
+  public CompletableFuture<Record> updateRecord(Domain domain, String recordId, Record record) {
+    return updateRecord(domain.getName(), recordId, record);
+  }
+
+  /**
+   * Queues an update to a record, replacing any change to it that has not
+   * been sent yet.
+   * @return completes with the updated record once the last change queued
+   *    for it has been made, or with {@code null} if that was a delete
+   * @throws InvalidRecordException If the context's validator found
+   *    something wrong with the record, in which case it was not queued
+   * @see DnsimpleContext#updateRecord(String, String, Record)
+   */
+  public CompletableFuture<Record> updateRecord(String domain, String recordId, Record record) throws InvalidRecordException {
+    validateUpdate(record);
+    return enqueue(new Key(domain, recordId, null), Operation.UPDATE, record);
+  }
+
+  /**
+   * @see #deleteRecord(String, String)
+   */
+  public CompletableFuture<Record> deleteRecord(Domain domain, String recordId) {
+    return deleteRecord(domain.getName(), recordId);
+  }
+
+  /**
+   * Queues a record to be deleted, replacing any update to it that has not
+   * been sent yet.
+   * @return completes with {@code null} once the record has been deleted
+   * @see DnsimpleContext#deleteRecord(String, String)
+   */
+  public CompletableFuture<Record> deleteRecord(String domain, String recordId) {
+    return enqueue(new Key(domain, recordId, null), Operation.DELETE, null);
+  }
+
+  /**
+   * Deletes a record that may not have been added yet. If an equal record is
+   * still waiting to be added, neither the add nor the delete is sent.
+   * Otherwise the record is deleted by its ID.
+   * @return completes with {@code null} once the record has been deleted
+   * @throws IllegalArgumentException If the record is not waiting to be
+   *    added and has no ID
+   */
+  public CompletableFuture<Record> deleteRecord(String domain, Record record) throws IllegalArgumentException {
+    Pending cancelled;
+    synchronized(pending) {
+      checkOpen();
+      cancelled = pending.remove(new Key(domain, null, record));
+    }
+
+    if(cancelled == null) {
+      if(record.getId() == null) {
+        throw new IllegalArgumentException("Record is not waiting to be added and has no ID: " + record);
+      }
+      return deleteRecord(domain, record.getId());
+    }
+
+    if(cancelled.timer != null) {
+      cancelled.timer.cancel(false);
+    }
+    complete(cancelled.futures, null);
+    return CompletableFuture.completedFuture(null);
+  }
+
+  /**
+   * Sends everything that is waiting now, rather than at the end of its
+   * window, and waits for all writes to finish.
+   * @throws InterruptedException If interrupted while waiting
+   */
+  public void flush() throws InterruptedException {
+    List<Key> ready = new ArrayList<Key>();
+    synchronized(pending) {
+      flushing++;
+      for(Map.Entry<Key, Pending> entry : pending.entrySet()) {
+        // If the timer has already fired the write is on its way anyway,
+        // and one waiting behind a write in flight is sent once it is done
+        Pending waiting = entry.getValue();
+        if(waiting.timer != null && waiting.timer.cancel(false)) {
+          ready.add(entry.getKey());
+        }
+      }
+    }
+
+    try {
+      for(Key key : ready) {
+        send(key);
+      }
+      synchronized(pending) {
+        // A change leaves pending and joins sending in one step, so
+        // between them they cover every write not yet finished
+        while(!pending.isEmpty() || !sending.isEmpty()) {
+          pending.wait();
+        }
+      }
+    } finally {
+      synchronized(pending) {
+        flushing--;
+      }
+    }
+  }
+
+  /**
+   * Stops accepting changes, then sends everything that is waiting and
+   * waits for it to finish. The context is left open.
+   */
+  public void close() {
+    synchronized(pending) {
+      closed = true;
+    }
+
+    try {
+      flush();
+    } catch(InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+    writers.shutdown();
+  }
+
+  private CompletableFuture<Record> enqueue(final Key key, Operation operation, Record record) {
+    CompletableFuture<Record> future = new CompletableFuture<Record>();
+
+    synchronized(pending) {
+      checkOpen();
+      Pending waiting = pending.get(key);
+      if(waiting == null) {
+        waiting = new Pending();
+        waiting.due = System.currentTimeMillis() + windowMillis;
+        // Otherwise it is scheduled once the write in flight is done
+        if(!sending.contains(key)) {
+          try {
+            schedule(key, waiting);
+          } catch(RejectedExecutionException e) {
+            // Such as when the transport has been closed. Left out of
+            // pending, so flush() does not wait for it.
+            future.completeExceptionally(e);
+            return future;
+          }
+        }
+        pending.put(key, waiting);
+      }
+
+      // The last change wins, but everyone waiting hears how it went
+      waiting.operation = operation;
+      waiting.record = record;
+      waiting.futures.add(future);
+    }
+
+    return future;
+  }
+
+  /**
+   * Starts the timer to send a change at the end of its window, or now if
+   * the queue is being flushed. Must hold the lock.
+   * @throws RejectedExecutionException If the transport's executor has
+   *    been shut down
+   */
+  private void schedule(final Key key, final Pending waiting) throws RejectedExecutionException {
+    long delay = flushing > 0 || closed ? 0 : Math.max(0, waiting.due - System.currentTimeMillis());
+    waiting.timer = executor.schedule(new Runnable() {
+      @Override
+      public void run() {
+        // The transport's executor must not block on the request
+        try {
+          writers.execute(new Runnable() {
+            @Override
+            public void run() {
+              send(key);
+            }
+          });
+        } catch(RejectedExecutionException e) {
+          drop(key, waiting, e);
+        }
+      }
+    }, delay, TimeUnit.MILLISECONDS);
+  }
+
+  /**
+   * Gives up on a change that could not be sent, failing everyone waiting
+   * for it.
+   */
+  private void drop(Key key, Pending waiting, Exception e) {
+    synchronized(pending) {
+      if(pending.get(key) != waiting) {
+        // Sent already, by a flush
+        return;
+      }
+      pending.remove(key);
+      pending.notifyAll();
+    }
+    for(CompletableFuture<Record> future : waiting.futures) {
+      future.completeExceptionally(e);
+    }
+  }
+
+  private void send(Key key) {
+    Pending waiting;
+    synchronized(pending) {
+      if(sending.contains(key)) {
+        // Sent once the write in flight is done
+        return;
+      }
+      waiting = pending.remove(key);
+      if(waiting == null) {
+        return;
+      }
+      sending.add(key);
+    }
+
+    try {
+      Record result = null;
+      switch(waiting.operation) {
+        case ADD:
+          result = context.addRecord(key.domain, waiting.record);
+          break;
+        case UPDATE:
+          result = context.updateRecord(key.domain, key.recordId, waiting.record);
+          break;
+        case DELETE:
+          context.deleteRecord(key.domain, key.recordId);
+          break;
+      }
+      complete(waiting.futures, result);
+
+    } catch(Exception e) {
+      for(CompletableFuture<Record> future : waiting.futures) {
+        future.completeExceptionally(e);
+      }
+
+    } finally {
+      Pending rejected = null;
+      RejectedExecutionException rejection = null;
+      synchronized(pending) {
+        sending.remove(key);
+        Pending next = pending.get(key);
+        if(next != null) {
+          try {
+            schedule(key, next);
+          } catch(RejectedExecutionException e) {
+            pending.remove(key);
+            rejected = next;
+            rejection = e;
+          }
+        }
+        pending.notifyAll();
+      }
+      if(rejected != null) {
+        for(CompletableFuture<Record> future : rejected.futures) {
+          future.completeExceptionally(rejection);
+        }
+      }
+    }
+  }
+
+  /**
+   * Checks a record when it is queued, rather than failing its future once
+   * the window has passed.
+   */
+  private void validate(Record record) throws InvalidRecordException {
+    RecordValidator validator = context.getRecordValidator();
+    if(validator != null) {
+      validator.check(record);
+    }
+  }
+
+  private void validateUpdate(Record record) throws InvalidRecordException {
+    RecordValidator validator = context.getRecordValidator();
+    if(validator != null) {
+      validator.checkUpdate(record);
+    }
+  }
+
+  private void checkOpen() {
+    if(closed) {
+      throw new IllegalStateException("Write behind queue has been closed");
+    }
+  }
+
+  private static void complete(List<CompletableFuture<Record>> futures, Record result) {
+    for(CompletableFuture<Record> future : futures) {
+      future.complete(result);
+    }
+  }
+
+  private static enum Operation {
+    ADD, UPDATE, DELETE
+  }
+
+  private static class Pending {
+    private Operation operation;
+    private Record record;
+    private long due;
+    // Null while waiting behind a write in flight
+    private ScheduledFuture<?> timer;
+    private final List<CompletableFuture<Record>> futures = new LinkedList<CompletableFuture<Record>>();
+  }
+
+  /**
+   * Identifies a record by its ID, or by its content if it has not been
+   * added yet (see {@link Record#equals(Object)}).
+   */
+  private static class Key {
+
+    private final String domain;
+    private final String recordId;
+    private final Record record;
+
+    private Key(String domain, String recordId, Record record) {
+      this.domain = domain;
+      this.recordId = recordId;
+      this.record = record;
+    }
+
+    @Override
+    public int hashCode() {
+      final int prime = 31;
+      int result = 1;
+      result = prime * result + ((domain == null) ? 0 : domain.hashCode());
+      result = prime * result + ((recordId == null) ? 0 : recordId.hashCode());
+      result = prime * result + ((record == null) ? 0 : record.hashCode());
+      return result;
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+      if(this == obj)
+        return true;
+      if(!(obj instanceof Key))
+        return false;
+      Key other = (Key) obj;
+      return equal(domain, other.domain) && equal(recordId, other.recordId)
+          && equal(record, other.record);
+    }
+
+    private static boolean equal(Object a, Object b) {
+      return a == null ? b == null : a.equals(b);
+    }
+
+  }
+
+}
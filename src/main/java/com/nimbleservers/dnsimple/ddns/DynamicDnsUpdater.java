@@ -0,0 +1,520 @@
+/**
+ * Copyright 2012 Nimble Servers Limited. http://nimbleservers.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.nimbleservers.dnsimple.ddns;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.nimbleservers.dnsimple.DnsimpleContext;
+import com.nimbleservers.dnsimple.NotFoundException;
+import com.nimbleservers.dnsimple.Priority;
+import com.nimbleservers.dnsimple.RequestOptions;
+import com.nimbleservers.dnsimple.record.Record;
+import com.nimbleservers.dnsimple.record.RecordFilter;
+import com.nimbleservers.dnsimple.record.RecordTypes;
+import com.nimbleservers.dnsimple.record.RecordValidator;
+
+/**
+ * Keeps the A and AAAA records of many hosts pointing at the addresses they
+ * report, using as few API calls as possible.
+ * <p>
+ * The records of a domain are fetched once, the first time one of its hosts
+ * reports, and kept in memory from then on. A report of the address a host
+ * already has costs nothing. A changed address is only written once the
+ * host has been quiet for the debounce period, and only if it still differs
+ * from what DNSimple has, so a host flapping between two addresses does not
+ * cause a write each time. Writes are made by a bounded number of daemon
+ * threads, as {@link Priority#BULK} requests. When more writes are waiting
+ * than the threads can take on, a host's write is put off for another
+ * debounce period.
+ * <p>
+ * For example:
+ * <pre>
+ * DynamicDnsUpdater updater = DynamicDnsUpdater.getBuilder()
+ *    .setContext(context)
+ *    .setDebounce(30, TimeUnit.SECONDS)
+ *    .setMaxConcurrentWrites(4)
+ *    .build();
+ * updater.report("example.com", "host1", "192.168.1.1");
+ * ...
+ * updater.close();
+ * </pre>
+ * Each host is expected to have at most one record of each type; if it has
+ * more, the first one listed is the one kept up to date. Thread Safe.
+ * <p>
+ * @author Chris Strand
+ */
+public class DynamicDnsUpdater {
+
+  private static final RecordFilter ADDRESS_RECORDS = RecordFilter.getBuilder()
+      .addRecordType(RecordTypes.A)
+      .addRecordType(RecordTypes.AAAA)
+      .build();
+  /**
+   * Writes waiting for a thread, beyond which they are put off
+   */
+  private static final int MAX_QUEUED_WRITES = 1024;
+
+  private final DnsimpleContext context;
+  private final ScheduledExecutorService scheduler;
+  private final ExecutorService writers;
+  private final long debounceMillis;
+  private final Integer ttl;
+
+  private final ConcurrentMap<String, Zone> zones = new ConcurrentHashMap<String, Zone>();
+  private final ConcurrentMap<HostKey, Host> hosts = new ConcurrentHashMap<HostKey, Host>();
+
+  private final AtomicLong reports = new AtomicLong();
+  private final AtomicLong suppressed = new AtomicLong();
+  private final AtomicLong writes = new AtomicLong();
+  private final AtomicLong failures = new AtomicLong();
+
+  private volatile boolean closed = false;
+
+  private DynamicDnsUpdater(Builder builder) {
+    this.context = builder.context.withOptions(RequestOptions.getBuilder()
+        .setPriority(Priority.BULK)
+        .build());
+    this.scheduler = context.getTransport().getExecutor();
+    this.debounceMillis = builder.debounceMillis;
+    this.ttl = builder.ttl;
+    ThreadPoolExecutor writers = new ThreadPoolExecutor(builder.maxConcurrentWrites, builder.maxConcurrentWrites,
+        60, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(MAX_QUEUED_WRITES), new ThreadFactory() {
+          private final AtomicInteger count = new AtomicInteger();
+          @Override
+          public Thread newThread(Runnable runnable) {
+            Thread thread = new Thread(runnable, "dnsimple-ddns-" + count.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+          }
+        });
+    writers.allowCoreThreadTimeOut(true);
+    this.writers = writers;
+  }
+
+  public static Builder getBuilder() {
+    return new Builder();
+  }
+
+  /**
+   * Records the address a host has reported. Returns straight away; if the
+   * address has changed it is written in the background.
+   * @param domain the name of the domain the host is in
+   * @param name the host's record name within the domain, e.g. "host1" for
+   *    host1.example.com, or "" for the domain itself
+   * @param address an IPv4 address (for an A record) or IPv6 address (for
+   *    an AAAA record)
+   * @throws IllegalStateException If the updater has been closed
+   * @throws IllegalArgumentException If the address is neither an IPv4 nor
+   *    an IPv6 address
+   */
+  public void report(String domain, String name, String address) throws IllegalStateException, IllegalArgumentException {
+    if(closed) {
+      throw new IllegalStateException("Updater has been closed");
+    }
+
+    boolean ipv6 = address.indexOf(':') >= 0;
+    if(ipv6 ? !RecordValidator.isIpv6Address(address) : !RecordValidator.isIpv4Address(address)) {
+      throw new IllegalArgumentException("Not an IPv4 or IPv6 address: " + address);
+    }
+
+    reports.incrementAndGet();
+
+    String recordType = ipv6 ? RecordTypes.AAAA : RecordTypes.A;
+    HostKey key = new HostKey(domain, name.toLowerCase(), recordType);
+    Host host = host(key);
+
+    synchronized(host) {
+      if(!address.equals(host.desired)) {
+        // Starts the quiet period again
+        host.due = System.currentTimeMillis() + debounceMillis;
+      }
+      host.desired = address;
+
+      if(host.known && address.equals(host.current)) {
+        suppressed.incrementAndGet();
+        return;
+      }
+
+      schedule(host);
+    }
+  }
+
+  /**
+   * @return the number of addresses reported
+   */
+  public long getReports() {
+    return reports.get();
+  }
+
+  /**
+   * @return the number of reports that needed no write, because the address
+   *    had not changed (or had changed back again before it was written)
+   */
+  public long getSuppressed() {
+    return suppressed.get();
+  }
+
+  /**
+   * @return the number of records added or updated
+   */
+  public long getWrites() {
+    return writes.get();
+  }
+
+  /**
+   * @return the number of failed writes. A failed write is tried again the
+   *    next time the host reports.
+   */
+  public long getFailures() {
+    return failures.get();
+  }
+
+  /**
+   * Stops accepting reports, writes any changes still waiting for their
+   * debounce period to end, and waits for the writes to finish. The context
+   * is left open.
+   */
+  public void close() {
+    closed = true;
+
+    List<Host> overflow = new ArrayList<Host>();
+    for(Host host : hosts.values()) {
+      synchronized(host) {
+        if(host.scheduled && !submit(host)) {
+          host.scheduled = false;
+          host.writing = true;
+          overflow.add(host);
+        }
+      }
+    }
+    // More than could be queued, so written here
+    for(Host host : overflow) {
+      write(host);
+    }
+
+    writers.shutdown();
+    try {
+      writers.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+    } catch(InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  private Host host(HostKey key) {
+    Host host = hosts.get(key);
+    if(host == null) {
+      Host created = new Host(key);
+      host = hosts.putIfAbsent(key, created);
+      if(host == null) {
+        host = created;
+      }
+    }
+    return host;
+  }
+
+  /**
+   * Must hold the host's lock.
+   */
+  private void schedule(Host host) {
+    if(host.scheduled || host.writing) {
+      // Whoever is already on it will pick up the latest address, and the
+      // timer will wait out a quiet period started since
+      return;
+    }
+
+    host.scheduled = true;
+    startTimer(host);
+  }
+
+  /**
+   * Must hold the host's lock.
+   */
+  private void startTimer(final Host host) {
+    scheduler.schedule(new Runnable() {
+      @Override
+      public void run() {
+        synchronized(host) {
+          if(!host.scheduled || closed) {
+            // Already submitted, or left for close() to
+            return;
+          }
+          if(host.due > System.currentTimeMillis()) {
+            // Changed again since the timer was started
+            startTimer(host);
+          } else if(!submit(host)) {
+            // Too many writes waiting, so try again later
+            host.due = System.currentTimeMillis() + debounceMillis;
+            startTimer(host);
+          }
+        }
+      }
+    }, Math.max(0, host.due - System.currentTimeMillis()), TimeUnit.MILLISECONDS);
+  }
+
+  /**
+   * Hands a scheduled host to the writers. Must hold the host's lock.
+   * @return {@code false} if too many writes are waiting already, in which
+   *    case the host is still scheduled
+   */
+  private boolean submit(final Host host) {
+    try {
+      writers.execute(new Runnable() {
+        @Override
+        public void run() {
+          write(host);
+        }
+      });
+      host.scheduled = false;
+      host.writing = true;
+    } catch(RejectedExecutionException e) {
+      if(!writers.isShutdown()) {
+        return false;
+      }
+      // Closed while the change was waiting; it can no longer be written
+      host.scheduled = false;
+    }
+    return true;
+  }
+
+  private void write(Host host) {
+    HostKey key = host.key;
+    String address;
+    String recordId;
+
+    try {
+      load(key.domain);
+
+      synchronized(host) {
+        // Once the zone is loaded, a host not found in it has no record yet
+        host.known = true;
+        address = host.desired;
+        recordId = host.recordId;
+        if(address.equals(host.current)) {
+          suppressed.incrementAndGet();
+          host.writing = false;
+          return;
+        }
+      }
+
+      Record record = Record.getBuilder()
+          .setName(key.name)
+          .setRecordType(key.recordType)
+          .setContent(address)
+          .setTtl(ttl)
+          .build();
+
+      if(recordId == null) {
+        recordId = context.addRecord(key.domain, record).getId();
+      } else {
+        context.updateRecord(key.domain, recordId, record);
+      }
+      writes.incrementAndGet();
+
+      synchronized(host) {
+        host.recordId = recordId;
+        host.current = address;
+        host.writing = false;
+        if(!closed && !address.equals(host.desired)) {
+          // It moved again while we were writing
+          schedule(host);
+        }
+      }
+
+    } catch(NotFoundException e) {
+      // Deleted behind our back, so add it afresh next time
+      failures.incrementAndGet();
+      synchronized(host) {
+        host.recordId = null;
+        host.current = null;
+        host.writing = false;
+      }
+
+    } catch(Exception e) {
+      failures.incrementAndGet();
+      synchronized(host) {
+        host.writing = false;
+      }
+    }
+  }
+
+  /**
+   * Fetches the records of {@code domain} unless they already have been.
+   */
+  private void load(String domain) throws Exception {
+    Zone zone = zones.get(domain);
+    if(zone == null) {
+      Zone created = new Zone();
+      zone = zones.putIfAbsent(domain, created);
+      if(zone == null) {
+        zone = created;
+      }
+    }
+
+    synchronized(zone) {
+      if(zone.loaded) {
+        return;
+      }
+
+      List<Record> records = context.getRecords(domain, ADDRESS_RECORDS);
+      for(Record record : records) {
+        String recordType = record.getRecordType();
+        String name = record.getName() == null ? "" : record.getName().toLowerCase();
+        Host host = host(new HostKey(domain, name, recordType));
+        synchronized(host) {
+          if(!host.known) {
+            host.recordId = record.getId();
+            host.current = record.getContent();
+            host.known = true;
+          }
+        }
+      }
+
+      zone.loaded = true;
+    }
+  }
+
+  private static class Zone {
+    private boolean loaded = false;
+  }
+
+  /**
+   * What is known about one record. Guarded by its own lock.
+   */
+  private static class Host {
+
+    private final HostKey key;
+    // Whether recordId and current reflect what DNSimple has
+    private boolean known = false;
+    private String recordId = null;
+    private String current = null;
+    private String desired = null;
+    // When the desired address will have been unchanged for the debounce
+    // period
+    private long due = 0;
+    private boolean scheduled = false;
+    private boolean writing = false;
+
+    private Host(HostKey key) {
+      this.key = key;
+    }
+
+  }
+
+  private static class HostKey {
+
+    private final String domain;
+    private final String name;
+    private final String recordType;
+
+    private HostKey(String domain, String name, String recordType) {
+      this.domain = domain;
+      this.name = name;
+      this.recordType = recordType;
+    }
+
+    @Override
+    public int hashCode() {
+      final int prime = 31;
+      int result = 1;
+      result = prime * result + domain.hashCode();
+      result = prime * result + name.hashCode();
+      result = prime * result + recordType.hashCode();
+      return result;
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+      if(this == obj)
+        return true;
+      if(!(obj instanceof HostKey))
+        return false;
+      HostKey other = (HostKey) obj;
+      return domain.equals(other.domain) && name.equals(other.name)
+          && recordType.equals(other.recordType);
+    }
+
+  }
+
+  public static class Builder {
+
+    private DnsimpleContext context = null;
+    private long debounceMillis = 30000;
+    private int maxConcurrentWrites = 4;
+    private Integer ttl = null;
+
+    /**
+     * @param context used to read and write records. Required.
+     */
+    public Builder setContext(DnsimpleContext context) {
+      this.context = context;
+      return this;
+    }
+
+    /**
+     * @param debounce how long a host must keep a new address before it is
+     *    written. Defaults to 30 seconds.
+     */
+    public Builder setDebounce(long debounce, TimeUnit unit) {
+      this.debounceMillis = unit.toMillis(debounce);
+      return this;
+    }
+
+    /**
+     * @param maxConcurrentWrites how many writes may be made at once.
+     *    Defaults to 4.
+     */
+    public Builder setMaxConcurrentWrites(int maxConcurrentWrites) {
+      if(maxConcurrentWrites < 1) {
+        throw new IllegalArgumentException("Must allow at least one write");
+      }
+      this.maxConcurrentWrites = maxConcurrentWrites;
+      return this;
+    }
+
+    /**
+     * @param ttl in seconds, for the records written. Defaults to leaving
+     *    it to DNSimple.
+     */
+    public Builder setTtl(Integer ttl) {
+      this.ttl = ttl;
+      return this;
+    }
+
+    /**
+     * @throws IllegalStateException If no context has been set
+     */
+    public DynamicDnsUpdater build() throws IllegalStateException {
+      if(context == null) {
+        throw new IllegalStateException("A context is required");
+      }
+      return new DynamicDnsUpdater(this);
+    }
+
+  }
+
+}
@@ -15,6 +15,7 @@
  */
 package com.nimbleservers.dnsimple.domain;
 
+import java.time.Instant;
 import java.util.Date;
 
 /**
@@ -56,6 +57,20 @@ public class Domain {
     this.privateWhois = null;
   }
   
+  public Domain(String id, String name, String nameServerStatus, String registrationStatus, Date createdAt, Date updatedAt, Date parsedExpirationDate, String registrantId, String userId, Boolean autoRenew, Boolean privateWhois) {
+    this.id = id;
+    this.name = name;
+    this.nameServerStatus = nameServerStatus;
+    this.registrationStatus = registrationStatus;
+    this.createdAt = createdAt;
+    this.updatedAt = updatedAt;
+    this.parsedExpirationDate = parsedExpirationDate;
+    this.registrantId = registrantId;
+    this.userId = userId;
+    this.autoRenew = autoRenew;
+    this.privateWhois = privateWhois;
+  }
+  
   public String getId() {
     return id;
   }
@@ -84,6 +99,27 @@ public class Domain {
     return parsedExpirationDate;
   }
   
+  /**
+   * @return {@link #getCreatedAt()} as an instant
+   */
+  public Instant getCreatedAtInstant() {
+    return createdAt == null ? null : createdAt.toInstant();
+  }
+  
+  /**
+   * @return {@link #getUpdatedAt()} as an instant
+   */
+  public Instant getUpdatedAtInstant() {
+    return updatedAt == null ? null : updatedAt.toInstant();
+  }
+  
+  /**
+   * @return {@link #getExpiresAt()} as an instant
+   */
+  public Instant getExpiresAtInstant() {
+    return parsedExpirationDate == null ? null : parsedExpirationDate.toInstant();
+  }
+  
   public String getRegistrantId() {
     return registrantId;
   }
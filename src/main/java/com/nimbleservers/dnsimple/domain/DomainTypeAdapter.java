@@ -0,0 +1,155 @@
+/**
+ * Copyright 2012 Nimble Servers Limited. http://nimbleservers.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.nimbleservers.dnsimple.domain;
+
+import java.io.IOException;
+import java.util.Date;
+
+import com.google.gson.TypeAdapter;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.google.gson.stream.JsonWriter;
+import com.nimbleservers.dnsimple.Iso8601DateAdapter;
+
+/**
+ * Reads and writes {@link Domain}s as DNSimple's JSON, with dates handled
+ * by {@link Iso8601DateAdapter}. Works the same way as
+ * {@link com.nimbleservers.dnsimple.record.RecordTypeAdapter}.
+ * <p>
+ * @author Chris Strand
+ */
+public class DomainTypeAdapter extends TypeAdapter<Domain> {
+
+  private static final int ID = 0;
+  private static final int NAME = 1;
+  private static final int NAME_SERVER_STATUS = 2;
+  private static final int REGISTRATION_STATUS = 3;
+  private static final int CREATED_AT = 4;
+  private static final int UPDATED_AT = 5;
+  private static final int PARSED_EXPIRATION_DATE = 6;
+  private static final int REGISTRANT_ID = 7;
+  private static final int USER_ID = 8;
+  private static final int AUTO_RENEW = 9;
+  private static final int PRIVATE_WHOIS = 10;
+  private static final int FIELDS = 11;
+
+  private final TypeAdapter<Date> dateAdapter = new Iso8601DateAdapter();
+
+  @Override
+  public Domain read(JsonReader reader) throws IOException {
+    if(reader.peek() == JsonToken.NULL) {
+      reader.nextNull();
+      return null;
+    }
+
+    String raw[] = new String[FIELDS];
+    reader.beginObject();
+    while(reader.hasNext()) {
+      int field = field(reader.nextName());
+      JsonToken token = reader.peek();
+      if(field < 0) {
+        reader.skipValue();
+      } else if(token == JsonToken.BOOLEAN) {
+        raw[field] = String.valueOf(reader.nextBoolean());
+      } else if(token == JsonToken.STRING || token == JsonToken.NUMBER) {
+        raw[field] = reader.nextString();
+      } else {
+        reader.skipValue();
+      }
+    }
+    reader.endObject();
+
+    return new Domain(raw[ID], raw[NAME], raw[NAME_SERVER_STATUS],
+        raw[REGISTRATION_STATUS], toDate(raw[CREATED_AT]),
+        toDate(raw[UPDATED_AT]), toDate(raw[PARSED_EXPIRATION_DATE]),
+        raw[REGISTRANT_ID], raw[USER_ID], toBoolean(raw[AUTO_RENEW]),
+        toBoolean(raw[PRIVATE_WHOIS]));
+  }
+
+  @Override
+  public void write(JsonWriter writer, Domain domain) throws IOException {
+    if(domain == null) {
+      writer.nullValue();
+      return;
+    }
+
+    writer.beginObject();
+    writeString(writer, "id", domain.getId());
+    writeString(writer, "name", domain.getName());
+    writeString(writer, "name_server_status", domain.getNameServerStatus());
+    writeString(writer, "registration_status", domain.getRegistrationStatus());
+    writeDate(writer, "created_at", domain.getCreatedAt());
+    writeDate(writer, "updated_at", domain.getUpdatedAt());
+    writeDate(writer, "parsed_expiration_date", domain.getExpiresAt());
+    writeString(writer, "registrant_id", domain.getRegistrantId());
+    writeString(writer, "user_id", domain.getUserId());
+    writeBoolean(writer, "auto_renew", domain.getAutoRenew());
+    writeBoolean(writer, "private_whois", domain.getPrivateWhois());
+    writer.endObject();
+  }
+
+  /**
+   * @return the index in the raw values of the JSON field {@code name}, or
+   *    -1 if it is not a field of {@link Domain}
+   */
+  private static int field(String name) {
+    switch(name) {
+      case "id": return ID;
+      case "name": return NAME;
+      case "name_server_status": return NAME_SERVER_STATUS;
+      case "registration_status": return REGISTRATION_STATUS;
+      case "created_at": return CREATED_AT;
+      case "updated_at": return UPDATED_AT;
+      case "parsed_expiration_date": return PARSED_EXPIRATION_DATE;
+      case "registrant_id": return REGISTRANT_ID;
+      case "user_id": return USER_ID;
+      case "auto_renew": return AUTO_RENEW;
+      case "private_whois": return PRIVATE_WHOIS;
+      default: return -1;
+    }
+  }
+
+  private static Boolean toBoolean(String raw) {
+    if(raw == null) {
+      return null;
+    }
+    return Boolean.valueOf(raw);
+  }
+
+  private static Date toDate(String raw) {
+    return Iso8601DateAdapter.toDate(raw);
+  }
+
+  private void writeString(JsonWriter writer, String name, String value) throws IOException {
+    if(value != null) {
+      writer.name(name).value(value);
+    }
+  }
+
+  private void writeBoolean(JsonWriter writer, String name, Boolean value) throws IOException {
+    if(value != null) {
+      writer.name(name).value(value.booleanValue());
+    }
+  }
+
+  private void writeDate(JsonWriter writer, String name, Date value) throws IOException {
+    if(value != null) {
+      writer.name(name);
+      dateAdapter.write(writer, value);
+    }
+  }
+
+}
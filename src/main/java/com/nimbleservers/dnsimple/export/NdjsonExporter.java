@@ -0,0 +1,453 @@
+/**
+ * Copyright 2012 Nimble Servers Limited. http://nimbleservers.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.nimbleservers.dnsimple.export;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.ArrayDeque;
+import java.util.Date;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Flow;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.GZIPOutputStream;
+
+import com.google.gson.FieldNamingPolicy;
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import com.google.gson.stream.JsonWriter;
+import com.nimbleservers.dnsimple.Cancellation;
+import com.nimbleservers.dnsimple.DnsimpleContext;
+import com.nimbleservers.dnsimple.Iso8601DateAdapter;
+import com.nimbleservers.dnsimple.Priority;
+import com.nimbleservers.dnsimple.RequestOptions;
+import com.nimbleservers.dnsimple.UnexpectedResponseException;
+import com.nimbleservers.dnsimple.domain.Domain;
+import com.nimbleservers.dnsimple.domain.DomainTypeAdapter;
+import com.nimbleservers.dnsimple.record.Record;
+import com.nimbleservers.dnsimple.record.RecordTypeAdapter;
+
+/**
+ * Exports every domain on an account, and every record of each, as
+ * newline-delimited JSON. Each line is one domain or record wrapped as the
+ * API does, e.g. <code>{"domain": {...}}</code>, and each domain is followed
+ * by its records:
+ * <pre>
+ * {"domain":{"id":1,"name":"example.com",...}}
+ * {"record":{"id":10,"name":"www",...}}
+ * {"record":{"id":11,"name":"mail",...}}
+ * {"domain":{"id":2,"name":"example.org",...}}
+ * ...
+ * </pre>
+ * Domains are written in the order DNSimple lists them and records in the
+ * order DNSimple lists them for their domain, however many are fetched at
+ * once.
+ * <p>
+ * The domain listing and each zone's records are streamed. The zone being
+ * written goes straight to the output, and the zones fetched ahead of it
+ * hold at most {@value #LINES_AHEAD} lines each before they wait for their
+ * turn, so memory use does not grow with the number of domains or the size
+ * of a zone. Records are fetched with {@link Priority#BULK}, so interactive
+ * calls sharing the transport go first. The domain listing is fetched as
+ * an interactive request instead, so it does not hold the bulk permit that
+ * the zones need; an export needs the account to be allowed at least two
+ * requests in flight.
+ * <p>
+ * Zones are fetched on threads of the exporter's own, started for each
+ * export and stopped at the end of it, unless an executor is given. They
+ * are never fetched on the transport's executor, which runs the deadline
+ * timers and hedges that those fetches may be waiting on.
+ * <p>
+ * For example:
+ * <pre>
+ * NdjsonExporter exporter = NdjsonExporter.getBuilder()
+ *    .setContext(context)
+ *    .setConcurrency(4)
+ *    .setGzip(true)
+ *    .build();
+ * exporter.export(new File("account.ndjson.gz"));
+ * </pre>
+ * Thread Safe; each export is independent.
+ * <p>
+ * @author Chris Strand
+ */
+public class NdjsonExporter {
+
+  private static final String CHARSET = DnsimpleContext.CHARSET;
+
+  /**
+   * How many lines a zone fetched ahead of the one being written may hold
+   */
+  private static final int LINES_AHEAD = 256;
+
+  // Marks the end of a zone's lines
+  private static final byte END[] = new byte[0];
+
+  private final DnsimpleContext context;
+  private final ExecutorService executor;
+  private final int concurrency;
+  private final boolean gzip;
+  private final Gson gson;
+
+  private NdjsonExporter(Builder builder) {
+    this.context = builder.context;
+    this.executor = builder.executor;
+    this.concurrency = builder.concurrency;
+    this.gzip = builder.gzip;
+    this.gson = new GsonBuilder()
+        .setFieldNamingPolicy(FieldNamingPolicy.LOWER_CASE_WITH_UNDERSCORES)
+        .registerTypeAdapter(Date.class, new Iso8601DateAdapter())
+        .registerTypeHierarchyAdapter(Record.class, new RecordTypeAdapter())
+        .registerTypeHierarchyAdapter(Domain.class, new DomainTypeAdapter())
+        .create();
+  }
+
+  public static Builder getBuilder() {
+    return new Builder();
+  }
+
+  /**
+   * Exports the account to {@code file}, replacing anything already there.
+   * @see #export(OutputStream)
+   */
+  public void export(File file) throws UnexpectedResponseException, IOException {
+    OutputStream out = new FileOutputStream(file);
+    try {
+      export(out);
+    } finally {
+      out.close();
+    }
+  }
+
+  /**
+   * Exports the account to {@code out}, which is flushed but left open.
+   * @throws UnexpectedResponseException If the HTTP response code from
+   *    DNSimple's API was not what was expected
+   * @throws IOException If the connection was aborted, or writing failed
+   */
+  public void export(OutputStream out) throws UnexpectedResponseException, IOException {
+    Cancellation cancellation = new Cancellation();
+    DnsimpleContext bulk = context.withOptions(RequestOptions.getBuilder()
+        .setPriority(Priority.BULK)
+        .setCancellation(cancellation)
+        .build());
+    // Not bulk, so the listing held open for the whole export does not
+    // take the bulk permit the zones are waiting for
+    DnsimpleContext listing = context.withOptions(RequestOptions.getBuilder()
+        .setPriority(Priority.INTERACTIVE)
+        .setCancellation(cancellation)
+        .build());
+
+    OutputStream target = new BufferedOutputStream(out);
+    GZIPOutputStream compressed = null;
+    if(gzip) {
+      compressed = new GZIPOutputStream(target);
+      target = compressed;
+    }
+
+    BlockingSource<Domain> domains = new BlockingSource<Domain>(listing.getDomainsPublisher());
+    ExecutorService executor = this.executor != null ? this.executor : newExecutor();
+    ArrayDeque<ZoneExport> fetching = new ArrayDeque<ZoneExport>();
+    boolean finished = false;
+    try {
+      CountDownLatch previous = null;
+      Domain domain = null;
+      do {
+        while(fetching.size() < concurrency && (domain = domains.next()) != null) {
+          ZoneExport zone = new ZoneExport(bulk, domain, previous);
+          zone.future = executor.submit(zone);
+          fetching.add(zone);
+          previous = zone.started;
+        }
+        if(!fetching.isEmpty()) {
+          fetching.peek().writeTo(target);
+          fetching.poll();
+        }
+      } while(domain != null || !fetching.isEmpty());
+
+      if(compressed != null) {
+        compressed.finish();
+      }
+      target.flush();
+      finished = true;
+
+    } finally {
+      if(!finished) {
+        // Abort whatever is still being fetched
+        cancellation.cancel();
+        for(ZoneExport zone : fetching) {
+          zone.future.cancel(true);
+          // Makes room for the end of the zone, now nothing will take it
+          zone.lines.clear();
+        }
+      }
+      if(executor != this.executor) {
+        executor.shutdown();
+      }
+    }
+  }
+
+  private ExecutorService newExecutor() {
+    return Executors.newFixedThreadPool(concurrency, new ThreadFactory() {
+      private final AtomicInteger count = new AtomicInteger();
+      @Override
+      public Thread newThread(Runnable runnable) {
+        Thread thread = new Thread(runnable, "dnsimple-export-" + count.incrementAndGet());
+        thread.setDaemon(true);
+        return thread;
+      }
+    });
+  }
+
+  private static void await(Future<Void> future) throws UnexpectedResponseException, IOException {
+    try {
+      future.get();
+    } catch(InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new InterruptedIOException("Interrupted during export");
+    } catch(ExecutionException e) {
+      Throwable cause = e.getCause();
+      if(cause instanceof UnexpectedResponseException) {
+        throw (UnexpectedResponseException) cause;
+      } else if(cause instanceof IOException) {
+        throw (IOException) cause;
+      } else if(cause instanceof RuntimeException) {
+        throw (RuntimeException) cause;
+      }
+      throw new IOException(cause);
+    }
+  }
+
+  /**
+   * Writes one domain and its records as lines of JSON, which are handed to
+   * the exporting thread as they are made.
+   * <p>
+   * A zone only sends its request once the zone before it has sent its
+   * own, so the zone being written never waits for a permit held by one
+   * that is waiting for its turn to be written.
+   */
+  private class ZoneExport implements Callable<Void> {
+
+    private final DnsimpleContext context;
+    private final Domain domain;
+    private final CountDownLatch previous;
+    private final CountDownLatch started = new CountDownLatch(1);
+    private final BlockingQueue<byte[]> lines = new ArrayBlockingQueue<byte[]>(LINES_AHEAD);
+    private final ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+    private final Writer writer;
+    private final JsonWriter json;
+    private Future<Void> future;
+
+    ZoneExport(DnsimpleContext context, Domain domain, CountDownLatch previous) throws IOException {
+      this.context = context;
+      this.domain = domain;
+      this.previous = previous;
+      this.writer = new OutputStreamWriter(buffer, CHARSET);
+      this.json = new JsonWriter(writer);
+      this.json.setLenient(true);
+    }
+
+    @Override
+    public Void call() throws UnexpectedResponseException, IOException, InterruptedException {
+      try {
+        writeLine("domain", domain, Domain.class);
+
+        BlockingSource<Record> records;
+        Record record;
+        try {
+          if(previous != null) {
+            previous.await();
+          }
+          records = new BlockingSource<Record>(context.getRecordsPublisher(domain));
+          record = records.next();
+        } finally {
+          started.countDown();
+        }
+
+        while(record != null) {
+          writeLine("record", record, Record.class);
+          record = records.next();
+        }
+        return null;
+
+      } finally {
+        // Once the export has given up on the zone, it is interrupted and
+        // its lines are cleared, so there is always room for this
+        lines.put(END);
+      }
+    }
+
+    /**
+     * Copies the zone's lines to {@code out} as they arrive, until it has
+     * been fetched.
+     */
+    void writeTo(OutputStream out) throws UnexpectedResponseException, IOException {
+      try {
+        byte line[];
+        while((line = lines.take()) != END) {
+          out.write(line);
+        }
+      } catch(InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new InterruptedIOException("Interrupted during export");
+      }
+      await(future);
+    }
+
+    private void writeLine(String name, Object value, Class<?> type) throws IOException, InterruptedException {
+      json.beginObject();
+      json.name(name);
+      gson.toJson(value, type, json);
+      json.endObject();
+      json.flush();
+      writer.write('\n');
+      writer.flush();
+      lines.put(buffer.toByteArray());
+      buffer.reset();
+    }
+
+  }
+
+  /**
+   * Pulls the elements of a publisher one at a time. Only for publishers
+   * that deliver on the thread calling
+   * {@link Flow.Subscription#request(long)}, as the context's do.
+   */
+  private static class BlockingSource<T> implements Flow.Subscriber<T> {
+
+    private Flow.Subscription subscription = null;
+    private T next = null;
+    private boolean complete = false;
+    private Throwable error = null;
+
+    BlockingSource(Flow.Publisher<T> publisher) {
+      publisher.subscribe(this);
+    }
+
+    /**
+     * @return the next element, or {@code null} once there are no more
+     */
+    T next() throws UnexpectedResponseException, IOException {
+      if(!complete && error == null) {
+        subscription.request(1);
+      }
+
+      if(error instanceof UnexpectedResponseException) {
+        throw (UnexpectedResponseException) error;
+      } else if(error instanceof IOException) {
+        throw (IOException) error;
+      } else if(error instanceof RuntimeException) {
+        throw (RuntimeException) error;
+      } else if(error != null) {
+        throw new IOException(error);
+      }
+
+      T result = next;
+      next = null;
+      return result;
+    }
+
+    @Override
+    public void onSubscribe(Flow.Subscription subscription) {
+      this.subscription = subscription;
+    }
+
+    @Override
+    public void onNext(T item) {
+      next = item;
+    }
+
+    @Override
+    public void onError(Throwable throwable) {
+      error = throwable;
+    }
+
+    @Override
+    public void onComplete() {
+      complete = true;
+    }
+
+  }
+
+  public static class Builder {
+
+    private DnsimpleContext context = null;
+    private ExecutorService executor = null;
+    private int concurrency = 4;
+    private boolean gzip = false;
+
+    public Builder setContext(DnsimpleContext context) {
+      this.context = context;
+      return this;
+    }
+
+    /**
+     * @param executor to fetch records on, which is left running. Must not
+     *    be the transport's executor. Defaults to a pool of the
+     *    concurrency's size for each export.
+     */
+    public Builder setExecutor(ExecutorService executor) {
+      this.executor = executor;
+      return this;
+    }
+
+    /**
+     * @param concurrency how many domains' records to fetch at once, each
+     *    holding a connection. Defaults to 4.
+     */
+    public Builder setConcurrency(int concurrency) {
+      if(concurrency < 1) {
+        throw new IllegalArgumentException("Concurrency must be at least 1");
+      }
+      this.concurrency = concurrency;
+      return this;
+    }
+
+    /**
+     * @param gzip whether to compress the output. Defaults to {@code false}.
+     */
+    public Builder setGzip(boolean gzip) {
+      this.gzip = gzip;
+      return this;
+    }
+
+    /**
+     * @throws IllegalStateException If the context has not been set
+     */
+    public NdjsonExporter build() throws IllegalStateException {
+      if(context == null) {
+        throw new IllegalStateException("Context is required");
+      }
+      return new NdjsonExporter(this);
+    }
+
+  }
+
+}
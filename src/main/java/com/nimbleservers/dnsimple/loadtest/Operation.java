@@ -0,0 +1,257 @@
+/**
+ * Copyright 2012 Nimble Servers Limited. http://nimbleservers.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.nimbleservers.dnsimple.loadtest;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Flow;
+
+import com.nimbleservers.dnsimple.DnsimpleContext;
+import com.nimbleservers.dnsimple.UnexpectedResponseException;
+import com.nimbleservers.dnsimple.record.Record;
+import com.nimbleservers.dnsimple.record.RecordTypes;
+
+/**
+ * The {@link DnsimpleContext} calls a trace can hold, each replayed by
+ * making the call again. The fake server works out which one a request is
+ * for from its method and path.
+ * <p>
+ * @author Chris Strand
+ */
+public enum Operation {
+
+  GET_DOMAINS("getDomains", "GET", 0, null),
+  ADD_DOMAIN("addDomain", "POST", 0, null),
+  GET_DOMAIN("getDomain", "GET", 1, null),
+  CHECK_DOMAIN("isDomainAvailable", "GET", 2, "check"),
+  ENABLE_AUTO_RENEWAL("enableAutoRenewal", "POST", 2, "auto_renewal"),
+  DISABLE_AUTO_RENEWAL("disableAutoRenewal", "DELETE", 2, "auto_renewal"),
+  SET_NAME_SERVERS("setNameServers", "POST", 2, "name_servers"),
+  GET_RECORDS("getRecords", "GET", 2, "records"),
+  ADD_RECORD("addRecord", "POST", 2, "records"),
+  UPDATE_RECORD("updateRecord", "PUT", 3, "records"),
+  DELETE_RECORD("deleteRecord", "DELETE", 3, "records"),
+  // Send the same requests as the listings above, which the server is
+  // given instead
+  STREAM_DOMAINS("getDomainsPublisher", "GET", 0, null),
+  STREAM_RECORDS("getRecordsPublisher", "GET", 2, "records");
+
+  /**
+   * Roughly the size of an added or updated record's JSON without its
+   * content, so a replayed payload is about the size of the recorded one
+   */
+  private static final int RECORD_OVERHEAD = 72;
+
+  /**
+   * A little under the longest TXT content the default validator allows
+   */
+  private static final int MAX_PAYLOAD = 2000;
+
+  // The DnsimpleContext method that makes the call
+  private final String call;
+  private final String method;
+  // Path segments after "domains"
+  private final int segments;
+  private final String resource;
+
+  private Operation(String call, String method, int segments, String resource) {
+    this.call = call;
+    this.method = method;
+    this.segments = segments;
+    this.resource = resource;
+  }
+
+  /**
+   * @param path the segments of the request path after {@code domains},
+   *    e.g. {@code [example.com, records, 12]}
+   * @return the operation, or {@code null} if the request is not one of them
+   */
+  static Operation classify(String method, List<String> path) {
+    for(Operation operation : values()) {
+      if(operation.method.equals(method) && operation.segments == path.size()
+          && (operation.resource == null || operation.resource.equals(path.get(1)))) {
+        return operation;
+      }
+    }
+    return null;
+  }
+
+  /**
+   * @param call the name of the {@link DnsimpleContext} method, as given
+   *    by {@link com.nimbleservers.dnsimple.RequestEvent#getOperation()}
+   * @return the operation, or {@code null} if the call is not one of them
+   */
+  static Operation forCall(String call) {
+    for(Operation operation : values()) {
+      if(operation.call.equals(call)) {
+        return operation;
+      }
+    }
+    return null;
+  }
+
+  /**
+   * @return the segments of {@code uri}'s path after {@code domains}, or
+   *    {@code null} if it has no such segment
+   */
+  static List<String> domainPath(String uri) {
+    int start = uri.indexOf("://");
+    start = uri.indexOf('/', start < 0 ? 0 : start + 3);
+    if(start < 0) {
+      return null;
+    }
+    int end = uri.indexOf('?', start);
+    String path = end < 0 ? uri.substring(start) : uri.substring(start, end);
+
+    String segments[] = path.split("/");
+    for(int i = 0; i < segments.length; i++) {
+      if(segments[i].equals("domains")) {
+        List<String> result = new ArrayList<String>();
+        for(int j = i + 1; j < segments.length; j++) {
+          if(segments[j].length() > 0) {
+            result.add(segments[j]);
+          }
+        }
+        return result;
+      }
+    }
+    return null;
+  }
+
+  /**
+   * Makes the call again.
+   * @param domain the domain it was made for, if any
+   * @param recordId the record it was made for, if any
+   * @param requestBytes how big the request body was
+   */
+  void replay(DnsimpleContext context, String domain, String recordId, long requestBytes) throws UnexpectedResponseException, IOException {
+    switch(this) {
+      case GET_DOMAINS:
+        context.getDomains();
+        break;
+      case ADD_DOMAIN:
+        context.addDomain(domain);
+        break;
+      case GET_DOMAIN:
+        context.getDomain(domain);
+        break;
+      case CHECK_DOMAIN:
+        context.isDomainAvailable(domain);
+        break;
+      case ENABLE_AUTO_RENEWAL:
+        context.enableAutoRenewal(domain);
+        break;
+      case DISABLE_AUTO_RENEWAL:
+        context.disableAutoRenewal(domain);
+        break;
+      case SET_NAME_SERVERS:
+        List<String> nameServers = new ArrayList<String>();
+        nameServers.add("ns1.dnsimple.com");
+        nameServers.add("ns2.dnsimple.com");
+        context.setNameServers(domain, nameServers);
+        break;
+      case GET_RECORDS:
+        context.getRecords(domain);
+        break;
+      case ADD_RECORD:
+        context.addRecord(domain, payload(requestBytes));
+        break;
+      case UPDATE_RECORD:
+        context.updateRecord(domain, recordId, payload(requestBytes));
+        break;
+      case DELETE_RECORD:
+        context.deleteRecord(domain, recordId);
+        break;
+      case STREAM_DOMAINS:
+        drain(context.getDomainsPublisher());
+        break;
+      case STREAM_RECORDS:
+        drain(context.getRecordsPublisher(domain));
+        break;
+    }
+  }
+
+  /**
+   * Reads every element of {@code publisher}, and waits for the end.
+   */
+  private static void drain(Flow.Publisher<?> publisher) throws UnexpectedResponseException, IOException {
+    final CountDownLatch done = new CountDownLatch(1);
+    final Throwable error[] = new Throwable[1];
+    publisher.subscribe(new Flow.Subscriber<Object>() {
+      @Override
+      public void onSubscribe(Flow.Subscription subscription) {
+        subscription.request(Long.MAX_VALUE);
+      }
+
+      @Override
+      public void onNext(Object item) {
+      }
+
+      @Override
+      public void onError(Throwable throwable) {
+        error[0] = throwable;
+        done.countDown();
+      }
+
+      @Override
+      public void onComplete() {
+        done.countDown();
+      }
+    });
+
+    try {
+      done.await();
+    } catch(InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IOException("Interrupted while reading a listing", e);
+    }
+    if(error[0] instanceof UnexpectedResponseException) {
+      throw (UnexpectedResponseException) error[0];
+    } else if(error[0] instanceof IOException) {
+      throw (IOException) error[0];
+    } else if(error[0] instanceof RuntimeException) {
+      throw (RuntimeException) error[0];
+    } else if(error[0] != null) {
+      throw new IOException(error[0]);
+    }
+  }
+
+  /**
+   * @return a TXT record whose JSON is about {@code requestBytes} long, in
+   *    strings of 255 characters so that it is valid
+   */
+  private static Record payload(long requestBytes) {
+    int length = (int) Math.max(1, Math.min(MAX_PAYLOAD, requestBytes - RECORD_OVERHEAD));
+    StringBuilder content = new StringBuilder(length);
+    content.append('"');
+    for(int i = 0; content.length() < length - 1; i++) {
+      if(i > 0 && i % 255 == 0) {
+        content.append("\" \"");
+      }
+      content.append((char) ('a' + i % 26));
+    }
+    content.append('"');
+    return Record.getBuilder()
+        .setName("loadtest")
+        .setRecordType(RecordTypes.TXT)
+        .setContent(content.toString())
+        .setTtl(60)
+        .build();
+  }
+
+}
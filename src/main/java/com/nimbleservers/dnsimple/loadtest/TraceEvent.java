@@ -0,0 +1,164 @@
+/**
+ * Copyright 2012 Nimble Servers Limited. http://nimbleservers.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.nimbleservers.dnsimple.loadtest;
+
+import java.util.List;
+
+import com.nimbleservers.dnsimple.RequestEvent;
+
+/**
+ * One call in a trace, written as a line of tab separated fields:
+ * <pre>
+ * offset  operation  domain  record  request bytes  response bytes  status  duration
+ * </pre>
+ * The offset is from the start of the trace and the duration how long the
+ * call took when it was recorded, both in microseconds. A status of 0 means
+ * no response was received. Missing domains and records are written as
+ * {@code -}.
+ * <p>
+ * Immutable.
+ * <p>
+ * @author Chris Strand
+ */
+public class TraceEvent {
+
+  /**
+   * The first line of every trace
+   */
+  public static final String HEADER = "# dnsimple trace v1";
+
+  private static final String NONE = "-";
+
+  private final long offsetMicros;
+  private final Operation operation;
+  private final String domain;
+  private final String recordId;
+  private final long requestBytes;
+  private final long responseBytes;
+  private final int statusCode;
+  private final long durationMicros;
+
+  public TraceEvent(long offsetMicros, Operation operation, String domain, String recordId,
+      long requestBytes, long responseBytes, int statusCode, long durationMicros) {
+    this.offsetMicros = offsetMicros;
+    this.operation = operation;
+    this.domain = domain;
+    this.recordId = recordId;
+    this.requestBytes = requestBytes;
+    this.responseBytes = responseBytes;
+    this.statusCode = statusCode;
+    this.durationMicros = durationMicros;
+  }
+
+  /**
+   * @param originMillis when the trace started, as a wall clock time
+   * @return the call the request was sent for, or {@code null} if it is not
+   *    one a trace can hold or was a hedge, which the replaying context's
+   *    own hedging makes again if it is asked to
+   */
+  static TraceEvent of(RequestEvent event, long originMillis) {
+    if(event.getAttempt() > 1) {
+      return null;
+    }
+    Operation operation = Operation.forCall(event.getOperation());
+    List<String> path = Operation.domainPath(event.getUri());
+    if(operation == null || path == null) {
+      return null;
+    }
+
+    String domain = path.size() > 0 ? path.get(0) : null;
+    String recordId = path.size() > 2 ? path.get(2) : null;
+    if(operation == Operation.ADD_DOMAIN) {
+      // The name is in the body rather than the path
+      domain = "added-" + (event.getStartMillis() - originMillis) + ".example.com";
+    }
+
+    return new TraceEvent((event.getStartMillis() - originMillis) * 1000, operation, domain, recordId,
+        event.getRequestBytes(), event.getResponseBytes(), event.getStatusCode(),
+        event.getDurationNanos() / 1000);
+  }
+
+  /**
+   * @throws IllegalArgumentException If the line is not a trace event
+   */
+  public static TraceEvent parse(String line) throws IllegalArgumentException {
+    String fields[] = line.split("\t");
+    if(fields.length != 8) {
+      throw new IllegalArgumentException("Expected 8 fields but found " + fields.length + ": " + line);
+    }
+    try {
+      return new TraceEvent(Long.parseLong(fields[0]), Operation.valueOf(fields[1]),
+          field(fields[2]), field(fields[3]), Long.parseLong(fields[4]),
+          Long.parseLong(fields[5]), Integer.parseInt(fields[6]), Long.parseLong(fields[7]));
+    } catch(IllegalArgumentException e) {
+      throw new IllegalArgumentException("Bad trace event: " + line, e);
+    }
+  }
+
+  private static String field(String value) {
+    return NONE.equals(value) ? null : value;
+  }
+
+  public long getOffsetMicros() {
+    return offsetMicros;
+  }
+
+  public Operation getOperation() {
+    return operation;
+  }
+
+  public String getDomain() {
+    return domain;
+  }
+
+  public String getRecordId() {
+    return recordId;
+  }
+
+  public long getRequestBytes() {
+    return requestBytes;
+  }
+
+  public long getResponseBytes() {
+    return responseBytes;
+  }
+
+  public int getStatusCode() {
+    return statusCode;
+  }
+
+  public long getDurationMicros() {
+    return durationMicros;
+  }
+
+  /**
+   * @return the event as a line of a trace, without the line break
+   */
+  public String format() {
+    return offsetMicros + "\t" + operation + "\t" + (domain == null ? NONE : domain)
+        + "\t" + (recordId == null ? NONE : recordId) + "\t" + requestBytes
+        + "\t" + responseBytes + "\t" + statusCode + "\t" + durationMicros;
+  }
+
+  @Override
+  public String toString() {
+    return "TraceEvent [offsetMicros=" + offsetMicros + ", operation=" + operation
+        + ", domain=" + domain + ", recordId=" + recordId + ", requestBytes="
+        + requestBytes + ", responseBytes=" + responseBytes + ", statusCode="
+        + statusCode + ", durationMicros=" + durationMicros + "]";
+  }
+
+}
@@ -0,0 +1,121 @@
+/**
+ * Copyright 2012 Nimble Servers Limited. http://nimbleservers.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.nimbleservers.dnsimple.loadtest;
+
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+
+import com.nimbleservers.dnsimple.RequestEvent;
+import com.nimbleservers.dnsimple.RequestListener;
+
+/**
+ * Writes the calls made through a transport to a trace, which the
+ * {@code LoadTest} tool in the project's tests can replay later. Add it to
+ * the transport used in normal running:
+ * <pre>
+ * TraceRecorder recorder = new TraceRecorder(new File("dnsimple.trace"));
+ * DnsimpleTransport transport = DnsimpleTransport.getBuilder()
+ *    .addRequestListener(recorder)
+ *    .build();
+ * ...
+ * recorder.close();
+ * </pre>
+ * Only the shape of each call is kept: which operation, on which domain and
+ * record, how big it was and when it was made. Record contents and
+ * credentials are not written. Requests that are not one of the
+ * {@link Operation}s are left out, as are hedges, so each call is written
+ * once however many requests it took.
+ * <p>
+ * Thread Safe.
+ * <p>
+ * @author Chris Strand
+ */
+public class TraceRecorder implements RequestListener, Closeable {
+
+  private final Writer writer;
+
+  private long originMillis = -1;
+  private long recorded = 0;
+  private IOException failure = null;
+
+  public TraceRecorder(File file) throws IOException {
+    this(new OutputStreamWriter(new FileOutputStream(file), StandardCharsets.UTF_8));
+  }
+
+  /**
+   * @param writer written to from the threads making calls, so should be
+   *    buffered
+   */
+  public TraceRecorder(Writer writer) throws IOException {
+    this.writer = writer instanceof BufferedWriter ? writer : new BufferedWriter(writer);
+    this.writer.write(TraceEvent.HEADER);
+    this.writer.write('\n');
+  }
+
+  @Override
+  public synchronized void onRequest(RequestEvent event) {
+    if(failure != null) {
+      return;
+    }
+    if(originMillis < 0) {
+      originMillis = event.getStartMillis();
+    }
+
+    TraceEvent traceEvent = TraceEvent.of(event, originMillis);
+    if(traceEvent == null) {
+      return;
+    }
+
+    try {
+      writer.write(traceEvent.format());
+      writer.write('\n');
+      recorded++;
+    } catch(IOException e) {
+      // Stop recording rather than fail the caller's request
+      failure = e;
+    }
+  }
+
+  /**
+   * @return the number of calls written so far
+   */
+  public synchronized long getRecorded() {
+    return recorded;
+  }
+
+  /**
+   * Flushes and closes the trace.
+   * @throws IOException If the trace could not be written, including any
+   *    earlier failure that stopped the recording
+   */
+  @Override
+  public synchronized void close() throws IOException {
+    try {
+      writer.close();
+    } finally {
+      if(failure != null) {
+        throw failure;
+      }
+    }
+  }
+
+}
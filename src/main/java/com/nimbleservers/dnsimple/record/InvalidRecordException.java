@@ -0,0 +1,59 @@
+/**
+ * Copyright 2012 Nimble Servers Limited. http://nimbleservers.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.nimbleservers.dnsimple.record;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Used to show that a record was not sent because it would have been
+ * rejected (with a 422 status code): its content does not suit its type, or
+ * it clashes with other records in the zone.
+ * @author Chris Strand
+ * @see RecordValidator
+ */
+public class InvalidRecordException extends IllegalArgumentException {
+
+  private static final long serialVersionUID = -3160259712475327741L;
+
+  private final Record record;
+  private final List<String> problems;
+
+  public InvalidRecordException(Record record, List<String> problems) {
+    super("Invalid " + record.getRecordType() + " record " + name(record) + ": " + problems);
+    this.record = record;
+    this.problems = Collections.unmodifiableList(problems);
+  }
+
+  private static String name(Record record) {
+    return record.getName() == null || record.getName().isEmpty() ? "at the apex" : "'" + record.getName() + "'";
+  }
+
+  /**
+   * @return the record that was not sent
+   */
+  public Record getRecord() {
+    return record;
+  }
+
+  /**
+   * @return what is wrong with it, at least one
+   */
+  public List<String> getProblems() {
+    return problems;
+  }
+
+}
@@ -15,6 +15,7 @@
  */
 package com.nimbleservers.dnsimple.record;
 
+import java.time.Instant;
 import java.util.Date;
 
 /**
@@ -98,6 +99,20 @@ public class Record {
     return updatedAt;
   }
 
+  /**
+   * @return {@link #getCreatedAt()} as an instant
+   */
+  public Instant getCreatedAtInstant() {
+    return createdAt == null ? null : createdAt.toInstant();
+  }
+
+  /**
+   * @return {@link #getUpdatedAt()} as an instant
+   */
+  public Instant getUpdatedAtInstant() {
+    return updatedAt == null ? null : updatedAt.toInstant();
+  }
+
   @Override
   public String toString() {
     return "Record [domainId=" + domainId + ", id=" + id + ", name=" + name
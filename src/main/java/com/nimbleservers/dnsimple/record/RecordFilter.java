@@ -0,0 +1,147 @@
+/**
+ * Copyright 2012 Nimble Servers Limited. http://nimbleservers.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.nimbleservers.dnsimple.record;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Picks out the records of a zone by name and type, for example:
+ * <pre>
+ * List&lt;Record&gt; challenges = context.getRecords("domain.com", RecordFilter.getBuilder()
+ *    .setName("_acme-challenge")
+ *    .addRecordType(RecordTypes.TXT)
+ *    .build());
+ * </pre>
+ * The filter is sent to DNSimple as query parameters where it can be, and
+ * applied again while the listing is read, so records that do not match are
+ * skipped before being built (or their dates parsed).
+ * <p>
+ * Names and types are compared ignoring case. The apex of the zone has the
+ * empty name.
+ * <p>
+ * Immutable.
+ * <p>
+ * @author Chris Strand
+ */
+public class RecordFilter {
+
+  /**
+   * Matches every record
+   */
+  public static final RecordFilter ALL = getBuilder().build();
+
+  private final String name;
+  private final String recordTypes[];
+
+  private RecordFilter(Builder builder) {
+    this.name = builder.name;
+    this.recordTypes = builder.recordTypes.toArray(new String[builder.recordTypes.size()]);
+  }
+
+  public static Builder getBuilder() {
+    return new Builder();
+  }
+
+  /**
+   * @return the name records must have, or {@code null} for any
+   */
+  public String getName() {
+    return name;
+  }
+
+  /**
+   * @return the types records may have, or an empty list for any
+   */
+  public List<String> getRecordTypes() {
+    List<String> result = new ArrayList<String>(recordTypes.length);
+    Collections.addAll(result, recordTypes);
+    return Collections.unmodifiableList(result);
+  }
+
+  /**
+   * @return whether every record matches
+   */
+  public boolean isAll() {
+    return name == null && recordTypes.length == 0;
+  }
+
+  public boolean matches(Record record) {
+    return matchesName(record.getName()) && matchesRecordType(record.getRecordType());
+  }
+
+  /**
+   * @param name a record's name, where {@code null} is taken as the apex
+   */
+  public boolean matchesName(String name) {
+    if(this.name == null) {
+      return true;
+    }
+    return this.name.equalsIgnoreCase(name == null ? "" : name);
+  }
+
+  public boolean matchesRecordType(String recordType) {
+    if(recordTypes.length == 0) {
+      return true;
+    }
+    for(String type : recordTypes) {
+      if(type.equalsIgnoreCase(recordType)) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  @Override
+  public String toString() {
+    return "RecordFilter [name=" + name + ", recordTypes=" + getRecordTypes() + "]";
+  }
+
+  public static class Builder {
+
+    private String name = null;
+    private final List<String> recordTypes = new ArrayList<String>();
+
+    /**
+     * @param name the name records must have, relative to the zone. Use the
+     *    empty string for the apex, or {@code null} (the default) for any.
+     */
+    public Builder setName(String name) {
+      this.name = name;
+      return this;
+    }
+
+    /**
+     * @param recordType a type records may have, such as
+     *    {@link RecordTypes#MX}. Records of any type match until one is
+     *    added.
+     */
+    public Builder addRecordType(String recordType) {
+      if(recordType == null) {
+        throw new IllegalArgumentException("Record type may not be null");
+      }
+      this.recordTypes.add(recordType);
+      return this;
+    }
+
+    public RecordFilter build() {
+      return new RecordFilter(this);
+    }
+
+  }
+
+}
@@ -0,0 +1,209 @@
+/**
+ * Copyright 2012 Nimble Servers Limited. http://nimbleservers.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.nimbleservers.dnsimple.record;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Date;
+
+import com.google.gson.JsonSyntaxException;
+import com.google.gson.TypeAdapter;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.google.gson.stream.JsonWriter;
+import com.nimbleservers.dnsimple.Iso8601DateAdapter;
+
+/**
+ * Reads and writes {@link Record}s as DNSimple's JSON.
+ * <p>
+ * Each field is read as the raw text of its JSON value, into one array
+ * reused for every record in a listing, and a {@link Record} is built from
+ * those.
+ * <p>
+ * Listings can be read with a {@link RecordFilter}. Once a record's name or
+ * type shows it does not match, the rest of it is skipped unread and no
+ * record is built.
+ * <p>
+ * Dates are handled by {@link Iso8601DateAdapter}. Records are written
+ * using their getters. As with GSON's default, {@code null} fields are left
+ * out.
+ * <p>
+ * @author Chris Strand
+ */
+public class RecordTypeAdapter extends TypeAdapter<Record> {
+
+  private static final int DOMAIN_ID = 0;
+  private static final int ID = 1;
+  private static final int NAME = 2;
+  private static final int RECORD_TYPE = 3;
+  private static final int CONTENT = 4;
+  private static final int TTL = 5;
+  private static final int PRIORITY = 6;
+  private static final int CREATED_AT = 7;
+  private static final int UPDATED_AT = 8;
+  private static final int FIELDS = 9;
+
+  private final TypeAdapter<Date> dateAdapter = new Iso8601DateAdapter();
+
+  @Override
+  public Record read(JsonReader reader) throws IOException {
+    String raw[] = new String[FIELDS];
+    return read(reader, RecordFilter.ALL, raw) ? build(raw) : null;
+  }
+
+  /**
+   * Reads a listing, which is an array of records each wrapped in an object
+   * such as <code>{"record": {...}}</code>.
+   * @param records where the records matching {@code filter} are added
+   */
+  public void readListing(JsonReader reader, RecordFilter filter, Collection<? super Record> records) throws IOException {
+    String raw[] = new String[FIELDS];
+    reader.beginArray();
+    while(reader.hasNext()) {
+      reader.beginObject();
+      while(reader.hasNext()) {
+        reader.nextName();
+        if(read(reader, filter, raw)) {
+          records.add(build(raw));
+        }
+      }
+      reader.endObject();
+    }
+    reader.endArray();
+  }
+
+  /**
+   * Reads the raw values of one record into {@code raw}.
+   * @return whether there was a record, and it matched {@code filter}
+   */
+  private boolean read(JsonReader reader, RecordFilter filter, String raw[]) throws IOException {
+    if(reader.peek() == JsonToken.NULL) {
+      reader.nextNull();
+      return false;
+    }
+
+    Arrays.fill(raw, null);
+    boolean matches = true;
+    reader.beginObject();
+    while(reader.hasNext()) {
+      int field = field(reader.nextName());
+      JsonToken token = reader.peek();
+      if(field >= 0 && (token == JsonToken.STRING || token == JsonToken.NUMBER)) {
+        raw[field] = reader.nextString();
+        if(field == NAME) {
+          matches = filter.matchesName(raw[NAME]);
+        } else if(field == RECORD_TYPE) {
+          matches = filter.matchesRecordType(raw[RECORD_TYPE]);
+        }
+        if(!matches) {
+          // Skips each remaining name and value
+          while(reader.hasNext()) {
+            reader.skipValue();
+          }
+        }
+      } else {
+        reader.skipValue();
+      }
+    }
+    reader.endObject();
+
+    // A record without a name is at the apex, and one without a type
+    // cannot be of any particular type
+    return matches && (raw[NAME] != null || filter.matchesName(null))
+        && (raw[RECORD_TYPE] != null || filter.matchesRecordType(null));
+  }
+
+  private Record build(String raw[]) {
+    return new Record(raw[DOMAIN_ID], raw[ID], raw[NAME], raw[RECORD_TYPE],
+        raw[CONTENT], toInteger(raw[TTL]), toInteger(raw[PRIORITY]),
+        toDate(raw[CREATED_AT]), toDate(raw[UPDATED_AT]));
+  }
+
+  @Override
+  public void write(JsonWriter writer, Record record) throws IOException {
+    if(record == null) {
+      writer.nullValue();
+      return;
+    }
+
+    writer.beginObject();
+    writeString(writer, "domain_id", record.getDomainId());
+    writeString(writer, "id", record.getId());
+    writeString(writer, "name", record.getName());
+    writeString(writer, "record_type", record.getRecordType());
+    writeString(writer, "content", record.getContent());
+    writeNumber(writer, "ttl", record.getTtl());
+    writeNumber(writer, "priority", record.getPriority());
+    writeDate(writer, "created_at", record.getCreatedAt());
+    writeDate(writer, "updated_at", record.getUpdatedAt());
+    writer.endObject();
+  }
+
+  /**
+   * @return the index in the raw values of the JSON field {@code name}, or
+   *    -1 if it is not a field of {@link Record}
+   */
+  private static int field(String name) {
+    switch(name) {
+      case "domain_id": return DOMAIN_ID;
+      case "id": return ID;
+      case "name": return NAME;
+      case "record_type": return RECORD_TYPE;
+      case "content": return CONTENT;
+      case "ttl": return TTL;
+      case "priority": return PRIORITY;
+      case "created_at": return CREATED_AT;
+      case "updated_at": return UPDATED_AT;
+      default: return -1;
+    }
+  }
+
+  private static Integer toInteger(String raw) {
+    if(raw == null) {
+      return null;
+    }
+    try {
+      return Integer.valueOf(raw);
+    } catch(NumberFormatException e) {
+      throw new JsonSyntaxException(e);
+    }
+  }
+
+  private static Date toDate(String raw) {
+    return Iso8601DateAdapter.toDate(raw);
+  }
+
+  private void writeString(JsonWriter writer, String name, String value) throws IOException {
+    if(value != null) {
+      writer.name(name).value(value);
+    }
+  }
+
+  private void writeNumber(JsonWriter writer, String name, Number value) throws IOException {
+    if(value != null) {
+      writer.name(name).value(value);
+    }
+  }
+
+  private void writeDate(JsonWriter writer, String name, Date value) throws IOException {
+    if(value != null) {
+      writer.name(name);
+      dateAdapter.write(writer, value);
+    }
+  }
+
+}
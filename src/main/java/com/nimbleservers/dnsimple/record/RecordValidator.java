@@ -0,0 +1,641 @@
+/**
+ * Copyright 2012 Nimble Servers Limited. http://nimbleservers.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.nimbleservers.dnsimple.record;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Checks records before they are sent, so that one DNSimple would reject
+ * fails straight away rather than after a round trip and a 422. Each record
+ * type has a {@link Rule} for its content; the name, TTL and priority are
+ * checked for every type. Types without a rule are left for DNSimple to
+ * check.
+ * <p>
+ * The address and name checks scan the content in place, so checking a
+ * valid record allocates nothing.
+ * <p>
+ * Contexts only check records when given a validator, such as
+ * {@link #DEFAULT}. An update need only set the fields it changes, so
+ * {@link #checkUpdate(Record)} checks just the fields it sets. Checks
+ * against the rest of the zone, such as a CNAME sharing its name with
+ * another record, need the zone's records so are only made by
+ * {@link #check(Record, Collection)}.
+ * <p>
+ * Immutable.
+ * <p>
+ * @author Chris Strand
+ */
+public class RecordValidator {
+
+  /**
+   * The rules for the types in {@link RecordTypes}
+   */
+  public static final RecordValidator DEFAULT = getBuilder().build();
+
+  /**
+   * Checks the content of one type of record.
+   */
+  public interface Rule {
+
+    /**
+     * @param record of the type the rule is for, with content
+     * @return what is wrong with the record, or {@code null} if nothing is
+     */
+    String check(Record record);
+
+  }
+
+  /**
+   * Longest DNS name, not counting a trailing dot
+   */
+  private static final int MAX_NAME = 253;
+  private static final int MAX_LABEL = 63;
+  /**
+   * Longest string within a TXT record
+   */
+  private static final int MAX_TXT_STRING = 255;
+  private static final int MAX_UNSIGNED_SHORT = 65535;
+
+  private final Map<String, Rule> rules;
+
+  private RecordValidator(Builder builder) {
+    this.rules = new HashMap<String, Rule>(builder.rules);
+  }
+
+  public static Builder getBuilder() {
+    return new Builder();
+  }
+
+  /**
+   * @return what is wrong with the record, empty if nothing is
+   */
+  public List<String> validate(Record record) {
+    return orEmpty(problems(record));
+  }
+
+  /**
+   * @param record the fields an update changes, the rest {@code null}
+   * @return what is wrong with the fields the update sets, empty if nothing
+   *    is
+   */
+  public List<String> validateUpdate(Record record) {
+    return orEmpty(problems(record, true));
+  }
+
+  /**
+   * @param zone the other records in the zone. One with the same ID as
+   *    {@code record} is taken to be the record it replaces.
+   * @return what is wrong with the record, including clashes with the rest
+   *    of the zone, empty if nothing is
+   */
+  public List<String> validate(Record record, Collection<? extends Record> zone) {
+    return orEmpty(problems(record, zone));
+  }
+
+  /**
+   * @throws InvalidRecordException If anything is wrong with the record
+   */
+  public void check(Record record) throws InvalidRecordException {
+    List<String> problems = problems(record);
+    if(problems != null) {
+      throw new InvalidRecordException(record, problems);
+    }
+  }
+
+  /**
+   * @param record the fields an update changes, the rest {@code null}
+   * @throws InvalidRecordException If anything is wrong with the fields the
+   *    update sets
+   */
+  public void checkUpdate(Record record) throws InvalidRecordException {
+    List<String> problems = problems(record, true);
+    if(problems != null) {
+      throw new InvalidRecordException(record, problems);
+    }
+  }
+
+  /**
+   * @param zone the other records in the zone
+   * @throws InvalidRecordException If anything is wrong with the record,
+   *    including clashes with the rest of the zone
+   */
+  public void check(Record record, Collection<? extends Record> zone) throws InvalidRecordException {
+    List<String> problems = problems(record, zone);
+    if(problems != null) {
+      throw new InvalidRecordException(record, problems);
+    }
+  }
+
+  /**
+   * @return what is wrong with the record, or {@code null} if nothing is
+   */
+  private List<String> problems(Record record) {
+    return problems(record, false);
+  }
+
+  /**
+   * @param update whether fields left {@code null} are unchanged, rather
+   *    than unset
+   */
+  private List<String> problems(Record record, boolean update) {
+    List<String> problems = null;
+
+    String recordType = record.getRecordType();
+    if(update ? recordType != null && recordType.isEmpty() : recordType == null || recordType.isEmpty()) {
+      problems = add(problems, "has no record type");
+    }
+    if(record.getContent() == null && !update) {
+      problems = add(problems, "has no content");
+    }
+
+    String name = record.getName();
+    if(!isApex(name) && !isName(name, 0, true)) {
+      problems = add(problems, "name '" + name + "' is not a valid DNS name");
+    }
+    Integer ttl = record.getTtl();
+    if(ttl != null && ttl < 0) {
+      problems = add(problems, "TTL " + ttl + " is negative");
+    }
+    Integer priority = record.getPriority();
+    if(priority != null && (priority < 0 || priority > MAX_UNSIGNED_SHORT)) {
+      problems = add(problems, "priority " + priority + " is not between 0 and " + MAX_UNSIGNED_SHORT);
+    }
+
+    if(recordType != null && record.getContent() != null) {
+      Rule rule = rules.get(recordType);
+      if(rule != null) {
+        String problem = rule instanceof RecordRule ? ((RecordRule) rule).check(record, update) : rule.check(record);
+        if(problem != null) {
+          problems = add(problems, problem);
+        }
+      }
+    }
+
+    return problems;
+  }
+
+  private List<String> problems(Record record, Collection<? extends Record> zone) {
+    List<String> problems = problems(record);
+
+    boolean cname = RecordTypes.CNAME.equals(record.getRecordType());
+    for(Record other : zone) {
+      if(record.getId() != null && record.getId().equals(other.getId())) {
+        continue;
+      }
+      if(!sameName(record.getName(), other.getName())) {
+        continue;
+      }
+
+      if(cname) {
+        problems = add(problems, "CNAME shares its name with a " + other.getRecordType() + " record");
+        break;
+      } else if(RecordTypes.CNAME.equals(other.getRecordType())) {
+        problems = add(problems, "name is already a CNAME");
+        break;
+      } else if(equalsIgnoreCase(record.getRecordType(), other.getRecordType())
+          && equals(record.getContent(), other.getContent())) {
+        problems = add(problems, "an identical record already exists");
+        break;
+      }
+    }
+
+    return problems;
+  }
+
+  /**
+   * @return {@code true} if {@code address} is an IPv4 address in dotted
+   *    decimal, e.g. {@code 192.168.1.1}
+   */
+  public static boolean isIpv4Address(CharSequence address) {
+    return isIpv4Address(address, 0, address.length());
+  }
+
+  /**
+   * @return {@code true} if {@code address} is an IPv6 address, e.g.
+   *    {@code 2001:db8::1} or {@code ::ffff:192.0.2.1}
+   */
+  public static boolean isIpv6Address(CharSequence address) {
+    int end = address.length();
+    if(end < 2) {
+      return false;
+    }
+
+    int groups = 0;
+    boolean compressed = false;
+    int i = 0;
+    if(address.charAt(0) == ':') {
+      if(address.charAt(1) != ':') {
+        return false;
+      }
+      compressed = true;
+      i = 2;
+    }
+
+    while(i < end) {
+      int start = i;
+      while(i < end && isHex(address.charAt(i))) {
+        i++;
+      }
+      if(i < end && address.charAt(i) == '.') {
+        // An IPv4 address in place of the last two groups
+        if(!isIpv4Address(address, start, end)) {
+          return false;
+        }
+        groups += 2;
+        break;
+      }
+
+      int digits = i - start;
+      if(digits == 0 || digits > 4) {
+        return false;
+      }
+      groups++;
+      if(i == end) {
+        break;
+      }
+
+      if(address.charAt(i) != ':') {
+        return false;
+      }
+      i++;
+      if(i == end) {
+        return false;
+      }
+      if(address.charAt(i) == ':') {
+        if(compressed) {
+          return false;
+        }
+        compressed = true;
+        i++;
+      }
+    }
+
+    return compressed ? groups <= 7 : groups == 8;
+  }
+
+  /**
+   * @return {@code true} if {@code name} is a host name, e.g.
+   *    {@code mail.example.com}, optionally ending with a dot. Underscores
+   *    are allowed, as in SRV names.
+   */
+  public static boolean isHostName(CharSequence name) {
+    return isName(name, 0, false);
+  }
+
+  private static List<String> orEmpty(List<String> problems) {
+    return problems == null ? new ArrayList<String>(0) : problems;
+  }
+
+  private static List<String> add(List<String> problems, String problem) {
+    if(problems == null) {
+      problems = new ArrayList<String>(2);
+    }
+    problems.add(problem);
+    return problems;
+  }
+
+  private static boolean isApex(String name) {
+    return name == null || name.isEmpty() || name.equals("@");
+  }
+
+  private static boolean sameName(String a, String b) {
+    if(isApex(a)) {
+      return isApex(b);
+    }
+    return a.equalsIgnoreCase(b);
+  }
+
+  private static boolean equals(String a, String b) {
+    return a == null ? b == null : a.equals(b);
+  }
+
+  private static boolean equalsIgnoreCase(String a, String b) {
+    return a == null ? b == null : a.equalsIgnoreCase(b);
+  }
+
+  private static boolean isIpv4Address(CharSequence address, int start, int end) {
+    int octets = 0;
+    int i = start;
+    while(i < end) {
+      int digits = 0;
+      int value = 0;
+      while(i < end && digits <= 3 && isDigit(address.charAt(i))) {
+        value = value * 10 + (address.charAt(i) - '0');
+        digits++;
+        i++;
+      }
+      // No leading zeros, which some parsers take to mean octal
+      if(digits == 0 || digits > 3 || value > 255 || (digits > 1 && address.charAt(i - digits) == '0')) {
+        return false;
+      }
+      octets++;
+
+      if(i < end) {
+        if(address.charAt(i) != '.' || octets == 4) {
+          return false;
+        }
+        i++;
+        if(i == end) {
+          return false;
+        }
+      }
+    }
+    return octets == 4;
+  }
+
+  /**
+   * @param start where in {@code name} the name starts
+   * @param wildcard whether the first label may be {@code *}
+   */
+  private static boolean isName(CharSequence name, int start, boolean wildcard) {
+    int end = name.length();
+    if(end > start && name.charAt(end - 1) == '.') {
+      end--;
+    }
+    if(end == start || end - start > MAX_NAME) {
+      return false;
+    }
+
+    int labelStart = start;
+    for(int i = start; i <= end; i++) {
+      if(i < end && name.charAt(i) != '.') {
+        char c = name.charAt(i);
+        if(!isLetterOrDigit(c) && c != '-' && c != '_' && !(wildcard && c == '*' && labelStart == start)) {
+          return false;
+        }
+        continue;
+      }
+
+      int length = i - labelStart;
+      if(length == 0 || length > MAX_LABEL) {
+        return false;
+      }
+      if(name.charAt(labelStart) == '-' || name.charAt(i - 1) == '-') {
+        return false;
+      }
+      // A wildcard is a label on its own
+      if(name.charAt(labelStart) == '*' && length != 1) {
+        return false;
+      }
+      labelStart = i + 1;
+    }
+    return true;
+  }
+
+  /**
+   * @return {@code true} if {@code text} is the content of a TXT record:
+   *    either unquoted text, which DNSimple splits into strings itself, or
+   *    quoted strings each of at most 255 characters separated by spaces
+   */
+  private static boolean isText(String text, int maxLength) {
+    if(text.length() > maxLength) {
+      return false;
+    }
+    if(text.isEmpty() || text.charAt(0) != '"') {
+      return true;
+    }
+
+    int i = 0;
+    int end = text.length();
+    while(i < end) {
+      if(text.charAt(i) == ' ') {
+        i++;
+        continue;
+      }
+      if(text.charAt(i) != '"') {
+        return false;
+      }
+      i++;
+      int length = 0;
+      while(i < end && text.charAt(i) != '"') {
+        if(text.charAt(i) == '\\') {
+          i++;
+        }
+        i++;
+        length++;
+      }
+      if(i >= end || length > MAX_TXT_STRING) {
+        return false;
+      }
+      i++;
+    }
+    return true;
+  }
+
+  /**
+   * @return the index after the number at {@code start}, or -1 if there is
+   *    no number there, it is greater than {@code max} or {@code start} is
+   *    -1
+   */
+  private static int number(String content, int start, int max) {
+    if(start < 0) {
+      return -1;
+    }
+    int i = start;
+    long value = 0;
+    while(i < content.length() && isDigit(content.charAt(i)) && value <= max) {
+      value = value * 10 + (content.charAt(i) - '0');
+      i++;
+    }
+    return i == start || value > max ? -1 : i;
+  }
+
+  /**
+   * @return the index of the next field, after the spaces at {@code start},
+   *    or -1 if there are no spaces or nothing after them
+   */
+  private static int space(String content, int start) {
+    if(start < 0 || start >= content.length() || content.charAt(start) != ' ') {
+      return -1;
+    }
+    int i = start;
+    while(i < content.length() && content.charAt(i) == ' ') {
+      i++;
+    }
+    return i < content.length() ? i : -1;
+  }
+
+  private static boolean isDigit(char c) {
+    return c >= '0' && c <= '9';
+  }
+
+  private static boolean isHex(char c) {
+    return isDigit(c) || (c >= 'a' && c <= 'f') || (c >= 'A' && c <= 'F');
+  }
+
+  private static boolean isLetterOrDigit(char c) {
+    return isDigit(c) || (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z');
+  }
+
+  private static Rule hostName(final String recordType) {
+    return new Rule() {
+      @Override
+      public String check(Record record) {
+        return isHostName(record.getContent()) ? null
+            : recordType + " content '" + record.getContent() + "' is not a host name";
+      }
+    };
+  }
+
+  private static Rule needsPriority(final String recordType, final Rule rule) {
+    return new RecordRule() {
+      @Override
+      String check(Record record, boolean update) {
+        if(record.getPriority() == null && !update) {
+          return recordType + " record has no priority";
+        }
+        return rule.check(record);
+      }
+    };
+  }
+
+  /**
+   * A rule that also looks at fields besides the content, which an update
+   * may leave out.
+   */
+  private abstract static class RecordRule implements Rule {
+
+    @Override
+    public String check(Record record) {
+      return check(record, false);
+    }
+
+    /**
+     * @param update whether fields left {@code null} are unchanged, rather
+     *    than unset
+     */
+    abstract String check(Record record, boolean update);
+
+  }
+
+  public static class Builder {
+
+    private final Map<String, Rule> rules = new HashMap<String, Rule>();
+
+    private Builder() {
+      rules.put(RecordTypes.A, new Rule() {
+        @Override
+        public String check(Record record) {
+          return isIpv4Address(record.getContent()) ? null
+              : "A content '" + record.getContent() + "' is not an IPv4 address";
+        }
+      });
+      rules.put(RecordTypes.AAAA, new Rule() {
+        @Override
+        public String check(Record record) {
+          return isIpv6Address(record.getContent()) ? null
+              : "AAAA content '" + record.getContent() + "' is not an IPv6 address";
+        }
+      });
+      rules.put(RecordTypes.CNAME, new RecordRule() {
+        private final Rule target = hostName(RecordTypes.CNAME);
+        @Override
+        String check(Record record, boolean update) {
+          if(isApex(record.getName()) && !(update && record.getName() == null)) {
+            return "CNAME may not be at the apex, use ALIAS instead";
+          }
+          return target.check(record);
+        }
+      });
+      rules.put(RecordTypes.ALIAS, hostName(RecordTypes.ALIAS));
+      rules.put(RecordTypes.NS, hostName(RecordTypes.NS));
+      rules.put(RecordTypes.PTR, hostName(RecordTypes.PTR));
+      rules.put(RecordTypes.POOL, hostName(RecordTypes.POOL));
+      rules.put(RecordTypes.MX, needsPriority(RecordTypes.MX, hostName(RecordTypes.MX)));
+      rules.put(RecordTypes.SRV, needsPriority(RecordTypes.SRV, new Rule() {
+        @Override
+        public String check(Record record) {
+          // weight port target
+          String content = record.getContent();
+          int target = space(content, number(content, space(content, number(content, 0, MAX_UNSIGNED_SHORT)), MAX_UNSIGNED_SHORT));
+          if(target < 0 || !(content.length() == target + 1 && content.charAt(target) == '.'
+              || isName(content, target, false))) {
+            return "SRV content '" + content + "' is not 'weight port target'";
+          }
+          return null;
+        }
+      }));
+      rules.put(RecordTypes.SSHFP, new Rule() {
+        @Override
+        public String check(Record record) {
+          // algorithm fingerprint-type fingerprint
+          String content = record.getContent();
+          int fingerprint = space(content, number(content, space(content, number(content, 0, 255)), 255));
+          if(fingerprint < 0 || (content.length() - fingerprint) % 2 != 0) {
+            return "SSHFP content '" + content + "' is not 'algorithm type fingerprint'";
+          }
+          for(int i = fingerprint; i < content.length(); i++) {
+            if(!isHex(content.charAt(i))) {
+              return "SSHFP fingerprint is not hexadecimal";
+            }
+          }
+          return null;
+        }
+      });
+      rules.put(RecordTypes.URL, new Rule() {
+        @Override
+        public String check(Record record) {
+          String content = record.getContent();
+          return content.startsWith("http://") || content.startsWith("https://") ? null
+              : "URL content '" + content + "' is not an http or https URL";
+        }
+      });
+      setMaxTextLength(2048);
+    }
+
+    /**
+     * @param recordType one of {@link RecordTypes}, or another type
+     * @param rule checks the content of records of that type, replacing
+     *    the default rule, or {@code null} to leave them unchecked
+     */
+    public Builder setRule(String recordType, Rule rule) {
+      if(rule == null) {
+        rules.remove(recordType);
+      } else {
+        rules.put(recordType, rule);
+      }
+      return this;
+    }
+
+    /**
+     * @param maxTextLength the longest content allowed in TXT and SPF
+     *    records. Defaults to 2048 characters.
+     */
+    public Builder setMaxTextLength(final int maxTextLength) {
+      for(final String recordType : new String[] { RecordTypes.TXT, RecordTypes.SPF }) {
+        rules.put(recordType, new Rule() {
+          @Override
+          public String check(Record record) {
+            return isText(record.getContent(), maxTextLength) ? null
+                : recordType + " content is longer than " + maxTextLength
+                  + " characters, or has a quoted string longer than " + MAX_TXT_STRING;
+          }
+        });
+      }
+      return this;
+    }
+
+    public RecordValidator build() {
+      return new RecordValidator(this);
+    }
+
+  }
+
+}
@@ -0,0 +1,247 @@
+/**
+ * Copyright 2012 Nimble Servers Limited. http://nimbleservers.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.nimbleservers.dnsimple.record;
+
+import java.nio.charset.Charset;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+
+/**
+ * A digest of the records in a zone, for telling whether it has drifted
+ * from what is expected without keeping or comparing every record.
+ * <p>
+ * Records are digested on the fields {@link Record#equals(Object)} compares
+ * (type, name, content, TTL and priority), so IDs and timestamps make no
+ * difference and two zones have the same fingerprint exactly when they
+ * hold equal records. Each record is hashed with SHA-256 and the zone's
+ * fingerprint is the sum of those hashes modulo 2<sup>256</sup>, which
+ * makes it independent of order and lets records be added and removed one
+ * at a time. A record listed twice counts twice.
+ * <p>
+ * DNSimple does not provide digests itself, so checking a zone still means
+ * listing its records, but they need not be kept: stream them into a
+ * fingerprint and
+ * compare it with the one stored for the zone. Keep the stored fingerprints
+ * up to date with {@link #add(Record)}, {@link #remove(Record)} and
+ * {@link #replace(Record, Record)} as records are changed, then fetch in
+ * full only the zones that do not match.
+ * <p>
+ * For example:
+ * <pre>
+ * ZoneFingerprint expected = ZoneFingerprint.fromString(stored);
+ * ZoneFingerprint actual = ZoneFingerprint.of(context.getRecords(domain));
+ * if(!actual.equals(expected)) {
+ *   // drifted
+ * }
+ * </pre>
+ * Thread Safe.
+ * <p>
+ * @author Chris Strand
+ */
+public class ZoneFingerprint {
+
+  private static final int LENGTH = 32;
+  private static final Charset UTF8 = Charset.forName("UTF-8");
+  private static final char HEX[] = "0123456789abcdef".toCharArray();
+
+  private static final ThreadLocal<MessageDigest> SHA256 = new ThreadLocal<MessageDigest>() {
+    @Override
+    protected MessageDigest initialValue() {
+      try {
+        return MessageDigest.getInstance("SHA-256");
+      } catch(NoSuchAlgorithmException e) {
+        throw new IllegalStateException("SHA-256 is not available", e);
+      }
+    }
+  };
+
+  // Big endian
+  private final byte sum[] = new byte[LENGTH];
+  private long count = 0;
+
+  /**
+   * Creates the fingerprint of an empty zone.
+   */
+  public ZoneFingerprint() {
+  }
+
+  /**
+   * @return the fingerprint of a zone holding {@code records}
+   */
+  public static ZoneFingerprint of(Iterable<? extends Record> records) {
+    ZoneFingerprint result = new ZoneFingerprint();
+    for(Record record : records) {
+      result.add(record);
+    }
+    return result;
+  }
+
+  /**
+   * @param fingerprint as returned by {@link #toString()}
+   * @throws IllegalArgumentException If {@code fingerprint} is not one
+   */
+  public static ZoneFingerprint fromString(String fingerprint) throws IllegalArgumentException {
+    int separator = fingerprint.indexOf(':');
+    if(separator < 0 || fingerprint.length() - separator - 1 != LENGTH * 2) {
+      throw new IllegalArgumentException("Not a zone fingerprint: " + fingerprint);
+    }
+
+    ZoneFingerprint result = new ZoneFingerprint();
+    try {
+      result.count = Long.parseLong(fingerprint.substring(0, separator));
+    } catch(NumberFormatException e) {
+      throw new IllegalArgumentException("Not a zone fingerprint: " + fingerprint, e);
+    }
+    for(int i = 0; i < LENGTH; i++) {
+      int high = Character.digit(fingerprint.charAt(separator + 1 + i * 2), 16);
+      int low = Character.digit(fingerprint.charAt(separator + 2 + i * 2), 16);
+      if(high < 0 || low < 0) {
+        throw new IllegalArgumentException("Not a zone fingerprint: " + fingerprint);
+      }
+      result.sum[i] = (byte) (high << 4 | low);
+    }
+    return result;
+  }
+
+  public synchronized void add(Record record) {
+    addDigest(digest(record), false);
+    count++;
+  }
+
+  /**
+   * Takes out a record that was added. Removing a record that was never
+   * added leaves a fingerprint that matches no zone.
+   */
+  public synchronized void remove(Record record) {
+    addDigest(digest(record), true);
+    count--;
+  }
+
+  /**
+   * Records that {@code before} was changed to {@code after}.
+   */
+  public synchronized void replace(Record before, Record after) {
+    addDigest(digest(before), true);
+    addDigest(digest(after), false);
+  }
+
+  /**
+   * @return the number of records in the zone
+   */
+  public synchronized long getRecordCount() {
+    return count;
+  }
+
+  /**
+   * @return the record count and digest, e.g. {@code 12:3fa4...}, which
+   *    {@link #fromString(String)} reads back
+   */
+  @Override
+  public synchronized String toString() {
+    StringBuilder result = new StringBuilder(LENGTH * 2 + 8);
+    result.append(count).append(':');
+    for(byte b : sum) {
+      result.append(HEX[(b >> 4) & 0xf]).append(HEX[b & 0xf]);
+    }
+    return result.toString();
+  }
+
+  @Override
+  public synchronized int hashCode() {
+    return Arrays.hashCode(sum);
+  }
+
+  @Override
+  public boolean equals(Object obj) {
+    if(this == obj)
+      return true;
+    if(!(obj instanceof ZoneFingerprint))
+      return false;
+    ZoneFingerprint other = (ZoneFingerprint) obj;
+    byte otherSum[];
+    long otherCount;
+    synchronized(other) {
+      otherSum = other.sum.clone();
+      otherCount = other.count;
+    }
+    synchronized(this) {
+      return count == otherCount && Arrays.equals(sum, otherSum);
+    }
+  }
+
+  /**
+   * Adds (or subtracts) a record's digest to the sum, modulo 2^256.
+   */
+  private void addDigest(byte digest[], boolean subtract) {
+    int carry = 0;
+    if(subtract) {
+      // Two's complement: -x == ~x + 1
+      for(int i = 0; i < LENGTH; i++) {
+        digest[i] = (byte) ~digest[i];
+      }
+      carry = 1;
+    }
+    for(int i = LENGTH - 1; i >= 0; i--) {
+      int total = (sum[i] & 0xff) + (digest[i] & 0xff) + carry;
+      sum[i] = (byte) total;
+      carry = total >>> 8;
+    }
+  }
+
+  /**
+   * SHA-256 of the fields compared by {@link Record#equals(Object)}, each
+   * length prefixed so no two records can encode the same way.
+   */
+  private static byte[] digest(Record record) {
+    MessageDigest digest = SHA256.get();
+    digest.reset();
+    update(digest, record.getRecordType());
+    update(digest, record.getName());
+    update(digest, record.getContent());
+    update(digest, record.getTtl());
+    update(digest, record.getPriority());
+    return digest.digest();
+  }
+
+  private static void update(MessageDigest digest, String value) {
+    if(value == null) {
+      digest.update((byte) 0);
+      return;
+    }
+    byte bytes[] = value.getBytes(UTF8);
+    digest.update((byte) 1);
+    updateInt(digest, bytes.length);
+    digest.update(bytes);
+  }
+
+  private static void update(MessageDigest digest, Integer value) {
+    if(value == null) {
+      digest.update((byte) 0);
+      return;
+    }
+    digest.update((byte) 1);
+    updateInt(digest, value.intValue());
+  }
+
+  private static void updateInt(MessageDigest digest, int value) {
+    digest.update((byte) (value >>> 24));
+    digest.update((byte) (value >>> 16));
+    digest.update((byte) (value >>> 8));
+    digest.update((byte) value);
+  }
+
+}
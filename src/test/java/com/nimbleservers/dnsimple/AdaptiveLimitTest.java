@@ -0,0 +1,138 @@
+/**
+ * Copyright 2012 Nimble Servers Limited. http://nimbleservers.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.nimbleservers.dnsimple;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import junit.framework.TestCase;
+
+/**
+ * Checks that the bulk limit grows while it is used and responses are
+ * healthy, and is cut once for each bout of 429s, 5xxs or rising latency.
+ * <p>
+ * @author Chris Strand
+ */
+public class AdaptiveLimitTest extends TestCase {
+
+  private static final long FAST = TimeUnit.MILLISECONDS.toNanos(10);
+  private static final long SLOW = TimeUnit.MILLISECONDS.toNanos(100);
+
+  private final FairScheduler scheduler = new FairScheduler(64, 64);
+  private final List<FairScheduler.Permit> held = new ArrayList<FairScheduler.Permit>();
+
+  @Override
+  protected void tearDown() {
+    for(FairScheduler.Permit permit : held) {
+      permit.release();
+    }
+  }
+
+  public void testAppliesInitialLimit() {
+    limit(4);
+    assertEquals(4, scheduler.getMax(Priority.BULK));
+  }
+
+  public void testGrowsWhileUsed() throws InterruptedException {
+    AdaptiveLimit limit = limit(4);
+    for(int i = 0; i < 100; i++) {
+      fill();
+      limit.onResponse(FAST, 200);
+    }
+    // About 4 + 1/4 + 1/5 + ... per response
+    int max = scheduler.getMax(Priority.BULK);
+    assertTrue(String.valueOf(max), max >= 10 && max <= 20);
+  }
+
+  public void testDoesNotGrowWhileIdle() {
+    AdaptiveLimit limit = limit(4);
+    for(int i = 0; i < 100; i++) {
+      limit.onResponse(FAST, 200);
+    }
+    assertEquals(4, scheduler.getMax(Priority.BULK));
+  }
+
+  public void testBacksOffOnTooManyRequests() {
+    assertBacksOff(429);
+  }
+
+  public void testBacksOffOnServerError() {
+    assertBacksOff(503);
+  }
+
+  public void testNeverBelowMinLimit() {
+    AdaptiveLimit limit = new AdaptiveLimit(AdaptiveLimitPolicy.getBuilder()
+        .setInitialLimit(10)
+        .setMinLimit(3)
+        .build(), scheduler, 64);
+    for(int i = 0; i < 1000; i++) {
+      limit.onResponse(FAST, 429);
+    }
+    assertEquals(3, scheduler.getMax(Priority.BULK));
+  }
+
+  public void testBacksOffOnRisingLatency() {
+    AdaptiveLimit limit = limit(10);
+    // Too few responses to trust, however they vary
+    for(int i = 0; i < 19; i++) {
+      limit.onResponse(i % 2 == 0 ? FAST : SLOW * 10, 200);
+    }
+    assertEquals(10, scheduler.getMax(Priority.BULK));
+
+    for(int i = 0; i < 100; i++) {
+      limit.onResponse(FAST, 200);
+    }
+    assertEquals(10, scheduler.getMax(Priority.BULK));
+
+    // The recent average pulls away from the baseline within a few
+    for(int i = 0; i < 5; i++) {
+      limit.onResponse(SLOW, 200);
+    }
+    assertEquals(8, scheduler.getMax(Priority.BULK));
+  }
+
+  /**
+   * Cut once for a bout, then again if it lasts past the hold
+   */
+  private void assertBacksOff(int statusCode) {
+    AdaptiveLimit limit = limit(10);
+    limit.onResponse(FAST, statusCode);
+    assertEquals(8, scheduler.getMax(Priority.BULK));
+    for(int i = 0; i < 20; i++) {
+      limit.onResponse(FAST, statusCode);
+    }
+    assertEquals(8, scheduler.getMax(Priority.BULK));
+    limit.onResponse(FAST, statusCode);
+    assertEquals(6, scheduler.getMax(Priority.BULK));
+  }
+
+  private AdaptiveLimit limit(int initialLimit) {
+    return new AdaptiveLimit(AdaptiveLimitPolicy.getBuilder()
+        .setInitialLimit(initialLimit)
+        .build(), scheduler, 64);
+  }
+
+  /**
+   * Holds as many bulk permits as the limit allows, as a busy client would
+   */
+  private void fill() throws InterruptedException {
+    while(scheduler.getHeld(Priority.BULK) < scheduler.getMax(Priority.BULK)) {
+      held.add(scheduler.acquire("a", Priority.BULK, 0));
+    }
+  }
+
+}
@@ -0,0 +1,139 @@
+/**
+ * Copyright 2012 Nimble Servers Limited. http://nimbleservers.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.nimbleservers.dnsimple;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import junit.framework.TestCase;
+
+import com.nimbleservers.dnsimple.record.Record;
+import com.nimbleservers.dnsimple.record.RecordFilter;
+import com.nimbleservers.dnsimple.record.RecordTypes;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * Checks that a record filter is passed on to DNSimple as far as the API
+ * allows, and applied to what comes back.
+ * <p>
+ * @author Chris Strand
+ */
+public class DnsimpleContextTest extends TestCase {
+
+  private static final String LISTING = "["
+      + "{\"record\": {\"name\": \"\", \"record_type\": \"A\", \"content\": \"192.0.2.1\"}},"
+      + "{\"record\": {\"name\": \"www\", \"record_type\": \"A\", \"content\": \"192.0.2.2\"}},"
+      + "{\"record\": {\"name\": \"www\", \"record_type\": \"AAAA\", \"content\": \"2001:db8::2\"}},"
+      + "{\"record\": {\"name\": \"\", \"record_type\": \"MX\", \"content\": \"mail.example.com\"}}]";
+
+  private HttpServer server;
+  private ExecutorService serverExecutor;
+  private DnsimpleContext context;
+
+  // The raw query of each request, or "" for none, in the order they arrived
+  private final List<String> queries = new ArrayList<String>();
+
+  @Override
+  protected void setUp() throws IOException {
+    server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+    serverExecutor = Executors.newCachedThreadPool();
+    server.setExecutor(serverExecutor);
+    server.createContext("/", new HttpHandler() {
+      @Override
+      public void handle(HttpExchange exchange) throws IOException {
+        try {
+          serve(exchange);
+        } finally {
+          exchange.close();
+        }
+      }
+    });
+    server.start();
+
+    context = DnsimpleContext.getBuilder()
+        .setEmail("test@example.com")
+        .setApiKey("test")
+        .setEndPoint("http://127.0.0.1:" + server.getAddress().getPort() + "/v1")
+        .build();
+  }
+
+  @Override
+  protected void tearDown() {
+    context.close();
+    server.stop(0);
+    serverExecutor.shutdownNow();
+  }
+
+  public void testAllSendsNoQuery() throws Exception {
+    assertEquals(4, context.getRecords("example.com").size());
+    assertEquals(List.of(""), queries());
+  }
+
+  public void testNameAndSingleTypeAreSent() throws Exception {
+    List<Record> records = context.getRecords("example.com", RecordFilter.getBuilder()
+        .setName("www")
+        .addRecordType(RecordTypes.AAAA)
+        .build());
+    assertEquals(List.of("name=www&type=AAAA"), queries());
+    // The stub ignores the query, so this is the filter applied again
+    assertEquals(1, records.size());
+    assertEquals("2001:db8::2", records.get(0).getContent());
+  }
+
+  public void testApexIsSentAsEmptyName() throws Exception {
+    List<Record> records = context.getRecords("example.com", RecordFilter.getBuilder()
+        .setName("")
+        .build());
+    assertEquals(List.of("name="), queries());
+    assertEquals(2, records.size());
+  }
+
+  public void testSeveralTypesAreLeftToFilter() throws Exception {
+    List<Record> records = context.getRecords("example.com", RecordFilter.getBuilder()
+        .addRecordType(RecordTypes.A)
+        .addRecordType(RecordTypes.MX)
+        .build());
+    assertEquals(List.of(""), queries());
+    assertEquals(3, records.size());
+  }
+
+  private void serve(HttpExchange exchange) throws IOException {
+    String query = exchange.getRequestURI().getRawQuery();
+    synchronized(this) {
+      queries.add(query == null ? "" : query);
+    }
+    byte body[] = LISTING.getBytes(StandardCharsets.UTF_8);
+    exchange.getResponseHeaders().set("Content-Type", "application/json");
+    exchange.sendResponseHeaders(200, body.length);
+    OutputStream out = exchange.getResponseBody();
+    out.write(body);
+    out.close();
+  }
+
+  private synchronized List<String> queries() {
+    return new ArrayList<String>(queries);
+  }
+
+}
@@ -0,0 +1,92 @@
+/**
+ * Copyright 2012 Nimble Servers Limited. http://nimbleservers.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.nimbleservers.dnsimple;
+
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import junit.framework.TestCase;
+
+/**
+ * Checks how permits are handed out, and that waiting for one can be
+ * cancelled.
+ * <p>
+ * @author Chris Strand
+ */
+public class FairSchedulerTest extends TestCase {
+
+  public void testCancelWakesWaiter() throws Exception {
+    final FairScheduler scheduler = new FairScheduler(1, 1);
+    FairScheduler.Permit held = scheduler.acquire("a");
+
+    final Cancellation cancellation = new Cancellation();
+    CompletableFuture<FairScheduler.Permit> waiting = CompletableFuture.supplyAsync(() -> {
+      try {
+        return scheduler.acquire("a", Priority.INTERACTIVE, -1, List.of(cancellation));
+      } catch(InterruptedException e) {
+        throw new RuntimeException(e);
+      }
+    });
+    while(scheduler.getWaiting() == 0) {
+      Thread.sleep(10);
+    }
+
+    cancellation.cancel();
+    assertNull(waiting.get(5, TimeUnit.SECONDS));
+    assertEquals(0, scheduler.getWaiting());
+
+    // The permit goes to whoever asks next, not the cancelled waiter
+    held.release();
+    FairScheduler.Permit next = scheduler.acquire("a", Priority.INTERACTIVE, 0);
+    assertNotNull(next);
+    next.release();
+  }
+
+  public void testAlreadyCancelledDoesNotWait() throws Exception {
+    FairScheduler scheduler = new FairScheduler(1, 1);
+    FairScheduler.Permit held = scheduler.acquire("a");
+    Cancellation cancellation = new Cancellation();
+    cancellation.cancel();
+    assertNull(scheduler.acquire("a", Priority.INTERACTIVE, -1, List.of(cancellation)));
+    held.release();
+  }
+
+  public void testCappedInteractiveWaiterDoesNotHoldUpBulk() throws Exception {
+    final FairScheduler scheduler = new FairScheduler(4, 1);
+    FairScheduler.Permit held = scheduler.acquire("a");
+
+    // Waits on its own tenant's cap, not for a free permit
+    CompletableFuture<FairScheduler.Permit> waiting = CompletableFuture.supplyAsync(() -> {
+      try {
+        return scheduler.acquire("a");
+      } catch(InterruptedException e) {
+        throw new RuntimeException(e);
+      }
+    });
+    while(scheduler.getWaiting() == 0) {
+      Thread.sleep(10);
+    }
+
+    FairScheduler.Permit bulk = scheduler.acquire("b", Priority.BULK, 0);
+    assertNotNull(bulk);
+    bulk.release();
+
+    held.release();
+    waiting.get(5, TimeUnit.SECONDS).release();
+  }
+
+}
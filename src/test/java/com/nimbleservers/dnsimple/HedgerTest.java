@@ -0,0 +1,109 @@
+/**
+ * Copyright 2012 Nimble Servers Limited. http://nimbleservers.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.nimbleservers.dnsimple;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import junit.framework.TestCase;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * Checks that whichever attempt wins is used straight away, without
+ * waiting for the other.
+ * <p>
+ * @author Chris Strand
+ */
+public class HedgerTest extends TestCase {
+
+  private HttpServer server;
+  private ExecutorService serverExecutor;
+  private DnsimpleContext context;
+
+  private final AtomicInteger requests = new AtomicInteger();
+  // Holds the first request until counted down
+  private final CountDownLatch firstHeld = new CountDownLatch(1);
+
+  @Override
+  protected void setUp() throws IOException {
+    server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+    serverExecutor = Executors.newCachedThreadPool();
+    server.setExecutor(serverExecutor);
+    server.createContext("/", new HttpHandler() {
+      @Override
+      public void handle(HttpExchange exchange) throws IOException {
+        try {
+          if(requests.incrementAndGet() == 1) {
+            firstHeld.await(10, TimeUnit.SECONDS);
+          }
+          byte bytes[] = "[]".getBytes(StandardCharsets.UTF_8);
+          exchange.getResponseHeaders().set("Content-Type", "application/json; charset=utf-8");
+          exchange.sendResponseHeaders(200, bytes.length);
+          OutputStream out = exchange.getResponseBody();
+          out.write(bytes);
+          out.close();
+        } catch(InterruptedException e) {
+          Thread.currentThread().interrupt();
+        } finally {
+          exchange.close();
+        }
+      }
+    });
+    server.start();
+
+    context = DnsimpleContext.getBuilder()
+        .setEmail("test@example.com")
+        .setApiKey("test")
+        .setEndPoint("http://127.0.0.1:" + server.getAddress().getPort() + "/v1")
+        .setHedgePolicy(HedgePolicy.getBuilder()
+            .setBudget(1)
+            .setInitialDelay(50, TimeUnit.MILLISECONDS)
+            .build())
+        .build();
+  }
+
+  @Override
+  protected void tearDown() {
+    firstHeld.countDown();
+    context.close();
+    server.stop(0);
+    serverExecutor.shutdownNow();
+  }
+
+  public void testWinnerDoesNotWaitForLoser() throws Exception {
+    long start = System.nanoTime();
+    assertTrue(context.getDomains().isEmpty());
+    long elapsed = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+
+    // Whichever of the two reached the server first is held, and the other
+    // used without waiting for it
+    assertEquals(2, requests.get());
+    assertTrue("Took " + elapsed + "ms", elapsed < 5000);
+    assertEquals(1, context.getTransport().getMetrics().getHedges());
+  }
+
+}
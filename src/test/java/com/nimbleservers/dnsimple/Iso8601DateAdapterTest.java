@@ -0,0 +1,102 @@
+/**
+ * Copyright 2012 Nimble Servers Limited. http://nimbleservers.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.nimbleservers.dnsimple;
+
+import java.time.Instant;
+import java.time.OffsetDateTime;
+
+import junit.framework.TestCase;
+
+/**
+ * Checks each accepted form of timestamp against {@code java.time}, and
+ * that dates which do not exist are rejected.
+ * <p>
+ * @author Chris Strand
+ */
+public class Iso8601DateAdapterTest extends TestCase {
+
+  public void testUtc() {
+    assertParses("2012-01-02T03:04:05Z", "2012-01-02T03:04:05Z");
+    assertParses("2012-01-02T03:04:05Z", "2012-01-02t03:04:05z");
+    assertParses("2012-01-02T03:04:00Z", "2012-01-02T03:04Z");
+    assertParses("2012-01-02T03:04:05Z", "2012-01-02T03:04:05");
+    assertParses("2012-01-02T00:00:00Z", "2012-01-02");
+  }
+
+  public void testOffsets() {
+    assertParses("2012-01-02T03:04:05+01:00", "2012-01-02T03:04:05+01:00");
+    assertParses("2012-01-02T03:04:05+01:00", "2012-01-02T03:04:05+0100");
+    assertParses("2012-01-02T03:04:05+01:00", "2012-01-02T03:04:05+01");
+    assertParses("2012-01-02T03:04:05-05:30", "2012-01-02T03:04:05-05:30");
+    // Into the previous day, and year
+    assertParses("2012-01-01T00:30:00+02:00", "2012-01-01T00:30:00+02:00");
+    assertInvalid("2012-01-02T03:04:05+19:00");
+    assertInvalid("2012-01-02T03:04:05+01:60");
+  }
+
+  public void testFractions() {
+    assertParses("2012-01-02T03:04:05.100Z", "2012-01-02T03:04:05.1Z");
+    assertParses("2012-01-02T03:04:05.120Z", "2012-01-02T03:04:05,12Z");
+    assertParses("2012-01-02T03:04:05.123Z", "2012-01-02T03:04:05.123Z");
+    // Beyond milliseconds is dropped, not rounded
+    assertParses("2012-01-02T03:04:05.123Z", "2012-01-02T03:04:05.123999Z");
+    assertParses("2012-01-02T03:04:05.5+01:00", "2012-01-02T03:04:05.5+01:00");
+    assertInvalid("2012-01-02T03:04:05.Z");
+  }
+
+  public void testLeapDays() {
+    assertParses("2012-02-29T12:00:00Z", "2012-02-29T12:00:00Z");
+    assertParses("2000-02-29T12:00:00Z", "2000-02-29T12:00:00Z");
+    assertInvalid("2011-02-29T12:00:00Z");
+    // Divisible by 100 but not 400
+    assertInvalid("1900-02-29T12:00:00Z");
+    assertParses("1900-03-01T00:00:00Z", "1900-03-01T00:00:00Z");
+    assertParses("1900-02-28T23:59:59Z", "1900-02-28T23:59:59Z");
+  }
+
+  public void testLegacyForm() {
+    assertParses("2012-01-02T03:04:05Z", "2012-01-02 03:04:05 UTC");
+    assertParses("2012-01-02T03:04:05Z", "2012-01-02 03:04:05UTC");
+    assertParses("2012-01-02T03:04:05+01:00", "2012-01-02 03:04:05 +0100");
+  }
+
+  public void testRejectsOthers() {
+    assertInvalid("");
+    assertInvalid("2012");
+    assertInvalid("2012-1-02");
+    assertInvalid("2012-13-02");
+    assertInvalid("2012-04-31");
+    assertInvalid("2012-01-02T24:00:00Z");
+    assertInvalid("2012-01-02T03:04:05 GMT");
+    assertInvalid("2012-01-02T03:04:05Zjunk");
+    assertInvalid("2012-01-02X03:04:05Z");
+  }
+
+  private static void assertParses(String expected, String timestamp) {
+    long millis = OffsetDateTime.parse(expected).toInstant().toEpochMilli();
+    assertEquals(timestamp, millis, Iso8601DateAdapter.parse(timestamp));
+    assertEquals(timestamp, Instant.ofEpochMilli(millis), Iso8601DateAdapter.toInstant(timestamp));
+  }
+
+  private static void assertInvalid(String timestamp) {
+    try {
+      Iso8601DateAdapter.parse(timestamp);
+      fail(timestamp);
+    } catch(IllegalArgumentException e) {
+    }
+  }
+
+}
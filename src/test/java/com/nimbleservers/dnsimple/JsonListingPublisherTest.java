@@ -0,0 +1,146 @@
+/**
+ * Copyright 2012 Nimble Servers Limited. http://nimbleservers.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.nimbleservers.dnsimple;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Flow;
+import java.util.concurrent.TimeUnit;
+
+import junit.framework.TestCase;
+
+import com.nimbleservers.dnsimple.record.Record;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * Checks that listings are streamed in full, on the requesting thread or
+ * on an executor.
+ * <p>
+ * @author Chris Strand
+ */
+public class JsonListingPublisherTest extends TestCase {
+
+  private static final String LISTING = "[{\"record\":{\"id\":1,\"name\":\"a\",\"record_type\":\"A\",\"content\":\"192.0.2.1\"}},"
+      + "{\"record\":{\"id\":2,\"name\":\"b\",\"record_type\":\"A\",\"content\":\"192.0.2.2\"}},"
+      + "{\"record\":{\"id\":3,\"name\":\"c\",\"record_type\":\"A\",\"content\":\"192.0.2.3\"}}]";
+
+  private HttpServer server;
+  private ExecutorService serverExecutor;
+  private ExecutorService executor;
+  private DnsimpleContext context;
+
+  @Override
+  protected void setUp() throws IOException {
+    server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+    serverExecutor = Executors.newCachedThreadPool();
+    server.setExecutor(serverExecutor);
+    server.createContext("/", new HttpHandler() {
+      @Override
+      public void handle(HttpExchange exchange) throws IOException {
+        try {
+          byte bytes[] = LISTING.getBytes(StandardCharsets.UTF_8);
+          exchange.getResponseHeaders().set("Content-Type", "application/json; charset=utf-8");
+          exchange.sendResponseHeaders(200, bytes.length);
+          OutputStream out = exchange.getResponseBody();
+          out.write(bytes);
+          out.close();
+        } finally {
+          exchange.close();
+        }
+      }
+    });
+    server.start();
+    executor = Executors.newSingleThreadExecutor();
+
+    context = DnsimpleContext.getBuilder()
+        .setEmail("test@example.com")
+        .setApiKey("test")
+        .setEndPoint("http://127.0.0.1:" + server.getAddress().getPort() + "/v1")
+        .build();
+  }
+
+  @Override
+  protected void tearDown() {
+    context.close();
+    executor.shutdownNow();
+    server.stop(0);
+    serverExecutor.shutdownNow();
+  }
+
+  public void testOnRequestingThread() throws Exception {
+    Collector collector = new Collector();
+    context.getRecordsPublisher("example.com").subscribe(collector);
+    // Delivered before request() returned
+    assertTrue(collector.done.isDone());
+    assertEquals(3, collector.done.get().size());
+    assertEquals(Thread.currentThread(), collector.thread);
+  }
+
+  public void testOnExecutor() throws Exception {
+    Collector collector = new Collector();
+    context.getRecordsPublisher("example.com", executor).subscribe(collector);
+    List<Record> records = collector.done.get(5, TimeUnit.SECONDS);
+    assertEquals(3, records.size());
+    assertEquals("192.0.2.3", records.get(2).getContent());
+    assertNotSame(Thread.currentThread(), collector.thread);
+  }
+
+  /**
+   * Requests one record at a time
+   */
+  private static class Collector implements Flow.Subscriber<Record> {
+
+    private final List<Record> records = new ArrayList<Record>();
+    private final CompletableFuture<List<Record>> done = new CompletableFuture<List<Record>>();
+    private Flow.Subscription subscription;
+    private volatile Thread thread;
+
+    @Override
+    public void onSubscribe(Flow.Subscription subscription) {
+      this.subscription = subscription;
+      subscription.request(1);
+    }
+
+    @Override
+    public void onNext(Record record) {
+      thread = Thread.currentThread();
+      records.add(record);
+      subscription.request(1);
+    }
+
+    @Override
+    public void onError(Throwable error) {
+      done.completeExceptionally(error);
+    }
+
+    @Override
+    public void onComplete() {
+      done.complete(records);
+    }
+
+  }
+
+}
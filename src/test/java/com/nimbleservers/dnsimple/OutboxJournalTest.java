@@ -0,0 +1,196 @@
+/**
+ * Copyright 2012 Nimble Servers Limited. http://nimbleservers.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.nimbleservers.dnsimple;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+import com.nimbleservers.dnsimple.OutboxJournal.Entry;
+import com.nimbleservers.dnsimple.OutboxJournal.Operation;
+import com.nimbleservers.dnsimple.record.Record;
+import com.nimbleservers.dnsimple.record.RecordTypes;
+
+/**
+ * Checks what a journal reads back when reopened, and that compacting it
+ * keeps every change not yet done.
+ * <p>
+ * @author Chris Strand
+ */
+public class OutboxJournalTest extends TestCase {
+
+  private File file;
+
+  @Override
+  protected void setUp() throws IOException {
+    file = File.createTempFile("outbox", ".journal");
+    file.delete();
+  }
+
+  @Override
+  protected void tearDown() {
+    file.delete();
+    new File(file.getPath() + ".lock").delete();
+  }
+
+  public void testReopenRecoversChangesNotDone() throws IOException {
+    OutboxJournal journal = new OutboxJournal(file);
+    assertTrue(journal.getRecovered().isEmpty());
+    assertEquals(1, journal.getNextSeq());
+    journal.append(add(1, "192.0.2.1"));
+    journal.append(new Entry(2, Operation.DELETE, "example.com", "20", null));
+    journal.append(update(3, "30", "192.0.2.3"));
+    journal.sync(journal.appendDone(2));
+    journal.close();
+
+    journal = new OutboxJournal(file);
+    List<Entry> recovered = journal.getRecovered();
+    assertEquals(List.of(1L, 3L), seqs(recovered));
+    assertEquals(4, journal.getNextSeq());
+    assertEquals(Operation.ADD, recovered.get(0).operation);
+    assertEquals("example.com", recovered.get(0).domain);
+    assertEquals("192.0.2.1", recovered.get(0).record.getContent());
+    assertEquals("30", recovered.get(1).recordId);
+    journal.close();
+
+    // Rewritten with only the two changes left
+    assertEquals(2, lines().size());
+  }
+
+  public void testDropsTornLastLine() throws IOException {
+    OutboxJournal journal = new OutboxJournal(file);
+    journal.sync(journal.append(add(1, "192.0.2.1")));
+    journal.close();
+    append("{\"seq\":2,\"operation\":\"add\",\"dom");
+
+    journal = new OutboxJournal(file);
+    assertEquals(List.of(1L), seqs(journal.getRecovered()));
+    journal.close();
+    assertEquals(1, lines().size());
+  }
+
+  public void testRefusesCorruptLineBeforeTheLast() throws IOException {
+    append("{\"seq\":1,\"operation\":\"add\",\"dom\n{\"done\":1}\n");
+    try {
+      new OutboxJournal(file);
+      fail("Expected the journal to be refused");
+    } catch(IOException e) {
+      assertTrue(e.getMessage().contains("line 1"));
+    }
+  }
+
+  public void testLockRefusesSecondJournal() throws IOException {
+    OutboxJournal journal = new OutboxJournal(file);
+    try {
+      new OutboxJournal(file);
+      fail("Expected the journal to be in use");
+    } catch(IOException e) {
+      assertTrue(e.getMessage().contains("in use"));
+    } finally {
+      journal.close();
+    }
+    // Free again once closed
+    new OutboxJournal(file).close();
+  }
+
+  public void testCompactKeepsChangesNotDone() throws IOException {
+    OutboxJournal journal = new OutboxJournal(file);
+    for(long seq = 1; seq <= 100; seq++) {
+      journal.append(add(seq, "192.0.2.1"));
+      if(seq % 10 != 0) {
+        journal.appendDone(seq);
+      }
+    }
+    journal.sync(journal.append(add(101, "192.0.2.2")));
+    long before = journal.size();
+
+    journal.compact(before);
+    assertEquals(before, journal.size());
+
+    journal.compact(0);
+    assertTrue(journal.size() < before);
+    assertEquals(11, lines().size());
+
+    // Appended after compacting, but not yet written
+    long ticket = journal.append(add(102, "192.0.2.3"));
+    journal.appendDone(10);
+    journal.sync(ticket);
+    journal.close();
+
+    journal = new OutboxJournal(file);
+    List<Long> expected = new ArrayList<Long>();
+    for(long seq = 20; seq <= 100; seq += 10) {
+      expected.add(seq);
+    }
+    expected.add(101L);
+    expected.add(102L);
+    assertEquals(expected, seqs(journal.getRecovered()));
+    journal.close();
+  }
+
+  public void testCompactTakesAppendsNotYetWritten() throws IOException {
+    OutboxJournal journal = new OutboxJournal(file);
+    journal.sync(journal.append(add(1, "192.0.2.1")));
+    journal.sync(journal.appendDone(1));
+    long ticket = journal.append(add(2, "192.0.2.2"));
+    journal.compact(0);
+    // Already in the new file
+    journal.sync(ticket);
+    assertEquals(1, lines().size());
+    journal.close();
+  }
+
+  private static Entry add(long seq, String content) {
+    return new Entry(seq, Operation.ADD, "example.com", null, record(content));
+  }
+
+  private static Entry update(long seq, String recordId, String content) {
+    return new Entry(seq, Operation.UPDATE, "example.com", recordId, record(content));
+  }
+
+  private static Record record(String content) {
+    return Record.getBuilder()
+        .setName("www")
+        .setRecordType(RecordTypes.A)
+        .setContent(content)
+        .setTtl(60)
+        .build();
+  }
+
+  private static List<Long> seqs(List<Entry> entries) {
+    List<Long> seqs = new ArrayList<Long>();
+    for(Entry entry : entries) {
+      seqs.add(entry.seq);
+    }
+    return seqs;
+  }
+
+  private List<String> lines() throws IOException {
+    return Files.readAllLines(file.toPath(), StandardCharsets.UTF_8);
+  }
+
+  private void append(String text) throws IOException {
+    byte bytes[] = text.getBytes(StandardCharsets.UTF_8);
+    Files.write(file.toPath(), bytes, StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+  }
+
+}
@@ -0,0 +1,260 @@
+/**
+ * Copyright 2012 Nimble Servers Limited. http://nimbleservers.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.nimbleservers.dnsimple;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import junit.framework.TestCase;
+
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import com.nimbleservers.dnsimple.OutboxJournal.Entry;
+import com.nimbleservers.dnsimple.OutboxJournal.Operation;
+import com.nimbleservers.dnsimple.record.Record;
+import com.nimbleservers.dnsimple.record.RecordTypes;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * Checks that changes left in the journal are made when an outbox is
+ * reopened on it, without adding a record twice, that changes to one record
+ * are made in order, and that only one outbox may use a journal.
+ * <p>
+ * @author Chris Strand
+ */
+public class RecordOutboxTest extends TestCase {
+
+  private HttpServer server;
+  private ExecutorService serverExecutor;
+  private DnsimpleContext context;
+  private File file;
+
+  // Each request, as "METHOD path?query content", in the order they arrived
+  private final List<String> requests = new ArrayList<String>();
+  // What the fake domain's record listing returns
+  private String listing = "[]";
+  // Holds a PUT with this content until counted down
+  private String held = null;
+  private CountDownLatch heldRelease = new CountDownLatch(0);
+  private final CountDownLatch heldArrived = new CountDownLatch(1);
+
+  @Override
+  protected void setUp() throws IOException {
+    server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+    serverExecutor = Executors.newCachedThreadPool();
+    server.setExecutor(serverExecutor);
+    server.createContext("/", new HttpHandler() {
+      @Override
+      public void handle(HttpExchange exchange) throws IOException {
+        try {
+          serve(exchange);
+        } finally {
+          exchange.close();
+        }
+      }
+    });
+    server.start();
+
+    context = DnsimpleContext.getBuilder()
+        .setEmail("test@example.com")
+        .setApiKey("test")
+        .setEndPoint("http://127.0.0.1:" + server.getAddress().getPort() + "/v1")
+        .build();
+
+    file = File.createTempFile("outbox", ".journal");
+    file.delete();
+  }
+
+  @Override
+  protected void tearDown() {
+    context.close();
+    server.stop(0);
+    serverExecutor.shutdownNow();
+    file.delete();
+    new File(file.getPath() + ".lock").delete();
+  }
+
+  public void testMakesRecoveredChangesWhenReopened() throws Exception {
+    OutboxJournal journal = new OutboxJournal(file);
+    journal.append(new Entry(1, Operation.ADD, "example.com", null, record("192.0.2.1")));
+    journal.append(new Entry(2, Operation.DELETE, "example.com", "20", null));
+    journal.append(new Entry(3, Operation.UPDATE, "example.com", "30", record("192.0.2.3")));
+    journal.append(new Entry(4, Operation.DELETE, "example.com", "40", null));
+    journal.sync(journal.appendDone(4));
+    journal.close();
+
+    RecordOutbox outbox = outbox();
+    assertEquals(3, outbox.getRecovered());
+    outbox.flush();
+    assertEquals(3, outbox.getApplied());
+    outbox.close();
+
+    List<String> made = requests();
+    // Not known whether the add was made before, so it is looked for first
+    assertTrue(made.contains("GET /v1/domains/example.com/records?name=www&type=A "));
+    assertTrue(made.contains("POST /v1/domains/example.com/records 192.0.2.1"));
+    assertTrue(made.contains("DELETE /v1/domains/example.com/records/20 "));
+    assertTrue(made.contains("PUT /v1/domains/example.com/records/30 192.0.2.3"));
+    assertEquals(4, made.size());
+
+    // Every change was marked done
+    journal = new OutboxJournal(file);
+    assertTrue(journal.getRecovered().isEmpty());
+    journal.close();
+  }
+
+  public void testRecoveredAddIsNotMadeAgain() throws Exception {
+    listing = "[{\"record\":{\"id\":10,\"name\":\"www\",\"record_type\":\"A\",\"content\":\"192.0.2.9\",\"ttl\":60}},"
+        + "{\"record\":{\"id\":11,\"name\":\"www\",\"record_type\":\"A\",\"content\":\"192.0.2.1\",\"ttl\":60}}]";
+    OutboxJournal journal = new OutboxJournal(file);
+    journal.sync(journal.append(new Entry(1, Operation.ADD, "example.com", null, record("192.0.2.1"))));
+    journal.close();
+
+    RecordOutbox outbox = outbox();
+    outbox.flush();
+    assertEquals(1, outbox.getApplied());
+    outbox.close();
+    assertEquals(List.of("GET /v1/domains/example.com/records?name=www&type=A "), requests());
+  }
+
+  public void testChangesToOneRecordAreMadeInOrder() throws Exception {
+    held = "192.0.2.1";
+    heldRelease = new CountDownLatch(1);
+    RecordOutbox outbox = outbox();
+    CompletableFuture<Record> first = outbox.updateRecord("example.com", "1", record("192.0.2.1"));
+    CompletableFuture<Record> second = outbox.updateRecord("example.com", "1", record("192.0.2.2"));
+    CompletableFuture<Record> other = outbox.updateRecord("example.com", "2", record("192.0.2.3"));
+    assertTrue(heldArrived.await(5, TimeUnit.SECONDS));
+
+    // Another record's change goes ahead, but not the next to the same one
+    other.get(5, TimeUnit.SECONDS);
+    Thread.sleep(100);
+    assertFalse(second.isDone());
+    assertEquals(2, requests().size());
+
+    heldRelease.countDown();
+    outbox.flush();
+    assertEquals("192.0.2.1", first.get().getContent());
+    assertEquals("192.0.2.2", second.get().getContent());
+    List<String> made = requests();
+    assertTrue(made.indexOf("PUT /v1/domains/example.com/records/1 192.0.2.1")
+        < made.indexOf("PUT /v1/domains/example.com/records/1 192.0.2.2"));
+    outbox.close();
+  }
+
+  public void testRefusesSecondOutboxOnJournal() throws Exception {
+    RecordOutbox outbox = outbox();
+    try {
+      outbox();
+      fail("Expected the journal to be in use");
+    } catch(IOException e) {
+      assertTrue(e.getMessage().contains("in use"));
+    } finally {
+      outbox.close();
+    }
+    outbox().close();
+  }
+
+  private RecordOutbox outbox() throws IOException {
+    return RecordOutbox.getBuilder()
+        .setContext(context)
+        .setJournal(file)
+        .setRetryDelay(10, TimeUnit.MILLISECONDS)
+        .build();
+  }
+
+  private static Record record(String content) {
+    return Record.getBuilder()
+        .setName("www")
+        .setRecordType(RecordTypes.A)
+        .setContent(content)
+        .setTtl(60)
+        .build();
+  }
+
+  private synchronized List<String> requests() {
+    return new ArrayList<String>(requests);
+  }
+
+  private void serve(HttpExchange exchange) throws IOException {
+    String method = exchange.getRequestMethod();
+    String body = read(exchange.getRequestBody());
+    JsonObject record = body.isEmpty() ? null
+        : new JsonParser().parse(body).getAsJsonObject().getAsJsonObject("record");
+    String content = record == null ? "" : record.get("content").getAsString();
+    String query = exchange.getRequestURI().getRawQuery();
+    synchronized(this) {
+      requests.add(method + " " + exchange.getRequestURI().getPath()
+          + (query == null ? "" : "?" + query) + " " + content);
+    }
+
+    if(content.equals(held)) {
+      heldArrived.countDown();
+      try {
+        heldRelease.await(5, TimeUnit.SECONDS);
+      } catch(InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+    }
+
+    if(method.equals("GET")) {
+      respond(exchange, 200, listing);
+    } else if(method.equals("POST")) {
+      record.addProperty("id", 100);
+      respond(exchange, 201, "{\"record\":" + record + "}");
+    } else if(method.equals("PUT")) {
+      record.addProperty("id", 1);
+      respond(exchange, 200, "{\"record\":" + record + "}");
+    } else {
+      respond(exchange, 200, "{}");
+    }
+  }
+
+  private static void respond(HttpExchange exchange, int status, String body) throws IOException {
+    byte bytes[] = body.getBytes(StandardCharsets.UTF_8);
+    exchange.getResponseHeaders().set("Content-Type", "application/json; charset=utf-8");
+    exchange.sendResponseHeaders(status, bytes.length);
+    OutputStream out = exchange.getResponseBody();
+    out.write(bytes);
+    out.close();
+  }
+
+  private static String read(InputStream in) throws IOException {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    byte buffer[] = new byte[4096];
+    int read;
+    while((read = in.read(buffer)) >= 0) {
+      out.write(buffer, 0, read);
+    }
+    return new String(out.toByteArray(), StandardCharsets.UTF_8);
+  }
+
+}
@@ -0,0 +1,138 @@
+/**
+ * Copyright 2012 Nimble Servers Limited. http://nimbleservers.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.nimbleservers.dnsimple;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+import junit.framework.TestCase;
+
+/**
+ * Checks that characters split across reads of the stream are decoded
+ * whole, that malformed or truncated input is replaced, and that the
+ * thread's reader starts afresh for each response.
+ * <p>
+ * @author Chris Strand
+ */
+public class ResponseReaderTest extends TestCase {
+
+  // Two, three and four byte sequences
+  private static final String TEXT = "caf\u00e9 \u20ac5 \ud83d\ude00";
+
+  public void testCharactersSplitAcrossReads() throws IOException {
+    byte body[] = TEXT.getBytes(StandardCharsets.UTF_8);
+    for(int chunk = 1; chunk <= 4; chunk++) {
+      assertEquals("chunk " + chunk, TEXT, read(new ChunkedInputStream(body, chunk)));
+    }
+  }
+
+  public void testCharacterSplitAcrossBuffers() throws IOException {
+    StringBuilder text = new StringBuilder();
+    for(int i = 0; i < 8191; i++) {
+      text.append('a');
+    }
+    // Starts on the last byte of the first buffer
+    text.append("\u20ac\ud83d\ude00");
+    for(int i = 0; i < 10000; i++) {
+      text.append('b');
+    }
+    assertEquals(text.toString(), read(new ByteArrayInputStream(text.toString().getBytes(StandardCharsets.UTF_8))));
+  }
+
+  public void testTruncatedSequenceIsReplaced() throws IOException {
+    byte euro[] = "\u20ac".getBytes(StandardCharsets.UTF_8);
+    byte body[] = Arrays.copyOf("ab".getBytes(StandardCharsets.UTF_8), 4);
+    body[2] = euro[0];
+    body[3] = euro[1];
+    assertEquals("ab\ufffd", read(new ChunkedInputStream(body, 1)));
+    assertEquals("ab\ufffd", read(new ByteArrayInputStream(body)));
+  }
+
+  public void testMalformedInputIsReplaced() throws IOException {
+    byte body[] = {'a', (byte) 0xff, 'b', (byte) 0xc3, 'c'};
+    assertEquals("a\ufffdb\ufffdc", read(new ByteArrayInputStream(body)));
+  }
+
+  public void testStartsAfreshAfterTruncatedResponse() throws IOException {
+    byte truncated[] = {'a', (byte) 0xe2, (byte) 0x82};
+    assertEquals("a\ufffd", read(new ByteArrayInputStream(truncated)));
+    assertEquals(TEXT, read(new ByteArrayInputStream(TEXT.getBytes(StandardCharsets.UTF_8))));
+  }
+
+  public void testSecondResponseOnSameThread() throws IOException {
+    Reader first = ResponseReader.open(new ByteArrayInputStream("first".getBytes(StandardCharsets.UTF_8)));
+    try {
+      assertEquals(TEXT, read(new ChunkedInputStream(TEXT.getBytes(StandardCharsets.UTF_8), 1)));
+      assertEquals("first", drain(first));
+    } finally {
+      first.close();
+    }
+  }
+
+  public void testClosedReaderFails() throws IOException {
+    Reader reader = ResponseReader.open(new ByteArrayInputStream(new byte[0]));
+    reader.close();
+    try {
+      reader.read();
+      fail();
+    } catch(IOException e) {
+    }
+  }
+
+  private static String read(InputStream in) throws IOException {
+    Reader reader = ResponseReader.open(in);
+    try {
+      return drain(reader);
+    } finally {
+      reader.close();
+    }
+  }
+
+  private static String drain(Reader reader) throws IOException {
+    StringBuilder result = new StringBuilder();
+    char buffer[] = new char[3];
+    int count;
+    while((count = reader.read(buffer, 0, buffer.length)) >= 0) {
+      result.append(buffer, 0, count);
+    }
+    return result.toString();
+  }
+
+  /**
+   * Returns at most {@code chunk} bytes from each read, as a slow network
+   * would.
+   */
+  private static class ChunkedInputStream extends ByteArrayInputStream {
+
+    private final int chunk;
+
+    ChunkedInputStream(byte body[], int chunk) {
+      super(body);
+      this.chunk = chunk;
+    }
+
+    @Override
+    public synchronized int read(byte buffer[], int offset, int length) {
+      return super.read(buffer, offset, Math.min(length, chunk));
+    }
+
+  }
+
+}
@@ -0,0 +1,226 @@
+/**
+ * Copyright 2012 Nimble Servers Limited. http://nimbleservers.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.nimbleservers.dnsimple;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import junit.framework.TestCase;
+
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import com.nimbleservers.dnsimple.record.Record;
+import com.nimbleservers.dnsimple.record.RecordTypes;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * Checks that the queue coalesces changes, never has two writes to a
+ * record in flight at once, and that flush waits for every write.
+ * <p>
+ * @author Chris Strand
+ */
+public class WriteBehindQueueTest extends TestCase {
+
+  private HttpServer server;
+  private ExecutorService serverExecutor;
+  private DnsimpleContext context;
+
+  // The content of each PUT, in the order they arrived
+  private final List<String> updates = new ArrayList<String>();
+  private int concurrent = 0;
+  private int peakConcurrent = 0;
+  // Holds the first PUT until counted down
+  private CountDownLatch firstHeld = new CountDownLatch(0);
+  private final CountDownLatch firstArrived = new CountDownLatch(1);
+
+  @Override
+  protected void setUp() throws IOException {
+    server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+    serverExecutor = Executors.newCachedThreadPool();
+    server.setExecutor(serverExecutor);
+    server.createContext("/", new HttpHandler() {
+      @Override
+      public void handle(HttpExchange exchange) throws IOException {
+        try {
+          update(exchange);
+        } finally {
+          exchange.close();
+        }
+      }
+    });
+    server.start();
+
+    context = DnsimpleContext.getBuilder()
+        .setEmail("test@example.com")
+        .setApiKey("test")
+        .setEndPoint("http://127.0.0.1:" + server.getAddress().getPort() + "/v1")
+        .build();
+  }
+
+  @Override
+  protected void tearDown() {
+    context.close();
+    server.stop(0);
+    serverExecutor.shutdownNow();
+  }
+
+  public void testCoalescesUpdatesWithinWindow() throws Exception {
+    WriteBehindQueue queue = new WriteBehindQueue(context, 200, TimeUnit.MILLISECONDS);
+    CompletableFuture<Record> first = queue.updateRecord("example.com", "1", record("192.0.2.1"));
+    queue.updateRecord("example.com", "1", record("192.0.2.2"));
+    CompletableFuture<Record> last = queue.updateRecord("example.com", "1", record("192.0.2.3"));
+    queue.close();
+
+    assertEquals(List.of("192.0.2.3"), updates());
+    assertEquals("192.0.2.3", first.get().getContent());
+    assertEquals("192.0.2.3", last.get().getContent());
+  }
+
+  public void testChangeWaitsForWriteInFlight() throws Exception {
+    firstHeld = new CountDownLatch(1);
+    WriteBehindQueue queue = new WriteBehindQueue(context, 10, TimeUnit.MILLISECONDS);
+    queue.updateRecord("example.com", "1", record("192.0.2.1"));
+    assertTrue(firstArrived.await(5, TimeUnit.SECONDS));
+
+    // Well past their window, but the first write is still in flight
+    queue.updateRecord("example.com", "1", record("192.0.2.2"));
+    CompletableFuture<Record> last = queue.updateRecord("example.com", "1", record("192.0.2.3"));
+    Thread.sleep(200);
+    assertEquals(1, updates().size());
+
+    firstHeld.countDown();
+    queue.flush();
+    assertTrue(last.isDone());
+    assertEquals(List.of("192.0.2.1", "192.0.2.3"), updates());
+    assertEquals(1, peakConcurrent());
+    queue.close();
+  }
+
+  public void testFlushWaitsForWriteAlreadyStarted() throws Exception {
+    firstHeld = new CountDownLatch(1);
+    WriteBehindQueue queue = new WriteBehindQueue(context, 1, TimeUnit.MILLISECONDS);
+    CompletableFuture<Record> result = queue.updateRecord("example.com", "1", record("192.0.2.1"));
+    assertTrue(firstArrived.await(5, TimeUnit.SECONDS));
+
+    Thread release = new Thread() {
+      @Override
+      public void run() {
+        try {
+          Thread.sleep(200);
+        } catch(InterruptedException e) {
+        }
+        firstHeld.countDown();
+      }
+    };
+    release.start();
+    queue.flush();
+    assertTrue(result.isDone());
+    queue.close();
+  }
+
+  public void testSeparateRecordsAreNotCoalesced() throws Exception {
+    WriteBehindQueue queue = new WriteBehindQueue(context, 50, TimeUnit.MILLISECONDS);
+    queue.updateRecord("example.com", "1", record("192.0.2.1"));
+    queue.updateRecord("example.com", "2", record("192.0.2.2"));
+    queue.close();
+    assertEquals(2, updates().size());
+  }
+
+  public void testChangeFailsOnceTransportIsClosed() throws Exception {
+    WriteBehindQueue queue = new WriteBehindQueue(context, 10, TimeUnit.MILLISECONDS);
+    // As if another context sharing the transport had closed it
+    context.getTransport().close();
+    CompletableFuture<Record> result = queue.updateRecord("example.com", "1", record("192.0.2.1"));
+    assertTrue(result.isCompletedExceptionally());
+    queue.flush();
+    queue.close();
+    assertEquals(0, updates().size());
+  }
+
+  private static Record record(String content) {
+    return Record.getBuilder()
+        .setName("www")
+        .setRecordType(RecordTypes.A)
+        .setContent(content)
+        .setTtl(60)
+        .build();
+  }
+
+  private synchronized List<String> updates() {
+    return new ArrayList<String>(updates);
+  }
+
+  private synchronized int peakConcurrent() {
+    return peakConcurrent;
+  }
+
+  private void update(HttpExchange exchange) throws IOException {
+    JsonObject body = new JsonParser().parse(read(exchange.getRequestBody())).getAsJsonObject();
+    JsonObject record = body.getAsJsonObject("record");
+    boolean first;
+    synchronized(this) {
+      first = updates.isEmpty();
+      updates.add(record.get("content").getAsString());
+      peakConcurrent = Math.max(peakConcurrent, ++concurrent);
+    }
+
+    try {
+      if(first) {
+        firstArrived.countDown();
+        firstHeld.await(5, TimeUnit.SECONDS);
+      }
+    } catch(InterruptedException e) {
+      Thread.currentThread().interrupt();
+    } finally {
+      synchronized(this) {
+        concurrent--;
+      }
+    }
+
+    record.addProperty("id", 1);
+    byte bytes[] = ("{\"record\":" + record + "}").getBytes(StandardCharsets.UTF_8);
+    exchange.getResponseHeaders().set("Content-Type", "application/json; charset=utf-8");
+    exchange.sendResponseHeaders(200, bytes.length);
+    OutputStream out = exchange.getResponseBody();
+    out.write(bytes);
+    out.close();
+  }
+
+  private static String read(InputStream in) throws IOException {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    byte buffer[] = new byte[4096];
+    int read;
+    while((read = in.read(buffer)) >= 0) {
+      out.write(buffer, 0, read);
+    }
+    return new String(out.toByteArray(), StandardCharsets.UTF_8);
+  }
+
+}
@@ -0,0 +1,171 @@
+/**
+ * Copyright 2012 Nimble Servers Limited. http://nimbleservers.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.nimbleservers.dnsimple.ddns;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import junit.framework.TestCase;
+
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import com.nimbleservers.dnsimple.DnsimpleContext;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * Checks that a host's address is only written once it has stopped
+ * changing for the debounce period.
+ * <p>
+ * @author Chris Strand
+ */
+public class DynamicDnsUpdaterTest extends TestCase {
+
+  private HttpServer server;
+  private ExecutorService serverExecutor;
+  private DnsimpleContext context;
+
+  // The content of each record added, in the order they arrived
+  private final List<String> added = new ArrayList<String>();
+
+  @Override
+  protected void setUp() throws IOException {
+    server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+    serverExecutor = Executors.newCachedThreadPool();
+    server.setExecutor(serverExecutor);
+    server.createContext("/", new HttpHandler() {
+      @Override
+      public void handle(HttpExchange exchange) throws IOException {
+        try {
+          if(exchange.getRequestMethod().equals("POST")) {
+            add(exchange);
+          } else {
+            // No records yet
+            send(exchange, 200, "[]");
+          }
+        } finally {
+          exchange.close();
+        }
+      }
+    });
+    server.start();
+
+    context = DnsimpleContext.getBuilder()
+        .setEmail("test@example.com")
+        .setApiKey("test")
+        .setEndPoint("http://127.0.0.1:" + server.getAddress().getPort() + "/v1")
+        .build();
+  }
+
+  @Override
+  protected void tearDown() {
+    context.close();
+    server.stop(0);
+    serverExecutor.shutdownNow();
+  }
+
+  public void testWritesOnceQuiet() throws Exception {
+    DynamicDnsUpdater updater = DynamicDnsUpdater.getBuilder()
+        .setContext(context)
+        .setDebounce(400, TimeUnit.MILLISECONDS)
+        .build();
+    updater.report("example.com", "host1", "192.0.2.1");
+    Thread.sleep(250);
+    updater.report("example.com", "host1", "192.0.2.2");
+    // Past the first report's period, but not the second's
+    Thread.sleep(250);
+    assertEquals(0, added().size());
+
+    assertEquals(List.of("192.0.2.2"), awaitAdded(1));
+    updater.close();
+  }
+
+  public void testSameAddressDoesNotPutOffWrite() throws Exception {
+    DynamicDnsUpdater updater = DynamicDnsUpdater.getBuilder()
+        .setContext(context)
+        .setDebounce(400, TimeUnit.MILLISECONDS)
+        .build();
+    updater.report("example.com", "host1", "192.0.2.1");
+    Thread.sleep(250);
+    updater.report("example.com", "host1", "192.0.2.1");
+    assertEquals(List.of("192.0.2.1"), awaitAdded(1));
+    updater.close();
+  }
+
+  public void testCloseWritesWaitingChanges() throws Exception {
+    DynamicDnsUpdater updater = DynamicDnsUpdater.getBuilder()
+        .setContext(context)
+        .setDebounce(1, TimeUnit.HOURS)
+        .build();
+    updater.report("example.com", "host1", "192.0.2.1");
+    updater.close();
+    assertEquals(List.of("192.0.2.1"), added());
+    assertEquals(1, updater.getWrites());
+  }
+
+  private synchronized List<String> added() {
+    return new ArrayList<String>(added);
+  }
+
+  private List<String> awaitAdded(int count) throws InterruptedException {
+    long end = System.currentTimeMillis() + 5000;
+    while(added().size() < count && System.currentTimeMillis() < end) {
+      Thread.sleep(20);
+    }
+    return added();
+  }
+
+  private void add(HttpExchange exchange) throws IOException {
+    JsonObject body = new JsonParser().parse(read(exchange.getRequestBody())).getAsJsonObject();
+    JsonObject record = body.getAsJsonObject("record");
+    synchronized(this) {
+      added.add(record.get("content").getAsString());
+    }
+    record.addProperty("id", 1);
+    send(exchange, 201, "{\"record\":" + record + "}");
+  }
+
+  private static void send(HttpExchange exchange, int status, String body) throws IOException {
+    byte bytes[] = body.getBytes(StandardCharsets.UTF_8);
+    exchange.getResponseHeaders().set("Content-Type", "application/json; charset=utf-8");
+    exchange.sendResponseHeaders(status, bytes.length);
+    OutputStream out = exchange.getResponseBody();
+    out.write(bytes);
+    out.close();
+  }
+
+  private static String read(InputStream in) throws IOException {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    byte buffer[] = new byte[4096];
+    int read;
+    while((read = in.read(buffer)) >= 0) {
+      out.write(buffer, 0, read);
+    }
+    return new String(out.toByteArray(), StandardCharsets.UTF_8);
+  }
+
+}
@@ -0,0 +1,416 @@
+/**
+ * Copyright 2012 Nimble Servers Limited. http://nimbleservers.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.nimbleservers.dnsimple.loadtest;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParseException;
+import com.google.gson.JsonParser;
+import com.nimbleservers.dnsimple.domain.Domain;
+import com.nimbleservers.dnsimple.domain.DomainTypeAdapter;
+import com.nimbleservers.dnsimple.record.Record;
+import com.nimbleservers.dnsimple.record.RecordTypeAdapter;
+import com.nimbleservers.dnsimple.record.RecordTypes;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * A stand in for DNSimple's API, serving the calls in {@link Operation}
+ * from memory on the loopback interface.
+ * <p>
+ * It is lenient so that any trace can be replayed against it: a domain is
+ * created, with a number of A records, the first time it is mentioned, and
+ * updating or deleting a record it does not have succeeds. Each response
+ * can be delayed by a random time, exponentially distributed around a
+ * mean, and a fraction of requests can be failed with a 500. Its capacity
+ * can be limited, so that past a number of requests at once the rest queue
+ * and latency climbs, as a real server's does when overloaded.
+ * <p>
+ * Thread Safe.
+ * <p>
+ * @author Chris Strand
+ */
+public class FakeServer implements Closeable {
+
+  private static final String JSON = "application/json; charset=utf-8";
+
+  private final HttpServer server;
+  private final ExecutorService executor;
+  private final Gson gson;
+  private final long meanLatencyNanos;
+  private final double errorRate;
+  private final int recordsPerZone;
+  // Null if unlimited
+  private final Semaphore capacity;
+
+  private final ConcurrentMap<String, Zone> zones = new ConcurrentHashMap<String, Zone>();
+  private final AtomicInteger nextId = new AtomicInteger(1);
+  private final AtomicLong requests = new AtomicLong();
+
+  private FakeServer(Builder builder) throws IOException {
+    this.meanLatencyNanos = builder.meanLatencyNanos;
+    this.errorRate = builder.errorRate;
+    this.recordsPerZone = builder.recordsPerZone;
+    this.capacity = builder.capacity > 0 ? new Semaphore(builder.capacity, true) : null;
+    this.gson = new GsonBuilder()
+        .registerTypeHierarchyAdapter(Record.class, new RecordTypeAdapter())
+        .registerTypeHierarchyAdapter(Domain.class, new DomainTypeAdapter())
+        .create();
+
+    this.executor = Executors.newFixedThreadPool(builder.threads, new ThreadFactory() {
+      private final AtomicInteger count = new AtomicInteger();
+      @Override
+      public Thread newThread(Runnable runnable) {
+        Thread thread = new Thread(runnable, "fake-dnsimple-" + count.incrementAndGet());
+        thread.setDaemon(true);
+        return thread;
+      }
+    });
+
+    // Otherwise responses written in two parts wait on the client's delayed
+    // ACK, adding tens of milliseconds to every call
+    if(System.getProperty("sun.net.httpserver.nodelay") == null) {
+      System.setProperty("sun.net.httpserver.nodelay", "true");
+    }
+    this.server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), builder.port), 1024);
+    this.server.setExecutor(executor);
+    this.server.createContext("/", new HttpHandler() {
+      @Override
+      public void handle(HttpExchange exchange) throws IOException {
+        try {
+          serve(exchange);
+        } finally {
+          exchange.close();
+        }
+      }
+    });
+    this.server.start();
+  }
+
+  public static Builder getBuilder() {
+    return new Builder();
+  }
+
+  /**
+   * @return the URI to give {@code DnsimpleContext.Builder.setEndPoint}
+   */
+  public String getEndPoint() {
+    return "http://127.0.0.1:" + server.getAddress().getPort() + "/v1";
+  }
+
+  /**
+   * @return the number of requests received
+   */
+  public long getRequests() {
+    return requests.get();
+  }
+
+  /**
+   * Stops accepting requests, waiting briefly for those in progress.
+   */
+  @Override
+  public void close() {
+    server.stop(1);
+    executor.shutdownNow();
+  }
+
+  private void serve(HttpExchange exchange) throws IOException {
+    requests.incrementAndGet();
+    String body = read(exchange.getRequestBody());
+    if(capacity == null) {
+      delay();
+    } else {
+      capacity.acquireUninterruptibly();
+      try {
+        delay();
+      } finally {
+        capacity.release();
+      }
+    }
+
+    if(errorRate > 0 && ThreadLocalRandom.current().nextDouble() < errorRate) {
+      respond(exchange, 500, "{\"error\":\"Injected failure\"}");
+      return;
+    }
+
+    String uri = exchange.getRequestURI().getPath();
+    List<String> path = Operation.domainPath(uri);
+    Operation operation = path == null ? null : Operation.classify(exchange.getRequestMethod(), path);
+    if(operation == null) {
+      respond(exchange, 404, "{\"error\":\"Not found\"}");
+      return;
+    }
+
+    try {
+      switch(operation) {
+        case GET_DOMAINS:
+          StringBuilder listing = new StringBuilder("[");
+          for(Zone zone : zones.values()) {
+            if(listing.length() > 1) {
+              listing.append(',');
+            }
+            listing.append("{\"domain\":").append(gson.toJson(zone.domain(false))).append('}');
+          }
+          respond(exchange, 200, listing.append(']').toString());
+          break;
+        case ADD_DOMAIN:
+          String name = parse(body, "domain").get("name").getAsString();
+          respond(exchange, 201, wrap("domain", zone(name).domain(false)));
+          break;
+        case GET_DOMAIN:
+          respond(exchange, 200, wrap("domain", zone(path.get(0)).domain(false)));
+          break;
+        case CHECK_DOMAIN:
+          respond(exchange, zones.containsKey(path.get(0)) ? 200 : 404, "{}");
+          break;
+        case ENABLE_AUTO_RENEWAL:
+          respond(exchange, 200, wrap("domain", zone(path.get(0)).domain(true)));
+          break;
+        case DISABLE_AUTO_RENEWAL:
+          respond(exchange, 200, wrap("domain", zone(path.get(0)).domain(false)));
+          break;
+        case SET_NAME_SERVERS:
+          respond(exchange, 200, "[\"ns1.dnsimple.com\",\"ns2.dnsimple.com\"]");
+          break;
+        case GET_RECORDS:
+          respond(exchange, 200, zone(path.get(0)).listing());
+          break;
+        case ADD_RECORD:
+          Zone zone = zone(path.get(0));
+          Record added = zone.put(String.valueOf(nextId.getAndIncrement()), parseRecord(body));
+          respond(exchange, 201, wrap("record", added));
+          break;
+        case UPDATE_RECORD:
+          Record updated = zone(path.get(0)).put(path.get(2), parseRecord(body));
+          respond(exchange, 200, wrap("record", updated));
+          break;
+        case DELETE_RECORD:
+          zone(path.get(0)).records.remove(path.get(2));
+          respond(exchange, 200, "{}");
+          break;
+      }
+    } catch(JsonParseException | IllegalStateException | NullPointerException e) {
+      respond(exchange, 400, "{\"error\":\"Bad request\"}");
+    }
+  }
+
+  private void delay() {
+    if(meanLatencyNanos <= 0) {
+      return;
+    }
+    double uniform = 1 - ThreadLocalRandom.current().nextDouble();
+    long deadline = System.nanoTime() + (long) (-Math.log(uniform) * meanLatencyNanos);
+    long remaining;
+    while((remaining = deadline - System.nanoTime()) > 0) {
+      LockSupport.parkNanos(remaining);
+    }
+  }
+
+  private Zone zone(String name) {
+    Zone zone = zones.get(name);
+    if(zone == null) {
+      Zone created = new Zone(String.valueOf(nextId.getAndIncrement()), name);
+      created.populate();
+      zone = zones.putIfAbsent(name, created);
+      if(zone == null) {
+        zone = created;
+      }
+    }
+    return zone;
+  }
+
+  private JsonObject parse(String body, String key) {
+    return new JsonParser().parse(body).getAsJsonObject().getAsJsonObject(key);
+  }
+
+  private Record parseRecord(String body) {
+    return gson.fromJson(parse(body, "record"), Record.class);
+  }
+
+  private String wrap(String key, Object value) {
+    return "{\"" + key + "\":" + gson.toJson(value) + "}";
+  }
+
+  private static String read(InputStream in) throws IOException {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    byte buffer[] = new byte[4096];
+    int read;
+    while((read = in.read(buffer)) >= 0) {
+      out.write(buffer, 0, read);
+    }
+    return new String(out.toByteArray(), StandardCharsets.UTF_8);
+  }
+
+  private static void respond(HttpExchange exchange, int statusCode, String body) throws IOException {
+    byte bytes[] = body.getBytes(StandardCharsets.UTF_8);
+    exchange.getResponseHeaders().set("Content-Type", JSON);
+    exchange.sendResponseHeaders(statusCode, bytes.length);
+    OutputStream out = exchange.getResponseBody();
+    out.write(bytes);
+    out.close();
+  }
+
+  private class Zone {
+
+    private final String id;
+    private final String name;
+    private final Map<String, Record> records = new ConcurrentSkipListMap<String, Record>();
+
+    private Zone(String id, String name) {
+      this.id = id;
+      this.name = name;
+    }
+
+    private void populate() {
+      for(int i = 0; i < recordsPerZone; i++) {
+        put(String.valueOf(nextId.getAndIncrement()), Record.getBuilder()
+            .setName("host" + i)
+            .setRecordType(RecordTypes.A)
+            .setContent("192.0.2." + (i % 254 + 1))
+            .setTtl(3600)
+            .build());
+      }
+    }
+
+    private Domain domain(boolean autoRenew) {
+      return new Domain(id, name, null, "hosted", null, null, null, null, null, autoRenew, false);
+    }
+
+    private Record put(String recordId, Record record) {
+      Record stored = new Record(id, recordId, record.getName(), record.getRecordType(),
+          record.getContent(), record.getTtl(), record.getPriority(), null, null);
+      records.put(recordId, stored);
+      return stored;
+    }
+
+    private String listing() {
+      StringBuilder listing = new StringBuilder("[");
+      for(Record record : records.values()) {
+        if(listing.length() > 1) {
+          listing.append(',');
+        }
+        listing.append("{\"record\":").append(gson.toJson(record)).append('}');
+      }
+      return listing.append(']').toString();
+    }
+
+  }
+
+  public static class Builder {
+
+    private int port = 0;
+    private long meanLatencyNanos = 0;
+    private double errorRate = 0;
+    private int recordsPerZone = 20;
+    private int threads = 64;
+    private int capacity = 0;
+
+    /**
+     * @param port to listen on. Defaults to any free port.
+     */
+    public Builder setPort(int port) {
+      this.port = port;
+      return this;
+    }
+
+    /**
+     * @param meanLatency the average delay before each response. Defaults
+     *    to none.
+     */
+    public Builder setMeanLatency(long meanLatency, TimeUnit unit) {
+      this.meanLatencyNanos = unit.toNanos(meanLatency);
+      return this;
+    }
+
+    /**
+     * @param errorRate the fraction of requests answered with a 500.
+     *    Defaults to 0.
+     */
+    public Builder setErrorRate(double errorRate) {
+      if(errorRate < 0 || errorRate > 1) {
+        throw new IllegalArgumentException("Error rate must be between 0 and 1: " + errorRate);
+      }
+      this.errorRate = errorRate;
+      return this;
+    }
+
+    /**
+     * @param recordsPerZone how many records a domain starts with. Defaults
+     *    to 20.
+     */
+    public Builder setRecordsPerZone(int recordsPerZone) {
+      this.recordsPerZone = recordsPerZone;
+      return this;
+    }
+
+    /**
+     * @param threads how many requests may be served at once. Defaults to
+     *    64.
+     */
+    public Builder setThreads(int threads) {
+      if(threads < 1) {
+        throw new IllegalArgumentException("Must have at least one thread");
+      }
+      this.threads = threads;
+      return this;
+    }
+
+    /**
+     * @param capacity how many requests are worked on (delayed) at once,
+     *    with the rest queueing for their turn, or 0 for no limit beyond
+     *    {@link #setThreads(int)}. Defaults to 0.
+     */
+    public Builder setCapacity(int capacity) {
+      if(capacity < 0) {
+        throw new IllegalArgumentException("Capacity may not be negative: " + capacity);
+      }
+      this.capacity = capacity;
+      return this;
+    }
+
+    public FakeServer build() throws IOException {
+      return new FakeServer(this);
+    }
+
+  }
+
+}
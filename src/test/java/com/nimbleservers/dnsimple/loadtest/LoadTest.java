@@ -0,0 +1,284 @@
+/**
+ * Copyright 2012 Nimble Servers Limited. http://nimbleservers.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.nimbleservers.dnsimple.loadtest;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.net.http.HttpClient;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import com.nimbleservers.dnsimple.AdaptiveLimitPolicy;
+import com.nimbleservers.dnsimple.ApacheHttpBackend;
+import com.nimbleservers.dnsimple.DnsimpleContext;
+import com.nimbleservers.dnsimple.DnsimpleTransport;
+import com.nimbleservers.dnsimple.HedgePolicy;
+import com.nimbleservers.dnsimple.HttpBackend;
+import com.nimbleservers.dnsimple.JdkHttpBackend;
+import com.nimbleservers.dnsimple.Priority;
+import com.nimbleservers.dnsimple.RequestOptions;
+
+/**
+ * Replays traces written by {@link TraceRecorder}, or made up by the
+ * {@code generate} command, against a {@link FakeServer} (or any other end
+ * point) and prints a {@link ReplayReport}. It is not part of the published
+ * jar; run it with the {@code loadtest} profile. For example:
+ * <pre>
+ * mvn -Ploadtest test-compile exec:java -Dexec.args="generate --calls 10000 --rate 200 load.trace"
+ * mvn -Ploadtest test-compile exec:java -Dexec.args="replay --speed 5 --connections 10 --server-latency 20 load.trace"
+ * </pre>
+ * @author Chris Strand
+ */
+public class LoadTest {
+
+  private static final String USAGE =
+      "Usage: LoadTest replay [options] <trace>\n"
+      + "  --speed <n>              replay n times faster than recorded (default 1)\n"
+      + "  --threads <n>            most calls in progress at once (default 256)\n"
+      + "  --connections <n>        transport's maximum connections (default 20)\n"
+      + "  --per-tenant <n>         transport's maximum connections per account (default all)\n"
+      + "  --timeout <ms>           deadline for each call (default none)\n"
+      + "  --backend <name>         apache, jdk (HTTP/2) or jdk-http1 (default apache)\n"
+      + "  --bulk                   make the calls as bulk requests\n"
+      + "  --no-adaptive            fix the bulk limit rather than adapting it\n"
+      + "  --hedge <percentile>     hedge reads slower than this percentile (default off)\n"
+      + "  --no-pooled-buffers      decode each response with new buffers\n"
+      + "  --warm-up <n>            open n connections before starting\n"
+      + "  --endpoint <uri>         replay against this API rather than a fake server\n"
+      + "  --server-latency <ms>    fake server's mean response time (default 0)\n"
+      + "  --server-errors <rate>   fraction of calls the fake server fails (default 0)\n"
+      + "  --server-capacity <n>    requests the fake server works on at once (default all)\n"
+      + "  --records <n>            records in each fake domain (default 20)\n"
+      + "       LoadTest generate [options] <trace>\n"
+      + "  --calls <n>              number of calls (default 1000)\n"
+      + "  --rate <n>               average calls per second (default 100)\n"
+      + "  --domains <n>            number of domains called on (default 10)\n"
+      + "  --seed <n>               random seed\n";
+
+  public static void main(String args[]) throws Exception {
+    if(args.length < 2) {
+      usage("Expected a command and a trace");
+    }
+
+    String command = args[0];
+    Map<String, String> options = new HashMap<String, String>();
+    for(int i = 1; i < args.length - 1; i++) {
+      if(!args[i].startsWith("--")) {
+        usage("Unexpected argument: " + args[i]);
+      }
+      if(args[i].equals("--bulk") || args[i].equals("--no-adaptive")
+          || args[i].equals("--no-pooled-buffers")) {
+        options.put(args[i], "true");
+      } else if(i + 1 < args.length - 1) {
+        options.put(args[i], args[++i]);
+      } else {
+        usage("Missing value for " + args[i]);
+      }
+    }
+    File trace = new File(args[args.length - 1]);
+
+    if(command.equals("replay")) {
+      replay(trace, options);
+    } else if(command.equals("generate")) {
+      generate(trace, options);
+    } else {
+      usage("Unknown command: " + command);
+    }
+  }
+
+  private static void replay(File trace, Map<String, String> options) throws IOException, InterruptedException {
+    List<TraceEvent> events = read(trace);
+
+    FakeServer server = null;
+    String endPoint = options.get("--endpoint");
+    if(endPoint == null) {
+      server = FakeServer.getBuilder()
+          .setMeanLatency(number(options, "--server-latency", 0), TimeUnit.MILLISECONDS)
+          .setErrorRate(fraction(options, "--server-errors", 0))
+          .setRecordsPerZone((int) number(options, "--records", 20))
+          .setCapacity((int) number(options, "--server-capacity", 0))
+          .setThreads((int) number(options, "--threads", 256))
+          .build();
+      endPoint = server.getEndPoint();
+    }
+
+    int connections = (int) number(options, "--connections", 20);
+    DnsimpleTransport transport = DnsimpleTransport.getBuilder()
+        .setMaxConnections(connections)
+        .setMaxConnectionsPerTenant((int) number(options, "--per-tenant", connections))
+        .setHttpBackend(backend(options.get("--backend")))
+        .setAdaptiveLimitPolicy(options.containsKey("--no-adaptive") ? null : AdaptiveLimitPolicy.DEFAULT)
+        .build();
+
+    DnsimpleContext.Builder builder = DnsimpleContext.getBuilder()
+        .setEmail("loadtest@example.com")
+        .setApiKey("loadtest")
+        .setEndPoint(endPoint)
+        .setTransport(transport)
+        .setPooledBuffers(!options.containsKey("--no-pooled-buffers"));
+    if(options.containsKey("--hedge")) {
+      builder.setHedgePolicy(HedgePolicy.getBuilder()
+          .setPercentile(fraction(options, "--hedge", 0.95))
+          .build());
+    }
+    DnsimpleContext context = builder.build();
+    if(options.containsKey("--bulk")) {
+      context = context.withOptions(RequestOptions.getBuilder()
+          .setPriority(Priority.BULK)
+          .build());
+    }
+
+    try {
+      if(options.containsKey("--warm-up")) {
+        context.warmUp((int) number(options, "--warm-up", 0));
+      }
+
+      System.out.println("Replaying " + events.size() + " calls from " + trace + " against " + endPoint);
+      Replayer replayer = new Replayer(context, fraction(options, "--speed", 1),
+          (int) number(options, "--threads", 256), number(options, "--timeout", 0));
+      System.out.print(replayer.replay(events));
+    } finally {
+      transport.close();
+      if(server != null) {
+        server.close();
+      }
+    }
+  }
+
+  private static HttpBackend.Factory backend(String name) {
+    if(name == null || name.equals("apache")) {
+      return ApacheHttpBackend.FACTORY;
+    } else if(name.equals("jdk")) {
+      return JdkHttpBackend.FACTORY;
+    } else if(name.equals("jdk-http1")) {
+      return JdkHttpBackend.factory(HttpClient.Version.HTTP_1_1);
+    }
+    usage("Unknown backend: " + name);
+    return null;
+  }
+
+  /**
+   * Writes a trace of calls arriving at random (a Poisson process), mostly
+   * reads, spread over a number of domains.
+   */
+  private static void generate(File trace, Map<String, String> options) throws IOException {
+    long calls = number(options, "--calls", 1000);
+    double rate = fraction(options, "--rate", 100);
+    int domains = (int) number(options, "--domains", 10);
+    Random random = options.containsKey("--seed") ? new Random(number(options, "--seed", 0)) : new Random();
+
+    Writer writer = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(trace), StandardCharsets.UTF_8));
+    try {
+      writer.write(TraceEvent.HEADER);
+      writer.write('\n');
+
+      double offsetMicros = 0;
+      for(long i = 0; i < calls; i++) {
+        offsetMicros += -Math.log(1 - random.nextDouble()) * 1e6 / rate;
+        String domain = "domain" + random.nextInt(domains) + ".example.com";
+        String recordId = String.valueOf(1 + random.nextInt(1000));
+
+        double pick = random.nextDouble();
+        Operation operation;
+        long requestBytes = 0;
+        if(pick < 0.60) {
+          operation = Operation.GET_RECORDS;
+        } else if(pick < 0.75) {
+          operation = Operation.GET_DOMAIN;
+        } else if(pick < 0.80) {
+          operation = Operation.GET_DOMAINS;
+        } else if(pick < 0.90) {
+          operation = Operation.UPDATE_RECORD;
+          requestBytes = 100 + random.nextInt(200);
+        } else if(pick < 0.95) {
+          operation = Operation.ADD_RECORD;
+          requestBytes = 100 + random.nextInt(200);
+        } else {
+          operation = Operation.DELETE_RECORD;
+        }
+
+        writer.write(new TraceEvent((long) offsetMicros, operation, domain,
+            operation == Operation.UPDATE_RECORD || operation == Operation.DELETE_RECORD ? recordId : null,
+            requestBytes, 0, 0, 0).format());
+        writer.write('\n');
+      }
+    } finally {
+      writer.close();
+    }
+    System.out.println("Wrote " + calls + " calls to " + trace);
+  }
+
+  private static List<TraceEvent> read(File trace) throws IOException {
+    List<TraceEvent> events = new ArrayList<TraceEvent>();
+    BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(trace), StandardCharsets.UTF_8));
+    try {
+      String line;
+      while((line = reader.readLine()) != null) {
+        if(line.length() > 0 && !line.startsWith("#")) {
+          events.add(TraceEvent.parse(line));
+        }
+      }
+    } finally {
+      reader.close();
+    }
+    return events;
+  }
+
+  private static long number(Map<String, String> options, String name, long defaultValue) {
+    String value = options.get(name);
+    if(value == null) {
+      return defaultValue;
+    }
+    try {
+      return Long.parseLong(value);
+    } catch(NumberFormatException e) {
+      usage("Expected a whole number for " + name + ": " + value);
+      return defaultValue;
+    }
+  }
+
+  private static double fraction(Map<String, String> options, String name, double defaultValue) {
+    String value = options.get(name);
+    if(value == null) {
+      return defaultValue;
+    }
+    try {
+      return Double.parseDouble(value);
+    } catch(NumberFormatException e) {
+      usage("Expected a number for " + name + ": " + value);
+      return defaultValue;
+    }
+  }
+
+  private static void usage(String problem) {
+    System.err.println(problem);
+    System.err.print(USAGE);
+    System.exit(2);
+  }
+
+}
@@ -0,0 +1,257 @@
+/**
+ * Copyright 2012 Nimble Servers Limited. http://nimbleservers.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.nimbleservers.dnsimple.loadtest;
+
+import java.util.Arrays;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * What happened when a trace was replayed: throughput, latency percentiles
+ * overall and per operation, errors by kind, and how busy the connection
+ * pool was, sampled every few milliseconds. Also the memory allocated by
+ * the calls and the garbage collections made while they ran.
+ * <p>
+ * @author Chris Strand
+ */
+public class ReplayReport {
+
+  private final long latencies[];
+  private final Operation operations[];
+  private int calls = 0;
+  private final Map<String, Integer> errors = new TreeMap<String, Integer>();
+
+  private long samples = 0;
+  private long saturatedSamples = 0;
+  private long peakInFlight = 0;
+  private int peakWaiting = 0;
+  private int minLimit = Integer.MAX_VALUE;
+  private int lastLimit = 0;
+
+  private long elapsedNanos;
+  private long waitMillis;
+
+  // Negative when the JVM cannot measure it
+  private long allocatedBytes = 0;
+  private long collections = 0;
+  private long collectionMillis = 0;
+
+  ReplayReport(int events) {
+    this.latencies = new long[events];
+    this.operations = new Operation[events];
+  }
+
+  /**
+   * @param allocatedBytes memory the call allocated on its thread, or -1 if
+   *    unknown
+   */
+  synchronized void record(Operation operation, long latencyNanos, String error, long allocatedBytes) {
+    latencies[calls] = latencyNanos;
+    if(allocatedBytes < 0 || this.allocatedBytes < 0) {
+      this.allocatedBytes = -1;
+    } else {
+      this.allocatedBytes += allocatedBytes;
+    }
+    operations[calls] = operation;
+    calls++;
+    if(error != null) {
+      Integer count = errors.get(error);
+      errors.put(error, count == null ? 1 : count + 1);
+    }
+  }
+
+  synchronized void sample(long inFlight, int waiting, int concurrencyLimit) {
+    samples++;
+    minLimit = Math.min(minLimit, concurrencyLimit);
+    lastLimit = concurrencyLimit;
+    if(waiting > 0) {
+      saturatedSamples++;
+    }
+    peakInFlight = Math.max(peakInFlight, inFlight);
+    peakWaiting = Math.max(peakWaiting, waiting);
+  }
+
+  synchronized void finish(long elapsedNanos, long waitMillis) {
+    this.elapsedNanos = elapsedNanos;
+    this.waitMillis = waitMillis;
+  }
+
+  synchronized void finishCollections(long collections, long collectionMillis) {
+    this.collections = collections;
+    this.collectionMillis = collectionMillis;
+  }
+
+  public synchronized int getCalls() {
+    return calls;
+  }
+
+  /**
+   * @return the number of calls that failed
+   */
+  public synchronized int getErrors() {
+    int total = 0;
+    for(int count : errors.values()) {
+      total += count;
+    }
+    return total;
+  }
+
+  /**
+   * @return the number of failed calls by kind, either {@code HTTP <status>}
+   *    or the name of the exception thrown
+   */
+  public synchronized Map<String, Integer> getErrorsByKind() {
+    return new TreeMap<String, Integer>(errors);
+  }
+
+  /**
+   * @return calls made per second
+   */
+  public synchronized double getThroughput() {
+    return elapsedNanos == 0 ? 0 : calls * 1e9 / elapsedNanos;
+  }
+
+  /**
+   * @param percentile between 0 and 1
+   * @return the latency below which that fraction of calls finished, in
+   *    milliseconds
+   */
+  public synchronized double getLatencyMillis(double percentile) {
+    return percentile(sorted(null), percentile);
+  }
+
+  /**
+   * @return the fraction of samples in which a request was waiting for a
+   *    connection
+   */
+  public synchronized double getSaturation() {
+    return samples == 0 ? 0 : (double) saturatedSamples / samples;
+  }
+
+  public synchronized long getPeakInFlight() {
+    return peakInFlight;
+  }
+
+  public synchronized int getPeakWaiting() {
+    return peakWaiting;
+  }
+
+  /**
+   * @return the total time calls spent waiting for a connection
+   */
+  public synchronized long getWaitMillis() {
+    return waitMillis;
+  }
+
+  /**
+   * @return the memory allocated by the calls on the threads making them,
+   *    or -1 if the JVM cannot measure it
+   */
+  public synchronized long getAllocatedBytes() {
+    return allocatedBytes;
+  }
+
+  /**
+   * @return megabytes allocated by the calls per second, or -1 if unknown
+   */
+  public synchronized double getAllocationRate() {
+    if(allocatedBytes < 0) {
+      return -1;
+    }
+    return elapsedNanos == 0 ? 0 : allocatedBytes / 1e6 * 1e9 / elapsedNanos;
+  }
+
+  /**
+   * @return the number of garbage collections while replaying, by any
+   *    thread in the JVM
+   */
+  public synchronized long getCollections() {
+    return collections;
+  }
+
+  public synchronized long getCollectionMillis() {
+    return collectionMillis;
+  }
+
+  @Override
+  public synchronized String toString() {
+    StringBuilder out = new StringBuilder();
+    out.append(String.format("Calls:       %d in %.2f s (%.1f/s)%n", calls,
+        elapsedNanos / 1e9, getThroughput()));
+    out.append(String.format("Latency:     %s%n", latencies(sorted(null))));
+
+    Map<Operation, Integer> counts = new EnumMap<Operation, Integer>(Operation.class);
+    for(int i = 0; i < calls; i++) {
+      Integer count = counts.get(operations[i]);
+      counts.put(operations[i], count == null ? 1 : count + 1);
+    }
+    for(Map.Entry<Operation, Integer> entry : counts.entrySet()) {
+      out.append(String.format("  %-20s n=%-7d %s%n", entry.getKey(), entry.getValue(),
+          latencies(sorted(entry.getKey()))));
+    }
+
+    out.append(String.format("Errors:      %d", getErrors()));
+    if(!errors.isEmpty()) {
+      out.append(' ').append(errors);
+    }
+    out.append(String.format("%n"));
+    out.append(String.format("Pool:        peak in flight %d, peak waiting %d, saturated %.1f%% of the time, %d ms waiting in total%n",
+        peakInFlight, peakWaiting, getSaturation() * 100, waitMillis));
+    if(allocatedBytes >= 0) {
+      out.append(String.format("Allocation:  %.1f KB per call, %.1f MB/s on the calling threads%n",
+          calls == 0 ? 0 : allocatedBytes / 1024.0 / calls, getAllocationRate()));
+    }
+    out.append(String.format("GC:          %d collections, %d ms%n", collections, collectionMillis));
+    if(samples > 0) {
+      out.append(String.format("Bulk limit:  lowest %d, finally %d%n", minLimit, lastLimit));
+    }
+    return out.toString();
+  }
+
+  /**
+   * @param operation to only include calls of, or {@code null} for all
+   */
+  private long[] sorted(Operation operation) {
+    long result[] = new long[calls];
+    int count = 0;
+    for(int i = 0; i < calls; i++) {
+      if(operation == null || operations[i] == operation) {
+        result[count++] = latencies[i];
+      }
+    }
+    result = Arrays.copyOf(result, count);
+    Arrays.sort(result);
+    return result;
+  }
+
+  private static String latencies(long sorted[]) {
+    return String.format("p50 %.1f ms, p90 %.1f ms, p99 %.1f ms, p99.9 %.1f ms, max %.1f ms",
+        percentile(sorted, 0.5), percentile(sorted, 0.9), percentile(sorted, 0.99),
+        percentile(sorted, 0.999), percentile(sorted, 1));
+  }
+
+  private static double percentile(long sorted[], double percentile) {
+    if(sorted.length == 0) {
+      return 0;
+    }
+    int index = (int) Math.ceil(percentile * sorted.length) - 1;
+    long nanos = sorted[Math.max(0, Math.min(sorted.length - 1, index))];
+    return nanos / (double) TimeUnit.MILLISECONDS.toNanos(1);
+  }
+
+}
@@ -0,0 +1,210 @@
+/**
+ * Copyright 2012 Nimble Servers Limited. http://nimbleservers.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.nimbleservers.dnsimple.loadtest;
+
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+
+import com.nimbleservers.dnsimple.DnsimpleContext;
+import com.nimbleservers.dnsimple.RequestOptions;
+import com.nimbleservers.dnsimple.TransportMetrics;
+import com.nimbleservers.dnsimple.UnexpectedResponseException;
+
+/**
+ * Makes the calls in a trace again, at the times they were first made (or
+ * some multiple of that speed), and reports how the context coped.
+ * <p>
+ * Calls are started on schedule whether or not earlier ones have finished,
+ * and each latency is measured from when the call was due, so time spent
+ * queued because the client fell behind is counted rather than hidden.
+ * <p>
+ * Where the JVM can measure it, the memory each call allocates on the
+ * thread making it is added up, along with the garbage collections made
+ * while replaying, to compare the GC pressure of configurations.
+ * <p>
+ * @author Chris Strand
+ */
+public class Replayer {
+
+  /**
+   * How often the connection pool is sampled
+   */
+  private static final long SAMPLE_MILLIS = 5;
+
+  private final DnsimpleContext context;
+  private final double speed;
+  private final int threads;
+  private final long timeoutMillis;
+  private final com.sun.management.ThreadMXBean allocations;
+
+  /**
+   * @param speed how much faster than recorded to make the calls, e.g. 1
+   *    for the original timing or 10 for ten times as fast
+   * @param threads the most calls that may be in progress at once
+   * @param timeoutMillis the deadline for each call, from when it is
+   *    started, or 0 for none
+   */
+  public Replayer(DnsimpleContext context, double speed, int threads, long timeoutMillis) {
+    if(speed <= 0) {
+      throw new IllegalArgumentException("Speed must be positive: " + speed);
+    }
+    if(threads < 1) {
+      throw new IllegalArgumentException("Must have at least one thread");
+    }
+    this.context = context;
+    this.speed = speed;
+    this.threads = threads;
+    this.timeoutMillis = timeoutMillis;
+
+    ThreadMXBean threadBean = ManagementFactory.getThreadMXBean();
+    if(threadBean instanceof com.sun.management.ThreadMXBean
+        && ((com.sun.management.ThreadMXBean) threadBean).isThreadAllocatedMemorySupported()) {
+      this.allocations = (com.sun.management.ThreadMXBean) threadBean;
+      allocations.setThreadAllocatedMemoryEnabled(true);
+    } else {
+      this.allocations = null;
+    }
+  }
+
+  /**
+   * Replays the trace, returning once every call has finished.
+   */
+  public ReplayReport replay(List<TraceEvent> trace) throws InterruptedException {
+    final List<TraceEvent> events = new ArrayList<TraceEvent>(trace);
+    Collections.sort(events, new Comparator<TraceEvent>() {
+      @Override
+      public int compare(TraceEvent a, TraceEvent b) {
+        return Long.compare(a.getOffsetMicros(), b.getOffsetMicros());
+      }
+    });
+
+    final ReplayReport report = new ReplayReport(events.size());
+    final TransportMetrics metrics = context.getTransport().getMetrics();
+    final long waitMillisBefore = metrics.getWaitMillis();
+
+    ScheduledFuture<?> sampler = context.getTransport().getExecutor().scheduleAtFixedRate(new Runnable() {
+      @Override
+      public void run() {
+        report.sample(metrics.getInFlight(), metrics.getWaiting(), metrics.getConcurrencyLimit());
+      }
+    }, 0, SAMPLE_MILLIS, TimeUnit.MILLISECONDS);
+
+    ExecutorService workers = Executors.newFixedThreadPool(threads, new ThreadFactory() {
+      private final AtomicInteger count = new AtomicInteger();
+      @Override
+      public Thread newThread(Runnable runnable) {
+        Thread thread = new Thread(runnable, "replay-" + count.incrementAndGet());
+        thread.setDaemon(true);
+        return thread;
+      }
+    });
+
+    long collectionsBefore = collections();
+    long collectionMillisBefore = collectionMillis();
+    long firstOffset = events.isEmpty() ? 0 : events.get(0).getOffsetMicros();
+    long start = System.nanoTime();
+    try {
+      for(int i = 0; i < events.size(); i++) {
+        final TraceEvent event = events.get(i);
+        final long due = start + (long) ((event.getOffsetMicros() - firstOffset) * 1000 / speed);
+        long wait;
+        while((wait = due - System.nanoTime()) > 0) {
+          LockSupport.parkNanos(wait);
+          if(Thread.interrupted()) {
+            throw new InterruptedException();
+          }
+        }
+
+        workers.execute(new Runnable() {
+          @Override
+          public void run() {
+            call(event, due, report);
+          }
+        });
+      }
+
+      workers.shutdown();
+      workers.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+    } finally {
+      workers.shutdownNow();
+      sampler.cancel(false);
+    }
+
+    report.finish(System.nanoTime() - start, metrics.getWaitMillis() - waitMillisBefore);
+    report.finishCollections(collections() - collectionsBefore, collectionMillis() - collectionMillisBefore);
+    return report;
+  }
+
+  private void call(TraceEvent event, long due, ReplayReport report) {
+    DnsimpleContext callContext = context;
+    if(timeoutMillis > 0) {
+      callContext = context.withOptions(RequestOptions.getBuilder()
+          .setTimeout(timeoutMillis, TimeUnit.MILLISECONDS)
+          .build());
+    }
+
+    long allocatedBefore = allocated();
+    String error = null;
+    try {
+      event.getOperation().replay(callContext, event.getDomain(), event.getRecordId(), event.getRequestBytes());
+    } catch(UnexpectedResponseException e) {
+      error = "HTTP " + e.getReceived();
+    } catch(Exception e) {
+      error = e.getClass().getSimpleName();
+    }
+    long latencyNanos = System.nanoTime() - due;
+    report.record(event.getOperation(), latencyNanos, error,
+        allocatedBefore < 0 ? -1 : allocated() - allocatedBefore);
+  }
+
+  /**
+   * @return the bytes allocated by the current thread so far, or -1 if
+   *    unknown
+   */
+  private long allocated() {
+    return allocations == null ? -1
+        : allocations.getThreadAllocatedBytes(Thread.currentThread().getId());
+  }
+
+  private static long collections() {
+    long total = 0;
+    for(GarbageCollectorMXBean collector : ManagementFactory.getGarbageCollectorMXBeans()) {
+      total += Math.max(0, collector.getCollectionCount());
+    }
+    return total;
+  }
+
+  private static long collectionMillis() {
+    long total = 0;
+    for(GarbageCollectorMXBean collector : ManagementFactory.getGarbageCollectorMXBeans()) {
+      total += Math.max(0, collector.getCollectionTime());
+    }
+    return total;
+  }
+
+}
@@ -0,0 +1,105 @@
+/**
+ * Copyright 2012 Nimble Servers Limited. http://nimbleservers.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.nimbleservers.dnsimple.record;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+import com.google.gson.stream.JsonReader;
+
+/**
+ * Checks that a listing read through a filter keeps just the matching
+ * records, and that skipping one leaves the reader at the next.
+ * <p>
+ * @author Chris Strand
+ */
+public class RecordTypeAdapterTest extends TestCase {
+
+  private final RecordTypeAdapter adapter = new RecordTypeAdapter();
+
+  public void testReadsEveryRecord() throws IOException {
+    List<Record> records = read(RecordFilter.ALL,
+        "[{\"record\": {\"id\": 1, \"domain_id\": 7, \"name\": \"www\", \"record_type\": \"A\","
+        + " \"content\": \"192.0.2.1\", \"ttl\": 3600, \"priority\": null,"
+        + " \"created_at\": \"2012-01-02T03:04:05Z\"}},"
+        + " {\"record\": {\"id\": 2, \"name\": \"\", \"record_type\": \"MX\","
+        + " \"content\": \"mail.example.com\", \"prio\": 10, \"priority\": 10}}]");
+    assertEquals(2, records.size());
+    Record www = records.get(0);
+    assertEquals("1", www.getId());
+    assertEquals("7", www.getDomainId());
+    assertEquals("www", www.getName());
+    assertEquals(Integer.valueOf(3600), www.getTtl());
+    assertNull(www.getPriority());
+    assertEquals(1325473445000L, www.getCreatedAt().getTime());
+    assertEquals(Integer.valueOf(10), records.get(1).getPriority());
+  }
+
+  public void testSkipsRecordsNotMatchingName() throws IOException {
+    List<Record> records = read(RecordFilter.getBuilder().setName("_acme-challenge").build(),
+        "[{\"record\": {\"name\": \"www\", \"record_type\": \"A\", \"content\": \"192.0.2.1\"}},"
+        + " {\"record\": {\"name\": \"_ACME-challenge\", \"record_type\": \"TXT\", \"content\": \"token\"}}]");
+    assertEquals(1, records.size());
+    assertEquals("token", records.get(0).getContent());
+  }
+
+  public void testSkipsRestOfRecordOnceItDoesNotMatch() throws IOException {
+    // The nested object, array and unknown fields after the type are all
+    // skipped unread, and the next record is still read whole
+    List<Record> records = read(RecordFilter.getBuilder().addRecordType(RecordTypes.TXT).build(),
+        "[{\"record\": {\"record_type\": \"A\", \"name\": \"www\","
+        + " \"record\": {\"name\": \"nested\", \"record_type\": \"TXT\"},"
+        + " \"regions\": [\"global\", {\"id\": 1}], \"system_record\": false,"
+        + " \"content\": \"192.0.2.1\"}},"
+        + " {\"record\": {\"name\": \"txt\", \"record_type\": \"TXT\", \"content\": \"v=spf1 -all\","
+        + " \"unknown\": {\"deep\": [1, 2, {\"x\": null}]}, \"ttl\": 60}}]");
+    assertEquals(1, records.size());
+    Record txt = records.get(0);
+    assertEquals("txt", txt.getName());
+    assertEquals("v=spf1 -all", txt.getContent());
+    assertEquals(Integer.valueOf(60), txt.getTtl());
+  }
+
+  public void testRecordWithoutNameIsAtApex() throws IOException {
+    RecordFilter apex = RecordFilter.getBuilder().setName("").build();
+    List<Record> records = read(apex,
+        "[{\"record\": {\"record_type\": \"A\", \"content\": \"192.0.2.1\"}},"
+        + " {\"record\": {\"name\": \"www\", \"record_type\": \"A\", \"content\": \"192.0.2.2\"}},"
+        + " {\"record\": {\"name\": \"\", \"record_type\": \"A\", \"content\": \"192.0.2.3\"}}]");
+    assertEquals(2, records.size());
+    assertEquals("192.0.2.1", records.get(0).getContent());
+    assertEquals("192.0.2.3", records.get(1).getContent());
+  }
+
+  public void testRecordWithoutTypeMatchesOnlyAnyType() throws IOException {
+    String listing = "[{\"record\": {\"name\": \"www\", \"content\": \"192.0.2.1\"}}, {\"record\": null}]";
+    assertEquals(1, read(RecordFilter.ALL, listing).size());
+    assertEquals(0, read(RecordFilter.getBuilder().addRecordType(RecordTypes.A).build(), listing).size());
+  }
+
+  private List<Record> read(RecordFilter filter, String listing) throws IOException {
+    List<Record> records = new ArrayList<Record>();
+    JsonReader reader = new JsonReader(new StringReader(listing));
+    adapter.readListing(reader, filter, records);
+    reader.close();
+    return records;
+  }
+
+}
@@ -0,0 +1,92 @@
+/**
+ * Copyright 2012 Nimble Servers Limited. http://nimbleservers.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.nimbleservers.dnsimple.record;
+
+import junit.framework.TestCase;
+
+/**
+ * Checks that updates are only checked on the fields they set, and that
+ * nothing DNSimple accepts is rejected.
+ * <p>
+ * @author Chris Strand
+ */
+public class RecordValidatorTest extends TestCase {
+
+  private final RecordValidator validator = RecordValidator.DEFAULT;
+
+  public void testUpdateChecksOnlyFieldsSet() {
+    // A CNAME pointed elsewhere, keeping its name
+    assertTrue(validator.validateUpdate(Record.getBuilder()
+        .setRecordType(RecordTypes.CNAME)
+        .setContent("target.example.com")
+        .build()).isEmpty());
+    // An MX with a new host, keeping its priority
+    assertTrue(validator.validateUpdate(Record.getBuilder()
+        .setRecordType(RecordTypes.MX)
+        .setContent("mail.example.com")
+        .build()).isEmpty());
+    // Just the TTL
+    assertTrue(validator.validateUpdate(Record.getBuilder()
+        .setRecordType(RecordTypes.A)
+        .setTtl(60)
+        .build()).isEmpty());
+  }
+
+  public void testUpdateChecksFieldsSet() {
+    assertEquals(1, validator.validateUpdate(Record.getBuilder()
+        .setRecordType(RecordTypes.CNAME)
+        .setName("@")
+        .setContent("target.example.com")
+        .build()).size());
+    assertEquals(1, validator.validateUpdate(Record.getBuilder()
+        .setRecordType(RecordTypes.A)
+        .setContent("not an address")
+        .build()).size());
+    assertEquals(1, validator.validateUpdate(Record.getBuilder()
+        .setTtl(-1)
+        .build()).size());
+  }
+
+  public void testAddNeedsEveryField() {
+    assertEquals(1, validator.validate(Record.getBuilder()
+        .setRecordType(RecordTypes.CNAME)
+        .setContent("target.example.com")
+        .build()).size());
+    assertEquals(1, validator.validate(Record.getBuilder()
+        .setRecordType(RecordTypes.MX)
+        .setName("www")
+        .setContent("mail.example.com")
+        .build()).size());
+    assertEquals(1, validator.validate(Record.getBuilder()
+        .setRecordType(RecordTypes.A)
+        .setName("www")
+        .build()).size());
+  }
+
+  public void testLongUnquotedText() {
+    StringBuilder key = new StringBuilder("v=DKIM1; k=rsa; p=");
+    while(key.length() < 400) {
+      key.append("MIIBIjANBgkqhkiG9w0BAQEFAAOCAQ8A");
+    }
+    Record record = Record.getBuilder()
+        .setRecordType(RecordTypes.TXT)
+        .setName("selector._domainkey")
+        .setContent(key.toString())
+        .build();
+    assertTrue(validator.validate(record).isEmpty());
+  }
+
+}
@@ -0,0 +1,110 @@
+/**
+ * Copyright 2012 Nimble Servers Limited. http://nimbleservers.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.nimbleservers.dnsimple.record;
+
+import java.util.List;
+
+import junit.framework.TestCase;
+
+/**
+ * Checks that a fingerprint depends only on which records a zone holds,
+ * that it can be kept up to date one record at a time, and that it reads
+ * back from its string form.
+ * <p>
+ * @author Chris Strand
+ */
+public class ZoneFingerprintTest extends TestCase {
+
+  private static final Record APEX = record("", RecordTypes.A, "192.0.2.1", null);
+  private static final Record WWW = record("www", RecordTypes.CNAME, "example.com", null);
+  private static final Record MX = record("", RecordTypes.MX, "mail.example.com", 10);
+
+  public void testIndependentOfOrder() {
+    assertEquals(ZoneFingerprint.of(List.of(APEX, WWW, MX)), ZoneFingerprint.of(List.of(MX, APEX, WWW)));
+    assertFalse(ZoneFingerprint.of(List.of(APEX, WWW)).equals(ZoneFingerprint.of(List.of(APEX, MX))));
+  }
+
+  public void testIgnoresIdsAndTimestamps() {
+    Record listed = Record.getBuilder()
+        .setId("12")
+        .setDomainId("7")
+        .setName("www")
+        .setRecordType(RecordTypes.CNAME)
+        .setContent("example.com")
+        .setTtl(3600)
+        .build();
+    assertEquals(ZoneFingerprint.of(List.of(WWW)), ZoneFingerprint.of(List.of(listed)));
+  }
+
+  public void testAddAndRemove() {
+    ZoneFingerprint fingerprint = ZoneFingerprint.of(List.of(APEX, WWW));
+    fingerprint.add(MX);
+    assertEquals(ZoneFingerprint.of(List.of(APEX, WWW, MX)), fingerprint);
+    fingerprint.remove(APEX);
+    assertEquals(ZoneFingerprint.of(List.of(WWW, MX)), fingerprint);
+    assertEquals(2, fingerprint.getRecordCount());
+
+    fingerprint.remove(WWW);
+    fingerprint.remove(MX);
+    assertEquals(new ZoneFingerprint(), fingerprint);
+  }
+
+  public void testReplace() {
+    Record moved = record("", RecordTypes.A, "192.0.2.2", null);
+    ZoneFingerprint fingerprint = ZoneFingerprint.of(List.of(APEX, WWW));
+    fingerprint.replace(APEX, moved);
+    assertEquals(ZoneFingerprint.of(List.of(moved, WWW)), fingerprint);
+  }
+
+  public void testRecordListedTwiceCountsTwice() {
+    assertFalse(ZoneFingerprint.of(List.of(APEX, APEX)).equals(ZoneFingerprint.of(List.of(APEX))));
+  }
+
+  public void testStringRoundTrip() {
+    ZoneFingerprint fingerprint = ZoneFingerprint.of(List.of(APEX, WWW, MX));
+    String text = fingerprint.toString();
+    assertTrue(text, text.matches("3:[0-9a-f]{64}"));
+    ZoneFingerprint read = ZoneFingerprint.fromString(text);
+    assertEquals(fingerprint, read);
+    assertEquals(3, read.getRecordCount());
+    assertEquals(text, read.toString());
+
+    assertEquals(new ZoneFingerprint(), ZoneFingerprint.fromString(new ZoneFingerprint().toString()));
+  }
+
+  public void testFromStringRejectsOthers() {
+    String valid = ZoneFingerprint.of(List.of(APEX)).toString();
+    for(String text : new String[] {"", valid.substring(2), valid.substring(0, valid.length() - 1),
+        "x" + valid, valid.substring(0, valid.length() - 1) + "g"}) {
+      try {
+        ZoneFingerprint.fromString(text);
+        fail(text);
+      } catch(IllegalArgumentException e) {
+      }
+    }
+  }
+
+  private static Record record(String name, String type, String content, Integer priority) {
+    return Record.getBuilder()
+        .setName(name)
+        .setRecordType(type)
+        .setContent(content)
+        .setTtl(3600)
+        .setPriority(priority)
+        .build();
+  }
+
+}